@@ -0,0 +1,238 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import org.bson.Document;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * Sink that passes the results on to another sink, e.g. the one writing the results file, and periodically saves an
+ * ExtractionCheckpoint of a range-partitioned run. Before a checkpoint is saved, the other sink is flushed and the
+ * results file is forced to the storage device, so the checkpoint only covers results that were durably written, also
+ * if the operating system crashes, and the length of the results file is taken from its channel. A checkpoint is
+ * saved after every given number of records, at the end of every partition, and at the end of the run, so resuming
+ * after a crash repeats at most the records of the last interval.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class CheckpointingResultSink implements ResultSink {
+    //<editor-fold desc="Public static final constants">
+    /**
+     * Default number of records between two checkpoints
+     */
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 10000;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * Sink the results are passed on to
+     */
+    private final ResultSink sink;
+
+    /**
+     * Channel of the results file written by the sink
+     */
+    private final FileChannel outputChannel;
+
+    /**
+     * Name of the document variable the documents are partitioned on
+     */
+    private final String partitionKey;
+
+    /**
+     * Checkpoint the run started from
+     */
+    private final ExtractionCheckpoint startCheckpoint;
+
+    /**
+     * File the checkpoints are saved to
+     */
+    private final Path checkpointFile;
+
+    /**
+     * Number of records between two checkpoints
+     */
+    private final int checkpointInterval;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private variables">
+    /**
+     * Index of the partition being written
+     */
+    private int partitionIndex;
+
+    /**
+     * Key of the last document received of the partition being written
+     */
+    private Object lastKey;
+
+    /**
+     * Number of records received, including the ones written before the start checkpoint
+     */
+    private long writtenCount;
+
+    /**
+     * Number of records received since the last checkpoint
+     */
+    private int uncheckpointedCount;
+
+    /**
+     * Last saved checkpoint
+     */
+    private ExtractionCheckpoint lastCheckpoint;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor.
+     *
+     * @param aSink sink the results are passed on to, must write the results file through the given channel
+     * @param anOutputChannel channel of the results file
+     * @param aPartitionKey name of the document variable the documents are partitioned on
+     * @param aStartCheckpoint checkpoint the run starts from, either loaded to resume or created for a new run with
+     *                         partition index 0 and the current length of the results file, e.g. after the header
+     * @param aCheckpointFile file the checkpoints are saved to
+     * @param aCheckpointInterval number of records between two checkpoints
+     * @throws NullPointerException if a parameter is 'null'
+     * @throws IllegalArgumentException if aCheckpointInterval is smaller than 1
+     */
+    public CheckpointingResultSink(ResultSink aSink, FileChannel anOutputChannel, String aPartitionKey,
+                                   ExtractionCheckpoint aStartCheckpoint, Path aCheckpointFile, int aCheckpointInterval)
+            throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(aSink, "Given sink is 'null'.");
+        Objects.requireNonNull(anOutputChannel, "Given output channel is 'null'.");
+        Objects.requireNonNull(aPartitionKey, "Given partition key is 'null'.");
+        Objects.requireNonNull(aStartCheckpoint, "Given start checkpoint is 'null'.");
+        Objects.requireNonNull(aCheckpointFile, "Given checkpoint file is 'null'.");
+        if (aCheckpointInterval < 1) {
+            throw new IllegalArgumentException("Given checkpoint interval must be positive but is "
+                    + aCheckpointInterval + ".");
+        }
+        this.sink = aSink;
+        this.outputChannel = anOutputChannel;
+        this.partitionKey = aPartitionKey;
+        this.startCheckpoint = aStartCheckpoint;
+        this.checkpointFile = aCheckpointFile;
+        this.checkpointInterval = aCheckpointInterval;
+        this.partitionIndex = aStartCheckpoint.getPartitionIndex();
+        this.lastKey = aStartCheckpoint.getLastKey();
+        this.writtenCount = aStartCheckpoint.getWrittenCount();
+        this.uncheckpointedCount = 0;
+        this.lastCheckpoint = aStartCheckpoint;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void accept(Document aDocument, ExtractionResult aResult) throws Exception {
+        this.sink.accept(aDocument, aResult);
+        if (Objects.nonNull(aDocument) && Objects.nonNull(aDocument.get(this.partitionKey))) {
+            this.lastKey = aDocument.get(this.partitionKey);
+        }
+        this.writtenCount++;
+        this.uncheckpointedCount++;
+        if (this.uncheckpointedCount >= this.checkpointInterval) {
+            this.saveCheckpoint();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>A final checkpoint is saved.
+     */
+    @Override
+    public void flush() throws Exception {
+        this.saveCheckpoint();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onIdle() throws Exception {
+        this.sink.onIdle();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>A checkpoint is saved at the end of every partition written in this run; the ends of partitions written
+     * before the start checkpoint are ignored.
+     */
+    @Override
+    public void onPartitionEnd(int aPartitionIndex) throws Exception {
+        this.sink.onPartitionEnd(aPartitionIndex);
+        if (aPartitionIndex >= this.partitionIndex) {
+            this.partitionIndex = aPartitionIndex + 1;
+            this.lastKey = null;
+            this.saveCheckpoint();
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the checkpoint the run started from.
+     *
+     * @return start checkpoint
+     */
+    public ExtractionCheckpoint getStartCheckpoint() {
+        return this.startCheckpoint;
+    }
+
+    /**
+     * Returns the last saved checkpoint.
+     *
+     * @return last checkpoint; the start checkpoint if none was saved yet
+     */
+    public ExtractionCheckpoint getLastCheckpoint() {
+        return this.lastCheckpoint;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private methods">
+    /**
+     * Flushes the sink, forces the results file to the storage device, and saves a checkpoint with the current length
+     * of the results file.
+     *
+     * @throws Exception if the sink cannot be flushed, the results file cannot be forced, or the checkpoint cannot be
+     * saved
+     */
+    private void saveCheckpoint() throws Exception {
+        this.sink.flush();
+        //the checkpoint must not cover results that are only in the page cache of the operating system
+        this.outputChannel.force(false);
+        ExtractionCheckpoint tmpCheckpoint = new ExtractionCheckpoint(this.startCheckpoint.getPartitions(),
+                this.partitionIndex, this.lastKey, this.outputChannel.position(), this.writtenCount);
+        tmpCheckpoint.save(this.checkpointFile);
+        this.lastCheckpoint = tmpCheckpoint;
+        this.uncheckpointedCount = 0;
+    }
+    //</editor-fold>
+}
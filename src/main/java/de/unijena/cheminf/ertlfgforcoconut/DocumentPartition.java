@@ -0,0 +1,257 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import org.bson.types.Decimal128;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Range of a collection of documents on their partition key, e.g. _id. The lower bound is inclusive and the upper
+ * bound is exclusive; a bound of 'null' means that the range is unbounded on this side. The partitions created by
+ * createPartitions() are disjoint, ordered by their index, and cover all key values of one BSON type bracket, e.g.
+ * all numbers or all strings; MongoDB range queries do not match values of other type brackets.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class DocumentPartition {
+    //<editor-fold desc="Private final variables">
+    /**
+     * Position of the partition in the ordered list of partitions
+     */
+    private final int index;
+
+    /**
+     * Inclusive lower bound; 'null' if unbounded
+     */
+    private final Object lowerBound;
+
+    /**
+     * Exclusive upper bound; 'null' if unbounded
+     */
+    private final Object upperBound;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor.
+     *
+     * @param anIndex position of the partition in the ordered list of partitions
+     * @param aLowerBound inclusive lower bound; 'null' if unbounded
+     * @param anUpperBound exclusive upper bound; 'null' if unbounded
+     * @throws IllegalArgumentException if anIndex is negative
+     */
+    public DocumentPartition(int anIndex, Object aLowerBound, Object anUpperBound) throws IllegalArgumentException {
+        if (anIndex < 0) {
+            throw new IllegalArgumentException("Given index must not be negative but is " + anIndex + ".");
+        }
+        this.index = anIndex;
+        this.lowerBound = aLowerBound;
+        this.upperBound = anUpperBound;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static methods">
+    /**
+     * Creates at most the given number of partitions whose bounds are quantiles of the given sample of key values.
+     * Duplicate sample values are merged, so fewer partitions are created if the sample contains too few distinct
+     * values; without sample values, one unbounded partition is returned. The key values are sorted in the order of
+     * the database (see compareKeys()), so they must belong to one BSON type bracket.
+     *
+     * @param aSampledKeys sample of the key values of the collection, e.g. drawn with $sample; not altered
+     * @param aPartitionCount maximum number of partitions
+     * @return the partitions ordered by their index
+     * @throws NullPointerException if aSampledKeys or one of its elements is 'null'
+     * @throws IllegalArgumentException if aPartitionCount is smaller than 1
+     * @throws ClassCastException if the key values do not belong to one BSON type bracket
+     */
+    public static List<DocumentPartition> createPartitions(List<?> aSampledKeys, int aPartitionCount)
+            throws NullPointerException, IllegalArgumentException, ClassCastException {
+        Objects.requireNonNull(aSampledKeys, "Given sampled keys are 'null'.");
+        if (aPartitionCount < 1) {
+            throw new IllegalArgumentException("Given partition count must be positive but is " + aPartitionCount
+                    + ".");
+        }
+        List<Object> tmpSortedKeys = new ArrayList<>(aSampledKeys.size());
+        for (Object tmpKey : aSampledKeys) {
+            tmpSortedKeys.add(Objects.requireNonNull(tmpKey, "One of the given sampled keys is 'null'."));
+        }
+        tmpSortedKeys.sort(DocumentPartition::compareKeys);
+        List<Object> tmpSplitPoints = new ArrayList<>(aPartitionCount);
+        for (int i = 1; i < aPartitionCount && !tmpSortedKeys.isEmpty(); i++) {
+            Object tmpSplitPoint = tmpSortedKeys.get((int) ((long) i * tmpSortedKeys.size() / aPartitionCount));
+            //the smallest sample value would only split off an empty or tiny first partition
+            Object tmpLastSplitPoint = tmpSplitPoints.isEmpty() ? null : tmpSplitPoints.get(tmpSplitPoints.size() - 1);
+            if (DocumentPartition.compareKeys(tmpSplitPoint, tmpSortedKeys.get(0)) == 0
+                    || (Objects.nonNull(tmpLastSplitPoint)
+                    && DocumentPartition.compareKeys(tmpSplitPoint, tmpLastSplitPoint) == 0)) {
+                continue;
+            }
+            tmpSplitPoints.add(tmpSplitPoint);
+        }
+        List<DocumentPartition> tmpPartitions = new ArrayList<>(tmpSplitPoints.size() + 1);
+        Object tmpLowerBound = null;
+        for (Object tmpSplitPoint : tmpSplitPoints) {
+            tmpPartitions.add(new DocumentPartition(tmpPartitions.size(), tmpLowerBound, tmpSplitPoint));
+            tmpLowerBound = tmpSplitPoint;
+        }
+        tmpPartitions.add(new DocumentPartition(tmpPartitions.size(), tmpLowerBound, null));
+        return tmpPartitions;
+    }
+
+    /**
+     * Compares two partition key values in the order of the database, i.e. the BSON comparison order with the simple
+     * binary collation. Numbers of all types are compared by their value, with NaN before all other numbers, strings
+     * by their UTF-8 bytes (not by their UTF-16 chars as String.compareTo() does), and other values, e.g. ObjectIds or
+     * dates, by their natural order. Values of different BSON type brackets, e.g. a number and a string, cannot be
+     * compared because MongoDB range queries never match across type brackets.
+     *
+     * @param aKey1 first key value
+     * @param aKey2 second key value
+     * @return a negative number, zero, or a positive number if the first key value is less than, equal to, or greater
+     * than the second one
+     * @throws NullPointerException if a key value is 'null'
+     * @throws ClassCastException if the key values do not belong to one BSON type bracket or are not comparable
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static int compareKeys(Object aKey1, Object aKey2) throws NullPointerException, ClassCastException {
+        Objects.requireNonNull(aKey1, "Given first key is 'null'.");
+        Objects.requireNonNull(aKey2, "Given second key is 'null'.");
+        if (aKey1 instanceof Number && aKey2 instanceof Number) {
+            int tmpRank1 = DocumentPartition.getNumberRank((Number) aKey1);
+            int tmpRank2 = DocumentPartition.getNumberRank((Number) aKey2);
+            if (tmpRank1 != 2 || tmpRank2 != 2) {
+                return Integer.compare(tmpRank1, tmpRank2);
+            }
+            return DocumentPartition.toBigDecimal((Number) aKey1)
+                    .compareTo(DocumentPartition.toBigDecimal((Number) aKey2));
+        }
+        if (aKey1 instanceof String && aKey2 instanceof String) {
+            return Arrays.compareUnsigned(((String) aKey1).getBytes(StandardCharsets.UTF_8),
+                    ((String) aKey2).getBytes(StandardCharsets.UTF_8));
+        }
+        if (aKey1.getClass() == aKey2.getClass() && aKey1 instanceof Comparable) {
+            return ((Comparable) aKey1).compareTo(aKey2);
+        }
+        throw new ClassCastException("Key values " + aKey1 + " (" + aKey1.getClass().getName() + ") and " + aKey2
+                + " (" + aKey2.getClass().getName() + ") cannot be compared in the order of the database.");
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the position of the partition in the ordered list of partitions.
+     *
+     * @return index
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Returns the inclusive lower bound.
+     *
+     * @return lower bound or 'null' if unbounded
+     */
+    public Object getLowerBound() {
+        return this.lowerBound;
+    }
+
+    /**
+     * Returns the exclusive upper bound.
+     *
+     * @return upper bound or 'null' if unbounded
+     */
+    public Object getUpperBound() {
+        return this.upperBound;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Overridden public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "DocumentPartition (index: " + this.index + ", lower bound: " + this.lowerBound + ", upper bound: "
+                + this.upperBound + ")";
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static methods">
+    /**
+     * Returns the rank of the given number in the BSON comparison order of numbers: 0 for NaN, 1 for negative
+     * infinity, 2 for finite numbers, and 3 for positive infinity.
+     *
+     * @param aNumber the number
+     * @return the rank
+     */
+    private static int getNumberRank(Number aNumber) {
+        if (aNumber instanceof Decimal128) {
+            Decimal128 tmpDecimal = (Decimal128) aNumber;
+            if (tmpDecimal.isNaN()) {
+                return 0;
+            }
+            return tmpDecimal.isInfinite() ? (tmpDecimal.isNegative() ? 1 : 3) : 2;
+        }
+        if (aNumber instanceof Double || aNumber instanceof Float) {
+            double tmpValue = aNumber.doubleValue();
+            if (Double.isNaN(tmpValue)) {
+                return 0;
+            }
+            return Double.isInfinite(tmpValue) ? (tmpValue < 0 ? 1 : 3) : 2;
+        }
+        return 2;
+    }
+
+    /**
+     * Converts the given finite number into a BigDecimal without loss of precision.
+     *
+     * @param aNumber finite number
+     * @return the number as BigDecimal
+     */
+    private static BigDecimal toBigDecimal(Number aNumber) {
+        if (aNumber instanceof Decimal128) {
+            try {
+                return ((Decimal128) aNumber).bigDecimalValue();
+            } catch (ArithmeticException anArithmeticException) {
+                //thrown for negative zero, which has no BigDecimal representation
+                return BigDecimal.ZERO;
+            }
+        }
+        if (aNumber instanceof BigDecimal) {
+            return (BigDecimal) aNumber;
+        }
+        if (aNumber instanceof Double || aNumber instanceof Float) {
+            return new BigDecimal(aNumber.doubleValue());
+        }
+        return BigDecimal.valueOf(aNumber.longValue());
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,379 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checkpoint of a range-partitioned extraction run, i.e. the partitions of the scan, the partition being written, the
+ * key of the last document of it whose results were fully written, and the length of the results file at that point.
+ * Since the pipeline writes the results in the order of the partitions and, within a partition, in the order of the
+ * partition key, a run can be resumed from the checkpoint by truncating the results file to the saved length,
+ * appending to it, and reading the partitions from the document after the saved key on.
+ * <br>Checkpoints are saved as extended JSON, so the types of the keys, e.g. ObjectId, are preserved. Saving replaces
+ * the former checkpoint file atomically, so a crash while saving leaves the former checkpoint intact.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class ExtractionCheckpoint {
+    //<editor-fold desc="Private static final constants">
+    /**
+     * Name of the variable with the partitions
+     */
+    private static final String PARTITIONS_KEY = "partitions";
+
+    /**
+     * Name of the variable with the index of a partition
+     */
+    private static final String INDEX_KEY = "index";
+
+    /**
+     * Name of the variable with the lower bound of a partition
+     */
+    private static final String LOWER_BOUND_KEY = "lower_bound";
+
+    /**
+     * Name of the variable with the upper bound of a partition
+     */
+    private static final String UPPER_BOUND_KEY = "upper_bound";
+
+    /**
+     * Name of the variable with the index of the partition being written
+     */
+    private static final String PARTITION_INDEX_KEY = "partition_index";
+
+    /**
+     * Name of the variable with the key of the last written document
+     */
+    private static final String LAST_KEY_KEY = "last_key";
+
+    /**
+     * Name of the variable with the length of the results file
+     */
+    private static final String OUTPUT_OFFSET_KEY = "output_offset";
+
+    /**
+     * Name of the variable with the number of written records
+     */
+    private static final String WRITTEN_COUNT_KEY = "written_count";
+
+    /**
+     * Settings of the JSON representation; the extended mode preserves the BSON types
+     */
+    private static final JsonWriterSettings JSON_SETTINGS = JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED)
+            .build();
+
+    /**
+     * Logger of this class
+     */
+    private static final Logger LOGGER = Logger.getLogger(ExtractionCheckpoint.class.getName());
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * Partitions of the scan ordered by their index
+     */
+    private final List<DocumentPartition> partitions;
+
+    /**
+     * Index of the partition being written; the number of partitions if all were written
+     */
+    private final int partitionIndex;
+
+    /**
+     * Key of the last document of the partition being written whose results were fully written
+     */
+    private final Object lastKey;
+
+    /**
+     * Length of the results file in bytes
+     */
+    private final long outputOffset;
+
+    /**
+     * Number of records whose results were written
+     */
+    private final long writtenCount;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor.
+     *
+     * @param aPartitions partitions of the scan, the index of every partition must be its position in the list
+     * @param aPartitionIndex index of the partition being written; the number of partitions if all were written
+     * @param aLastKey key of the last document of the partition being written whose results were fully written; 'null'
+     *                 if none was written yet
+     * @param anOutputOffset length of the results file in bytes
+     * @param aWrittenCount number of records whose results were written
+     * @throws NullPointerException if aPartitions or one of its elements is 'null'
+     * @throws IllegalArgumentException if aPartitions is empty, the index of a partition is not its position, or a
+     * number is out of range
+     */
+    public ExtractionCheckpoint(List<DocumentPartition> aPartitions, int aPartitionIndex, Object aLastKey,
+                                long anOutputOffset, long aWrittenCount)
+            throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(aPartitions, "Given partitions are 'null'.");
+        if (aPartitions.isEmpty()) {
+            throw new IllegalArgumentException("Given partitions are empty.");
+        }
+        for (int i = 0; i < aPartitions.size(); i++) {
+            Objects.requireNonNull(aPartitions.get(i), "Partition at position " + i + " is 'null'.");
+            if (aPartitions.get(i).getIndex() != i) {
+                throw new IllegalArgumentException("Partition at position " + i + " has index "
+                        + aPartitions.get(i).getIndex() + ".");
+            }
+        }
+        if (aPartitionIndex < 0 || aPartitionIndex > aPartitions.size()) {
+            throw new IllegalArgumentException("Given partition index " + aPartitionIndex + " is out of range.");
+        }
+        if (anOutputOffset < 0L || aWrittenCount < 0L) {
+            throw new IllegalArgumentException("Given output offset and written count must not be negative but are "
+                    + anOutputOffset + " and " + aWrittenCount + ".");
+        }
+        this.partitions = Collections.unmodifiableList(new ArrayList<>(aPartitions));
+        this.partitionIndex = aPartitionIndex;
+        this.lastKey = aLastKey;
+        this.outputOffset = anOutputOffset;
+        this.writtenCount = aWrittenCount;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static methods">
+    /**
+     * Loads the checkpoint saved in the given file.
+     *
+     * @param aFile the checkpoint file
+     * @return the checkpoint
+     * @throws NullPointerException if aFile is 'null'
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if the file is no valid checkpoint
+     */
+    public static ExtractionCheckpoint load(Path aFile)
+            throws NullPointerException, IOException, IllegalArgumentException {
+        Objects.requireNonNull(aFile, "Given file is 'null'.");
+        Document tmpDocument;
+        try {
+            tmpDocument = Document.parse(new String(Files.readAllBytes(aFile), StandardCharsets.UTF_8));
+        } catch (RuntimeException aRuntimeException) {
+            throw new IllegalArgumentException("File " + aFile + " is no valid checkpoint.", aRuntimeException);
+        }
+        List<DocumentPartition> tmpPartitions = new ArrayList<>();
+        for (Document tmpPartition : tmpDocument.getList(ExtractionCheckpoint.PARTITIONS_KEY, Document.class)) {
+            tmpPartitions.add(new DocumentPartition(tmpPartition.getInteger(ExtractionCheckpoint.INDEX_KEY),
+                    tmpPartition.get(ExtractionCheckpoint.LOWER_BOUND_KEY),
+                    tmpPartition.get(ExtractionCheckpoint.UPPER_BOUND_KEY)));
+        }
+        return new ExtractionCheckpoint(tmpPartitions, tmpDocument.getInteger(ExtractionCheckpoint.PARTITION_INDEX_KEY),
+                tmpDocument.get(ExtractionCheckpoint.LAST_KEY_KEY),
+                tmpDocument.getLong(ExtractionCheckpoint.OUTPUT_OFFSET_KEY),
+                tmpDocument.getLong(ExtractionCheckpoint.WRITTEN_COUNT_KEY));
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * Saves the checkpoint to the given file. It is written to a temporary file in the same directory, forced to the
+     * storage device, and then moved onto the given file atomically. Afterwards, the directory is forced to the storage
+     * device as well, so the move survives a crash of the operating system. Platforms that cannot open or force
+     * directories (e.g. Windows) are tolerated; there, the move is atomic but may not be durable.
+     *
+     * @param aFile the checkpoint file
+     * @throws NullPointerException if aFile is 'null'
+     * @throws IOException if the file cannot be written or atomic moves are not supported by the file system
+     */
+    public void save(Path aFile) throws NullPointerException, IOException {
+        Objects.requireNonNull(aFile, "Given file is 'null'.");
+        Path tmpTemporaryFile = aFile.resolveSibling(aFile.getFileName() + ".tmp");
+        byte[] tmpBytes = this.toDocument().toJson(ExtractionCheckpoint.JSON_SETTINGS).getBytes(StandardCharsets.UTF_8);
+        try (FileChannel tmpChannel = FileChannel.open(tmpTemporaryFile, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer tmpBuffer = ByteBuffer.wrap(tmpBytes);
+            while (tmpBuffer.hasRemaining()) {
+                tmpChannel.write(tmpBuffer);
+            }
+            tmpChannel.force(true);
+        }
+        Files.move(tmpTemporaryFile, aFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Path tmpDirectory = aFile.toAbsolutePath().getParent();
+        if (Objects.nonNull(tmpDirectory)) {
+            try (FileChannel tmpDirectoryChannel = FileChannel.open(tmpDirectory, StandardOpenOption.READ)) {
+                tmpDirectoryChannel.force(true);
+            } catch (IOException anException) {
+                ExtractionCheckpoint.LOGGER.log(Level.FINE, "Directory " + tmpDirectory + " cannot be forced to the "
+                        + "storage device.", anException);
+            }
+        }
+    }
+
+    /**
+     * Creates the progress of a scan that resumes from this checkpoint, i.e. partitions before the one being written
+     * are completed and the one being written is read from the document after the last written one on.
+     *
+     * @return the progress
+     */
+    public ScanProgress createProgress() {
+        ScanProgress tmpProgress = new ScanProgress(this.partitions);
+        for (int i = 0; i < this.partitionIndex; i++) {
+            tmpProgress.complete(i);
+        }
+        if (this.partitionIndex < this.partitions.size() && Objects.nonNull(this.lastKey)) {
+            tmpProgress.restoreLastKey(this.partitionIndex, this.lastKey);
+        }
+        return tmpProgress;
+    }
+
+    /**
+     * Opens the given results file for appending after the results written up to this checkpoint. Results written
+     * after the checkpoint was saved are discarded, since they are written again when resuming.
+     *
+     * @param aFile the results file
+     * @return channel of the file, positioned at its end
+     * @throws NullPointerException if aFile is 'null'
+     * @throws IOException if the file cannot be opened or is shorter than saved in the checkpoint
+     */
+    public FileChannel reopenOutput(Path aFile) throws NullPointerException, IOException {
+        Objects.requireNonNull(aFile, "Given file is 'null'.");
+        FileChannel tmpChannel = FileChannel.open(aFile, StandardOpenOption.WRITE);
+        try {
+            if (tmpChannel.size() < this.outputOffset) {
+                throw new IOException("Results file " + aFile + " has " + tmpChannel.size() + " bytes but "
+                        + this.outputOffset + " were written up to the checkpoint.");
+            }
+            tmpChannel.truncate(this.outputOffset);
+            tmpChannel.position(this.outputOffset);
+        } catch (IOException anIOException) {
+            tmpChannel.close();
+            throw anIOException;
+        }
+        return tmpChannel;
+    }
+
+    /**
+     * Returns whether all partitions were written.
+     *
+     * @return true if the run is complete
+     */
+    public boolean isCompleted() {
+        return this.partitionIndex == this.partitions.size();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the partitions of the scan.
+     *
+     * @return unmodifiable list of the partitions ordered by their index
+     */
+    public List<DocumentPartition> getPartitions() {
+        return this.partitions;
+    }
+
+    /**
+     * Returns the index of the partition being written.
+     *
+     * @return partition index; the number of partitions if all were written
+     */
+    public int getPartitionIndex() {
+        return this.partitionIndex;
+    }
+
+    /**
+     * Returns the key of the last document of the partition being written whose results were fully written.
+     *
+     * @return key or 'null' if none was written yet
+     */
+    public Object getLastKey() {
+        return this.lastKey;
+    }
+
+    /**
+     * Returns the length of the results file in bytes.
+     *
+     * @return output offset
+     */
+    public long getOutputOffset() {
+        return this.outputOffset;
+    }
+
+    /**
+     * Returns the number of records whose results were written.
+     *
+     * @return written count
+     */
+    public long getWrittenCount() {
+        return this.writtenCount;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Overridden public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ExtractionCheckpoint (partition: " + this.partitionIndex + " of " + this.partitions.size()
+                + ", last key: " + this.lastKey + ", output offset: " + this.outputOffset + ", written: "
+                + this.writtenCount + ")";
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private methods">
+    /**
+     * Creates the document saved as JSON.
+     *
+     * @return the document
+     */
+    private Document toDocument() {
+        List<Document> tmpPartitions = new ArrayList<>(this.partitions.size());
+        for (DocumentPartition tmpPartition : this.partitions) {
+            tmpPartitions.add(new Document(ExtractionCheckpoint.INDEX_KEY, tmpPartition.getIndex())
+                    .append(ExtractionCheckpoint.LOWER_BOUND_KEY, tmpPartition.getLowerBound())
+                    .append(ExtractionCheckpoint.UPPER_BOUND_KEY, tmpPartition.getUpperBound()));
+        }
+        return new Document(ExtractionCheckpoint.PARTITIONS_KEY, tmpPartitions)
+                .append(ExtractionCheckpoint.PARTITION_INDEX_KEY, this.partitionIndex)
+                .append(ExtractionCheckpoint.LAST_KEY_KEY, this.lastKey)
+                .append(ExtractionCheckpoint.OUTPUT_OFFSET_KEY, this.outputOffset)
+                .append(ExtractionCheckpoint.WRITTEN_COUNT_KEY, this.writtenCount);
+    }
+    //</editor-fold>
+}
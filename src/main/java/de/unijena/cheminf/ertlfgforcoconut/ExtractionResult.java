@@ -0,0 +1,147 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import org.openscience.cdk.tools.FunctionalGroupProfile;
+
+import java.util.Objects;
+
+/**
+ * Result of the functional group extraction of one molecule record, i.e. its status, its functional group profile if
+ * functional groups could be detected, and its line of the results file.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class ExtractionResult {
+    //<editor-fold desc="Public enum Status">
+    /**
+     * Status of an extraction.
+     */
+    public enum Status {
+        /**
+         * Functional groups were detected
+         */
+        FUNCTIONAL_GROUPS_DETECTED,
+
+        /**
+         * The molecule has no functional groups
+         */
+        NONE_DETECTED,
+
+        /**
+         * The molecule was filtered
+         */
+        FILTERED,
+
+        /**
+         * The SMILES code could not be parsed; the record has no results line
+         */
+        UNPARSABLE,
+
+        /**
+         * An exception occurred
+         */
+        EXCEPTION;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * ID of the molecule
+     */
+    private final String id;
+
+    /**
+     * Status of the extraction
+     */
+    private final Status status;
+
+    /**
+     * Functional group profile; 'null' unless functional groups were detected or none were detected
+     */
+    private final FunctionalGroupProfile profile;
+
+    /**
+     * Line of the results file; 'null' if the record has none
+     */
+    private final String line;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor.
+     *
+     * @param anID ID of the molecule, may be 'null' if unknown
+     * @param aStatus status of the extraction
+     * @param aProfile functional group profile; 'null' unless functional groups were detected or none were detected
+     * @param aLine line of the results file; 'null' if the record has none
+     * @throws NullPointerException if aStatus is 'null'
+     */
+    public ExtractionResult(String anID, Status aStatus, FunctionalGroupProfile aProfile, String aLine) throws NullPointerException {
+        Objects.requireNonNull(aStatus, "Given status is 'null'.");
+        this.id = anID;
+        this.status = aStatus;
+        this.profile = aProfile;
+        this.line = aLine;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the ID of the molecule.
+     *
+     * @return ID, may be 'null' if unknown
+     */
+    public String getID() {
+        return this.id;
+    }
+
+    /**
+     * Returns the status of the extraction.
+     *
+     * @return status
+     */
+    public Status getStatus() {
+        return this.status;
+    }
+
+    /**
+     * Returns the functional group profile of the molecule; it is empty if no functional groups were detected.
+     *
+     * @return profile or 'null' if the molecule was filtered, could not be parsed, or caused an exception
+     */
+    public FunctionalGroupProfile getProfile() {
+        return this.profile;
+    }
+
+    /**
+     * Returns the line of the results file.
+     *
+     * @return line or 'null' if the record has none
+     */
+    public String getLine() {
+        return this.line;
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,197 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import org.bson.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * Disjoint slice of the molecule documents of a collection, processed by one of several machines or JVMs. Every
+ * document is assigned to exactly one of the shards by a stable hash of its ID, the CRC-32 checksum of its UTF-8
+ * bytes, which does not depend on the JVM, the partitions of the collection, or the order of the documents. So all
+ * processes of a sharded run only have to agree on the shard count, and the outputs of the shards can be combined
+ * with the ShardResultsMerger.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class ExtractionShard {
+    //<editor-fold desc="Private final variables">
+    /**
+     * Index of the shard, from 0 to the shard count - 1
+     */
+    private final int index;
+
+    /**
+     * Number of shards of the run
+     */
+    private final int count;
+
+    /**
+     * Name of the document variable that contains the ID of the molecule
+     */
+    private final String idKey;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor.
+     *
+     * @param anIndex index of the shard, from 0 to aCount - 1
+     * @param aCount number of shards of the run
+     * @param anIdKey name of the document variable that contains the ID of the molecule
+     * @throws NullPointerException if anIdKey is 'null'
+     * @throws IllegalArgumentException if aCount is smaller than 1 or anIndex is not a valid index
+     */
+    public ExtractionShard(int anIndex, int aCount, String anIdKey) throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(anIdKey, "Given ID key is 'null'.");
+        if (aCount < 1) {
+            throw new IllegalArgumentException("Given shard count must be positive but is " + aCount + ".");
+        }
+        if (anIndex < 0 || anIndex >= aCount) {
+            throw new IllegalArgumentException("Given shard index must be between 0 and " + (aCount - 1) + " but is "
+                    + anIndex + ".");
+        }
+        this.index = anIndex;
+        this.count = aCount;
+        this.idKey = anIdKey;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static methods">
+    /**
+     * Returns the index of the shard the given ID is assigned to, i.e. its CRC-32 checksum modulo the shard count.
+     *
+     * @param anID ID of a molecule
+     * @param aShardCount number of shards of the run
+     * @return index of the shard, from 0 to aShardCount - 1
+     * @throws NullPointerException if anID is 'null'
+     * @throws IllegalArgumentException if aShardCount is smaller than 1
+     */
+    public static int computeShardIndex(String anID, int aShardCount) throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(anID, "Given ID is 'null'.");
+        if (aShardCount < 1) {
+            throw new IllegalArgumentException("Given shard count must be positive but is " + aShardCount + ".");
+        }
+        CRC32 tmpChecksum = new CRC32();
+        tmpChecksum.update(anID.getBytes(StandardCharsets.UTF_8));
+        return (int) (tmpChecksum.getValue() % aShardCount);
+    }
+
+    /**
+     * Returns the given file name with the given shard index and count inserted before its extension, e.g.
+     * "Functional_groups_shard_2_of_4.txt", so the shards of a run can write to one folder. If the run has only one
+     * shard, the file name is returned unchanged.
+     *
+     * @param aFileName name of a file of the run
+     * @param aShardIndex index of the shard
+     * @param aShardCount number of shards of the run
+     * @return name of the file of the shard
+     * @throws NullPointerException if aFileName is 'null'
+     */
+    public static String createFileName(String aFileName, int aShardIndex, int aShardCount) throws NullPointerException {
+        Objects.requireNonNull(aFileName, "Given file name is 'null'.");
+        if (aShardCount == 1) {
+            return aFileName;
+        }
+        int tmpExtensionIndex = aFileName.lastIndexOf('.');
+        if (tmpExtensionIndex <= 0) {
+            tmpExtensionIndex = aFileName.length();
+        }
+        return aFileName.substring(0, tmpExtensionIndex) + "_shard_" + aShardIndex + "_of_" + aShardCount
+                + aFileName.substring(tmpExtensionIndex);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * Returns true if the given document belongs to this shard. A document without an ID is assigned by the string
+     * 'null', so it is processed by exactly one of the shards, too.
+     *
+     * @param aDocument molecule document
+     * @return true if the document belongs to this shard
+     * @throws NullPointerException if aDocument is 'null'
+     */
+    public boolean contains(Document aDocument) throws NullPointerException {
+        Objects.requireNonNull(aDocument, "Given document is 'null'.");
+        if (this.count == 1) {
+            return true;
+        }
+        return ExtractionShard.computeShardIndex(String.valueOf(aDocument.get(this.idKey)), this.count) == this.index;
+    }
+
+    /**
+     * Returns the given file name with the index and count of this shard inserted before its extension, see
+     * createFileName(String, int, int).
+     *
+     * @param aFileName name of a file of the run
+     * @return name of the file of this shard
+     * @throws NullPointerException if aFileName is 'null'
+     */
+    public String createFileName(String aFileName) throws NullPointerException {
+        return ExtractionShard.createFileName(aFileName, this.index, this.count);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the index of the shard.
+     *
+     * @return index, from 0 to the shard count - 1
+     */
+    public int getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Returns the number of shards of the run.
+     *
+     * @return shard count
+     */
+    public int getCount() {
+        return this.count;
+    }
+
+    /**
+     * Returns the name of the document variable that contains the ID of the molecule.
+     *
+     * @return ID key
+     */
+    public String getIdKey() {
+        return this.idKey;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Overridden public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ExtractionShard (index: " + this.index + ", count: " + this.count + ", ID key: " + this.idKey + ")";
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,681 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pipeline that extracts the functional groups of a stream of molecule documents, e.g. from a MongoDB cursor, and
+ * passes the extraction results of a FunctionalGroupExtractor to a ResultSink in input order, e.g. to write the results
+ * file or to write the functional groups back to the database. It consists of three stages connected by bounded queues:
+ * Reader threads drain the document cursors, a configurable number of worker threads process the records, and one
+ * writer thread restores the input order of the results and passes them to the sink. Since the results of a record do
+ * not depend on the records processed before it (see FunctionalGroupExtractor), the output is identical to the one of
+ * processing the documents one after the other on a single thread.
+ * <br>The input is either one document iterator, read by one reader thread, or a PartitionedDocumentSource whose
+ * partitions are read concurrently by several reader threads. In the latter case, the input order is the order of the
+ * partitions and, within a partition, the order of the partition key. A partition whose cursor fails is retried on its
+ * own, resuming after the last document read, while the other partitions continue; the progress of the partitions is
+ * tracked in a ScanProgress.
+ * <br>The number of records in flight, i.e. read but not yet written, is bounded per partition by the sum of the queue
+ * capacities and the number of workers, so a slow record does not make the reorder buffer of the writer grow
+ * unboundedly. The header line is not written by the pipeline.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class FunctionalGroupExtractionPipeline {
+    //<editor-fold desc="Private static final class Task">
+    /**
+     * Record read from a document cursor.
+     */
+    private static final class Task {
+        /**
+         * Index of the partition of the record
+         */
+        private final int partitionIndex;
+
+        /**
+         * Position of the record in its partition
+         */
+        private final long sequenceNumber;
+
+        /**
+         * Document of the record; 'null' if reading it failed or for the end of input marker
+         */
+        private final Document document;
+
+        /**
+         * Exception thrown while reading the record; 'null' if it was read successfully
+         */
+        private final Exception readException;
+
+        /**
+         * Constructor.
+         *
+         * @param aPartitionIndex index of the partition of the record
+         * @param aSequenceNumber position of the record in its partition
+         * @param aDocument document of the record
+         * @param aReadException exception thrown while reading the record
+         */
+        private Task(int aPartitionIndex, long aSequenceNumber, Document aDocument, Exception aReadException) {
+            this.partitionIndex = aPartitionIndex;
+            this.sequenceNumber = aSequenceNumber;
+            this.document = aDocument;
+            this.readException = aReadException;
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static final class Result">
+    /**
+     * Extraction result of a processed record or end of a partition.
+     */
+    private static final class Result {
+        /**
+         * Index of the partition of the record
+         */
+        private final int partitionIndex;
+
+        /**
+         * Position of the record in its partition or, for the end of a partition, the number of its records
+         */
+        private final long sequenceNumber;
+
+        /**
+         * Document of the record; 'null' if reading it failed or for the end of a partition
+         */
+        private final Document document;
+
+        /**
+         * Extraction result of the record; 'null' for the end of a partition
+         */
+        private final ExtractionResult extractionResult;
+
+        /**
+         * True if this marks the end of a partition
+         */
+        private final boolean isPartitionEnd;
+
+        /**
+         * Constructor.
+         *
+         * @param aPartitionIndex index of the partition of the record
+         * @param aSequenceNumber position of the record in its partition or number of records of the partition
+         * @param aDocument document of the record
+         * @param anExtractionResult extraction result of the record
+         * @param isPartitionEnd true if this marks the end of a partition
+         */
+        private Result(int aPartitionIndex, long aSequenceNumber, Document aDocument, ExtractionResult anExtractionResult,
+                       boolean isPartitionEnd) {
+            this.partitionIndex = aPartitionIndex;
+            this.sequenceNumber = aSequenceNumber;
+            this.document = aDocument;
+            this.extractionResult = anExtractionResult;
+            this.isPartitionEnd = isPartitionEnd;
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final class PartitionEmitter">
+    /**
+     * Numbers the records of one partition and puts them into the input queue once a permit of the partition is
+     * available.
+     */
+    private final class PartitionEmitter {
+        /**
+         * Index of the partition
+         */
+        private final int partitionIndex;
+
+        /**
+         * Permits for records of the partition in flight
+         */
+        private final Semaphore inFlightPermits;
+
+        /**
+         * Queue between readers and workers
+         */
+        private final BlockingQueue<Task> inputQueue;
+
+        /**
+         * Number of records emitted so far
+         */
+        private long count;
+
+        /**
+         * Constructor.
+         *
+         * @param aPartitionIndex index of the partition
+         * @param anInFlightPermits permits for records of the partition in flight
+         * @param anInputQueue queue between readers and workers
+         */
+        private PartitionEmitter(int aPartitionIndex, Semaphore anInFlightPermits, BlockingQueue<Task> anInputQueue) {
+            this.partitionIndex = aPartitionIndex;
+            this.inFlightPermits = anInFlightPermits;
+            this.inputQueue = anInputQueue;
+            this.count = 0L;
+        }
+
+        /**
+         * Emits the next record of the partition.
+         *
+         * @param aDocument document of the record; 'null' if reading it failed
+         * @param aReadException exception thrown while reading the record; 'null' if it was read successfully
+         * @throws InterruptedException if the thread is interrupted while waiting
+         */
+        private void emit(Document aDocument, Exception aReadException) throws InterruptedException {
+            this.inFlightPermits.acquire();
+            this.inputQueue.put(new Task(this.partitionIndex, this.count, aDocument, aReadException));
+            this.count++;
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private interface PartitionReader">
+    /**
+     * Reads the documents of one partition.
+     */
+    @FunctionalInterface
+    private interface PartitionReader {
+        /**
+         * Reads all documents of the given partition and emits them.
+         *
+         * @param anEmitter emitter of the partition
+         * @throws Exception if the partition cannot be read
+         */
+        void read(PartitionEmitter anEmitter) throws Exception;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static final constants">
+    /**
+     * Default capacity of the queue between readers and workers and of the queue between workers and writer
+     */
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    /**
+     * Default maximum number of read attempts of a partition
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static final constants">
+    /**
+     * Marker put into the input queue once per worker after the last record
+     */
+    private static final Task END_OF_INPUT = new Task(-1, -1L, null, null);
+
+    /**
+     * Logger of this class
+     */
+    private static final Logger LOGGER = Logger.getLogger(FunctionalGroupExtractionPipeline.class.getName());
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * Extractor applied on the records
+     */
+    private final FunctionalGroupExtractor extractor;
+
+    /**
+     * Name of the document variable that contains the ID of a molecule
+     */
+    private final String idKey;
+
+    /**
+     * Name of the document variable that contains the SMILES code of a molecule
+     */
+    private final String smilesCodeKey;
+
+    /**
+     * Number of worker threads
+     */
+    private final int workerCount;
+
+    /**
+     * Capacity of the queue between readers and workers
+     */
+    private final int inputQueueSize;
+
+    /**
+     * Capacity of the queue between workers and writer
+     */
+    private final int outputQueueSize;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor using one worker per available processor and the default queue sizes.
+     *
+     * @param anExtractor extractor applied on the records
+     * @param anIdKey name of the document variable that contains the ID of a molecule
+     * @param aSmilesCodeKey name of the document variable that contains the SMILES code of a molecule
+     * @throws NullPointerException if a parameter is 'null'
+     */
+    public FunctionalGroupExtractionPipeline(FunctionalGroupExtractor anExtractor, String anIdKey, String aSmilesCodeKey)
+            throws NullPointerException {
+        this(anExtractor, anIdKey, aSmilesCodeKey, Runtime.getRuntime().availableProcessors(),
+                FunctionalGroupExtractionPipeline.DEFAULT_QUEUE_SIZE, FunctionalGroupExtractionPipeline.DEFAULT_QUEUE_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param anExtractor extractor applied on the records
+     * @param anIdKey name of the document variable that contains the ID of a molecule
+     * @param aSmilesCodeKey name of the document variable that contains the SMILES code of a molecule
+     * @param aWorkerCount number of worker threads
+     * @param anInputQueueSize capacity of the queue between readers and workers
+     * @param anOutputQueueSize capacity of the queue between workers and writer
+     * @throws NullPointerException if anExtractor, anIdKey, or aSmilesCodeKey is 'null'
+     * @throws IllegalArgumentException if aWorkerCount or one of the queue sizes is smaller than 1
+     */
+    public FunctionalGroupExtractionPipeline(FunctionalGroupExtractor anExtractor, String anIdKey, String aSmilesCodeKey,
+                                             int aWorkerCount, int anInputQueueSize, int anOutputQueueSize)
+            throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(anExtractor, "Given extractor is 'null'.");
+        Objects.requireNonNull(anIdKey, "Given ID key is 'null'.");
+        Objects.requireNonNull(aSmilesCodeKey, "Given SMILES code key is 'null'.");
+        if (aWorkerCount < 1) {
+            throw new IllegalArgumentException("Given worker count must be positive but is " + aWorkerCount + ".");
+        }
+        if (anInputQueueSize < 1 || anOutputQueueSize < 1) {
+            throw new IllegalArgumentException("Given queue sizes must be positive but are " + anInputQueueSize
+                    + " and " + anOutputQueueSize + ".");
+        }
+        this.extractor = anExtractor;
+        this.idKey = anIdKey;
+        this.smilesCodeKey = aSmilesCodeKey;
+        this.workerCount = aWorkerCount;
+        this.inputQueueSize = anInputQueueSize;
+        this.outputQueueSize = anOutputQueueSize;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * Reads all documents of the given iterator on one reader thread, processes them, and writes their results lines
+     * to the given printer in input order. Exceptions thrown by next() of the iterator or by the processing of a record
+     * are logged and reported in the results line of the record. The given iterator and printer are not closed.
+     *
+     * @param aDocumentIterator iterator of the molecule documents, e.g. a MongoDB cursor
+     * @param aResultsPrinter printer of the results file
+     * @return the number of documents read
+     * @throws NullPointerException if a parameter is 'null'
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the stages
+     * @throws ExecutionException if a stage fails, e.g. because hasNext() of the iterator throws an exception or
+     * the results cannot be written
+     */
+    public long run(Iterator<Document> aDocumentIterator, PrintWriter aResultsPrinter)
+            throws NullPointerException, InterruptedException, ExecutionException {
+        Objects.requireNonNull(aResultsPrinter, "Given results printer is 'null'.");
+        return this.run(aDocumentIterator, new PrintWriterResultSink(aResultsPrinter));
+    }
+
+    /**
+     * Reads all documents of the given iterator on one reader thread, processes them, and passes their extraction
+     * results to the given sink in input order. Exceptions thrown by next() of the iterator or by the processing of a
+     * record are logged and reported in the extraction result of the record. The sink is flushed at the end; the given
+     * iterator is not closed.
+     *
+     * @param aDocumentIterator iterator of the molecule documents, e.g. a MongoDB cursor
+     * @param aSink receiver of the extraction results
+     * @return the number of documents read
+     * @throws NullPointerException if a parameter is 'null'
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the stages
+     * @throws ExecutionException if a stage fails, e.g. because hasNext() of the iterator throws an exception or
+     * the sink throws an exception
+     */
+    public long run(Iterator<Document> aDocumentIterator, ResultSink aSink)
+            throws NullPointerException, InterruptedException, ExecutionException {
+        Objects.requireNonNull(aDocumentIterator, "Given document iterator is 'null'.");
+        Objects.requireNonNull(aSink, "Given sink is 'null'.");
+        List<PartitionReader> tmpPartitionReaders = new ArrayList<>(1);
+        tmpPartitionReaders.add(anEmitter -> {
+            while (aDocumentIterator.hasNext()) {
+                Document tmpDocument;
+                try {
+                    tmpDocument = aDocumentIterator.next();
+                } catch (Exception anException) {
+                    anEmitter.emit(null, anException);
+                    continue;
+                }
+                anEmitter.emit(tmpDocument, null);
+            }
+        });
+        return this.execute(tmpPartitionReaders, 1, aSink);
+    }
+
+    /**
+     * Reads all partitions of the given progress from the given source with the given number of concurrent reader
+     * threads, processes the documents, and writes their results lines to the given printer in the order of the
+     * partitions. The partitions are assigned to the reader threads in ascending order of their index. If reading a
+     * partition fails, the failure is logged and the partition is read again from the document after the last one
+     * read, up to the given number of attempts. Partitions that are already completed in the given progress are
+     * skipped and a partition with a last key in the given progress is read from the document after it, e.g. to
+     * resume from an ExtractionCheckpoint. The given printer is not closed.
+     *
+     * @param aSource source of the partitions
+     * @param aProgress progress of the scan, created from the partitions of the source; updated during the run
+     * @param aReaderCount number of reader threads
+     * @param aMaxAttempts maximum number of read attempts per partition
+     * @param aResultsPrinter printer of the results file
+     * @return the number of documents read
+     * @throws NullPointerException if aSource, aProgress, or aResultsPrinter is 'null'
+     * @throws IllegalArgumentException if aReaderCount or aMaxAttempts is smaller than 1
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the stages
+     * @throws ExecutionException if a stage fails, e.g. because all read attempts of a partition failed or the results
+     * cannot be written; the partition is marked as failed in the progress then
+     */
+    public long run(PartitionedDocumentSource aSource, ScanProgress aProgress, int aReaderCount, int aMaxAttempts,
+                    PrintWriter aResultsPrinter)
+            throws NullPointerException, IllegalArgumentException, InterruptedException, ExecutionException {
+        Objects.requireNonNull(aResultsPrinter, "Given results printer is 'null'.");
+        return this.run(aSource, aProgress, aReaderCount, aMaxAttempts, new PrintWriterResultSink(aResultsPrinter));
+    }
+
+    /**
+     * Reads all partitions of the given progress from the given source with the given number of concurrent reader
+     * threads, processes the documents, and passes their extraction results to the given sink in the order of the
+     * partitions. Partitions are assigned and retried as described for
+     * run(PartitionedDocumentSource, ScanProgress, int, int, PrintWriter). The sink is flushed at the end.
+     *
+     * @param aSource source of the partitions
+     * @param aProgress progress of the scan, created from the partitions of the source; updated during the run
+     * @param aReaderCount number of reader threads
+     * @param aMaxAttempts maximum number of read attempts per partition
+     * @param aSink receiver of the extraction results
+     * @return the number of documents read
+     * @throws NullPointerException if aSource, aProgress, or aSink is 'null'
+     * @throws IllegalArgumentException if aReaderCount or aMaxAttempts is smaller than 1
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the stages
+     * @throws ExecutionException if a stage fails, e.g. because all read attempts of a partition failed or the sink
+     * throws an exception; the partition is marked as failed in the progress then
+     */
+    public long run(PartitionedDocumentSource aSource, ScanProgress aProgress, int aReaderCount, int aMaxAttempts,
+                    ResultSink aSink)
+            throws NullPointerException, IllegalArgumentException, InterruptedException, ExecutionException {
+        Objects.requireNonNull(aSource, "Given source is 'null'.");
+        Objects.requireNonNull(aProgress, "Given progress is 'null'.");
+        Objects.requireNonNull(aSink, "Given sink is 'null'.");
+        if (aReaderCount < 1) {
+            throw new IllegalArgumentException("Given reader count must be positive but is " + aReaderCount + ".");
+        }
+        if (aMaxAttempts < 1) {
+            throw new IllegalArgumentException("Given maximum number of attempts must be positive but is " + aMaxAttempts + ".");
+        }
+        List<PartitionReader> tmpPartitionReaders = new ArrayList<>(aProgress.getPartitionCount());
+        for (DocumentPartition tmpPartition : aProgress.getPartitions()) {
+            tmpPartitionReaders.add(anEmitter -> this.readPartition(aSource, tmpPartition, aProgress, aMaxAttempts, anEmitter));
+        }
+        return this.execute(tmpPartitionReaders, Math.min(aReaderCount, tmpPartitionReaders.size()), aSink);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the extractor applied on the records.
+     *
+     * @return extractor
+     */
+    public FunctionalGroupExtractor getExtractor() {
+        return this.extractor;
+    }
+
+    /**
+     * Returns the number of worker threads.
+     *
+     * @return worker count
+     */
+    public int getWorkerCount() {
+        return this.workerCount;
+    }
+
+    /**
+     * Returns the capacity of the queue between readers and workers.
+     *
+     * @return input queue size
+     */
+    public int getInputQueueSize() {
+        return this.inputQueueSize;
+    }
+
+    /**
+     * Returns the capacity of the queue between workers and writer.
+     *
+     * @return output queue size
+     */
+    public int getOutputQueueSize() {
+        return this.outputQueueSize;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private methods">
+    /**
+     * Runs the stages on the given partitions and waits for them to terminate.
+     *
+     * @param aPartitionReaders readers of the partitions in output order
+     * @param aReaderCount number of reader threads
+     * @param aSink receiver of the extraction results
+     * @return the number of documents read
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the stages
+     * @throws ExecutionException if a stage fails
+     */
+    private long execute(List<PartitionReader> aPartitionReaders, int aReaderCount, ResultSink aSink)
+            throws InterruptedException, ExecutionException {
+        int tmpPartitionCount = aPartitionReaders.size();
+        BlockingQueue<Task> tmpInputQueue = new ArrayBlockingQueue<>(this.inputQueueSize);
+        BlockingQueue<Result> tmpOutputQueue = new ArrayBlockingQueue<>(this.outputQueueSize);
+        //permits for records in flight per partition, released by the writer; records of later partitions wait in the
+        // reorder buffer, so every partition needs its own permits to avoid that they block the current partition
+        List<Semaphore> tmpInFlightPermits = new ArrayList<>(tmpPartitionCount);
+        for (int i = 0; i < tmpPartitionCount; i++) {
+            tmpInFlightPermits.add(new Semaphore(this.inputQueueSize + this.outputQueueSize + this.workerCount));
+        }
+        AtomicInteger tmpNextPartitionIndex = new AtomicInteger();
+        AtomicInteger tmpRunningReadersCount = new AtomicInteger(aReaderCount);
+        AtomicLong tmpReadCount = new AtomicLong();
+        ExecutorService tmpExecutor = Executors.newFixedThreadPool(aReaderCount + this.workerCount + 1);
+        CompletionService<Void> tmpCompletionService = new ExecutorCompletionService<>(tmpExecutor);
+        try {
+            for (int i = 0; i < aReaderCount; i++) {
+                tmpCompletionService.submit(() -> {
+                    //partitions are taken in output order, so the partition the writer waits for is always being read
+                    int tmpPartitionIndex = tmpNextPartitionIndex.getAndIncrement();
+                    while (tmpPartitionIndex < tmpPartitionCount) {
+                        PartitionEmitter tmpEmitter = new PartitionEmitter(tmpPartitionIndex,
+                                tmpInFlightPermits.get(tmpPartitionIndex), tmpInputQueue);
+                        aPartitionReaders.get(tmpPartitionIndex).read(tmpEmitter);
+                        tmpReadCount.addAndGet(tmpEmitter.count);
+                        tmpOutputQueue.put(new Result(tmpPartitionIndex, tmpEmitter.count, null, null, true));
+                        tmpPartitionIndex = tmpNextPartitionIndex.getAndIncrement();
+                    }
+                    if (tmpRunningReadersCount.decrementAndGet() == 0) {
+                        for (int j = 0; j < this.workerCount; j++) {
+                            tmpInputQueue.put(FunctionalGroupExtractionPipeline.END_OF_INPUT);
+                        }
+                    }
+                    return null;
+                });
+            }
+            for (int i = 0; i < this.workerCount; i++) {
+                tmpCompletionService.submit(this.createWorker(tmpInputQueue, tmpOutputQueue));
+            }
+            tmpCompletionService.submit(this.createWriter(tmpPartitionCount, tmpOutputQueue, tmpInFlightPermits, aSink));
+            for (int i = 0; i < aReaderCount + this.workerCount + 1; i++) {
+                //a failing stage is reported as soon as it terminates, the others are interrupted in finally
+                tmpCompletionService.take().get();
+            }
+        } finally {
+            tmpExecutor.shutdownNow();
+            tmpExecutor.awaitTermination(1L, TimeUnit.MINUTES);
+        }
+        return tmpReadCount.get();
+    }
+
+    /**
+     * Reads the given partition from the given source, retrying it after failures.
+     *
+     * @param aSource source of the partition
+     * @param aPartition the partition
+     * @param aProgress progress of the scan
+     * @param aMaxAttempts maximum number of read attempts
+     * @param anEmitter emitter of the partition
+     * @throws Exception if all read attempts failed
+     */
+    private void readPartition(PartitionedDocumentSource aSource, DocumentPartition aPartition, ScanProgress aProgress,
+                               int aMaxAttempts, PartitionEmitter anEmitter) throws Exception {
+        int tmpIndex = aPartition.getIndex();
+        if (aProgress.getState(tmpIndex) == ScanProgress.State.COMPLETED) {
+            //already written in a former run that is resumed
+            return;
+        }
+        Object tmpResumeKey = aProgress.getLastKey(tmpIndex);
+        for (int tmpAttempt = 1; ; tmpAttempt++) {
+            aProgress.start(tmpIndex);
+            try (MongoCursor<Document> tmpCursor = aSource.open(aPartition, tmpResumeKey)) {
+                while (tmpCursor.hasNext()) {
+                    Document tmpDocument = tmpCursor.next();
+                    Object tmpKey = Objects.requireNonNull(tmpDocument.get(aSource.getPartitionKey()),
+                            "Document without partition key " + aSource.getPartitionKey() + ".");
+                    anEmitter.emit(tmpDocument, null);
+                    tmpResumeKey = tmpKey;
+                    aProgress.recordRead(tmpIndex, tmpKey);
+                }
+                aProgress.complete(tmpIndex);
+                return;
+            } catch (InterruptedException anInterruptedException) {
+                throw anInterruptedException;
+            } catch (Exception anException) {
+                FunctionalGroupExtractionPipeline.LOGGER.log(Level.WARNING, "Reading " + aPartition + " failed in attempt "
+                        + tmpAttempt + " after " + anEmitter.count + " documents.", anException);
+                if (tmpAttempt >= aMaxAttempts) {
+                    aProgress.fail(tmpIndex);
+                    throw anException;
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a worker stage that processes the records of the input queue and puts their extraction results into the
+     * output queue.
+     *
+     * @param anInputQueue queue between readers and workers
+     * @param anOutputQueue queue between workers and writer
+     * @return the worker stage
+     */
+    private Callable<Void> createWorker(BlockingQueue<Task> anInputQueue, BlockingQueue<Result> anOutputQueue) {
+        return () -> {
+            Task tmpTask = anInputQueue.take();
+            while (tmpTask != FunctionalGroupExtractionPipeline.END_OF_INPUT) {
+                ExtractionResult tmpExtractionResult;
+                if (Objects.nonNull(tmpTask.readException)) {
+                    tmpExtractionResult = this.extractor.reportException("", tmpTask.readException);
+                } else {
+                    tmpExtractionResult = this.extractor.extract(tmpTask.document, this.idKey, this.smilesCodeKey);
+                }
+                anOutputQueue.put(new Result(tmpTask.partitionIndex, tmpTask.sequenceNumber, tmpTask.document,
+                        tmpExtractionResult, false));
+                tmpTask = anInputQueue.take();
+            }
+            return null;
+        };
+    }
+
+    /**
+     * Creates the writer stage that passes the extraction results of the output queue to the sink in input order.
+     *
+     * @param aPartitionCount number of partitions
+     * @param anOutputQueue queue between workers and writer
+     * @param anInFlightPermits permits for records in flight per partition
+     * @param aSink receiver of the extraction results
+     * @return the writer stage
+     */
+    private Callable<Void> createWriter(int aPartitionCount, BlockingQueue<Result> anOutputQueue,
+                                        List<Semaphore> anInFlightPermits, ResultSink aSink) {
+        return () -> {
+            List<HashMap<Long, Result>> tmpReorderBuffers = new ArrayList<>(aPartitionCount);
+            long[] tmpPartitionSizes = new long[aPartitionCount];
+            for (int i = 0; i < aPartitionCount; i++) {
+                tmpReorderBuffers.add(new HashMap<>());
+                tmpPartitionSizes[i] = -1L;
+            }
+            int tmpCurrentPartitionIndex = 0;
+            long tmpNextSequenceNumber = 0L;
+            while (tmpCurrentPartitionIndex < aPartitionCount) {
+                Result tmpResult = anOutputQueue.poll();
+                if (Objects.isNull(tmpResult)) {
+                    //flushed only when the writer would wait anyway
+                    aSink.onIdle();
+                    tmpResult = anOutputQueue.take();
+                }
+                if (tmpResult.isPartitionEnd) {
+                    tmpPartitionSizes[tmpResult.partitionIndex] = tmpResult.sequenceNumber;
+                } else {
+                    tmpReorderBuffers.get(tmpResult.partitionIndex).put(tmpResult.sequenceNumber, tmpResult);
+                }
+                while (tmpCurrentPartitionIndex < aPartitionCount) {
+                    Result tmpNextResult = tmpReorderBuffers.get(tmpCurrentPartitionIndex).remove(tmpNextSequenceNumber);
+                    if (Objects.nonNull(tmpNextResult)) {
+                        aSink.accept(tmpNextResult.document, tmpNextResult.extractionResult);
+                        anInFlightPermits.get(tmpCurrentPartitionIndex).release();
+                        tmpNextSequenceNumber++;
+                    } else if (tmpPartitionSizes[tmpCurrentPartitionIndex] == tmpNextSequenceNumber) {
+                        aSink.onPartitionEnd(tmpCurrentPartitionIndex);
+                        tmpCurrentPartitionIndex++;
+                        tmpNextSequenceNumber = 0L;
+                    } else {
+                        break;
+                    }
+                }
+            }
+            aSink.flush();
+            return null;
+        };
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,591 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import org.bson.Document;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.tools.BoundedCycleFinder;
+import org.openscience.cdk.tools.ErtlFunctionalGroupsFinderContext;
+import org.openscience.cdk.tools.ErtlFunctionalGroupsFinderUtility;
+import org.openscience.cdk.tools.FunctionalGroupCanonicalForm;
+import org.openscience.cdk.tools.FunctionalGroupProfile;
+import org.openscience.cdk.tools.FunctionalGroupProfileCache;
+import org.openscience.cdk.tools.PreprocessingProfile;
+import org.openscience.cdk.tools.PreprocessingResult;
+import org.openscience.cdk.tools.RingSystemAromaticityCache;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Extracts the Ertl functional groups of single molecule records, i.e. an ID and a SMILES code, and turns them into
+ * lines of the results file (csv). A record is prefiltered on its SMILES code, looked up in the persistent profile
+ * cache if one is given, parsed, looked up in the profile cache, preprocessed and passed on to the generalizing
+ * ErtlFunctionalGroupsFinder. Records that are filtered, have no
+ * functional groups or cause an exception are reported by a marker in the results line. The status and the functional
+ * group profile of a record are available as ExtractionResult as well, e.g. to write them to a database.
+ * <br>All methods are thread-safe, so one extractor can be shared by several worker threads. The SMILES parser and the
+ * finder of the calling thread's ErtlFunctionalGroupsFinderContext are used; the aromaticity cache, the profile cache,
+ * the dictionary of canonical forms and the counters are shared. Since the canonical SMILES code of a functional group
+ * does not depend on the order of its atoms or the positions of its double bonds, the results line of a record does
+ * not depend on the order in which the records are processed.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class FunctionalGroupExtractor {
+    //<editor-fold desc="Public static final constants">
+    /**
+     * Default separator of the results file (csv)
+     */
+    public static final String DEFAULT_SEPARATOR = ",";
+
+    /**
+     * Marker of records that were filtered
+     */
+    public static final String FILTERED_MARKER = "[got filtered]";
+
+    /**
+     * Marker of records without functional groups
+     */
+    public static final String NONE_DETECTED_MARKER = "[none detected]";
+
+    /**
+     * Marker of records that caused an exception
+     */
+    public static final String EXCEPTION_MARKER = "[exception occurred]";
+
+    /**
+     * Settings the functional group profiles depend on, i.e. aromaticity model with its work budget, finder mode,
+     * preprocessing, and version of the canonical forms; a persistent profile cache must be opened with these settings,
+     * so profiles created with others are not reused. Version 2 of the canonical forms writes canonically assigned bond
+     * orders into the SMILES codes, which changed the SMILES codes (but not the hash keys) of groups whose double bond
+     * positions cannot be told apart compared to version 1 (see FunctionalGroupCanonicalForm)
+     */
+    public static final String SETTINGS = "aromaticity: bounded daylight (max circuit rank "
+            + BoundedCycleFinder.DEFAULT_MAX_CIRCUIT_RANK + "); finder: generalization; preprocessing: "
+            + PreprocessingProfile.PARSED_SMILES + "; prefilter: true; canonical form: 2";
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static final constants">
+    /**
+     * Logger of this class
+     */
+    private static final Logger LOGGER = Logger.getLogger(FunctionalGroupExtractor.class.getName());
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * Separator of the results file
+     */
+    private final String separator;
+
+    /**
+     * Ring systems recurring in the molecules are perceived only once
+     */
+    private final RingSystemAromaticityCache aromaticityCache;
+
+    /**
+     * Stereoisomers of an already processed constitution get the cached profile
+     */
+    private final FunctionalGroupProfileCache profileCache;
+
+    /**
+     * Molecules of a former run get their persisted profile without being parsed; 'null' if not used
+     */
+    private final PersistentProfileCache persistentCache;
+
+    /**
+     * Dictionary of all functional groups detected so far
+     */
+    private final ConcurrentHashMap<Long, FunctionalGroupCanonicalForm> canonicalFormsMap;
+
+    /**
+     * Number of processed molecule records
+     */
+    private final AtomicInteger moleculeCounter;
+
+    /**
+     * Number of records that caused an exception
+     */
+    private final AtomicInteger exceptionsCounter;
+
+    /**
+     * Number of filtered records
+     */
+    private final AtomicInteger filteredCounter;
+
+    /**
+     * Number of records filtered on their SMILES code, i.e. before parsing
+     */
+    private final AtomicInteger prefilteredCounter;
+
+    /**
+     * Number of records without functional groups
+     */
+    private final AtomicInteger noneDetectedCounter;
+
+    /**
+     * Number of records whose aromaticity was perceived with the fallback cycle finder
+     */
+    private final AtomicInteger aromaticityFallbackCounter;
+
+    /**
+     * Number of records per preprocessing outcome, indexed by ordinal
+     */
+    private final AtomicIntegerArray outcomeCounters;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor using the default separator.
+     */
+    public FunctionalGroupExtractor() {
+        this(FunctionalGroupExtractor.DEFAULT_SEPARATOR);
+    }
+
+    /**
+     * Constructor. The aromaticity cache applies the bounded daylight aromaticity model of the constructing thread's
+     * context; the model holds no state and is shared by all threads using this extractor.
+     *
+     * @param aSeparator separator of the results file
+     * @throws NullPointerException if aSeparator is 'null'
+     */
+    public FunctionalGroupExtractor(String aSeparator) throws NullPointerException {
+        this(aSeparator, null);
+    }
+
+    /**
+     * Constructor using a persistent profile cache, see FunctionalGroupExtractor(String). The profiles of all
+     * molecules that are not filtered before parsing are looked up in the given cache first and the profiles of all
+     * molecules processed are added to it. The canonical forms persisted in the cache are added to the dictionary of
+     * this extractor.
+     *
+     * @param aSeparator separator of the results file
+     * @param aPersistentCache persistent profile cache opened with SETTINGS; 'null' if none is used
+     * @throws NullPointerException if aSeparator is 'null'
+     * @throws IllegalArgumentException if the persistent cache was opened with other settings
+     */
+    public FunctionalGroupExtractor(String aSeparator, PersistentProfileCache aPersistentCache)
+            throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(aSeparator, "Given separator is 'null'.");
+        if (Objects.nonNull(aPersistentCache) && !aPersistentCache.getSettings().equals(FunctionalGroupExtractor.SETTINGS)) {
+            throw new IllegalArgumentException("Given persistent cache was opened with other settings: "
+                    + aPersistentCache.getSettings());
+        }
+        this.separator = aSeparator;
+        this.aromaticityCache = new RingSystemAromaticityCache(ErtlFunctionalGroupsFinderContext.get().getBoundedDaylightAromaticityModel());
+        this.profileCache = new FunctionalGroupProfileCache();
+        this.canonicalFormsMap = new ConcurrentHashMap<>(50000);
+        this.persistentCache = aPersistentCache;
+        if (Objects.nonNull(aPersistentCache)) {
+            this.canonicalFormsMap.putAll(aPersistentCache.getCanonicalForms());
+        }
+        this.moleculeCounter = new AtomicInteger();
+        this.exceptionsCounter = new AtomicInteger();
+        this.filteredCounter = new AtomicInteger();
+        this.prefilteredCounter = new AtomicInteger();
+        this.noneDetectedCounter = new AtomicInteger();
+        this.aromaticityFallbackCounter = new AtomicInteger();
+        this.outcomeCounters = new AtomicIntegerArray(PreprocessingResult.Outcome.values().length);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * Creates the header line of the results file.
+     *
+     * @param anIdKey name of the ID column
+     * @return the header line
+     * @throws NullPointerException if anIdKey is 'null'
+     */
+    public String createHeaderLine(String anIdKey) throws NullPointerException {
+        Objects.requireNonNull(anIdKey, "Given ID key is 'null'.");
+        return anIdKey + this.separator + "FgSMILES" + this.separator + "FgPseudoSMILES" + this.separator + "Frequency";
+    }
+
+    /**
+     * Processes the molecule record in the given document, see process(String, String).
+     *
+     * @param aDocument document of the record
+     * @param anIdKey name of the document variable that contains the ID
+     * @param aSmilesCodeKey name of the document variable that contains the SMILES code
+     * @return the results line of the record or 'null' if the SMILES code could not be parsed
+     * @throws NullPointerException if a parameter is 'null'
+     */
+    public String process(Document aDocument, String anIdKey, String aSmilesCodeKey) throws NullPointerException {
+        return this.extract(aDocument, anIdKey, aSmilesCodeKey).getLine();
+    }
+
+    /**
+     * Processes the given molecule record and returns its line of the results file, i.e. its ID followed by SMILES
+     * code, pseudo SMILES code, and frequency of every detected functional group or the ID followed by one of the
+     * markers of this class. All exceptions are caught, logged and reported by the exception marker.
+     *
+     * @param anID ID of the molecule
+     * @param aSmilesCode SMILES code of the molecule
+     * @return the results line of the record or 'null' if the SMILES code could not be parsed
+     */
+    public String process(String anID, String aSmilesCode) {
+        return this.extract(anID, aSmilesCode).getLine();
+    }
+
+    /**
+     * Extracts the functional groups of the molecule record in the given document, see extract(String, String).
+     * Exceptions thrown while reading the ID or SMILES code from the document are logged and reported in the result as
+     * well.
+     *
+     * @param aDocument document of the record
+     * @param anIdKey name of the document variable that contains the ID
+     * @param aSmilesCodeKey name of the document variable that contains the SMILES code
+     * @return the result of the record
+     * @throws NullPointerException if a parameter is 'null'
+     */
+    public ExtractionResult extract(Document aDocument, String anIdKey, String aSmilesCodeKey) throws NullPointerException {
+        Objects.requireNonNull(aDocument, "Given document is 'null'.");
+        Objects.requireNonNull(anIdKey, "Given ID key is 'null'.");
+        Objects.requireNonNull(aSmilesCodeKey, "Given SMILES code key is 'null'.");
+        this.moleculeCounter.incrementAndGet();
+        String tmpID = "";
+        String tmpSmilesCode;
+        try {
+            tmpID = aDocument.getString(anIdKey);
+            tmpSmilesCode = aDocument.getString(aSmilesCodeKey);
+        } catch (Exception anException) {
+            return this.reportException(tmpID, anException);
+        }
+        return this.processRecord(tmpID, tmpSmilesCode);
+    }
+
+    /**
+     * Extracts the functional groups of the given molecule record, i.e. its status, its functional group profile, and
+     * its results line, see process(String, String). All exceptions are caught, logged and reported in the result.
+     *
+     * @param anID ID of the molecule
+     * @param aSmilesCode SMILES code of the molecule
+     * @return the result of the record
+     */
+    public ExtractionResult extract(String anID, String aSmilesCode) {
+        this.moleculeCounter.incrementAndGet();
+        return this.processRecord(anID, aSmilesCode);
+    }
+
+    /**
+     * Logs the given exception that occurred while reading or processing a record, counts it, and returns the
+     * result reporting it. The record is not counted as processed molecule.
+     *
+     * @param anID ID of the record, may be 'null' or empty if unknown
+     * @param anException the exception
+     * @return the result with the results line with the exception marker
+     */
+    public ExtractionResult reportException(String anID, Exception anException) {
+        FunctionalGroupExtractor.LOGGER.log(Level.SEVERE, anException + " ID: " + anID, anException);
+        this.exceptionsCounter.incrementAndGet();
+        return new ExtractionResult(anID, ExtractionResult.Status.EXCEPTION, null,
+                anID + this.separator + FunctionalGroupExtractor.EXCEPTION_MARKER);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the number of processed molecule records.
+     *
+     * @return molecule count
+     */
+    public int getMoleculeCount() {
+        return this.moleculeCounter.get();
+    }
+
+    /**
+     * Returns the number of records that caused an exception.
+     *
+     * @return exception count
+     */
+    public int getExceptionCount() {
+        return this.exceptionsCounter.get();
+    }
+
+    /**
+     * Returns the number of filtered records, including those that could not be parsed.
+     *
+     * @return filtered count
+     */
+    public int getFilteredCount() {
+        return this.filteredCounter.get();
+    }
+
+    /**
+     * Returns the number of records filtered on their SMILES code, i.e. before parsing. Since the syntax of the SMILES
+     * codes is not validated at this point, this includes malformed SMILES codes with e.g. an invalid element, which
+     * would otherwise be counted as exceptions (see ErtlFunctionalGroupsFinderUtility.prefilterSmilesCode()).
+     *
+     * @return prefiltered count
+     */
+    public int getPrefilteredCount() {
+        return this.prefilteredCounter.get();
+    }
+
+    /**
+     * Returns the number of records without functional groups.
+     *
+     * @return none detected count
+     */
+    public int getNoneDetectedCount() {
+        return this.noneDetectedCounter.get();
+    }
+
+    /**
+     * Returns the number of records whose aromaticity was perceived with the fallback cycle finder.
+     *
+     * @return aromaticity fallback count
+     */
+    public int getAromaticityFallbackCount() {
+        return this.aromaticityFallbackCounter.get();
+    }
+
+    /**
+     * Returns the number of records per preprocessing outcome; outcomes that did not occur are not contained.
+     *
+     * @return new map of outcome counts
+     */
+    public EnumMap<PreprocessingResult.Outcome, Integer> getOutcomeCounts() {
+        EnumMap<PreprocessingResult.Outcome, Integer> tmpOutcomeCounts = new EnumMap<>(PreprocessingResult.Outcome.class);
+        for (PreprocessingResult.Outcome tmpOutcome : PreprocessingResult.Outcome.values()) {
+            int tmpCount = this.outcomeCounters.get(tmpOutcome.ordinal());
+            if (tmpCount > 0) {
+                tmpOutcomeCounts.put(tmpOutcome, tmpCount);
+            }
+        }
+        return tmpOutcomeCounts;
+    }
+
+    /**
+     * Returns the profile cache of this extractor.
+     *
+     * @return profile cache
+     */
+    public FunctionalGroupProfileCache getProfileCache() {
+        return this.profileCache;
+    }
+
+    /**
+     * Returns the persistent profile cache of this extractor.
+     *
+     * @return persistent profile cache or 'null' if none is used
+     */
+    public PersistentProfileCache getPersistentCache() {
+        return this.persistentCache;
+    }
+
+    /**
+     * Returns the aromaticity cache of this extractor.
+     *
+     * @return aromaticity cache
+     */
+    public RingSystemAromaticityCache getAromaticityCache() {
+        return this.aromaticityCache;
+    }
+
+    /**
+     * Returns the dictionary of the canonical forms of all functional groups detected so far, keyed on their hash keys.
+     *
+     * @return unmodifiable view of the dictionary
+     */
+    public Map<Long, FunctionalGroupCanonicalForm> getCanonicalFormsMap() {
+        return Collections.unmodifiableMap(this.canonicalFormsMap);
+    }
+
+    /**
+     * Returns the separator of the results file.
+     *
+     * @return separator
+     */
+    public String getSeparator() {
+        return this.separator;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private methods">
+    /**
+     * Extracts the functional groups of the given molecule record without counting it, see extract(String, String).
+     *
+     * @param anID ID of the molecule
+     * @param aSmilesCode SMILES code of the molecule
+     * @return the result of the record
+     */
+    private ExtractionResult processRecord(String anID, String aSmilesCode) {
+        try {
+            //records that would be filtered anyway are not parsed
+            PreprocessingResult.Outcome tmpPrefilterOutcome = ErtlFunctionalGroupsFinderUtility.prefilterSmilesCode(aSmilesCode, true);
+            if (Objects.nonNull(tmpPrefilterOutcome)) {
+                this.outcomeCounters.incrementAndGet(tmpPrefilterOutcome.ordinal());
+                this.filteredCounter.incrementAndGet();
+                this.prefilteredCounter.incrementAndGet();
+                return this.createMarkerResult(anID, ExtractionResult.Status.FILTERED, null);
+            }
+            //structures of a former run are not parsed at all
+            if (Objects.nonNull(this.persistentCache)) {
+                FunctionalGroupProfile tmpPersistedProfile = this.persistentCache.get(aSmilesCode);
+                if (Objects.nonNull(tmpPersistedProfile)) {
+                    return this.createProfileResult(anID, tmpPersistedProfile);
+                }
+            }
+            ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+            IAtomContainer tmpMolecule = tmpContext.getSmilesParser().parseSmiles(aSmilesCode);
+            if (Objects.isNull(tmpMolecule)) {
+                this.filteredCounter.incrementAndGet();
+                return new ExtractionResult(anID, ExtractionResult.Status.UNPARSABLE, null, null);
+            }
+            tmpMolecule.setTitle(anID);
+            String tmpCacheKey = FunctionalGroupProfileCache.createKey(tmpMolecule);
+            FunctionalGroupProfile tmpProfile = this.profileCache.get(tmpCacheKey);
+            if (Objects.nonNull(tmpProfile)) {
+                this.persistProfile(aSmilesCode, tmpProfile);
+                return this.createProfileResult(anID, tmpProfile);
+            }
+            PreprocessingResult tmpPreprocessingResult = ErtlFunctionalGroupsFinderUtility.preprocess(tmpMolecule,
+                    this.aromaticityCache, true, PreprocessingProfile.PARSED_SMILES);
+            this.outcomeCounters.incrementAndGet(tmpPreprocessingResult.getOutcome().ordinal());
+            if (tmpPreprocessingResult.getOutcome().isFailure()) {
+                FunctionalGroupExtractor.LOGGER.log(Level.WARNING, tmpPreprocessingResult + " ID: " + anID);
+                this.exceptionsCounter.incrementAndGet();
+                return this.createMarkerResult(anID, ExtractionResult.Status.EXCEPTION, null);
+            }
+            if (!tmpPreprocessingResult.isPreprocessed()) {
+                this.filteredCounter.incrementAndGet();
+                return this.createMarkerResult(anID, ExtractionResult.Status.FILTERED, null);
+            }
+            tmpMolecule = tmpPreprocessingResult.getMolecule();
+            if (tmpPreprocessingResult.isAromaticityFallbackUsed()) {
+                this.aromaticityFallbackCounter.incrementAndGet();
+            }
+            List<IAtomContainer> tmpFunctionalGroupsGeneralized = tmpContext.getGeneralizingFinder().find(tmpMolecule, false);
+            if (tmpFunctionalGroupsGeneralized.isEmpty()) {
+                tmpProfile = FunctionalGroupProfile.EMPTY;
+            } else {
+                tmpProfile = ErtlFunctionalGroupsFinderUtility.createFunctionalGroupProfile(tmpFunctionalGroupsGeneralized,
+                        this.canonicalFormsMap);
+            }
+            //like the aromaticity assignments of their ring systems, profiles found with the fallback cycle finder are
+            //not cached, so every cached profile is the one of the primary cycle finder and every record that needs
+            //the fallback is counted
+            if (!tmpPreprocessingResult.isAromaticityFallbackUsed()) {
+                this.profileCache.put(tmpCacheKey, tmpProfile);
+                this.persistProfile(aSmilesCode, tmpProfile);
+            }
+            return this.createProfileResult(anID, tmpProfile);
+        } catch (Exception anException) {
+            return this.reportException(anID, anException);
+        }
+    }
+
+    /**
+     * Creates the result of a record with the given profile, counting it if no functional groups were detected.
+     *
+     * @param anID ID of the molecule
+     * @param aProfile functional group profile of the molecule
+     * @return the result
+     */
+    private ExtractionResult createProfileResult(String anID, FunctionalGroupProfile aProfile) {
+        if (aProfile.isEmpty()) {
+            this.noneDetectedCounter.incrementAndGet();
+            return this.createMarkerResult(anID, ExtractionResult.Status.NONE_DETECTED, aProfile);
+        }
+        return new ExtractionResult(anID, ExtractionResult.Status.FUNCTIONAL_GROUPS_DETECTED, aProfile,
+                this.createResultsLine(anID, aProfile));
+    }
+
+    /**
+     * Adds the given profile of the given SMILES code to the persistent profile cache, if one is used. A failure to
+     * write the cache is logged but does not affect the result of the record.
+     *
+     * @param aSmilesCode SMILES code of the molecule as given
+     * @param aProfile functional group profile of the molecule
+     */
+    private void persistProfile(String aSmilesCode, FunctionalGroupProfile aProfile) {
+        if (Objects.isNull(this.persistentCache)) {
+            return;
+        }
+        try {
+            this.persistentCache.put(aSmilesCode, aProfile, this.canonicalFormsMap);
+        } catch (IOException anIOException) {
+            FunctionalGroupExtractor.LOGGER.log(Level.WARNING, "Profile could not be persisted: " + anIOException, anIOException);
+        }
+    }
+
+    /**
+     * Creates the result of a record whose results line is its ID followed by the marker of the given status.
+     *
+     * @param anID ID of the molecule
+     * @param aStatus status of the extraction, one of FILTERED, NONE_DETECTED, or EXCEPTION
+     * @param aProfile functional group profile of the molecule or 'null'
+     * @return the result
+     */
+    private ExtractionResult createMarkerResult(String anID, ExtractionResult.Status aStatus, FunctionalGroupProfile aProfile) {
+        String tmpMarker;
+        switch (aStatus) {
+            case FILTERED:
+                tmpMarker = FunctionalGroupExtractor.FILTERED_MARKER;
+                break;
+            case NONE_DETECTED:
+                tmpMarker = FunctionalGroupExtractor.NONE_DETECTED_MARKER;
+                break;
+            default:
+                tmpMarker = FunctionalGroupExtractor.EXCEPTION_MARKER;
+                break;
+        }
+        return new ExtractionResult(anID, aStatus, aProfile, anID + this.separator + tmpMarker);
+    }
+
+    /**
+     * Creates the line of the results file for the given molecule, i.e. its ID followed by SMILES code, pseudo SMILES
+     * code, and frequency of every functional group in its profile.
+     *
+     * @param anID ID of the molecule
+     * @param aProfile functional group profile of the molecule
+     * @return the results line
+     */
+    private String createResultsLine(String anID, FunctionalGroupProfile aProfile) {
+        StringBuilder tmpResultsLineBuilder = new StringBuilder(anID);
+        for (int i = 0; i < aProfile.size(); i++) {
+            FunctionalGroupCanonicalForm tmpCanonicalForm = this.canonicalFormsMap.get(aProfile.getHashKey(i));
+            tmpResultsLineBuilder.append(this.separator)
+                    .append(tmpCanonicalForm.getCanonicalSmiles())
+                    .append(this.separator)
+                    .append(tmpCanonicalForm.getPseudoSmiles())
+                    .append(this.separator)
+                    .append(aProfile.getCount(i));
+        }
+        return tmpResultsLineBuilder.toString();
+    }
+    //</editor-fold>
+}
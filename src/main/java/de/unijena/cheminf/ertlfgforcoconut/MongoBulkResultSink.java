@@ -0,0 +1,393 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.openscience.cdk.tools.FunctionalGroupCanonicalForm;
+import org.openscience.cdk.tools.FunctionalGroupProfile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Sink that writes the functional group profiles of the molecules back to MongoDB in unordered bulk writes of a
+ * configurable batch size, either into the documents the molecules were read from or into a side collection with one
+ * document per molecule. A profile is stored as array of embedded documents, one per functional group, with its hash
+ * key or its pseudo SMILES code and its frequency in the molecule; molecules without functional groups get an empty
+ * array. Molecules that were filtered, could not be parsed, or caused an exception have no profile, so the field is
+ * removed from their source documents or their side documents are replaced by ones without the field; this way, no
+ * functional groups of an earlier run remain for them.
+ * <br>The writes are idempotent, i.e. the field is set or removed or the side document is replaced, so a run can be
+ * repeated or resumed without duplicates or stale functional groups. The order of the writes within a batch is not
+ * guaranteed, which does not matter because every molecule is written once per batch at most.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class MongoBulkResultSink implements ResultSink {
+    //<editor-fold desc="Public enum Representation">
+    /**
+     * Representation of the functional groups in the database.
+     */
+    public enum Representation {
+        /**
+         * Hash key of the canonical form, see FunctionalGroupCanonicalForm.getHashKey()
+         */
+        HASH_KEYS,
+
+        /**
+         * Pseudo SMILES code of the canonical form
+         */
+        PSEUDO_SMILES;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static final constants">
+    /**
+     * Default number of write operations per bulk write
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * Default name of the field that holds the functional groups of a molecule
+     */
+    public static final String DEFAULT_FIELD_NAME = "functional_groups";
+
+    /**
+     * Name of the embedded field that holds the hash key of a functional group
+     */
+    public static final String HASH_KEY_FIELD_NAME = "id";
+
+    /**
+     * Name of the embedded field that holds the pseudo SMILES code of a functional group
+     */
+    public static final String PSEUDO_SMILES_FIELD_NAME = "pseudo_smiles";
+
+    /**
+     * Name of the embedded field that holds the frequency of a functional group
+     */
+    public static final String FREQUENCY_FIELD_NAME = "frequency";
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static final constants">
+    /**
+     * Name of the document variable with the primary key
+     */
+    private static final String PRIMARY_KEY = "_id";
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * Collection to write to
+     */
+    private final MongoCollection<Document> collection;
+
+    /**
+     * Name of the document variable with the molecule ID in the side collection; 'null' if the profiles are written
+     * into the source documents
+     */
+    private final String sideCollectionIdKey;
+
+    /**
+     * Name of the field that holds the functional groups of a molecule
+     */
+    private final String fieldName;
+
+    /**
+     * Representation of the functional groups
+     */
+    private final Representation representation;
+
+    /**
+     * Dictionary of the canonical forms of the functional groups
+     */
+    private final Map<Long, FunctionalGroupCanonicalForm> canonicalFormsMap;
+
+    /**
+     * Number of write operations per bulk write
+     */
+    private final int batchSize;
+
+    /**
+     * Write operations of the current batch
+     */
+    private final List<WriteModel<Document>> batch;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private variables">
+    /**
+     * Number of write operations sent to the server
+     */
+    private long writeCount;
+
+    /**
+     * Number of bulk writes sent to the server
+     */
+    private long bulkWriteCount;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor.
+     *
+     * @param aCollection collection to write to
+     * @param aSideCollectionIdKey name of the document variable with the molecule ID in the side collection; 'null' if
+     *                             the profiles are written into the source documents
+     * @param aFieldName name of the field that holds the functional groups of a molecule
+     * @param aRepresentation representation of the functional groups
+     * @param aCanonicalFormsMap dictionary of the canonical forms of the functional groups
+     * @param aBatchSize number of write operations per bulk write
+     */
+    private MongoBulkResultSink(MongoCollection<Document> aCollection, String aSideCollectionIdKey, String aFieldName,
+                                Representation aRepresentation,
+                                Map<Long, FunctionalGroupCanonicalForm> aCanonicalFormsMap, int aBatchSize)
+            throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(aCollection, "Given collection is 'null'.");
+        Objects.requireNonNull(aFieldName, "Given field name is 'null'.");
+        Objects.requireNonNull(aRepresentation, "Given representation is 'null'.");
+        Objects.requireNonNull(aCanonicalFormsMap, "Given canonical forms map is 'null'.");
+        if (aBatchSize < 1) {
+            throw new IllegalArgumentException("Given batch size must be positive but is " + aBatchSize + ".");
+        }
+        this.collection = aCollection;
+        this.sideCollectionIdKey = aSideCollectionIdKey;
+        this.fieldName = aFieldName;
+        this.representation = aRepresentation;
+        this.canonicalFormsMap = aCanonicalFormsMap;
+        this.batchSize = aBatchSize;
+        this.batch = new ArrayList<>(aBatchSize);
+        this.writeCount = 0L;
+        this.bulkWriteCount = 0L;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static methods">
+    /**
+     * Creates a sink that sets the functional groups field of the documents the molecules were read from, identified
+     * by their _id.
+     *
+     * @param aCollection the collection the molecules were read from
+     * @param aFieldName name of the field that holds the functional groups of a molecule
+     * @param aRepresentation representation of the functional groups
+     * @param aCanonicalFormsMap dictionary of the canonical forms of the functional groups, see
+     *                           FunctionalGroupExtractor.getCanonicalFormsMap()
+     * @param aBatchSize number of write operations per bulk write
+     * @return the sink
+     * @throws NullPointerException if a parameter is 'null'
+     * @throws IllegalArgumentException if aBatchSize is smaller than 1
+     */
+    public static MongoBulkResultSink createSourceCollectionSink(
+            MongoCollection<Document> aCollection, String aFieldName, Representation aRepresentation,
+            Map<Long, FunctionalGroupCanonicalForm> aCanonicalFormsMap, int aBatchSize)
+            throws NullPointerException, IllegalArgumentException {
+        return new MongoBulkResultSink(aCollection, null, aFieldName, aRepresentation, aCanonicalFormsMap, aBatchSize);
+    }
+
+    /**
+     * Creates a sink that writes one document per molecule into a side collection, with the _id of the source
+     * document, the molecule ID, and the functional groups field; existing documents are replaced.
+     *
+     * @param aCollection the side collection
+     * @param anIdKey name of the document variable with the molecule ID
+     * @param aFieldName name of the field that holds the functional groups of a molecule
+     * @param aRepresentation representation of the functional groups
+     * @param aCanonicalFormsMap dictionary of the canonical forms of the functional groups, see
+     *                           FunctionalGroupExtractor.getCanonicalFormsMap()
+     * @param aBatchSize number of write operations per bulk write
+     * @return the sink
+     * @throws NullPointerException if a parameter is 'null'
+     * @throws IllegalArgumentException if aBatchSize is smaller than 1
+     */
+    public static MongoBulkResultSink createSideCollectionSink(
+            MongoCollection<Document> aCollection, String anIdKey, String aFieldName, Representation aRepresentation,
+            Map<Long, FunctionalGroupCanonicalForm> aCanonicalFormsMap, int aBatchSize)
+            throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(anIdKey, "Given ID key is 'null'.");
+        return new MongoBulkResultSink(aCollection, anIdKey, aFieldName, aRepresentation, aCanonicalFormsMap,
+                aBatchSize);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * Creates the indexes needed to query the molecules by their functional groups, i.e. a multikey index on the hash
+     * keys or pseudo SMILES codes of the functional groups field and, for a side collection, an index on the molecule
+     * ID. Existing indexes are kept.
+     *
+     * @return the names of the indexes
+     */
+    public List<String> createIndexes() {
+        List<IndexModel> tmpIndexes = new ArrayList<>(2);
+        tmpIndexes.add(new IndexModel(Indexes.ascending(this.fieldName + "."
+                + (this.representation == Representation.HASH_KEYS ? MongoBulkResultSink.HASH_KEY_FIELD_NAME
+                : MongoBulkResultSink.PSEUDO_SMILES_FIELD_NAME))));
+        if (Objects.nonNull(this.sideCollectionIdKey)) {
+            tmpIndexes.add(new IndexModel(Indexes.ascending(this.sideCollectionIdKey)));
+        }
+        return this.collection.createIndexes(tmpIndexes);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>The write is sent to the server when the batch is full. If the result has no profile, the functional groups
+     * field is removed.
+     *
+     * @throws IllegalArgumentException if the document has no _id
+     */
+    @Override
+    public void accept(Document aDocument, ExtractionResult aResult) throws IllegalArgumentException {
+        if (Objects.isNull(aDocument)) {
+            return;
+        }
+        Object tmpPrimaryKey = aDocument.get(MongoBulkResultSink.PRIMARY_KEY);
+        if (Objects.isNull(tmpPrimaryKey)) {
+            throw new IllegalArgumentException("Document of molecule " + aResult.getID() + " has no "
+                    + MongoBulkResultSink.PRIMARY_KEY + ".");
+        }
+        //'null' if the molecule was filtered, could not be parsed, or caused an exception
+        List<Document> tmpFunctionalGroups = Objects.isNull(aResult.getProfile()) ? null
+                : this.createFunctionalGroupDocuments(aResult.getProfile());
+        if (Objects.isNull(this.sideCollectionIdKey)) {
+            this.batch.add(new UpdateOneModel<>(Filters.eq(MongoBulkResultSink.PRIMARY_KEY, tmpPrimaryKey),
+                    Objects.isNull(tmpFunctionalGroups) ? Updates.unset(this.fieldName)
+                            : Updates.set(this.fieldName, tmpFunctionalGroups)));
+        } else {
+            Document tmpSideDocument = new Document(MongoBulkResultSink.PRIMARY_KEY, tmpPrimaryKey)
+                    .append(this.sideCollectionIdKey, aResult.getID());
+            if (Objects.nonNull(tmpFunctionalGroups)) {
+                tmpSideDocument.append(this.fieldName, tmpFunctionalGroups);
+            }
+            this.batch.add(new ReplaceOneModel<>(Filters.eq(MongoBulkResultSink.PRIMARY_KEY, tmpPrimaryKey),
+                    tmpSideDocument, new ReplaceOptions().upsert(true)));
+        }
+        if (this.batch.size() >= this.batchSize) {
+            this.writeBatch();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>The incomplete last batch is sent to the server.
+     */
+    @Override
+    public void flush() {
+        if (!this.batch.isEmpty()) {
+            this.writeBatch();
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the number of write operations sent to the server.
+     *
+     * @return write count
+     */
+    public long getWriteCount() {
+        return this.writeCount;
+    }
+
+    /**
+     * Returns the number of bulk writes sent to the server.
+     *
+     * @return bulk write count
+     */
+    public long getBulkWriteCount() {
+        return this.bulkWriteCount;
+    }
+
+    /**
+     * Returns the number of write operations per bulk write.
+     *
+     * @return batch size
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Overridden public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "MongoBulkResultSink (collection: " + this.collection.getNamespace() + ", writes: " + this.writeCount
+                + ", bulk writes: " + this.bulkWriteCount + ")";
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private methods">
+    /**
+     * Creates the embedded documents of the functional groups in the given profile.
+     *
+     * @param aProfile functional group profile of a molecule
+     * @return one document per functional group with its hash key or pseudo SMILES code and its frequency
+     * @throws IllegalArgumentException if a functional group is not in the dictionary of canonical forms
+     */
+    private List<Document> createFunctionalGroupDocuments(FunctionalGroupProfile aProfile)
+            throws IllegalArgumentException {
+        List<Document> tmpFunctionalGroups = new ArrayList<>(aProfile.size());
+        for (int i = 0; i < aProfile.size(); i++) {
+            Document tmpFunctionalGroup;
+            if (this.representation == Representation.HASH_KEYS) {
+                tmpFunctionalGroup = new Document(MongoBulkResultSink.HASH_KEY_FIELD_NAME, aProfile.getHashKey(i));
+            } else {
+                FunctionalGroupCanonicalForm tmpCanonicalForm = this.canonicalFormsMap.get(aProfile.getHashKey(i));
+                if (Objects.isNull(tmpCanonicalForm)) {
+                    throw new IllegalArgumentException("No canonical form for hash key " + aProfile.getHashKey(i)
+                            + ".");
+                }
+                tmpFunctionalGroup = new Document(MongoBulkResultSink.PSEUDO_SMILES_FIELD_NAME,
+                        tmpCanonicalForm.getPseudoSmiles());
+            }
+            tmpFunctionalGroups.add(tmpFunctionalGroup.append(MongoBulkResultSink.FREQUENCY_FIELD_NAME,
+                    aProfile.getCount(i)));
+        }
+        return tmpFunctionalGroups;
+    }
+
+    /**
+     * Sends the current batch to the server as one unordered bulk write and clears it.
+     */
+    private void writeBatch() {
+        //unordered, so the server can apply the writes in parallel and does not stop at the first error
+        this.collection.bulkWrite(new ArrayList<>(this.batch), new BulkWriteOptions().ordered(false));
+        this.writeCount += this.batch.size();
+        this.bulkWriteCount++;
+        this.batch.clear();
+    }
+    //</editor-fold>
+}
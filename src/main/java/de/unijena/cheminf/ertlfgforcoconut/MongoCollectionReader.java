@@ -0,0 +1,238 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Opens cursors on a MongoDB collection of molecule documents with a field projection, a query filter that is
+ * evaluated by the server, a cursor batch size, and optionally without cursor timeout. Restricting the documents to the
+ * ID and SMILES code of the molecules and skipping documents without SMILES code on the server reduces the transferred
+ * and decoded data considerably, because the documents of COCONUT carry many annotations that are not needed for the
+ * detection of functional groups.
+ * <br>Cursors opened without cursor timeout are not closed by the server after ten minutes of inactivity, so they
+ * survive scans that take hours, but they have to be closed by the caller in any case.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class MongoCollectionReader {
+    //<editor-fold desc="Public static final constants">
+    /**
+     * Default number of documents per batch of a cursor
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * Fields of the documents to return; empty if all fields are returned
+     */
+    private final List<String> projectedFields;
+
+    /**
+     * Query filter evaluated by the server
+     */
+    private final Bson filter;
+
+    /**
+     * Number of documents per batch of a cursor; 0 for the server default
+     */
+    private final int batchSize;
+
+    /**
+     * True if the server should not time out idle cursors
+     */
+    private final boolean isNoCursorTimeout;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor.
+     *
+     * @param aProjectedFields fields of the documents to return, the _id field is always returned; empty or 'null' if
+     *                         all fields are returned
+     * @param aFilter query filter evaluated by the server; 'null' if all documents are returned
+     * @param aBatchSize number of documents per batch of a cursor; 0 for the server default
+     * @param isNoCursorTimeout true if the server should not time out idle cursors
+     * @throws NullPointerException if one of the projected fields is 'null'
+     * @throws IllegalArgumentException if aBatchSize is negative
+     */
+    public MongoCollectionReader(List<String> aProjectedFields, Bson aFilter, int aBatchSize, boolean isNoCursorTimeout)
+            throws NullPointerException, IllegalArgumentException {
+        if (aBatchSize < 0) {
+            throw new IllegalArgumentException("Given batch size must not be negative but is " + aBatchSize + ".");
+        }
+        List<String> tmpProjectedFields = new ArrayList<>(Objects.isNull(aProjectedFields) ? 0 : aProjectedFields.size());
+        if (Objects.nonNull(aProjectedFields)) {
+            for (String tmpField : aProjectedFields) {
+                tmpProjectedFields.add(Objects.requireNonNull(tmpField, "One of the given projected fields is 'null'."));
+            }
+        }
+        this.projectedFields = Collections.unmodifiableList(tmpProjectedFields);
+        this.filter = Objects.isNull(aFilter) ? new Document() : aFilter;
+        this.batchSize = aBatchSize;
+        this.isNoCursorTimeout = isNoCursorTimeout;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static methods">
+    /**
+     * Creates a reader that returns only the ID and the SMILES code of documents whose SMILES code is a string, using
+     * the default batch size and no cursor timeout.
+     *
+     * @param anIdKey name of the document variable that contains the ID of a molecule
+     * @param aSmilesCodeKey name of the document variable that contains the SMILES code of a molecule
+     * @return the reader
+     * @throws NullPointerException if a parameter is 'null'
+     */
+    public static MongoCollectionReader createMoleculeReader(String anIdKey, String aSmilesCodeKey) throws NullPointerException {
+        Objects.requireNonNull(anIdKey, "Given ID key is 'null'.");
+        Objects.requireNonNull(aSmilesCodeKey, "Given SMILES code key is 'null'.");
+        List<String> tmpProjectedFields = new ArrayList<>(2);
+        tmpProjectedFields.add(anIdKey);
+        tmpProjectedFields.add(aSmilesCodeKey);
+        return new MongoCollectionReader(tmpProjectedFields, MongoCollectionReader.createSmilesCodeFilter(aSmilesCodeKey),
+                MongoCollectionReader.DEFAULT_BATCH_SIZE, true);
+    }
+
+    /**
+     * Creates a query filter that matches documents whose given variable is a string, i.e. skips documents where it is
+     * missing, 'null', or of another type.
+     *
+     * @param aSmilesCodeKey name of the document variable that contains the SMILES code of a molecule
+     * @return the filter
+     * @throws NullPointerException if aSmilesCodeKey is 'null'
+     */
+    public static Bson createSmilesCodeFilter(String aSmilesCodeKey) throws NullPointerException {
+        Objects.requireNonNull(aSmilesCodeKey, "Given SMILES code key is 'null'.");
+        return Filters.type(aSmilesCodeKey, BsonType.STRING);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * Creates the find operation on the given collection with the settings of this reader.
+     *
+     * @param aCollection the collection to read
+     * @return the find operation
+     * @throws NullPointerException if aCollection is 'null'
+     */
+    public FindIterable<Document> find(MongoCollection<Document> aCollection) throws NullPointerException {
+        return this.find(aCollection, null);
+    }
+
+    /**
+     * Creates the find operation on the given collection with the settings of this reader, restricted to the
+     * documents that additionally match the given filter, e.g. a range of IDs.
+     *
+     * @param aCollection the collection to read
+     * @param anAdditionalFilter filter that is combined with the filter of this reader; may be 'null'
+     * @return the find operation
+     * @throws NullPointerException if aCollection is 'null'
+     */
+    public FindIterable<Document> find(MongoCollection<Document> aCollection, Bson anAdditionalFilter) throws NullPointerException {
+        Objects.requireNonNull(aCollection, "Given collection is 'null'.");
+        Bson tmpFilter = Objects.isNull(anAdditionalFilter) ? this.filter : Filters.and(this.filter, anAdditionalFilter);
+        FindIterable<Document> tmpFindIterable = aCollection.find(tmpFilter).noCursorTimeout(this.isNoCursorTimeout);
+        if (!this.projectedFields.isEmpty()) {
+            tmpFindIterable = tmpFindIterable.projection(this.getProjection());
+        }
+        if (this.batchSize > 0) {
+            tmpFindIterable = tmpFindIterable.batchSize(this.batchSize);
+        }
+        return tmpFindIterable;
+    }
+
+    /**
+     * Opens a cursor on the given collection with the settings of this reader. The cursor has to be closed by the
+     * caller.
+     *
+     * @param aCollection the collection to read
+     * @return the cursor
+     * @throws NullPointerException if aCollection is 'null'
+     */
+    public MongoCursor<Document> open(MongoCollection<Document> aCollection) throws NullPointerException {
+        return this.find(aCollection).iterator();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the projection of the fields to return.
+     *
+     * @return the projection or 'null' if all fields are returned
+     */
+    public Bson getProjection() {
+        return this.projectedFields.isEmpty() ? null : Projections.include(this.projectedFields);
+    }
+
+    /**
+     * Returns the fields of the documents to return.
+     *
+     * @return unmodifiable list of the projected fields; empty if all fields are returned
+     */
+    public List<String> getProjectedFields() {
+        return this.projectedFields;
+    }
+
+    /**
+     * Returns the query filter evaluated by the server.
+     *
+     * @return filter; an empty document if all documents are returned
+     */
+    public Bson getFilter() {
+        return this.filter;
+    }
+
+    /**
+     * Returns the number of documents per batch of a cursor.
+     *
+     * @return batch size; 0 for the server default
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Returns whether the server should not time out idle cursors.
+     *
+     * @return true if cursors are opened without timeout
+     */
+    public boolean isNoCursorTimeout() {
+        return this.isNoCursorTimeout;
+    }
+    //</editor-fold>
+}
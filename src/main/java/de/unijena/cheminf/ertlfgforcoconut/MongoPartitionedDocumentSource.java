@@ -0,0 +1,244 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Partitioned source of the documents of a MongoDB collection. The split points of the partitions are quantiles of a
+ * random sample of the partition key values drawn with $sample, and every partition is read with its own cursor of the
+ * given MongoCollectionReader, restricted to the key range of the partition and sorted by the key. The partition key
+ * should be indexed, e.g. _id, so that the range queries and the sort do not scan the collection.
+ * <br>Since MongoDB range queries neither match documents without the key nor values of another BSON type bracket,
+ * such documents would silently be skipped. Therefore, the smallest and the largest key value of the documents
+ * returned by the reader are looked up in the order of the database before the collection is partitioned, and the
+ * partitioning is rejected if a document lacks the key or the key values belong to different type brackets, e.g.
+ * numbers and strings.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class MongoPartitionedDocumentSource implements PartitionedDocumentSource {
+    //<editor-fold desc="Public static final constants">
+    /**
+     * Default partition key
+     */
+    public static final String DEFAULT_PARTITION_KEY = "_id";
+
+    /**
+     * Default number of sampled key values per partition
+     */
+    public static final int DEFAULT_SAMPLES_PER_PARTITION = 100;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * Collection to read
+     */
+    private final MongoCollection<Document> collection;
+
+    /**
+     * Reader applied on every partition
+     */
+    private final MongoCollectionReader reader;
+
+    /**
+     * Name of the document variable the collection is partitioned on
+     */
+    private final String partitionKey;
+
+    /**
+     * Number of sampled key values per partition
+     */
+    private final int samplesPerPartition;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor using _id as partition key and the default sample size.
+     *
+     * @param aCollection collection to read
+     * @param aReader reader applied on every partition
+     * @throws NullPointerException if a parameter is 'null'
+     */
+    public MongoPartitionedDocumentSource(MongoCollection<Document> aCollection, MongoCollectionReader aReader)
+            throws NullPointerException {
+        this(aCollection, aReader, MongoPartitionedDocumentSource.DEFAULT_PARTITION_KEY,
+                MongoPartitionedDocumentSource.DEFAULT_SAMPLES_PER_PARTITION);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param aCollection collection to read
+     * @param aReader reader applied on every partition
+     * @param aPartitionKey name of the document variable the collection is partitioned on; it must be _id or returned
+     *                      by the projection of the reader
+     * @param aSamplesPerPartition number of sampled key values per partition
+     * @throws NullPointerException if aCollection, aReader, or aPartitionKey is 'null'
+     * @throws IllegalArgumentException if the partition key is not returned by the reader or aSamplesPerPartition is
+     * smaller than 1
+     */
+    public MongoPartitionedDocumentSource(MongoCollection<Document> aCollection, MongoCollectionReader aReader,
+                                          String aPartitionKey, int aSamplesPerPartition)
+            throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(aCollection, "Given collection is 'null'.");
+        Objects.requireNonNull(aReader, "Given reader is 'null'.");
+        Objects.requireNonNull(aPartitionKey, "Given partition key is 'null'.");
+        if (!aPartitionKey.equals(MongoPartitionedDocumentSource.DEFAULT_PARTITION_KEY)
+                && !aReader.getProjectedFields().isEmpty() && !aReader.getProjectedFields().contains(aPartitionKey)) {
+            throw new IllegalArgumentException("Given partition key " + aPartitionKey
+                    + " is not returned by the given reader.");
+        }
+        if (aSamplesPerPartition < 1) {
+            throw new IllegalArgumentException("Given number of samples per partition must be positive but is "
+                    + aSamplesPerPartition + ".");
+        }
+        this.collection = aCollection;
+        this.reader = aReader;
+        this.partitionKey = aPartitionKey;
+        this.samplesPerPartition = aSamplesPerPartition;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPartitionKey() {
+        return this.partitionKey;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>The split points are taken from a random sample of the partition key values drawn by the server and sorted
+     * in the order of the database, see DocumentPartition.compareKeys().
+     *
+     * @throws IllegalStateException if a document returned by the reader has no value of the partition key or the key
+     * values belong to different BSON type brackets
+     */
+    @Override
+    public List<DocumentPartition> createPartitions(int aPartitionCount)
+            throws IllegalArgumentException, IllegalStateException {
+        if (aPartitionCount < 1) {
+            throw new IllegalArgumentException("Given partition count must be positive but is " + aPartitionCount
+                    + ".");
+        }
+        this.checkKeyRange();
+        if (aPartitionCount == 1) {
+            return DocumentPartition.createPartitions(Collections.emptyList(), 1);
+        }
+        //$sample as first stage picks random documents without scanning the collection
+        List<Bson> tmpPipeline = Arrays.asList(
+                Aggregates.sample(aPartitionCount * this.samplesPerPartition),
+                Aggregates.project(Projections.include(this.partitionKey)));
+        List<Object> tmpSampledKeys = new ArrayList<>(aPartitionCount * this.samplesPerPartition);
+        try (MongoCursor<Document> tmpCursor = this.collection.aggregate(tmpPipeline).iterator()) {
+            while (tmpCursor.hasNext()) {
+                Object tmpKey = tmpCursor.next().get(this.partitionKey);
+                if (Objects.nonNull(tmpKey)) {
+                    tmpSampledKeys.add(tmpKey);
+                }
+            }
+        }
+        return DocumentPartition.createPartitions(tmpSampledKeys, aPartitionCount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MongoCursor<Document> open(DocumentPartition aPartition, Object aResumeKey) throws NullPointerException {
+        Objects.requireNonNull(aPartition, "Given partition is 'null'.");
+        List<Bson> tmpRangeFilters = new ArrayList<>(3);
+        if (Objects.nonNull(aPartition.getLowerBound())) {
+            tmpRangeFilters.add(Filters.gte(this.partitionKey, aPartition.getLowerBound()));
+        }
+        if (Objects.nonNull(aPartition.getUpperBound())) {
+            tmpRangeFilters.add(Filters.lt(this.partitionKey, aPartition.getUpperBound()));
+        }
+        if (Objects.nonNull(aResumeKey)) {
+            tmpRangeFilters.add(Filters.gt(this.partitionKey, aResumeKey));
+        }
+        Bson tmpRangeFilter = tmpRangeFilters.isEmpty() ? null : Filters.and(tmpRangeFilters);
+        return this.reader.find(this.collection, tmpRangeFilter).sort(Sorts.ascending(this.partitionKey)).iterator();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private methods">
+    /**
+     * Checks that all documents returned by the reader have a value of the partition key and that all values belong to
+     * one BSON type bracket. Documents without the key sort first and the type brackets are contiguous in the order of
+     * the database, so only the smallest and the largest key value are looked up, using the index on the key.
+     *
+     * @throws IllegalStateException if a document has no value of the partition key or the key values belong to
+     * different BSON type brackets
+     */
+    private void checkKeyRange() throws IllegalStateException {
+        Document tmpFirstDocument = this.findBoundaryDocument(Sorts.ascending(this.partitionKey));
+        if (Objects.isNull(tmpFirstDocument)) {
+            //empty collection
+            return;
+        }
+        Object tmpSmallestKey = tmpFirstDocument.get(this.partitionKey);
+        if (Objects.isNull(tmpSmallestKey)) {
+            throw new IllegalStateException("Document "
+                    + tmpFirstDocument.get(MongoPartitionedDocumentSource.DEFAULT_PARTITION_KEY)
+                    + " has no value of partition key " + this.partitionKey + " and would not be read.");
+        }
+        Object tmpLargestKey = this.findBoundaryDocument(Sorts.descending(this.partitionKey)).get(this.partitionKey);
+        try {
+            DocumentPartition.compareKeys(tmpSmallestKey, tmpLargestKey);
+        } catch (ClassCastException aClassCastException) {
+            throw new IllegalStateException("Values of partition key " + this.partitionKey
+                    + " belong to different BSON type brackets, so range partitions would not cover them: "
+                    + aClassCastException.getMessage(), aClassCastException);
+        }
+    }
+
+    /**
+     * Returns the first document returned by the reader in the given order, with the partition key only.
+     *
+     * @param aSort ascending or descending order of the partition key
+     * @return the first document or 'null' if the reader returns no documents
+     */
+    private Document findBoundaryDocument(Bson aSort) {
+        return this.reader.find(this.collection).projection(Projections.include(this.partitionKey)).sort(aSort).limit(1)
+                .first();
+    }
+    //</editor-fold>
+}
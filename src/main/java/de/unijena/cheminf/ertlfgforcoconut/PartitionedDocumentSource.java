@@ -0,0 +1,66 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+
+import java.util.List;
+
+/**
+ * Collection of molecule documents that can be split into ranges of a partition key and read with one cursor per
+ * range, so that several cursors can run concurrently.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public interface PartitionedDocumentSource {
+    /**
+     * Returns the name of the document variable the collection is partitioned on, e.g. _id. Every document returned
+     * by the cursors must contain a non-null value of it.
+     *
+     * @return the partition key
+     */
+    String getPartitionKey();
+
+    /**
+     * Splits the collection into at most the given number of disjoint partitions that cover all documents.
+     *
+     * @param aPartitionCount maximum number of partitions
+     * @return the partitions ordered by their index, see DocumentPartition
+     * @throws IllegalArgumentException if aPartitionCount is smaller than 1
+     */
+    List<DocumentPartition> createPartitions(int aPartitionCount) throws IllegalArgumentException;
+
+    /**
+     * Opens a cursor on the documents of the given partition in ascending order of their partition key. If a resume key
+     * is given, only the documents with a greater key are returned, so a failed read of the partition can be
+     * continued. The cursor has to be closed by the caller.
+     *
+     * @param aPartition the partition to read
+     * @param aResumeKey key of the last document read in a former attempt; 'null' to read the whole partition
+     * @return the cursor
+     * @throws NullPointerException if aPartition is 'null'
+     */
+    MongoCursor<Document> open(DocumentPartition aPartition, Object aResumeKey) throws NullPointerException;
+}
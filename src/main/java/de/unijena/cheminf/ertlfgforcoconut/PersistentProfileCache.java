@@ -0,0 +1,555 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import org.openscience.cdk.tools.FunctionalGroupCanonicalForm;
+import org.openscience.cdk.tools.FunctionalGroupProfile;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * On-disk cache of functional group profiles keyed on the input SMILES codes of the molecules, so that re-runs on a
+ * new release of a database only parse, preprocess, and pass on to find() the structures that are new or changed.
+ * <br>The key of a molecule is a 64-bit hash (the first eight bytes of SHA-256) of the settings the profiles depend on
+ * and its SMILES code as given, so profiles created with other settings, e.g. another aromaticity model, are never
+ * returned. With a few million SMILES codes, the probability of a collision is below 1e-6. The canonical forms of the
+ * functional groups are persisted along with the profiles, because the profiles only hold their hash keys.
+ * <br>The cache file is an append-only log of length-prefixed records after a short header holding the settings. All
+ * records are loaded into memory when the cache is opened. If the file was written with other settings or in another
+ * format version, it is compacted on opening, i.e. its entries are discarded and it is started anew, so the file only
+ * holds entries that can be returned and does not grow with every change of the settings. New entries are collected
+ * as complete records in memory and appended to the file on flush(), on close(), and when more than 64 KiB are
+ * pending; if appending fails, the file is truncated back to the end of its last complete record. A record cut off by
+ * a crash is discarded when the cache is opened again. All methods are thread-safe.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class PersistentProfileCache implements Closeable, Flushable {
+    //<editor-fold desc="Private static final constants">
+    /**
+     * First bytes of a cache file
+     */
+    private static final int MAGIC_NUMBER = 0x45464750;
+
+    /**
+     * Version of the file format; version 2 added the settings to the header
+     */
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * Type of a record holding a canonical form
+     */
+    private static final byte CANONICAL_FORM_RECORD = 1;
+
+    /**
+     * Type of a record holding a key and a profile
+     */
+    private static final byte PROFILE_RECORD = 2;
+
+    /**
+     * Length of the fixed part of the header, i.e. magic number, format version, and length of the settings
+     */
+    private static final int HEADER_PREFIX_LENGTH = 12;
+
+    /**
+     * Length of the type and length prefix of a record
+     */
+    private static final int RECORD_PREFIX_LENGTH = 5;
+
+    /**
+     * Number of bytes of pending records above which they are appended to the file
+     */
+    private static final int FLUSH_THRESHOLD = 65536;
+
+    /**
+     * Logger of this class
+     */
+    private static final Logger LOGGER = Logger.getLogger(PersistentProfileCache.class.getName());
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * The cache file
+     */
+    private final Path file;
+
+    /**
+     * Settings the cached profiles depend on
+     */
+    private final String settings;
+
+    /**
+     * Cached profiles keyed on the hashes of settings and SMILES codes
+     */
+    private final ConcurrentHashMap<Long, FunctionalGroupProfile> profiles;
+
+    /**
+     * Canonical forms of the functional groups in the cached profiles
+     */
+    private final ConcurrentHashMap<Long, FunctionalGroupCanonicalForm> canonicalForms;
+
+    /**
+     * Channel appending to the cache file; guarded by this
+     */
+    private final FileChannel channel;
+
+    /**
+     * Complete records of new entries that were not appended to the file yet; guarded by this
+     */
+    private final ByteArrayOutputStream pendingRecords;
+
+    /**
+     * Number of profiles loaded from the file
+     */
+    private final int loadedCount;
+
+    /**
+     * Number of successful lookups
+     */
+    private final AtomicLong hitCount;
+
+    /**
+     * Number of unsuccessful lookups
+     */
+    private final AtomicLong missCount;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor, see open().
+     *
+     * @param aFile the cache file
+     * @param aSettings settings the cached profiles depend on
+     * @param aProfiles profiles loaded from the file
+     * @param aCanonicalForms canonical forms loaded from the file
+     * @param aChannel channel positioned at the end of the last complete record of the file
+     */
+    private PersistentProfileCache(Path aFile, String aSettings,
+                                   ConcurrentHashMap<Long, FunctionalGroupProfile> aProfiles,
+                                   ConcurrentHashMap<Long, FunctionalGroupCanonicalForm> aCanonicalForms,
+                                   FileChannel aChannel) {
+        this.file = aFile;
+        this.settings = aSettings;
+        this.profiles = aProfiles;
+        this.canonicalForms = aCanonicalForms;
+        this.channel = aChannel;
+        this.pendingRecords = new ByteArrayOutputStream(PersistentProfileCache.FLUSH_THRESHOLD + 4096);
+        this.loadedCount = aProfiles.size();
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static methods">
+    /**
+     * Opens the given cache file, loading all entries, or creates it if it does not exist. A record cut off at the end
+     * of the file is discarded. If the file was written with other settings or in another format version, it is
+     * compacted, i.e. all of its entries are discarded.
+     *
+     * @param aFile the cache file
+     * @param aSettings settings the cached profiles depend on, e.g. FunctionalGroupExtractor.SETTINGS
+     * @return the cache
+     * @throws NullPointerException if a parameter is 'null'
+     * @throws IOException if the file cannot be read or written or is no cache file
+     */
+    public static PersistentProfileCache open(Path aFile, String aSettings) throws NullPointerException, IOException {
+        Objects.requireNonNull(aFile, "Given file is 'null'.");
+        Objects.requireNonNull(aSettings, "Given settings are 'null'.");
+        ConcurrentHashMap<Long, FunctionalGroupProfile> tmpProfiles = new ConcurrentHashMap<>(100000);
+        ConcurrentHashMap<Long, FunctionalGroupCanonicalForm> tmpCanonicalForms = new ConcurrentHashMap<>(50000);
+        long tmpValidLength = 0L;
+        if (Files.exists(aFile) && Files.size(aFile) > 0L) {
+            tmpValidLength = PersistentProfileCache.load(aFile, aSettings, tmpProfiles, tmpCanonicalForms);
+            if (tmpValidLength == 0L) {
+                PersistentProfileCache.LOGGER.log(Level.INFO, "Compacting " + aFile + ", its entries were cached with "
+                        + "other settings or in another format version and are discarded.");
+            } else if (tmpValidLength < Files.size(aFile)) {
+                PersistentProfileCache.LOGGER.log(Level.WARNING, "Discarding " + (Files.size(aFile) - tmpValidLength)
+                        + " bytes of an incomplete record at the end of " + aFile + ".");
+            }
+        }
+        FileChannel tmpChannel = FileChannel.open(aFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            if (tmpValidLength == 0L) {
+                byte[] tmpSettingsBytes = aSettings.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer tmpHeader = ByteBuffer.allocate(PersistentProfileCache.HEADER_PREFIX_LENGTH
+                        + tmpSettingsBytes.length).putInt(PersistentProfileCache.MAGIC_NUMBER)
+                        .putInt(PersistentProfileCache.FORMAT_VERSION).putInt(tmpSettingsBytes.length)
+                        .put(tmpSettingsBytes);
+                tmpHeader.flip();
+                tmpChannel.truncate(0L);
+                while (tmpHeader.hasRemaining()) {
+                    tmpChannel.write(tmpHeader);
+                }
+                tmpValidLength = tmpChannel.position();
+            } else {
+                tmpChannel.truncate(tmpValidLength);
+                tmpChannel.position(tmpValidLength);
+            }
+        } catch (IOException anIOException) {
+            tmpChannel.close();
+            throw anIOException;
+        }
+        return new PersistentProfileCache(aFile, aSettings, tmpProfiles, tmpCanonicalForms, tmpChannel);
+    }
+
+    /**
+     * Creates the cache key of the given SMILES code under the given settings, i.e. the first eight bytes of the
+     * SHA-256 hash of both.
+     *
+     * @param aSettings settings the cached profiles depend on
+     * @param aSmilesCode SMILES code of a molecule as given
+     * @return the key
+     * @throws NullPointerException if a parameter is 'null'
+     */
+    public static long createKey(String aSettings, String aSmilesCode) throws NullPointerException {
+        Objects.requireNonNull(aSettings, "Given settings are 'null'.");
+        Objects.requireNonNull(aSmilesCode, "Given SMILES code is 'null'.");
+        MessageDigest tmpDigest;
+        try {
+            tmpDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException aNoSuchAlgorithmException) {
+            //every Java platform supports SHA-256
+            throw new IllegalStateException(aNoSuchAlgorithmException);
+        }
+        tmpDigest.update(aSettings.getBytes(StandardCharsets.UTF_8));
+        tmpDigest.update((byte) 0);
+        return ByteBuffer.wrap(tmpDigest.digest(aSmilesCode.getBytes(StandardCharsets.UTF_8))).getLong();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * Returns the cached profile of the given SMILES code and counts the lookup as hit or miss.
+     *
+     * @param aSmilesCode SMILES code of a molecule as given
+     * @return the cached profile or 'null' if there is none
+     * @throws NullPointerException if aSmilesCode is 'null'
+     */
+    public FunctionalGroupProfile get(String aSmilesCode) throws NullPointerException {
+        FunctionalGroupProfile tmpProfile = this.profiles.get(PersistentProfileCache.createKey(this.settings,
+                aSmilesCode));
+        if (Objects.isNull(tmpProfile)) {
+            this.missCount.incrementAndGet();
+        } else {
+            this.hitCount.incrementAndGet();
+        }
+        return tmpProfile;
+    }
+
+    /**
+     * Caches the given profile of the given SMILES code and appends it to the file, preceded by the canonical forms of
+     * its functional groups that are not in the file yet. Nothing is done if the SMILES code is already cached. The
+     * records of the entry are created completely before anything is cached, so an exception leaves neither a part of
+     * the entry in the cache nor a part of a record in the file. They are appended to the file if more than 64 KiB are
+     * pending afterwards, otherwise on the next flush.
+     *
+     * @param aSmilesCode SMILES code of a molecule as given
+     * @param aProfile profile of the molecule
+     * @param aCanonicalFormsMap dictionary containing the canonical forms of all functional groups of the profile
+     * @throws NullPointerException if a parameter is 'null'
+     * @throws IllegalArgumentException if a functional group of the profile is not in the dictionary
+     * @throws IOException if the pending records cannot be appended to the file; they stay pending and the entry is
+     * cached
+     */
+    public void put(String aSmilesCode, FunctionalGroupProfile aProfile,
+                    Map<Long, FunctionalGroupCanonicalForm> aCanonicalFormsMap)
+            throws NullPointerException, IllegalArgumentException, IOException {
+        Objects.requireNonNull(aProfile, "Given profile is 'null'.");
+        Objects.requireNonNull(aCanonicalFormsMap, "Given canonical forms map is 'null'.");
+        long tmpKey = PersistentProfileCache.createKey(this.settings, aSmilesCode);
+        if (this.profiles.containsKey(tmpKey)) {
+            return;
+        }
+        synchronized (this) {
+            if (this.profiles.containsKey(tmpKey)) {
+                return;
+            }
+            List<FunctionalGroupCanonicalForm> tmpNewCanonicalForms = new ArrayList<>(aProfile.size());
+            for (int i = 0; i < aProfile.size(); i++) {
+                if (this.canonicalForms.containsKey(aProfile.getHashKey(i))) {
+                    continue;
+                }
+                FunctionalGroupCanonicalForm tmpCanonicalForm = aCanonicalFormsMap.get(aProfile.getHashKey(i));
+                if (Objects.isNull(tmpCanonicalForm)) {
+                    throw new IllegalArgumentException("No canonical form for hash key " + aProfile.getHashKey(i)
+                            + ".");
+                }
+                tmpNewCanonicalForms.add(tmpCanonicalForm);
+            }
+            ByteArrayOutputStream tmpRecords = new ByteArrayOutputStream(64 * (tmpNewCanonicalForms.size() + 1));
+            DataOutputStream tmpRecordsOutput = new DataOutputStream(tmpRecords);
+            for (FunctionalGroupCanonicalForm tmpCanonicalForm : tmpNewCanonicalForms) {
+                ByteArrayOutputStream tmpBytes = new ByteArrayOutputStream(64);
+                tmpCanonicalForm.writeTo(new DataOutputStream(tmpBytes));
+                PersistentProfileCache.writeRecord(tmpRecordsOutput, PersistentProfileCache.CANONICAL_FORM_RECORD,
+                        tmpBytes.toByteArray());
+            }
+            ByteArrayOutputStream tmpBytes = new ByteArrayOutputStream(12 + aProfile.size() * 12);
+            DataOutputStream tmpDataOutput = new DataOutputStream(tmpBytes);
+            tmpDataOutput.writeLong(tmpKey);
+            aProfile.writeTo(tmpDataOutput);
+            PersistentProfileCache.writeRecord(tmpRecordsOutput, PersistentProfileCache.PROFILE_RECORD,
+                    tmpBytes.toByteArray());
+            this.pendingRecords.writeBytes(tmpRecords.toByteArray());
+            for (FunctionalGroupCanonicalForm tmpCanonicalForm : tmpNewCanonicalForms) {
+                this.canonicalForms.put(tmpCanonicalForm.getHashKey(), tmpCanonicalForm);
+            }
+            this.profiles.put(tmpKey, aProfile);
+            if (this.pendingRecords.size() > PersistentProfileCache.FLUSH_THRESHOLD) {
+                this.flush();
+            }
+        }
+    }
+
+    /**
+     * Appends the pending records of new entries to the file. If this fails, the file is truncated back to the end of
+     * its last complete record and the records stay pending.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (this.pendingRecords.size() == 0) {
+            return;
+        }
+        long tmpStartPosition = this.channel.position();
+        ByteBuffer tmpBuffer = ByteBuffer.wrap(this.pendingRecords.toByteArray());
+        try {
+            while (tmpBuffer.hasRemaining()) {
+                this.channel.write(tmpBuffer);
+            }
+        } catch (IOException anIOException) {
+            try {
+                this.channel.truncate(tmpStartPosition);
+                this.channel.position(tmpStartPosition);
+            } catch (IOException aTruncationException) {
+                anIOException.addSuppressed(aTruncationException);
+            }
+            throw anIOException;
+        }
+        this.pendingRecords.reset();
+    }
+
+    /**
+     * Appends the pending records of new entries to the file and closes it; the cache must not be changed afterwards.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            this.flush();
+        } finally {
+            this.channel.close();
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the canonical forms of the functional groups in the cached profiles, e.g. to restore the dictionary of
+     * a FunctionalGroupExtractor.
+     *
+     * @return unmodifiable view of the canonical forms keyed on their hash keys
+     */
+    public Map<Long, FunctionalGroupCanonicalForm> getCanonicalForms() {
+        return Collections.unmodifiableMap(this.canonicalForms);
+    }
+
+    /**
+     * Returns the settings the cached profiles depend on.
+     *
+     * @return settings
+     */
+    public String getSettings() {
+        return this.settings;
+    }
+
+    /**
+     * Returns the cache file.
+     *
+     * @return file
+     */
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns the number of cached profiles.
+     *
+     * @return size
+     */
+    public int size() {
+        return this.profiles.size();
+    }
+
+    /**
+     * Returns the number of profiles loaded from the file when it was opened.
+     *
+     * @return loaded count
+     */
+    public int getLoadedCount() {
+        return this.loadedCount;
+    }
+
+    /**
+     * Returns the number of lookups that found a cached profile.
+     *
+     * @return hit count
+     */
+    public long getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * Returns the number of lookups that found no cached profile.
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return this.missCount.get();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Overridden public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "PersistentProfileCache (file: " + this.file + ", loaded: " + this.loadedCount + ", size: "
+                + this.profiles.size() + ", hits: " + this.hitCount.get() + ", misses: " + this.missCount.get() + ")";
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static methods">
+    /**
+     * Loads the records of the given file into the given maps if it was written with the given settings in the current
+     * format version.
+     *
+     * @param aFile the cache file
+     * @param aSettings settings the cached profiles depend on
+     * @param aProfiles map the profiles are put into
+     * @param aCanonicalForms map the canonical forms are put into
+     * @return the length of the file up to the end of the last complete record; 0 if the file was written with other
+     * settings or in another format version, so nothing was loaded
+     * @throws IOException if the file cannot be read or is no cache file
+     */
+    private static long load(Path aFile, String aSettings, Map<Long, FunctionalGroupProfile> aProfiles,
+                             Map<Long, FunctionalGroupCanonicalForm> aCanonicalForms) throws IOException {
+        try (DataInputStream tmpInput = new DataInputStream(new BufferedInputStream(Files.newInputStream(aFile)))) {
+            byte[] tmpSettingsBytes;
+            try {
+                if (tmpInput.readInt() != PersistentProfileCache.MAGIC_NUMBER) {
+                    throw new IOException(aFile + " is no profile cache file.");
+                }
+                if (tmpInput.readInt() != PersistentProfileCache.FORMAT_VERSION) {
+                    return 0L;
+                }
+                int tmpSettingsLength = tmpInput.readInt();
+                if (tmpSettingsLength < 0) {
+                    throw new IOException("Invalid settings length " + tmpSettingsLength + " in " + aFile + ".");
+                }
+                tmpSettingsBytes = new byte[tmpSettingsLength];
+                tmpInput.readFully(tmpSettingsBytes);
+            } catch (EOFException anEOFException) {
+                throw new IOException(aFile + " is no profile cache file.", anEOFException);
+            }
+            if (!Arrays.equals(tmpSettingsBytes, aSettings.getBytes(StandardCharsets.UTF_8))) {
+                return 0L;
+            }
+            long tmpValidLength = PersistentProfileCache.HEADER_PREFIX_LENGTH + tmpSettingsBytes.length;
+            while (true) {
+                byte tmpType;
+                byte[] tmpPayload;
+                try {
+                    tmpType = tmpInput.readByte();
+                    int tmpLength = tmpInput.readInt();
+                    if (tmpLength < 0) {
+                        throw new IOException("Invalid record length " + tmpLength + " in " + aFile + ".");
+                    }
+                    tmpPayload = new byte[tmpLength];
+                    tmpInput.readFully(tmpPayload);
+                } catch (EOFException anEOFException) {
+                    //end of file or a record cut off by a crash
+                    return tmpValidLength;
+                }
+                DataInputStream tmpPayloadInput = new DataInputStream(new ByteArrayInputStream(tmpPayload));
+                if (tmpType == PersistentProfileCache.CANONICAL_FORM_RECORD) {
+                    FunctionalGroupCanonicalForm tmpCanonicalForm = FunctionalGroupCanonicalForm.readFrom(
+                            tmpPayloadInput);
+                    aCanonicalForms.put(tmpCanonicalForm.getHashKey(), tmpCanonicalForm);
+                } else if (tmpType == PersistentProfileCache.PROFILE_RECORD) {
+                    long tmpKey = tmpPayloadInput.readLong();
+                    aProfiles.put(tmpKey, FunctionalGroupProfile.readFrom(tmpPayloadInput));
+                } else {
+                    throw new IOException("Unknown record type " + tmpType + " in " + aFile + ".");
+                }
+                tmpValidLength += PersistentProfileCache.RECORD_PREFIX_LENGTH + tmpPayload.length;
+            }
+        }
+    }
+
+    /**
+     * Writes a record of the given type and payload to the given output.
+     *
+     * @param anOutput output to write to
+     * @param aType type of the record
+     * @param aPayload payload of the record
+     * @throws IOException if the record cannot be written
+     */
+    private static void writeRecord(DataOutputStream anOutput, byte aType, byte[] aPayload) throws IOException {
+        anOutput.writeByte(aType);
+        anOutput.writeInt(aPayload.length);
+        anOutput.write(aPayload);
+    }
+    //</editor-fold>
+}
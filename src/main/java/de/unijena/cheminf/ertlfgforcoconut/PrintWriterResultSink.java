@@ -0,0 +1,91 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import org.bson.Document;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Objects;
+
+/**
+ * Sink that prints the results lines to a PrintWriter, i.e. writes the results file (csv). Records without results line
+ * are skipped. The printer is flushed when the pipeline is idle and at the end of a run, but not closed.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class PrintWriterResultSink implements ResultSink {
+    //<editor-fold desc="Private final variables">
+    /**
+     * Printer of the results file
+     */
+    private final PrintWriter printer;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor.
+     *
+     * @param aPrinter printer of the results file
+     * @throws NullPointerException if aPrinter is 'null'
+     */
+    public PrintWriterResultSink(PrintWriter aPrinter) throws NullPointerException {
+        Objects.requireNonNull(aPrinter, "Given printer is 'null'.");
+        this.printer = aPrinter;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void accept(Document aDocument, ExtractionResult aResult) {
+        if (Objects.nonNull(aResult.getLine())) {
+            this.printer.println(aResult.getLine());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IOException if the printer encountered an error
+     */
+    @Override
+    public void flush() throws IOException {
+        this.printer.flush();
+        if (this.printer.checkError()) {
+            throw new IOException("Results could not be written.");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onIdle() {
+        this.printer.flush();
+    }
+    //</editor-fold>
+}
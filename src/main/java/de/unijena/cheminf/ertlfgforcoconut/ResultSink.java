@@ -0,0 +1,145 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import org.bson.Document;
+
+import java.io.Flushable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Receiver of the extraction results of a FunctionalGroupExtractionPipeline. The results are passed to the sink by the
+ * writer thread of the pipeline in input order, one at a time, so implementations need not be thread-safe.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public interface ResultSink {
+    /**
+     * Receives the result of the next record.
+     *
+     * @param aDocument document of the record; 'null' if reading it failed
+     * @param aResult extraction result of the record
+     * @throws Exception if the result cannot be written
+     */
+    void accept(Document aDocument, ExtractionResult aResult) throws Exception;
+
+    /**
+     * Writes all results received so far; called at the end of a run.
+     *
+     * @throws Exception if the results cannot be written
+     */
+    void flush() throws Exception;
+
+    /**
+     * Called when the writer thread of the pipeline would wait for further results, e.g. to flush buffered output
+     * while the workers are busy. Does nothing by default.
+     *
+     * @throws Exception if the results cannot be written
+     */
+    default void onIdle() throws Exception {
+        //nothing to do by default
+    }
+
+    /**
+     * Called after the results of all records of the given partition were received, also for partitions without
+     * records. Partitions end in ascending order of their index. Does nothing by default.
+     *
+     * @param aPartitionIndex index of the partition
+     * @throws Exception if the results cannot be written
+     */
+    default void onPartitionEnd(int aPartitionIndex) throws Exception {
+        //nothing to do by default
+    }
+
+    /**
+     * Combines the given sinks into one sink that passes every result on to all of them in the given order.
+     *
+     * @param aSinks the sinks to combine
+     * @return the combined sink
+     * @throws NullPointerException if aSinks or one of its elements is 'null'
+     */
+    static ResultSink combine(ResultSink... aSinks) throws NullPointerException {
+        Objects.requireNonNull(aSinks, "Given sinks are 'null'.");
+        List<ResultSink> tmpSinks = new ArrayList<>(Arrays.asList(aSinks));
+        for (ResultSink tmpSink : tmpSinks) {
+            Objects.requireNonNull(tmpSink, "One of the given sinks is 'null'.");
+        }
+        return new ResultSink() {
+            @Override
+            public void accept(Document aDocument, ExtractionResult aResult) throws Exception {
+                for (ResultSink tmpSink : tmpSinks) {
+                    tmpSink.accept(aDocument, aResult);
+                }
+            }
+
+            @Override
+            public void flush() throws Exception {
+                for (ResultSink tmpSink : tmpSinks) {
+                    tmpSink.flush();
+                }
+            }
+
+            @Override
+            public void onIdle() throws Exception {
+                for (ResultSink tmpSink : tmpSinks) {
+                    tmpSink.onIdle();
+                }
+            }
+
+            @Override
+            public void onPartitionEnd(int aPartitionIndex) throws Exception {
+                for (ResultSink tmpSink : tmpSinks) {
+                    tmpSink.onPartitionEnd(aPartitionIndex);
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a sink that ignores the results and flushes the given object whenever it is flushed itself. Combined with
+     * the sink of a CheckpointingResultSink, the object is flushed before every checkpoint, e.g. a
+     * PersistentProfileCache, so the profiles computed up to a checkpoint are not lost if the run is interrupted.
+     *
+     * @param aFlushable the object to flush
+     * @return the sink
+     * @throws NullPointerException if aFlushable is 'null'
+     */
+    static ResultSink createFlushSink(Flushable aFlushable) throws NullPointerException {
+        Objects.requireNonNull(aFlushable, "Given flushable is 'null'.");
+        return new ResultSink() {
+            @Override
+            public void accept(Document aDocument, ExtractionResult aResult) {
+                //results are ignored
+            }
+
+            @Override
+            public void flush() throws Exception {
+                aFlushable.flush();
+            }
+        };
+    }
+}
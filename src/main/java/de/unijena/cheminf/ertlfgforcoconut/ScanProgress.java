@@ -0,0 +1,284 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Progress of a range-partitioned scan of a document collection. For every partition, its state, the number of read
+ * attempts, the number of documents read, and the key of the last document read are tracked. A partition whose
+ * cursor fails is retried on its own, resuming after the last document read, while the other partitions continue.
+ * All methods are thread-safe.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class ScanProgress {
+    //<editor-fold desc="Public enum State">
+    /**
+     * State of a partition.
+     */
+    public enum State {
+        /**
+         * Reading has not started yet
+         */
+        PENDING,
+
+        /**
+         * A read attempt is running
+         */
+        RUNNING,
+
+        /**
+         * All documents were read
+         */
+        COMPLETED,
+
+        /**
+         * All read attempts failed
+         */
+        FAILED;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * Partitions of the scan ordered by their index
+     */
+    private final List<DocumentPartition> partitions;
+
+    /**
+     * State per partition
+     */
+    private final State[] states;
+
+    /**
+     * Number of read attempts per partition
+     */
+    private final int[] attemptCounts;
+
+    /**
+     * Number of documents read per partition
+     */
+    private final long[] readCounts;
+
+    /**
+     * Key of the last document read per partition
+     */
+    private final Object[] lastKeys;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor; all partitions are pending.
+     *
+     * @param aPartitions partitions of the scan, the index of every partition must be its position in the list
+     * @throws NullPointerException if aPartitions or one of its elements is 'null'
+     * @throws IllegalArgumentException if aPartitions is empty or the index of a partition is not its position
+     */
+    public ScanProgress(List<DocumentPartition> aPartitions) throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(aPartitions, "Given partitions are 'null'.");
+        if (aPartitions.isEmpty()) {
+            throw new IllegalArgumentException("Given partitions are empty.");
+        }
+        for (int i = 0; i < aPartitions.size(); i++) {
+            Objects.requireNonNull(aPartitions.get(i), "Partition at position " + i + " is 'null'.");
+            if (aPartitions.get(i).getIndex() != i) {
+                throw new IllegalArgumentException("Partition at position " + i + " has index " + aPartitions.get(i).getIndex() + ".");
+            }
+        }
+        this.partitions = Collections.unmodifiableList(new ArrayList<>(aPartitions));
+        this.states = new State[aPartitions.size()];
+        for (int i = 0; i < this.states.length; i++) {
+            this.states[i] = State.PENDING;
+        }
+        this.attemptCounts = new int[aPartitions.size()];
+        this.readCounts = new long[aPartitions.size()];
+        this.lastKeys = new Object[aPartitions.size()];
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the partitions of the scan.
+     *
+     * @return unmodifiable list of the partitions ordered by their index
+     */
+    public List<DocumentPartition> getPartitions() {
+        return this.partitions;
+    }
+
+    /**
+     * Returns the number of partitions.
+     *
+     * @return partition count
+     */
+    public int getPartitionCount() {
+        return this.partitions.size();
+    }
+
+    /**
+     * Returns the state of the given partition.
+     *
+     * @param anIndex index of the partition
+     * @return state
+     * @throws IndexOutOfBoundsException if there is no partition with the given index
+     */
+    public synchronized State getState(int anIndex) throws IndexOutOfBoundsException {
+        return this.states[anIndex];
+    }
+
+    /**
+     * Returns the number of read attempts of the given partition.
+     *
+     * @param anIndex index of the partition
+     * @return attempt count
+     * @throws IndexOutOfBoundsException if there is no partition with the given index
+     */
+    public synchronized int getAttemptCount(int anIndex) throws IndexOutOfBoundsException {
+        return this.attemptCounts[anIndex];
+    }
+
+    /**
+     * Returns the number of documents read from the given partition, summed over all attempts.
+     *
+     * @param anIndex index of the partition
+     * @return read count
+     * @throws IndexOutOfBoundsException if there is no partition with the given index
+     */
+    public synchronized long getReadCount(int anIndex) throws IndexOutOfBoundsException {
+        return this.readCounts[anIndex];
+    }
+
+    /**
+     * Returns the key of the last document read from the given partition.
+     *
+     * @param anIndex index of the partition
+     * @return key or 'null' if no document was read yet
+     * @throws IndexOutOfBoundsException if there is no partition with the given index
+     */
+    public synchronized Object getLastKey(int anIndex) throws IndexOutOfBoundsException {
+        return this.lastKeys[anIndex];
+    }
+
+    /**
+     * Returns the number of partitions in the given state.
+     *
+     * @param aState the state
+     * @return partition count
+     * @throws NullPointerException if aState is 'null'
+     */
+    public synchronized int getCount(State aState) throws NullPointerException {
+        Objects.requireNonNull(aState, "Given state is 'null'.");
+        int tmpCount = 0;
+        for (State tmpState : this.states) {
+            if (tmpState == aState) {
+                tmpCount++;
+            }
+        }
+        return tmpCount;
+    }
+
+    /**
+     * Returns whether all partitions were read completely.
+     *
+     * @return true if all partitions are completed
+     */
+    public boolean isCompleted() {
+        return this.getCount(State.COMPLETED) == this.partitions.size();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Overridden public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        long tmpReadCount = 0L;
+        int tmpRetryCount = 0;
+        for (int i = 0; i < this.states.length; i++) {
+            tmpReadCount += this.readCounts[i];
+            tmpRetryCount += Math.max(0, this.attemptCounts[i] - 1);
+        }
+        return "ScanProgress (partitions: " + this.states.length + ", completed: " + this.getCount(State.COMPLETED)
+                + ", failed: " + this.getCount(State.FAILED) + ", documents read: " + tmpReadCount + ", retries: "
+                + tmpRetryCount + ")";
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Package-private methods">
+    /**
+     * Records the start of a read attempt of the given partition.
+     *
+     * @param anIndex index of the partition
+     */
+    synchronized void start(int anIndex) {
+        this.states[anIndex] = State.RUNNING;
+        this.attemptCounts[anIndex]++;
+    }
+
+    /**
+     * Records that a document with the given key was read from the given partition.
+     *
+     * @param anIndex index of the partition
+     * @param aKey key of the document
+     */
+    synchronized void recordRead(int anIndex, Object aKey) {
+        this.readCounts[anIndex]++;
+        this.lastKeys[anIndex] = aKey;
+    }
+
+    /**
+     * Records that the given partition was read completely.
+     *
+     * @param anIndex index of the partition
+     */
+    synchronized void complete(int anIndex) {
+        this.states[anIndex] = State.COMPLETED;
+    }
+
+    /**
+     * Restores the given key of the last document read from the given partition in a former run, so reading the
+     * partition resumes after it.
+     *
+     * @param anIndex index of the partition
+     * @param aKey key of the last document read
+     */
+    synchronized void restoreLastKey(int anIndex, Object aKey) {
+        this.lastKeys[anIndex] = aKey;
+    }
+
+    /**
+     * Records that all read attempts of the given partition failed.
+     *
+     * @param anIndex index of the partition
+     */
+    synchronized void fail(int anIndex) {
+        this.states[anIndex] = State.FAILED;
+    }
+    //</editor-fold>
+}
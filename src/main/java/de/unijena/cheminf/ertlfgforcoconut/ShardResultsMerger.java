@@ -0,0 +1,329 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Combines the results files of the shards of a sharded run, see ExtractionShard, into one results file sorted by
+ * the IDs of the molecules and one global frequency table of the functional groups. Records with equal IDs always
+ * belong to the same shard, so the output does not depend on the order of the shard files or on the partitions the
+ * shards were read in. The frequency table is keyed on the SMILES codes of the functional groups; since a functional
+ * group gets the same SMILES code in every shard, independent of the atom order of the molecules it was found in (see
+ * ErtlFunctionalGroupsFinderUtility.createCanonicalForm()), a sharded run gives the same merged files as a run with one
+ * shard, provided all shards were run with the same FunctionalGroupExtractor.SETTINGS. The lines of all shard files are
+ * held in memory while they are sorted.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class ShardResultsMerger {
+    //<editor-fold desc="Private final variables">
+    /**
+     * Separator of the results files (csv)
+     */
+    private final String separator;
+
+    /**
+     * Pattern splitting a results line at the separator
+     */
+    private final Pattern separatorPattern;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor using the default separator of the FunctionalGroupExtractor.
+     */
+    public ShardResultsMerger() {
+        this(FunctionalGroupExtractor.DEFAULT_SEPARATOR);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param aSeparator separator of the results files, must not occur in IDs and SMILES codes
+     * @throws NullPointerException if aSeparator is 'null'
+     * @throws IllegalArgumentException if aSeparator is empty
+     */
+    public ShardResultsMerger(String aSeparator) throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(aSeparator, "Given separator is 'null'.");
+        if (aSeparator.isEmpty()) {
+            throw new IllegalArgumentException("Given separator is empty.");
+        }
+        this.separator = aSeparator;
+        this.separatorPattern = Pattern.compile(Pattern.quote(aSeparator));
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static methods">
+    /**
+     * Returns the results files of all shards of a run in the given folder, named by
+     * ExtractionShard.createFileName().
+     *
+     * @param aFolder folder the shards wrote their results files to
+     * @param aFileName name of the results file of the run
+     * @param aShardCount number of shards of the run
+     * @return the results files ordered by shard index
+     * @throws NullPointerException if aFolder or aFileName is 'null'
+     * @throws IllegalArgumentException if aShardCount is smaller than 1
+     */
+    public static List<Path> resolveShardFiles(Path aFolder, String aFileName, int aShardCount)
+            throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(aFolder, "Given folder is 'null'.");
+        Objects.requireNonNull(aFileName, "Given file name is 'null'.");
+        if (aShardCount < 1) {
+            throw new IllegalArgumentException("Given shard count must be positive but is " + aShardCount + ".");
+        }
+        List<Path> tmpFiles = new ArrayList<>(aShardCount);
+        for (int i = 0; i < aShardCount; i++) {
+            tmpFiles.add(aFolder.resolve(ExtractionShard.createFileName(aFileName, i, aShardCount)));
+        }
+        return tmpFiles;
+    }
+
+    /**
+     * Merges the given shard results files from the command line, e.g. after the shards of a run finished on several
+     * machines. Arguments: merged results file, frequency table file, and one or more shard results files.
+     *
+     * @param anArguments the command line arguments
+     * @throws IOException if a file cannot be read or written
+     */
+    public static void main(String[] anArguments) throws IOException {
+        if (anArguments.length < 3) {
+            System.out.println("Usage: ShardResultsMerger <merged results file> <frequency table file> <shard results file>...");
+            return;
+        }
+        List<Path> tmpShardFiles = new ArrayList<>(anArguments.length - 2);
+        for (String tmpArgument : Arrays.asList(anArguments).subList(2, anArguments.length)) {
+            tmpShardFiles.add(Paths.get(tmpArgument));
+        }
+        long tmpRecordCount = new ShardResultsMerger().merge(tmpShardFiles, Paths.get(anArguments[0]), Paths.get(anArguments[1]));
+        System.out.println("Merged " + tmpRecordCount + " records of " + tmpShardFiles.size() + " shards.");
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * Merges the given shard results files. The merged results file gets the common header line of the shard files
+     * and all their records sorted by ID; records with equal IDs keep the order of the shard files and of their
+     * lines. The frequency table lists every functional group with its SMILES code, its pseudo SMILES code, its total
+     * frequency in all molecules, and the number of molecules it occurs in, sorted by the latter in descending order
+     * and then by SMILES code.
+     *
+     * @param aShardFiles results files of the shards, each starting with the header line
+     * @param aResultsFile merged results file, overwritten if it exists
+     * @param aFrequencyFile frequency table file, overwritten if it exists
+     * @return number of merged records
+     * @throws NullPointerException if a parameter or one of the shard files is 'null'
+     * @throws IllegalArgumentException if no shard file is given, a shard file is empty, the header lines differ, or a
+     * line is malformed
+     * @throws IOException if a file cannot be read or written
+     */
+    public long merge(List<Path> aShardFiles, Path aResultsFile, Path aFrequencyFile)
+            throws NullPointerException, IllegalArgumentException, IOException {
+        Objects.requireNonNull(aShardFiles, "Given shard files are 'null'.");
+        Objects.requireNonNull(aResultsFile, "Given results file is 'null'.");
+        Objects.requireNonNull(aFrequencyFile, "Given frequency file is 'null'.");
+        if (aShardFiles.isEmpty()) {
+            throw new IllegalArgumentException("No shard files given.");
+        }
+        String tmpHeaderLine = null;
+        List<ResultsRecord> tmpRecords = new ArrayList<>();
+        for (Path tmpShardFile : aShardFiles) {
+            Objects.requireNonNull(tmpShardFile, "One of the given shard files is 'null'.");
+            try (BufferedReader tmpReader = Files.newBufferedReader(tmpShardFile, StandardCharsets.UTF_8)) {
+                String tmpLine = tmpReader.readLine();
+                if (Objects.isNull(tmpLine)) {
+                    throw new IllegalArgumentException("Shard file " + tmpShardFile + " is empty.");
+                }
+                if (Objects.isNull(tmpHeaderLine)) {
+                    tmpHeaderLine = tmpLine;
+                } else if (!tmpHeaderLine.equals(tmpLine)) {
+                    throw new IllegalArgumentException("Header line of shard file " + tmpShardFile
+                            + " differs from the one of the first shard file.");
+                }
+                while (Objects.nonNull(tmpLine = tmpReader.readLine())) {
+                    if (tmpLine.isEmpty()) {
+                        continue;
+                    }
+                    int tmpSeparatorIndex = tmpLine.indexOf(this.separator);
+                    String tmpID = tmpSeparatorIndex < 0 ? tmpLine : tmpLine.substring(0, tmpSeparatorIndex);
+                    tmpRecords.add(new ResultsRecord(tmpID, tmpLine, tmpShardFile));
+                }
+            }
+        }
+        //the sort is stable, so records with equal IDs stay in the order they were read in
+        tmpRecords.sort(Comparator.comparing(aRecord -> aRecord.id));
+        Map<String, FunctionalGroupFrequency> tmpFrequencies = new TreeMap<>();
+        try (PrintWriter tmpResultsPrinter = new PrintWriter(Files.newBufferedWriter(aResultsFile, StandardCharsets.UTF_8))) {
+            tmpResultsPrinter.println(tmpHeaderLine);
+            for (ResultsRecord tmpRecord : tmpRecords) {
+                tmpResultsPrinter.println(tmpRecord.line);
+                this.countFunctionalGroups(tmpRecord, tmpFrequencies);
+            }
+            if (tmpResultsPrinter.checkError()) {
+                throw new IOException("Merged results file " + aResultsFile + " could not be written.");
+            }
+        }
+        List<Map.Entry<String, FunctionalGroupFrequency>> tmpSortedFrequencies = new ArrayList<>(tmpFrequencies.entrySet());
+        //the entries are sorted by SMILES code already, the stable sort keeps this order for equal molecule frequencies
+        tmpSortedFrequencies.sort(Comparator.comparingLong(anEntry -> -anEntry.getValue().moleculeFrequency));
+        try (PrintWriter tmpFrequencyPrinter = new PrintWriter(Files.newBufferedWriter(aFrequencyFile, StandardCharsets.UTF_8))) {
+            tmpFrequencyPrinter.println("FgSMILES" + this.separator + "FgPseudoSMILES" + this.separator + "Frequency"
+                    + this.separator + "MoleculeFrequency");
+            for (Map.Entry<String, FunctionalGroupFrequency> tmpEntry : tmpSortedFrequencies) {
+                FunctionalGroupFrequency tmpFrequency = tmpEntry.getValue();
+                tmpFrequencyPrinter.println(tmpEntry.getKey() + this.separator + tmpFrequency.pseudoSmiles + this.separator
+                        + tmpFrequency.frequency + this.separator + tmpFrequency.moleculeFrequency);
+            }
+            if (tmpFrequencyPrinter.checkError()) {
+                throw new IOException("Frequency table file " + aFrequencyFile + " could not be written.");
+            }
+        }
+        return tmpRecords.size();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the separator of the results files.
+     *
+     * @return separator
+     */
+    public String getSeparator() {
+        return this.separator;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private methods">
+    /**
+     * Adds the functional groups of the given record to the given frequencies. Records with a marker instead of
+     * functional groups are ignored.
+     *
+     * @param aRecord record of a results file
+     * @param aFrequencies frequencies of the functional groups by SMILES code, which is the same in all shards
+     * @throws IllegalArgumentException if the line of the record is malformed
+     */
+    private void countFunctionalGroups(ResultsRecord aRecord, Map<String, FunctionalGroupFrequency> aFrequencies)
+            throws IllegalArgumentException {
+        String[] tmpFields = this.separatorPattern.split(aRecord.line, -1);
+        if (tmpFields.length == 2 && (tmpFields[1].equals(FunctionalGroupExtractor.FILTERED_MARKER)
+                || tmpFields[1].equals(FunctionalGroupExtractor.NONE_DETECTED_MARKER)
+                || tmpFields[1].equals(FunctionalGroupExtractor.EXCEPTION_MARKER))) {
+            return;
+        }
+        if ((tmpFields.length - 1) % 3 != 0) {
+            throw new IllegalArgumentException("Line of " + aRecord.id + " in shard file " + aRecord.shardFile
+                    + " has no SMILES code, pseudo SMILES code, and frequency for every functional group.");
+        }
+        Set<String> tmpCountedSmilesCodes = new HashSet<>((tmpFields.length - 1) / 3 * 2);
+        for (int i = 1; i < tmpFields.length; i += 3) {
+            long tmpCount;
+            try {
+                tmpCount = Long.parseLong(tmpFields[i + 2]);
+            } catch (NumberFormatException aNumberFormatException) {
+                throw new IllegalArgumentException("Line of " + aRecord.id + " in shard file " + aRecord.shardFile
+                        + " has an invalid frequency: " + tmpFields[i + 2], aNumberFormatException);
+            }
+            FunctionalGroupFrequency tmpFrequency = aFrequencies.computeIfAbsent(tmpFields[i],
+                    aSmilesCode -> new FunctionalGroupFrequency());
+            tmpFrequency.pseudoSmiles = tmpFields[i + 1];
+            tmpFrequency.frequency += tmpCount;
+            if (tmpCountedSmilesCodes.add(tmpFields[i])) {
+                tmpFrequency.moleculeFrequency++;
+            }
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static final classes">
+    /**
+     * Line of a shard results file with the ID of its molecule.
+     */
+    private static final class ResultsRecord {
+        /**
+         * ID of the molecule
+         */
+        private final String id;
+
+        /**
+         * The results line
+         */
+        private final String line;
+
+        /**
+         * Shard file the line was read from
+         */
+        private final Path shardFile;
+
+        /**
+         * Constructor.
+         *
+         * @param anID ID of the molecule
+         * @param aLine the results line
+         * @param aShardFile shard file the line was read from
+         */
+        private ResultsRecord(String anID, String aLine, Path aShardFile) {
+            this.id = anID;
+            this.line = aLine;
+            this.shardFile = aShardFile;
+        }
+    }
+
+    /**
+     * Frequencies of a functional group in the merged records.
+     */
+    private static final class FunctionalGroupFrequency {
+        /**
+         * Pseudo SMILES code of the functional group
+         */
+        private String pseudoSmiles;
+
+        /**
+         * Total frequency in all molecules
+         */
+        private long frequency;
+
+        /**
+         * Number of molecules the functional group occurs in
+         */
+        private long moleculeFrequency;
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,241 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Partitioned source that only returns the documents of one ExtractionShard of another source. The partitions and
+ * key ranges of the other source are kept, and the cursors of the partitions skip the documents of the other shards.
+ * The shard is computed on the client, since the server cannot compute the hash of the IDs; every shard therefore
+ * still reads the projected fields of all documents, which is cheap compared to the detection of the functional
+ * groups the other shards take off it.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class ShardedDocumentSource implements PartitionedDocumentSource {
+    //<editor-fold desc="Private final variables">
+    /**
+     * Source of all documents
+     */
+    private final PartitionedDocumentSource source;
+
+    /**
+     * Shard whose documents are returned
+     */
+    private final ExtractionShard shard;
+
+    /**
+     * Number of documents of other shards skipped by the cursors
+     */
+    private final AtomicLong skippedCounter;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor.
+     *
+     * @param aSource source of all documents; its documents must contain the ID key of the shard
+     * @param aShard shard whose documents are returned
+     * @throws NullPointerException if a parameter is 'null'
+     */
+    public ShardedDocumentSource(PartitionedDocumentSource aSource, ExtractionShard aShard) throws NullPointerException {
+        Objects.requireNonNull(aSource, "Given source is 'null'.");
+        Objects.requireNonNull(aShard, "Given shard is 'null'.");
+        this.source = aSource;
+        this.shard = aShard;
+        this.skippedCounter = new AtomicLong(0L);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPartitionKey() {
+        return this.source.getPartitionKey();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<DocumentPartition> createPartitions(int aPartitionCount) throws IllegalArgumentException {
+        return this.source.createPartitions(aPartitionCount);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>Documents of other shards are skipped.
+     */
+    @Override
+    public MongoCursor<Document> open(DocumentPartition aPartition, Object aResumeKey) throws NullPointerException {
+        return new ShardCursor(this.source.open(aPartition, aResumeKey), this.shard, this.skippedCounter);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the shard whose documents are returned.
+     *
+     * @return shard
+     */
+    public ExtractionShard getShard() {
+        return this.shard;
+    }
+
+    /**
+     * Returns the number of documents of other shards skipped so far.
+     *
+     * @return skipped count
+     */
+    public long getSkippedCount() {
+        return this.skippedCounter.get();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static final class ShardCursor">
+    /**
+     * Cursor that skips the documents of other shards.
+     */
+    private static final class ShardCursor implements MongoCursor<Document> {
+        /**
+         * Cursor on all documents of the partition
+         */
+        private final MongoCursor<Document> cursor;
+
+        /**
+         * Shard whose documents are returned
+         */
+        private final ExtractionShard shard;
+
+        /**
+         * Number of skipped documents of the source
+         */
+        private final AtomicLong skippedCounter;
+
+        /**
+         * Next document of the shard; 'null' if not looked up yet
+         */
+        private Document nextDocument;
+
+        /**
+         * Constructor.
+         *
+         * @param aCursor cursor on all documents of the partition
+         * @param aShard shard whose documents are returned
+         * @param aSkippedCounter number of skipped documents of the source
+         */
+        private ShardCursor(MongoCursor<Document> aCursor, ExtractionShard aShard, AtomicLong aSkippedCounter) {
+            this.cursor = aCursor;
+            this.shard = aShard;
+            this.skippedCounter = aSkippedCounter;
+            this.nextDocument = null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            this.cursor.close();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext() {
+            while (Objects.isNull(this.nextDocument) && this.cursor.hasNext()) {
+                Document tmpDocument = this.cursor.next();
+                if (this.shard.contains(tmpDocument)) {
+                    this.nextDocument = tmpDocument;
+                } else {
+                    this.skippedCounter.incrementAndGet();
+                }
+            }
+            return Objects.nonNull(this.nextDocument);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Document next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Document tmpDocument = this.nextDocument;
+            this.nextDocument = null;
+            return tmpDocument;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Document tryNext() {
+            while (Objects.isNull(this.nextDocument)) {
+                Document tmpDocument = this.cursor.tryNext();
+                if (Objects.isNull(tmpDocument)) {
+                    return null;
+                }
+                if (this.shard.contains(tmpDocument)) {
+                    this.nextDocument = tmpDocument;
+                } else {
+                    this.skippedCounter.incrementAndGet();
+                }
+            }
+            Document tmpDocument = this.nextDocument;
+            this.nextDocument = null;
+            return tmpDocument;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ServerCursor getServerCursor() {
+            return this.cursor.getServerCursor();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ServerAddress getServerAddress() {
+            return this.cursor.getServerAddress();
+        }
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,212 @@
+/*
+ * Utilities for
+ * ErtlFunctionalGroupsFinder for CDK
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscience.cdk.tools;
+
+import org.openscience.cdk.exception.Intractable;
+import org.openscience.cdk.graph.CycleFinder;
+import org.openscience.cdk.graph.Cycles;
+import org.openscience.cdk.graph.GraphUtil;
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+import java.util.Objects;
+
+/**
+ * Cycle finder that bounds the work spent on the perception of cycles, e.g. for the aromaticity detection of dense
+ * polycyclic natural products. It wraps a primary cycle finder that is based on the perception of all cycles (like
+ * Cycles.all() or Cycles.or(Cycles.all(), Cycles.cdkAromaticSet())) and a cheap fallback cycle finder (like
+ * Cycles.vertexShort()).
+ * <br>The work budget is the maximum circuit rank (number of independent cycles) given to the constructor. It is
+ * checked in linear time before any cycle is enumerated; for molecules above it, the cycles of the fallback cycle
+ * finder are returned right away. For molecules with a circuit rank above a small limit but within the budget, the
+ * primary cycle finder is not invoked. Instead, all cycles are enumerated once with Cycles.all(), which stops at the
+ * threshold of CDK's AllCycles algorithm; if the enumeration exceeds it, the Intractable exception is caught and the
+ * cycles of the fallback cycle finder are returned, so e.g. the expensive cdkAromaticSet attempt of the primary cycle
+ * finder is skipped. The same happens if the primary cycle finder throws an Intractable exception for a molecule with
+ * a small circuit rank. So all molecules within the budget get all their cycles as from the primary cycle finder and
+ * the time spent on all other molecules is bounded. Whenever the fallback cycle finder is used, the property
+ * ErtlFunctionalGroupsFinderUtility.AROMATICITY_FALLBACK_PROPERTY_KEY is set to true on the given molecule.
+ * <br>Objects of this class are immutable and can be shared between threads if the wrapped cycle finders can.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class BoundedCycleFinder implements CycleFinder {
+    //<editor-fold desc="Public static final constants">
+    /**
+     * Default maximum circuit rank of molecules whose cycles are enumerated; molecules with a higher circuit rank, e.g.
+     * large fused aromatic sheets, get the cycles of the fallback cycle finder
+     */
+    public static final int DEFAULT_MAX_CIRCUIT_RANK = 24;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static final class constants">
+    /**
+     * Maximum circuit rank for which the primary cycle finder is invoked; at most 2^9 - 1 = 511 cycles can be found in
+     * such molecules
+     */
+    private static final int MAX_UNBOUNDED_CIRCUIT_RANK = 9;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * Cycle finder used for molecules with a small circuit rank
+     */
+    private final CycleFinder primaryCycleFinder;
+
+    /**
+     * Cycle finder used for molecules exceeding the work budget
+     */
+    private final CycleFinder fallbackCycleFinder;
+
+    /**
+     * Enumeration of all cycles within the work budget, used for molecules with a large circuit rank
+     */
+    private final CycleFinder boundedCycleFinder;
+
+    /**
+     * Maximum circuit rank of molecules whose cycles are enumerated, i.e. the work budget
+     */
+    private final int maxCircuitRank;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor using the default maximum circuit rank as work budget.
+     *
+     * @param aPrimaryCycleFinder cycle finder based on all cycles, used for molecules with a small circuit rank
+     * @param aFallbackCycleFinder cheap cycle finder used for molecules exceeding the work budget
+     * @throws NullPointerException if a cycle finder is 'null'
+     * @see BoundedCycleFinder#DEFAULT_MAX_CIRCUIT_RANK
+     */
+    public BoundedCycleFinder(CycleFinder aPrimaryCycleFinder, CycleFinder aFallbackCycleFinder) throws NullPointerException {
+        this(aPrimaryCycleFinder, aFallbackCycleFinder, BoundedCycleFinder.DEFAULT_MAX_CIRCUIT_RANK);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param aPrimaryCycleFinder cycle finder based on all cycles, used for molecules with a small circuit rank
+     * @param aFallbackCycleFinder cheap cycle finder used for molecules exceeding the work budget
+     * @param aMaxCircuitRank work budget, i.e. the maximum circuit rank of molecules whose cycles are enumerated; lower
+     *                        values bound the time per molecule more tightly but let more molecules fall back
+     * @throws NullPointerException if a cycle finder is 'null'
+     * @throws IllegalArgumentException if aMaxCircuitRank is negative
+     */
+    public BoundedCycleFinder(CycleFinder aPrimaryCycleFinder, CycleFinder aFallbackCycleFinder, int aMaxCircuitRank)
+            throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(aPrimaryCycleFinder, "Given primary cycle finder is 'null'.");
+        Objects.requireNonNull(aFallbackCycleFinder, "Given fallback cycle finder is 'null'.");
+        if (aMaxCircuitRank < 0) {
+            throw new IllegalArgumentException("Given maximum circuit rank must not be negative but is "
+                    + aMaxCircuitRank + ".");
+        }
+        this.primaryCycleFinder = aPrimaryCycleFinder;
+        this.fallbackCycleFinder = aFallbackCycleFinder;
+        this.boundedCycleFinder = Cycles.all();
+        this.maxCircuitRank = aMaxCircuitRank;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the work budget, i.e. the maximum circuit rank of molecules whose cycles are enumerated.
+     *
+     * @return maximum circuit rank
+     */
+    public int getMaxCircuitRank() {
+        return this.maxCircuitRank;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cycles find(IAtomContainer aMolecule) throws Intractable {
+        return this.find(aMolecule, aMolecule.getAtomCount());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Cycles find(IAtomContainer aMolecule, int aLength) throws Intractable {
+        return this.find(aMolecule, GraphUtil.toAdjList(aMolecule), aLength);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>Falls back to the fallback cycle finder if the work budget is exceeded or the primary cycle finder is
+     * intractable and marks the molecule accordingly.
+     *
+     * @throws Intractable if the fallback cycle finder is intractable
+     */
+    @Override
+    public Cycles find(IAtomContainer aMolecule, int[][] aGraph, int aLength) throws Intractable {
+        int tmpCircuitRank = BoundedCycleFinder.getCircuitRank(aGraph);
+        //no cycle is enumerated for molecules exceeding the work budget
+        if (tmpCircuitRank <= this.maxCircuitRank) {
+            CycleFinder tmpCycleFinder = tmpCircuitRank <= BoundedCycleFinder.MAX_UNBOUNDED_CIRCUIT_RANK
+                    ? this.primaryCycleFinder : this.boundedCycleFinder;
+            try {
+                return tmpCycleFinder.find(aMolecule, aGraph, aLength);
+            } catch (Intractable anIntractableException) {
+                //fall through to the fallback cycle finder
+            }
+        }
+        aMolecule.setProperty(ErtlFunctionalGroupsFinderUtility.AROMATICITY_FALLBACK_PROPERTY_KEY, true);
+        return this.fallbackCycleFinder.find(aMolecule, aGraph, aLength);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static methods">
+    /**
+     * Returns the circuit rank of the given graph, i.e. the number of edges minus the number of vertices plus the
+     * number of connected components.
+     *
+     * @param aGraph adjacency list representation of the molecule
+     * @return circuit rank
+     */
+    private static int getCircuitRank(int[][] aGraph) {
+        int tmpVertexCount = aGraph.length;
+        int tmpDegreeSum = 0;
+        int[] tmpParents = new int[tmpVertexCount];
+        for (int i = 0; i < tmpVertexCount; i++) {
+            tmpParents[i] = i;
+        }
+        int tmpComponentCount = tmpVertexCount;
+        for (int i = 0; i < tmpVertexCount; i++) {
+            tmpDegreeSum += aGraph[i].length;
+            for (int tmpNeighbour : aGraph[i]) {
+                int tmpRoot1 = ErtlFunctionalGroupsFinderUtility.findRoot(tmpParents, i);
+                int tmpRoot2 = ErtlFunctionalGroupsFinderUtility.findRoot(tmpParents, tmpNeighbour);
+                if (tmpRoot1 != tmpRoot2) {
+                    tmpParents[tmpRoot1] = tmpRoot2;
+                    tmpComponentCount--;
+                }
+            }
+        }
+        return tmpDegreeSum / 2 - tmpVertexCount + tmpComponentCount;
+    }
+    //</editor-fold>
+}
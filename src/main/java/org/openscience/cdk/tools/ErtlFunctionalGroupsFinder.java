@@ -217,6 +217,82 @@ public class ErtlFunctionalGroupsFinder {
     	return groups;
     }
 
+    /**
+     * Find the marked atoms of all functional groups contained in a molecule, i.e. the raw functional groups before
+     * their environments are expanded or generalized, given as indices of the atoms in the molecule. The groups
+     * correspond to the ones returned by find() in the same order, but without any environmental carbon, R or hydrogen
+     * atoms. Unlike find(), this does not build any atom containers and does not change the input container: implicit
+     * hydrogen counts and atom properties that are set temporarily during the atom marking are restored afterwards.
+	 *
+	 * NOTE: The input must consist of one connected structure and may not contain charged atoms, metals or metalloids.
+     *
+     * @param container the molecule which contains the functional groups (may not contain charged atoms, metals,
+	 *                  metalloids or unconnected components!)
+     * @return a list with the atom indices of every functional group found in the molecule, in ascending order.
+     */
+    public List<int[]> findMarkedAtomGroups(IAtomContainer container) {
+    	// init GraphUtil & EdgeToBondMap
+    	bondMap = EdgeToBondMap.withSpaceFor(container);
+    	adjList = GraphUtil.toAdjList(container, bondMap);
+
+		// remember the atom information that is changed by the constraint check and the atom marking
+		int atomCount = container.getAtomCount();
+		Integer[] hCounts = new Integer[atomCount];
+		boolean[] hasCarbonylCMarker = new boolean[atomCount];
+		for(int atomIdx = 0; atomIdx < atomCount; atomIdx++) {
+			IAtom atom = container.getAtom(atomIdx);
+			hCounts[atomIdx] = atom.getImplicitHydrogenCount();
+			hasCarbonylCMarker[atomIdx] = atom.getProperty(CARBONYL_C_MARKER) != null;
+		}
+
+		List<int[]> groups;
+		try {
+			checkConstraints(container);
+
+			// atom marking
+			markAtoms(container);
+
+			// assign marked atoms to groups
+			int[] atomIdxToFGMap = new int[atomCount];
+			int fGroupCount = assignAtomsToGroups(container, atomIdxToFGMap);
+			int[] groupSizes = new int[fGroupCount];
+			for(int fGroupIdx : atomIdxToFGMap) {
+				if(fGroupIdx >= 0) {
+					groupSizes[fGroupIdx]++;
+				}
+			}
+			groups = new ArrayList<>(fGroupCount);
+			for(int fGroupIdx = 0; fGroupIdx < fGroupCount; fGroupIdx++) {
+				groups.add(new int[groupSizes[fGroupIdx]]);
+				groupSizes[fGroupIdx] = 0;
+			}
+			for(int atomIdx = 0; atomIdx < atomCount; atomIdx++) {
+				int fGroupIdx = atomIdxToFGMap[atomIdx];
+				if(fGroupIdx >= 0) {
+					groups.get(fGroupIdx)[groupSizes[fGroupIdx]++] = atomIdx;
+				}
+			}
+		}
+		finally {
+			for(int atomIdx = 0; atomIdx < atomCount; atomIdx++) {
+				IAtom atom = container.getAtom(atomIdx);
+				atom.setImplicitHydrogenCount(hCounts[atomIdx]);
+				if(!hasCarbonylCMarker[atomIdx]) {
+					atom.removeProperty(CARBONYL_C_MARKER);
+				}
+			}
+
+			// clear fields
+			bondMap = null;
+			adjList = null;
+			markedAtoms = null;
+			aromaticHeteroAtoms = null;
+			environmentsMap = null;
+		}
+
+		return groups;
+    }
+
     /**
      * Mark all atoms and store them in a set for further processing.
      *
@@ -382,8 +458,26 @@ public class ErtlFunctionalGroupsFinder {
     private List<IAtomContainer> extractGroups(IAtomContainer molecule) {
     	if(isDbg()) log.debug("########## Starting identification & extraction of functional groups... ##########");
 
-		environmentsMap = new HashMap<IAtom, List<org.openscience.cdk.tools.ErtlFunctionalGroupsFinder.EnvironmentalC>>(molecule.getAtomCount());//Maps.newHashMapWithExpectedSize(molecule.getAtomCount());
 		int[] atomIdxToFGMap = new int[molecule.getAtomCount()];
+		int fGroupCount = assignAtomsToGroups(molecule, atomIdxToFGMap);
+
+		List<IAtomContainer> fGs = partitionIntoGroups(molecule, atomIdxToFGMap, fGroupCount);
+
+		if(isDbg()) log.debug(String.format("########## Found & extracted %d functional groups. ##########", fGroupCount));
+    	return fGs;
+    }
+
+    /**
+     * Searches the molecule for groups of connected marked atoms and assigns the atoms to them. The "environments" of
+     * the marked atoms are logged for their later expansion.
+     *
+     * @param molecule the molecule which contains the functional groups
+     * @param atomIdxToFGMap array to fill with the index of the functional group of every atom or -1 if the atom is
+     *                       not part of a functional group
+     * @return the number of functional groups
+     */
+    private int assignAtomsToGroups(IAtomContainer molecule, int[] atomIdxToFGMap) {
+		environmentsMap = new HashMap<IAtom, List<org.openscience.cdk.tools.ErtlFunctionalGroupsFinder.EnvironmentalC>>(molecule.getAtomCount());//Maps.newHashMapWithExpectedSize(molecule.getAtomCount());
 		Arrays.fill(atomIdxToFGMap, -1);
     	int fGroupIdx = -1;
 
@@ -482,10 +576,7 @@ public class ErtlFunctionalGroupsFinder {
     		}
     	}
 
-		List<IAtomContainer> fGs = partitionIntoGroups(molecule, atomIdxToFGMap, fGroupIdx + 1);
-
-		if(isDbg()) log.debug(String.format("########## Found & extracted %d functional groups. ##########", fGroupIdx + 1));
-    	return fGs;
+    	return fGroupIdx + 1;
     }
 
     /**
@@ -0,0 +1,271 @@
+/*
+ * Utilities for
+ * ErtlFunctionalGroupsFinder for CDK
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscience.cdk.tools;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.aromaticity.Aromaticity;
+import org.openscience.cdk.aromaticity.ElectronDonation;
+import org.openscience.cdk.atomtype.CDKAtomTypeMatcher;
+import org.openscience.cdk.graph.Cycles;
+import org.openscience.cdk.hash.MoleculeHashGenerator;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.smiles.SmiFlavor;
+import org.openscience.cdk.smiles.SmilesGenerator;
+import org.openscience.cdk.smiles.SmilesParser;
+
+import java.util.IdentityHashMap;
+import java.util.Objects;
+
+/**
+ * Per-thread cache of the CDK helper objects that are needed for filtering, preprocessing, functional group detection,
+ * and the generation of SMILES codes and hash codes of functional groups. Setting up these helpers is expensive and most
+ * of them are not thread-safe, so every thread gets its own instances via get(). The instances are created lazily, on
+ * first request, and reused for all subsequent calls of the same thread. Threads of a thread pool can release their
+ * instances via remove().
+ * <br>Objects returned by a context must not be passed on to other threads.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class ErtlFunctionalGroupsFinderContext {
+    //<editor-fold desc="Private static final class constants">
+    /**
+     * Contexts of all threads, created on first request
+     */
+    private static final ThreadLocal<ErtlFunctionalGroupsFinderContext> CONTEXTS = ThreadLocal.withInitial(ErtlFunctionalGroupsFinderContext::new);
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private variables">
+    /**
+     * SMILES parser using the DefaultChemObjectBuilder
+     */
+    private SmilesParser smilesParser;
+
+    /**
+     * SMILES generator for unique SMILES codes with aromatic symbols
+     */
+    private SmilesGenerator uniqueSmilesGenerator;
+
+    /**
+     * Hash generator for functional groups, see ErtlFunctionalGroupsFinderUtility.getFunctionalGroupHashGenerator()
+     */
+    private MoleculeHashGenerator functionalGroupHashGenerator;
+
+    /**
+     * Aromaticity model with daylight electron donation and the combination of all cycles and the CDK aromatic set as
+     * cycle finder
+     */
+    private Aromaticity daylightAromaticityModel;
+
+    /**
+     * Aromaticity model with daylight electron donation and a BoundedCycleFinder that bounds the combination of all
+     * cycles and the CDK aromatic set and falls back to vertex short cycles
+     */
+    private Aromaticity boundedDaylightAromaticityModel;
+
+    /**
+     * Aromaticity model with CDK legacy settings
+     */
+    private Aromaticity cdkLegacyAromaticityModel;
+
+    /**
+     * ErtlFunctionalGroupsFinder in generalizing mode
+     */
+    private ErtlFunctionalGroupsFinder generalizingFinder;
+
+    /**
+     * ErtlFunctionalGroupsFinder in not generalizing mode
+     */
+    private ErtlFunctionalGroupsFinder notGeneralizingFinder;
+
+    /**
+     * Atom type matchers per chem object builder
+     */
+    private final IdentityHashMap<IChemObjectBuilder, CDKAtomTypeMatcher> atomTypeMatchers;
+
+    /**
+     * Hydrogen adders per chem object builder
+     */
+    private final IdentityHashMap<IChemObjectBuilder, CDKHydrogenAdder> hydrogenAdders;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructor">
+    /**
+     * Private constructor, instances are obtained via get().
+     */
+    private ErtlFunctionalGroupsFinderContext() {
+        this.atomTypeMatchers = new IdentityHashMap<>(2);
+        this.hydrogenAdders = new IdentityHashMap<>(2);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static methods">
+    /**
+     * Returns the context of the calling thread; it is created on the first call of every thread.
+     *
+     * @return the context of the current thread
+     */
+    public static ErtlFunctionalGroupsFinderContext get() {
+        return ErtlFunctionalGroupsFinderContext.CONTEXTS.get();
+    }
+
+    /**
+     * Releases the context of the calling thread and all helper objects it holds. A subsequent call of get() by the
+     * same thread creates a new context. Should be called by pooled threads that do not process molecules anymore.
+     */
+    public static void remove() {
+        ErtlFunctionalGroupsFinderContext.CONTEXTS.remove();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the SMILES parser of this thread, using the DefaultChemObjectBuilder. Note that settings of the parser,
+     * e.g. kekulise(), should not be changed because they would apply to all users of this context.
+     *
+     * @return SMILES parser
+     */
+    public SmilesParser getSmilesParser() {
+        if (Objects.isNull(this.smilesParser)) {
+            this.smilesParser = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+        }
+        return this.smilesParser;
+    }
+
+    /**
+     * Returns the SMILES generator of this thread for unique SMILES codes with aromatic symbols, i.e. flavor
+     * SmiFlavor.Unique | SmiFlavor.UseAromaticSymbols.
+     *
+     * @return SMILES generator
+     */
+    public SmilesGenerator getUniqueSmilesGenerator() {
+        if (Objects.isNull(this.uniqueSmilesGenerator)) {
+            this.uniqueSmilesGenerator = new SmilesGenerator(SmiFlavor.Unique | SmiFlavor.UseAromaticSymbols);
+        }
+        return this.uniqueSmilesGenerator;
+    }
+
+    /**
+     * Returns the hash generator of this thread for functional groups, configured as described in
+     * ErtlFunctionalGroupsFinderUtility.getFunctionalGroupHashGenerator().
+     *
+     * @return MoleculeHashGenerator object configured for Ertl functional groups
+     */
+    public MoleculeHashGenerator getFunctionalGroupHashGenerator() {
+        if (Objects.isNull(this.functionalGroupHashGenerator)) {
+            this.functionalGroupHashGenerator = ErtlFunctionalGroupsFinderUtility.getFunctionalGroupHashGenerator();
+        }
+        return this.functionalGroupHashGenerator;
+    }
+
+    /**
+     * Returns the aromaticity model of this thread with daylight electron donation model and the combination of all
+     * cycles and the CDK aromatic set as cycle finder. This is the model used for the analysis of COCONUT.
+     *
+     * @return aromaticity model
+     */
+    public Aromaticity getDaylightAromaticityModel() {
+        if (Objects.isNull(this.daylightAromaticityModel)) {
+            this.daylightAromaticityModel = new Aromaticity(ElectronDonation.daylight(), Cycles.or(Cycles.all(), Cycles.cdkAromaticSet()));
+        }
+        return this.daylightAromaticityModel;
+    }
+
+    /**
+     * Returns the aromaticity model of this thread with daylight electron donation model and a BoundedCycleFinder as
+     * cycle finder that uses the combination of all cycles and the CDK aromatic set for all molecules within the
+     * work budget of Cycles.all() and falls back to the vertex short cycles for all other molecules. It gives the same results
+     * as getDaylightAromaticityModel() for molecules within the budget but bounds the time spent on dense polycyclic
+     * molecules and does not fail on them.
+     *
+     * @return aromaticity model
+     * @see BoundedCycleFinder
+     */
+    public Aromaticity getBoundedDaylightAromaticityModel() {
+        if (Objects.isNull(this.boundedDaylightAromaticityModel)) {
+            this.boundedDaylightAromaticityModel = new Aromaticity(ElectronDonation.daylight(),
+                    new BoundedCycleFinder(Cycles.or(Cycles.all(), Cycles.cdkAromaticSet()), Cycles.vertexShort()));
+        }
+        return this.boundedDaylightAromaticityModel;
+    }
+
+    /**
+     * Returns the aromaticity model of this thread with CDK legacy settings, see Aromaticity.cdkLegacy().
+     *
+     * @return aromaticity model
+     */
+    public Aromaticity getCdkLegacyAromaticityModel() {
+        if (Objects.isNull(this.cdkLegacyAromaticityModel)) {
+            this.cdkLegacyAromaticityModel = Aromaticity.cdkLegacy();
+        }
+        return this.cdkLegacyAromaticityModel;
+    }
+
+    /**
+     * Returns the ErtlFunctionalGroupsFinder of this thread with generalization of returned functional groups turned ON.
+     *
+     * @return ErtlFunctionalGroupsFinder object that generalizes returned functional groups
+     */
+    public ErtlFunctionalGroupsFinder getGeneralizingFinder() {
+        if (Objects.isNull(this.generalizingFinder)) {
+            this.generalizingFinder = ErtlFunctionalGroupsFinderUtility.getErtlFunctionalGroupsFinderGeneralizingMode();
+        }
+        return this.generalizingFinder;
+    }
+
+    /**
+     * Returns the ErtlFunctionalGroupsFinder of this thread with generalization of returned functional groups turned OFF.
+     *
+     * @return ErtlFunctionalGroupsFinder object that does NOT generalize returned functional groups
+     */
+    public ErtlFunctionalGroupsFinder getNotGeneralizingFinder() {
+        if (Objects.isNull(this.notGeneralizingFinder)) {
+            this.notGeneralizingFinder = ErtlFunctionalGroupsFinderUtility.getErtlFunctionalGroupsFinderNotGeneralizingMode();
+        }
+        return this.notGeneralizingFinder;
+    }
+
+    /**
+     * Returns the CDK atom type matcher of this thread for the given chem object builder.
+     *
+     * @param aBuilder the chem object builder of the atom containers to process
+     * @return atom type matcher
+     * @throws NullPointerException if aBuilder is 'null'
+     */
+    public CDKAtomTypeMatcher getAtomTypeMatcher(IChemObjectBuilder aBuilder) throws NullPointerException {
+        Objects.requireNonNull(aBuilder, "Given chem object builder is 'null'.");
+        return this.atomTypeMatchers.computeIfAbsent(aBuilder, CDKAtomTypeMatcher::getInstance);
+    }
+
+    /**
+     * Returns the CDK hydrogen adder of this thread for the given chem object builder.
+     *
+     * @param aBuilder the chem object builder of the atom containers to process
+     * @return hydrogen adder
+     * @throws NullPointerException if aBuilder is 'null'
+     */
+    public CDKHydrogenAdder getHydrogenAdder(IChemObjectBuilder aBuilder) throws NullPointerException {
+        Objects.requireNonNull(aBuilder, "Given chem object builder is 'null'.");
+        return this.hydrogenAdders.computeIfAbsent(aBuilder, CDKHydrogenAdder::getInstance);
+    }
+    //</editor-fold>
+}
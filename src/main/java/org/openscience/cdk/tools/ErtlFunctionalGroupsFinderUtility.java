@@ -27,35 +27,37 @@ package org.openscience.cdk.tools;
  * - Implement generation of Ertl-like SMILES strings?
  */
 
-import org.openscience.cdk.Atom;
 import org.openscience.cdk.CDKConstants;
 import org.openscience.cdk.aromaticity.Aromaticity;
 import org.openscience.cdk.atomtype.CDKAtomTypeMatcher;
+import org.openscience.cdk.config.Elements;
 import org.openscience.cdk.exception.CDKException;
 import org.openscience.cdk.exception.Intractable;
 import org.openscience.cdk.graph.ConnectivityChecker;
+import org.openscience.cdk.graph.GraphUtil;
+import org.openscience.cdk.graph.invariant.Canon;
 import org.openscience.cdk.hash.AtomEncoder;
 import org.openscience.cdk.hash.BasicAtomEncoder;
 import org.openscience.cdk.hash.HashGeneratorMaker;
 import org.openscience.cdk.hash.MoleculeHashGenerator;
 import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
-import org.openscience.cdk.interfaces.IAtomContainerSet;
 import org.openscience.cdk.interfaces.IAtomType;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.interfaces.IChemObject;
 import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.interfaces.ILonePair;
 import org.openscience.cdk.interfaces.IPseudoAtom;
-import org.openscience.cdk.io.SDFWriter;
-import org.openscience.cdk.io.iterator.IteratingSDFReader;
+import org.openscience.cdk.interfaces.ISingleElectron;
+import org.openscience.cdk.interfaces.IStereoElement;
 import org.openscience.cdk.smiles.SmiFlavor;
 import org.openscience.cdk.smiles.SmilesGenerator;
 import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
 import org.openscience.cdk.tools.manipulator.AtomTypeManipulator;
 
-import java.io.IOException;
-import java.io.StringReader;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -63,6 +65,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 /**
  * This class gives utility methods for using <a href="https://github.com/zielesny/ErtlFunctionalGroupsFinder">ErtlFunctionalGroupsFinder</a>,
@@ -103,6 +106,53 @@ public class ErtlFunctionalGroupsFinderUtility {
     }
     //</editor-fold>
     //
+    //<editor-fold desc="Public static final constants">
+    /**
+     * Bit of the result of validateMolecule() that is set if the molecule has no atoms
+     */
+    public static final int VALIDATION_ATOM_COUNT_ZERO = 1;
+
+    /**
+     * Bit of the result of validateMolecule() that is set if the molecule has no bonds
+     */
+    public static final int VALIDATION_BOND_COUNT_ZERO = 1 << 1;
+
+    /**
+     * Bit of the result of validateMolecule() that is set if the molecule contains an atom with an atomic number that
+     * ErtlFunctionalGroupsFinder does not accept (see getValidAtomicNumbers())
+     */
+    public static final int VALIDATION_INVALID_ATOMIC_NUMBER = 1 << 2;
+
+    /**
+     * Bit of the result of validateMolecule() that is set if the molecule contains an atom whose atomic number is
+     * 'null' (or an atom that is 'null')
+     */
+    public static final int VALIDATION_UNDEFINED_ATOMIC_NUMBER = 1 << 3;
+
+    /**
+     * Bit of the result of validateMolecule() that is set if the molecule contains a charged atom
+     */
+    public static final int VALIDATION_CHARGED = 1 << 4;
+
+    /**
+     * Bit of the result of validateMolecule() that is set if the molecule contains an atom whose formal charge is
+     * 'null' (or an atom that is 'null')
+     */
+    public static final int VALIDATION_UNDEFINED_FORMAL_CHARGE = 1 << 5;
+
+    /**
+     * Bit of the result of validateMolecule() that is set if the molecule consists of two or more unconnected
+     * structures
+     */
+    public static final int VALIDATION_UNCONNECTED = 1 << 6;
+
+    /**
+     * Key of the molecule property that is set to true if the aromaticity of the molecule was perceived with the
+     * fallback cycle finder of a BoundedCycleFinder because the enumeration of all cycles exceeded the work budget
+     */
+    public static final String AROMATICITY_FALLBACK_PROPERTY_KEY = "ErtlFunctionalGroupsFinderUtility.AromaticityFallback";
+    //</editor-fold>
+    //
     //<editor-fold desc="Private static final class constants">
     /**
      * Atomic numbers that ErtlFunctionalGroupsFinder accepts, see getValidAtomicNumbers()
@@ -115,6 +165,81 @@ public class ErtlFunctionalGroupsFinderUtility {
      */
     private static final HashSet<Integer> VALID_ATOMIC_NUMBERS_SET = new HashSet<>(20, 1);
 
+    /**
+     * Flags for all atomic numbers up to the highest valid one that are true for the atomic numbers that
+     * ErtlFunctionalGroupsFinder accepts, used for array lookups in validateMolecule(); filled in static initializer
+     */
+    private static final boolean[] IS_VALID_ATOMIC_NUMBER_ARRAY;
+
+    /**
+     * Result bits of validateMolecule() that lead to filtering of a molecule, see shouldBeFiltered()
+     */
+    private static final int FILTER_VALIDATION_BITS = ErtlFunctionalGroupsFinderUtility.VALIDATION_ATOM_COUNT_ZERO
+            | ErtlFunctionalGroupsFinderUtility.VALIDATION_INVALID_ATOMIC_NUMBER
+            | ErtlFunctionalGroupsFinderUtility.VALIDATION_UNDEFINED_ATOMIC_NUMBER;
+
+    /**
+     * Result bits of validateMolecule() that make a molecule an invalid argument for ErtlFunctionalGroupsFinder.find(),
+     * see isValidArgumentForFindMethod()
+     */
+    private static final int FIND_METHOD_VALIDATION_BITS = ErtlFunctionalGroupsFinderUtility.FILTER_VALIDATION_BITS
+            | ErtlFunctionalGroupsFinderUtility.VALIDATION_CHARGED
+            | ErtlFunctionalGroupsFinderUtility.VALIDATION_UNDEFINED_FORMAL_CHARGE
+            | ErtlFunctionalGroupsFinderUtility.VALIDATION_UNCONNECTED;
+
+    /**
+     * Prime used to combine the atom and bond invariants in canonical order into a hash key
+     */
+    private static final long CANONICAL_HASH_KEY_PRIME = 1099511628211L;
+
+    /**
+     * Bond orders by their numeric value minus 1, used for the canonical assignment of bond orders in
+     * createCanonicalForm()
+     */
+    private static final IBond.Order[] CANONICAL_BOND_ORDERS = {IBond.Order.SINGLE, IBond.Order.DOUBLE,
+            IBond.Order.TRIPLE, IBond.Order.QUADRUPLE};
+
+    /**
+     * Maximum number of search steps of the canonical assignment of bond orders in createCanonicalForm(); if it is
+     * exceeded, e.g. for a large conjugated molecule, the given bond orders are written
+     */
+    private static final int CANONICAL_BOND_ORDER_STEP_LIMIT = 100000;
+
+    /**
+     * SMILES generator used for the creation of pseudo SMILES codes; SmilesGenerator objects are immutable and can
+     * therefore be shared
+     */
+    private static final SmilesGenerator PSEUDO_SMILES_GENERATOR = new SmilesGenerator(SmiFlavor.Unique | SmiFlavor.UseAromaticSymbols);
+
+    /**
+     * SMILES generator used by createCanonicalForm(); it does not canonicalize itself but writes the atoms in the order
+     * given by the canonical labelling
+     */
+    private static final SmilesGenerator CANONICAL_ORDER_SMILES_GENERATOR = new SmilesGenerator(SmiFlavor.UseAromaticSymbols);
+
+    /**
+     * SMILES generator used for the creation of legacy pseudo SMILES codes
+     */
+    private static final SmilesGenerator LEGACY_PSEUDO_SMILES_GENERATOR = new SmilesGenerator(SmiFlavor.Unique);
+
+    /**
+     * Map of aromatic elements (and 'R' for pseudo atoms) to the placeholder elements that substitute them in the legacy
+     * pseudo SMILES generation
+     */
+    private static final Map<String, String> LEGACY_AROMATIC_ELEMENT_TO_PLACEHOLDER_ELEMENT_MAP;
+
+    /**
+     * Precompiled patterns matching the placeholder elements in a SMILES code generated for the legacy pseudo SMILES
+     * generation, one pattern with and one without brackets per element; the order is the same as in the former
+     * implementation of getLegacyPseudoSmilesCode()
+     */
+    private static final Pattern[] LEGACY_PLACEHOLDER_PATTERNS;
+
+    /**
+     * Pseudo SMILES symbols replacing the matches of the patterns at the same position in LEGACY_PLACEHOLDER_PATTERNS
+     */
+    private static final String[] LEGACY_PLACEHOLDER_REPLACEMENTS;
+
     /**
      * Logger of this class
      */
@@ -123,11 +248,49 @@ public class ErtlFunctionalGroupsFinderUtility {
     //
     //<editor-fold desc="Static initializer">
     /**
-     * Static initializer that sets up hash maps/sets used by static methods.
+     * Static initializer that sets up hash maps/sets and precompiled patterns used by static methods.
      */
     static {
+        int tmpHighestValidAtomicNumber = 0;
         for (int i : ErtlFunctionalGroupsFinderUtility.VALID_ATOMIC_NUMBERS) {
             ErtlFunctionalGroupsFinderUtility.VALID_ATOMIC_NUMBERS_SET.add(i);
+            tmpHighestValidAtomicNumber = Math.max(tmpHighestValidAtomicNumber, i);
+        }
+        IS_VALID_ATOMIC_NUMBER_ARRAY = new boolean[tmpHighestValidAtomicNumber + 1];
+        for (int i : ErtlFunctionalGroupsFinderUtility.VALID_ATOMIC_NUMBERS) {
+            ErtlFunctionalGroupsFinderUtility.IS_VALID_ATOMIC_NUMBER_ARRAY[i] = true;
+        }
+        HashMap<String, String> tmpAromaticElementToPlaceholderElementMap = new HashMap<>(10, 1);
+        tmpAromaticElementToPlaceholderElementMap.put("C", "Ce");
+        tmpAromaticElementToPlaceholderElementMap.put("N", "Nd");
+        tmpAromaticElementToPlaceholderElementMap.put("S", "Sm");
+        tmpAromaticElementToPlaceholderElementMap.put("O", "Os");
+        tmpAromaticElementToPlaceholderElementMap.put("Se", "Sc");
+        tmpAromaticElementToPlaceholderElementMap.put("P", "Pm");
+        tmpAromaticElementToPlaceholderElementMap.put("R", "Es");
+        LEGACY_AROMATIC_ELEMENT_TO_PLACEHOLDER_ELEMENT_MAP = Collections.unmodifiableMap(tmpAromaticElementToPlaceholderElementMap);
+        //Note: The iteration order of this map determines the order of the replacements, it is the same as in the former
+        //  implementation because the map is set up in the same way
+        HashMap<String, String> tmpPlaceholderElementToPseudoSmilesSymbolMap = new HashMap<>(10, 1);
+        tmpPlaceholderElementToPseudoSmilesSymbolMap.put("Es", "R");
+        tmpPlaceholderElementToPseudoSmilesSymbolMap.put("Pm", "P*");
+        tmpPlaceholderElementToPseudoSmilesSymbolMap.put("Sc", "Se*");
+        tmpPlaceholderElementToPseudoSmilesSymbolMap.put("Os", "O*");
+        tmpPlaceholderElementToPseudoSmilesSymbolMap.put("Sm", "S*");
+        tmpPlaceholderElementToPseudoSmilesSymbolMap.put("Nd", "N*");
+        tmpPlaceholderElementToPseudoSmilesSymbolMap.put("Ce", "C*");
+        int tmpPatternCount = tmpPlaceholderElementToPseudoSmilesSymbolMap.size() * 2;
+        LEGACY_PLACEHOLDER_PATTERNS = new Pattern[tmpPatternCount];
+        LEGACY_PLACEHOLDER_REPLACEMENTS = new String[tmpPatternCount];
+        int tmpIndex = 0;
+        for (String tmpPlaceholderElementSymbol : tmpPlaceholderElementToPseudoSmilesSymbolMap.keySet()) {
+            String tmpPseudoSmilesSymbol = tmpPlaceholderElementToPseudoSmilesSymbolMap.get(tmpPlaceholderElementSymbol);
+            ErtlFunctionalGroupsFinderUtility.LEGACY_PLACEHOLDER_PATTERNS[tmpIndex] = Pattern.compile("(\\[" + tmpPlaceholderElementSymbol + "\\])");
+            ErtlFunctionalGroupsFinderUtility.LEGACY_PLACEHOLDER_REPLACEMENTS[tmpIndex] = tmpPseudoSmilesSymbol;
+            tmpIndex++;
+            ErtlFunctionalGroupsFinderUtility.LEGACY_PLACEHOLDER_PATTERNS[tmpIndex] = Pattern.compile("(" + tmpPlaceholderElementSymbol + ")");
+            ErtlFunctionalGroupsFinderUtility.LEGACY_PLACEHOLDER_REPLACEMENTS[tmpIndex] = tmpPseudoSmilesSymbol;
+            tmpIndex++;
         }
     }
     //</editor-fold>
@@ -150,8 +313,11 @@ public class ErtlFunctionalGroupsFinderUtility {
      * returned by ErtlFunctionalGroupsFinder. It takes elements, bond order sum, and aromaticity of the atoms in
      * an atom container into consideration. It does not consider things like isotopes, stereo-chemistry,
      * orbitals, or charges.
+     * <br>A new object is created with every call; use ErtlFunctionalGroupsFinderContext.getFunctionalGroupHashGenerator()
+     * to reuse one object per thread.
      *
      * @return MoleculeHashGenerator object configured for Ertl functional groups
+     * @see ErtlFunctionalGroupsFinderContext#getFunctionalGroupHashGenerator()
      */
     public static MoleculeHashGenerator getFunctionalGroupHashGenerator() {
         MoleculeHashGenerator tmpHashGenerator = new HashGeneratorMaker()
@@ -190,6 +356,82 @@ public class ErtlFunctionalGroupsFinderUtility {
     //</editor-fold>
     //
     //<editor-fold desc="Queries for filtering">
+    /**
+     * Checks all filtering and preprocessing criteria for the given molecule at once and returns the failed ones as a
+     * bitmask of the VALIDATION_* constants of this class; 0 means that the molecule can be passed on to
+     * ErtlFunctionalGroupsFinder.find() as it is (single atoms are not considered an error here, check
+     * VALIDATION_BOND_COUNT_ZERO if they should be filtered).
+     * <br>Atoms and bonds are iterated only once: atomic numbers are checked by an array lookup, formal charges are
+     * checked on the same pass, and the connectivity is determined by a union-find structure on the bonds. So this
+     * method is cheaper than calling containsInvalidAtomicNumbers(), isAtomOrBondCountZero(), isMoleculeCharged(),
+     * and isStructureUnconnected() one after another and it reports all failed criteria, which is useful for
+     * statistics. It does not throw exceptions on undefined atom properties but reports them via
+     * VALIDATION_UNDEFINED_ATOMIC_NUMBER and VALIDATION_UNDEFINED_FORMAL_CHARGE.
+     *
+     * @param aMolecule the molecule to check
+     * @return bitmask of the failed criteria
+     * @throws NullPointerException if aMolecule is 'null'
+     */
+    public static int validateMolecule(IAtomContainer aMolecule) throws NullPointerException {
+        Objects.requireNonNull(aMolecule, "Given molecule is 'null'.");
+        int tmpAtomCount = aMolecule.getAtomCount();
+        int tmpBondCount = aMolecule.getBondCount();
+        int tmpResult = 0;
+        if (tmpAtomCount == 0) {
+            tmpResult |= ErtlFunctionalGroupsFinderUtility.VALIDATION_ATOM_COUNT_ZERO;
+        }
+        if (tmpBondCount == 0) {
+            tmpResult |= ErtlFunctionalGroupsFinderUtility.VALIDATION_BOND_COUNT_ZERO;
+        }
+        for (int i = 0; i < tmpAtomCount; i++) {
+            IAtom tmpAtom = aMolecule.getAtom(i);
+            if (Objects.isNull(tmpAtom)) {
+                tmpResult |= ErtlFunctionalGroupsFinderUtility.VALIDATION_UNDEFINED_ATOMIC_NUMBER
+                        | ErtlFunctionalGroupsFinderUtility.VALIDATION_UNDEFINED_FORMAL_CHARGE;
+                continue;
+            }
+            Integer tmpAtomicNumber = tmpAtom.getAtomicNumber();
+            if (Objects.isNull(tmpAtomicNumber)) {
+                tmpResult |= ErtlFunctionalGroupsFinderUtility.VALIDATION_UNDEFINED_ATOMIC_NUMBER;
+            } else {
+                int tmpAtomicNumberInt = tmpAtomicNumber.intValue();
+                if (tmpAtomicNumberInt < 0 || tmpAtomicNumberInt >= ErtlFunctionalGroupsFinderUtility.IS_VALID_ATOMIC_NUMBER_ARRAY.length
+                        || !ErtlFunctionalGroupsFinderUtility.IS_VALID_ATOMIC_NUMBER_ARRAY[tmpAtomicNumberInt]) {
+                    tmpResult |= ErtlFunctionalGroupsFinderUtility.VALIDATION_INVALID_ATOMIC_NUMBER;
+                }
+            }
+            Integer tmpFormalCharge = tmpAtom.getFormalCharge();
+            if (Objects.isNull(tmpFormalCharge)) {
+                tmpResult |= ErtlFunctionalGroupsFinderUtility.VALIDATION_UNDEFINED_FORMAL_CHARGE;
+            } else if (tmpFormalCharge.intValue() != 0) {
+                tmpResult |= ErtlFunctionalGroupsFinderUtility.VALIDATION_CHARGED;
+            }
+        }
+        if (tmpAtomCount > 1) {
+            //union-find with path halving; every bond joining two components reduces the component count by one
+            int[] tmpParents = new int[tmpAtomCount];
+            for (int i = 0; i < tmpAtomCount; i++) {
+                tmpParents[i] = i;
+            }
+            int tmpComponentCount = tmpAtomCount;
+            for (IBond tmpBond : aMolecule.bonds()) {
+                int tmpRoot1 = ErtlFunctionalGroupsFinderUtility.findRoot(tmpParents, ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpBond.getBegin(), aMolecule));
+                int tmpRoot2 = ErtlFunctionalGroupsFinderUtility.findRoot(tmpParents, ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpBond.getEnd(), aMolecule));
+                if (tmpRoot1 != tmpRoot2) {
+                    tmpParents[tmpRoot1] = tmpRoot2;
+                    tmpComponentCount--;
+                    if (tmpComponentCount == 1) {
+                        break;
+                    }
+                }
+            }
+            if (tmpComponentCount > 1) {
+                tmpResult |= ErtlFunctionalGroupsFinderUtility.VALIDATION_UNCONNECTED;
+            }
+        }
+        return tmpResult;
+    }
+
     /**
      * Checks whether the given molecule consists of two or more unconnected structures, e.g. ion and counter-ion. This
      * would make it unfit to be passed to ErtlFunctionalGroupsFinder.find(). This can be fixed by preprocessing, see
@@ -348,23 +590,11 @@ public class ErtlFunctionalGroupsFinderUtility {
      */
     public static boolean shouldBeFiltered(IAtomContainer aMolecule, boolean areSingleAtomsFiltered) throws NullPointerException {
         Objects.requireNonNull(aMolecule, "Given molecule is null.");
-        boolean tmpShouldBeFiltered;
-        try {
-            if (areSingleAtomsFiltered) {
-                tmpShouldBeFiltered = (ErtlFunctionalGroupsFinderUtility.containsInvalidAtomicNumbers(aMolecule)
-                        || ErtlFunctionalGroupsFinderUtility.isAtomOrBondCountZero(aMolecule));
-            } else {
-                tmpShouldBeFiltered = (ErtlFunctionalGroupsFinderUtility.containsInvalidAtomicNumbers(aMolecule)
-                        || aMolecule.getAtomCount() == 0);
-            }
-
-        } catch (Exception anException) {
-            ErtlFunctionalGroupsFinderUtility.LOGGER.log(Level.WARNING,
-                    anException.toString() + " Molecule ID: " + ErtlFunctionalGroupsFinderUtility.getIDForLogging(aMolecule),
-                    anException);
-            tmpShouldBeFiltered = true;
+        int tmpFilterBits = ErtlFunctionalGroupsFinderUtility.FILTER_VALIDATION_BITS;
+        if (areSingleAtomsFiltered) {
+            tmpFilterBits |= ErtlFunctionalGroupsFinderUtility.VALIDATION_BOND_COUNT_ZERO;
         }
-        return tmpShouldBeFiltered;
+        return (ErtlFunctionalGroupsFinderUtility.validateMolecule(aMolecule) & tmpFilterBits) != 0;
     }
 
     /**
@@ -384,17 +614,16 @@ public class ErtlFunctionalGroupsFinderUtility {
      */
     public static boolean shouldBePreprocessed(IAtomContainer aMolecule) throws NullPointerException {
         Objects.requireNonNull(aMolecule, "Given molecule is null.");
-        boolean tmpNeedsPreprocessing;
-        try {
-            tmpNeedsPreprocessing = (ErtlFunctionalGroupsFinderUtility.isMoleculeCharged(aMolecule)
-                    || ErtlFunctionalGroupsFinderUtility.isStructureUnconnected(aMolecule));
-        } catch (Exception anException) {
-            ErtlFunctionalGroupsFinderUtility.LOGGER.log(Level.WARNING,
-                    anException.toString() + " Molecule ID: " + ErtlFunctionalGroupsFinderUtility.getIDForLogging(aMolecule),
-                    anException);
+        int tmpValidationResult = ErtlFunctionalGroupsFinderUtility.validateMolecule(aMolecule);
+        if ((tmpValidationResult & ErtlFunctionalGroupsFinderUtility.VALIDATION_CHARGED) != 0) {
+            return true;
+        }
+        if ((tmpValidationResult & ErtlFunctionalGroupsFinderUtility.VALIDATION_UNDEFINED_FORMAL_CHARGE) != 0) {
+            ErtlFunctionalGroupsFinderUtility.LOGGER.log(Level.WARNING, "Formal charge is 'null'. Molecule ID: "
+                    + ErtlFunctionalGroupsFinderUtility.getIDForLogging(aMolecule));
             throw new NullPointerException("An unknown error occurred.");
         }
-        return tmpNeedsPreprocessing;
+        return (tmpValidationResult & ErtlFunctionalGroupsFinderUtility.VALIDATION_UNCONNECTED) != 0;
     }
 
     /**
@@ -433,26 +662,175 @@ public class ErtlFunctionalGroupsFinderUtility {
      */
     public static boolean isValidArgumentForFindMethod(IAtomContainer aMolecule, boolean areSingleAtomsFiltered) throws NullPointerException {
         Objects.requireNonNull(aMolecule, "Given molecule is null.");
-        boolean tmpIsValid;
-        try {
-            if (areSingleAtomsFiltered) {
-                tmpIsValid = !(ErtlFunctionalGroupsFinderUtility.containsInvalidAtomicNumbers(aMolecule)
-                        || ErtlFunctionalGroupsFinderUtility.isAtomOrBondCountZero(aMolecule)
-                        || ErtlFunctionalGroupsFinderUtility.isMoleculeCharged(aMolecule)
-                        || ErtlFunctionalGroupsFinderUtility.isStructureUnconnected(aMolecule));
-            } else {
-                tmpIsValid = !(ErtlFunctionalGroupsFinderUtility.containsInvalidAtomicNumbers(aMolecule)
-                        || aMolecule.getAtomCount() == 0
-                        || ErtlFunctionalGroupsFinderUtility.isMoleculeCharged(aMolecule)
-                        || ErtlFunctionalGroupsFinderUtility.isStructureUnconnected(aMolecule));
+        int tmpInvalidBits = ErtlFunctionalGroupsFinderUtility.FIND_METHOD_VALIDATION_BITS;
+        if (areSingleAtomsFiltered) {
+            tmpInvalidBits |= ErtlFunctionalGroupsFinderUtility.VALIDATION_BOND_COUNT_ZERO;
+        }
+        return (ErtlFunctionalGroupsFinderUtility.validateMolecule(aMolecule) & tmpInvalidBits) == 0;
+    }
+
+    /**
+     * Checks the given SMILES code for conditions that let preprocess() filter the molecule it represents, without
+     * parsing it into an atom container. So records that would be filtered anyway do not have to be parsed.
+     * <br>The SMILES code is scanned up to the first whitespace character (the rest is the title for CDK's SmilesParser).
+     * The atomic numbers of all atoms, including bracket atoms like '[Na+]' or '[se]', are checked against the same
+     * list as in containsInvalidAtomicNumbers(), see getValidAtomicNumbers(); '*' atoms are invalid. As in preprocess(),
+     * the molecule is filtered if it has no atoms, if it has no bonds and areSingleAtomsFiltered is true, or if it
+     * contains invalid atoms. Because preprocess() selects the biggest unconnected component before checking the atoms,
+     * a SMILES code with multiple dot-separated components is only filtered for invalid atoms if every component
+     * contains one.
+     * <br>If an outcome is returned, preprocess() returns the same outcome for the parsed molecule. 'null' is returned
+     * if the molecule may pass the filters or if the SMILES code contains unknown symbols; the syntax of the SMILES code
+     * is not validated beyond that.
+     * <br>Therefore, a malformed SMILES code that the SmilesParser would reject is still reported as filtered if it
+     * meets one of the conditions above, e.g. "C1CC[Fe]" with an unclosed ring yields FILTERED_INVALID_ELEMENT instead
+     * of a parsing exception. Callers that tell filtered records from records causing an exception, like the
+     * extraction of the functional groups of COCONUT, count such records as filtered ("[got filtered]" in the results
+     * file), whereas they were counted as exceptions ("[exception occurred]") before this prefilter was introduced.
+     *
+     * @param aSmilesCode the SMILES code to check
+     * @param areSingleAtomsFiltered if true, molecules without bonds are filtered
+     * @return FILTERED_EMPTY, FILTERED_NO_BONDS, or FILTERED_INVALID_ELEMENT if the molecule would be filtered by
+     * preprocess() or 'null' if the SMILES code needs to be parsed
+     * @throws NullPointerException if aSmilesCode is 'null'
+     * @see ErtlFunctionalGroupsFinderUtility#preprocess(IAtomContainer, Aromaticity, boolean, PreprocessingProfile)
+     */
+    public static PreprocessingResult.Outcome prefilterSmilesCode(String aSmilesCode, boolean areSingleAtomsFiltered) throws NullPointerException {
+        Objects.requireNonNull(aSmilesCode, "Given SMILES code is 'null'.");
+        int tmpLength = aSmilesCode.length();
+        int tmpAtomCount = 0;
+        boolean tmpHasRingClosures = false;
+        boolean tmpAreAllComponentsSingleAtoms = true;
+        boolean tmpDoAllComponentsContainInvalidAtoms = true;
+        int tmpComponentAtomCount = 0;
+        boolean tmpComponentContainsInvalidAtoms = false;
+        int i = 0;
+        while (i < tmpLength) {
+            char tmpChar = aSmilesCode.charAt(i);
+            if (Character.isWhitespace(tmpChar)) {
+                break;
             }
-        } catch (Exception anException) {
-            ErtlFunctionalGroupsFinderUtility.LOGGER.log(Level.SEVERE,
-                    anException.toString() + " Molecule ID: " + ErtlFunctionalGroupsFinderUtility.getIDForLogging(aMolecule),
-                    anException);
-            tmpIsValid = false;
+            int tmpAtomicNumber = -1;
+            switch (tmpChar) {
+                case '[':
+                    int tmpEnd = aSmilesCode.indexOf(']', i + 1);
+                    if (tmpEnd < 0) {
+                        return null;
+                    }
+                    tmpAtomicNumber = ErtlFunctionalGroupsFinderUtility.getBracketAtomAtomicNumber(aSmilesCode, i + 1, tmpEnd);
+                    if (tmpAtomicNumber < 0) {
+                        return null;
+                    }
+                    i = tmpEnd + 1;
+                    break;
+                case 'B':
+                case 'C':
+                    boolean tmpIsHalogen = i + 1 < tmpLength && aSmilesCode.charAt(i + 1) == (tmpChar == 'B' ? 'r' : 'l');
+                    if (tmpIsHalogen) {
+                        tmpAtomicNumber = tmpChar == 'B' ? 35 : 17;
+                        i += 2;
+                    } else {
+                        tmpAtomicNumber = tmpChar == 'B' ? 5 : 6;
+                        i++;
+                    }
+                    break;
+                case '*':
+                    tmpAtomicNumber = 0;
+                    i++;
+                    break;
+                case 'b':
+                    tmpAtomicNumber = 5;
+                    i++;
+                    break;
+                case 'c':
+                    tmpAtomicNumber = 6;
+                    i++;
+                    break;
+                case 'N':
+                case 'n':
+                    tmpAtomicNumber = 7;
+                    i++;
+                    break;
+                case 'O':
+                case 'o':
+                    tmpAtomicNumber = 8;
+                    i++;
+                    break;
+                case 'F':
+                    tmpAtomicNumber = 9;
+                    i++;
+                    break;
+                case 'P':
+                case 'p':
+                    tmpAtomicNumber = 15;
+                    i++;
+                    break;
+                case 'S':
+                case 's':
+                    tmpAtomicNumber = 16;
+                    i++;
+                    break;
+                case 'I':
+                    tmpAtomicNumber = 53;
+                    i++;
+                    break;
+                case '.':
+                    tmpAreAllComponentsSingleAtoms &= tmpComponentAtomCount == 1;
+                    tmpDoAllComponentsContainInvalidAtoms &= tmpComponentContainsInvalidAtoms;
+                    tmpComponentAtomCount = 0;
+                    tmpComponentContainsInvalidAtoms = false;
+                    i++;
+                    break;
+                case '%':
+                case '0':
+                case '1':
+                case '2':
+                case '3':
+                case '4':
+                case '5':
+                case '6':
+                case '7':
+                case '8':
+                case '9':
+                    tmpHasRingClosures = true;
+                    i++;
+                    break;
+                case '-':
+                case '=':
+                case '#':
+                case '$':
+                case ':':
+                case '/':
+                case '\\':
+                case '(':
+                case ')':
+                    i++;
+                    break;
+                default:
+                    return null;
+            }
+            if (tmpAtomicNumber >= 0) {
+                tmpAtomCount++;
+                tmpComponentAtomCount++;
+                if (tmpAtomicNumber >= ErtlFunctionalGroupsFinderUtility.IS_VALID_ATOMIC_NUMBER_ARRAY.length
+                        || !ErtlFunctionalGroupsFinderUtility.IS_VALID_ATOMIC_NUMBER_ARRAY[tmpAtomicNumber]) {
+                    tmpComponentContainsInvalidAtoms = true;
+                }
+            }
+        }
+        tmpAreAllComponentsSingleAtoms &= tmpComponentAtomCount == 1;
+        tmpDoAllComponentsContainInvalidAtoms &= tmpComponentContainsInvalidAtoms;
+        if (tmpAtomCount == 0) {
+            return PreprocessingResult.Outcome.FILTERED_EMPTY;
         }
-        return tmpIsValid;
+        //ring closures may connect atoms of different dot-separated components
+        if (areSingleAtomsFiltered && tmpAreAllComponentsSingleAtoms && !tmpHasRingClosures) {
+            return PreprocessingResult.Outcome.FILTERED_NO_BONDS;
+        }
+        if (tmpDoAllComponentsContainInvalidAtoms) {
+            return PreprocessingResult.Outcome.FILTERED_INVALID_ELEMENT;
+        }
+        return null;
     }
     //</editor-fold>
     //
@@ -460,11 +838,15 @@ public class ErtlFunctionalGroupsFinderUtility {
     /**
      * Returns the biggest unconnected component/structure of the given atom container, judging by the atom count. To
      * pre-check whether the atom container consists of multiple unconnected components, use isStructureUnconnected().
-     * All set properties of aMolecule will be set as properties of the returned atom container.
+     * All set properties of aMolecule will be set as properties of the returned atom container. If multiple components
+     * have the biggest atom count, the one containing the atom with the lowest index is returned.
      * <br>NOTE: The atom, bond etc. objects of the given atom container are re-used in the returned atom container but
      * the former remains unchanged
-     * <br>Iterates through all unconnected components in the given atom container, so the method scales linearly with
-     * O(n) with n: number of unconnected components.
+     * <br>The components are determined by a union-find structure on the bonds and only the biggest component is
+     * built as a new atom container, together with its single electrons, lone pairs, and stereo elements. So, unlike
+     * ConnectivityChecker.partitionIntoMolecules(), no atom containers are created for the discarded components, e.g.
+     * counter-ions and solvent molecules. The method scales linearly with O(n + m) with n: number of atoms and m:
+     * number of bonds.
      *
      * @param aMolecule the molecule whose biggest unconnected component should be found
      * @return the biggest (judging by the atom count) unconnected component of the given atom container
@@ -472,14 +854,71 @@ public class ErtlFunctionalGroupsFinderUtility {
      */
     public static IAtomContainer selectBiggestUnconnectedComponent(IAtomContainer aMolecule) throws NullPointerException {
         Objects.requireNonNull(aMolecule, "Given molecules is 'null'.");
-        IAtomContainerSet tmpUnconnectedComponentsSet = ConnectivityChecker.partitionIntoMolecules(aMolecule);
-        IAtomContainer tmpBiggestComponent = null;
-        for (IAtomContainer tmpComponent : tmpUnconnectedComponentsSet.atomContainers()) {
-            if (Objects.isNull(tmpBiggestComponent) || tmpBiggestComponent.getAtomCount() < tmpComponent.getAtomCount()) {
-                tmpBiggestComponent = tmpComponent;
+        int tmpAtomCount = aMolecule.getAtomCount();
+        if (tmpAtomCount == 0) {
+            throw new NullPointerException("The resulting biggest component is 'null'.");
+        }
+        int[] tmpParents = new int[tmpAtomCount];
+        for (int i = 0; i < tmpAtomCount; i++) {
+            tmpParents[i] = i;
+        }
+        for (IBond tmpBond : aMolecule.bonds()) {
+            int tmpRoot1 = ErtlFunctionalGroupsFinderUtility.findRoot(tmpParents, ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpBond.getBegin(), aMolecule));
+            int tmpRoot2 = ErtlFunctionalGroupsFinderUtility.findRoot(tmpParents, ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpBond.getEnd(), aMolecule));
+            if (tmpRoot1 != tmpRoot2) {
+                //the lower root is kept so that the root of every component is its atom with the lowest index
+                tmpParents[Math.max(tmpRoot1, tmpRoot2)] = Math.min(tmpRoot1, tmpRoot2);
+            }
+        }
+        int[] tmpComponentSizes = new int[tmpAtomCount];
+        int[] tmpRoots = new int[tmpAtomCount];
+        for (int i = 0; i < tmpAtomCount; i++) {
+            tmpRoots[i] = ErtlFunctionalGroupsFinderUtility.findRoot(tmpParents, i);
+            tmpComponentSizes[tmpRoots[i]]++;
+        }
+        //roots are ordered by the lowest atom index of their component, so a strict comparison keeps the first one
+        int tmpBiggestRoot = 0;
+        for (int i = 1; i < tmpAtomCount; i++) {
+            if (tmpComponentSizes[i] > tmpComponentSizes[tmpBiggestRoot]) {
+                tmpBiggestRoot = i;
+            }
+        }
+        IAtom[] tmpAtoms = new IAtom[tmpComponentSizes[tmpBiggestRoot]];
+        HashSet<IAtom> tmpAtomSet = new HashSet<>(tmpAtoms.length * 2);
+        int tmpAtomIndex = 0;
+        for (int i = 0; i < tmpAtomCount; i++) {
+            if (tmpRoots[i] == tmpBiggestRoot) {
+                IAtom tmpAtom = aMolecule.getAtom(i);
+                tmpAtoms[tmpAtomIndex++] = tmpAtom;
+                tmpAtomSet.add(tmpAtom);
+            }
+        }
+        List<IBond> tmpBonds = new ArrayList<>(aMolecule.getBondCount());
+        for (IBond tmpBond : aMolecule.bonds()) {
+            if (tmpRoots[ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpBond.getBegin(), aMolecule)] == tmpBiggestRoot) {
+                tmpBonds.add(tmpBond);
+            }
+        }
+        IAtomContainer tmpBiggestComponent = aMolecule.getBuilder().newAtomContainer();
+        tmpBiggestComponent.setAtoms(tmpAtoms);
+        tmpBiggestComponent.setBonds(tmpBonds.toArray(new IBond[0]));
+        for (ISingleElectron tmpSingleElectron : aMolecule.singleElectrons()) {
+            if (tmpAtomSet.contains(tmpSingleElectron.getAtom())) {
+                tmpBiggestComponent.addSingleElectron(tmpSingleElectron);
+            }
+        }
+        for (ILonePair tmpLonePair : aMolecule.lonePairs()) {
+            if (tmpAtomSet.contains(tmpLonePair.getAtom())) {
+                tmpBiggestComponent.addLonePair(tmpLonePair);
+            }
+        }
+        for (IStereoElement<?, ?> tmpStereoElement : aMolecule.stereoElements()) {
+            IChemObject tmpFocus = tmpStereoElement.getFocus();
+            if ((tmpFocus instanceof IAtom && tmpAtomSet.contains(tmpFocus))
+                    || (tmpFocus instanceof IBond && tmpAtomSet.contains(((IBond) tmpFocus).getBegin()))) {
+                tmpBiggestComponent.addStereoElement(tmpStereoElement);
             }
         }
-        Objects.requireNonNull(tmpBiggestComponent, "The resulting biggest component is 'null'.");
         tmpBiggestComponent.setProperties(aMolecule.getProperties());
         return tmpBiggestComponent;
     }
@@ -494,8 +933,10 @@ public class ErtlFunctionalGroupsFinderUtility {
      * <br>NOTE: This method changes major properties and the composition of the given IAtomContainer object! If you
      * want to retain your object unchanged for future calculations, use the IAtomContainer's
      * clone() method.
-     * <br>Iterates through all atoms in the given atom container, so the method scales linearly with
-     * O(n) with n: number of atoms.
+     * <br>The neutralization is done in two passes: first, the formal charges of all atoms are reset; second, only the
+     * previously charged atoms are re-typed and filled up with implicit hydrogen atoms, using the atom type matcher
+     * and hydrogen adder of the current thread (see ErtlFunctionalGroupsFinderContext). So the method scales linearly
+     * with O(n) with n: number of atoms, independent of the number of charged atoms.
      *
      * @param aMolecule the molecule to be neutralized
      * @throws NullPointerException if aMolecule is 'null' or one of its atoms
@@ -504,9 +945,39 @@ public class ErtlFunctionalGroupsFinderUtility {
      */
     public static void neutralizeCharges(IAtomContainer aMolecule) throws NullPointerException, CDKException {
         Objects.requireNonNull(aMolecule, "Given molecule is 'null'.");
-        Iterable<IAtom> tmpAtoms = aMolecule.atoms();
-        for (IAtom tmpAtom : tmpAtoms) {
-            ErtlFunctionalGroupsFinderUtility.neutralizeCharges(tmpAtom, aMolecule);
+        //first pass: reset all formal charges and collect the affected atoms
+        List<IAtom> tmpNeutralizedAtoms = null;
+        for (IAtom tmpAtom : aMolecule.atoms()) {
+            Integer tmpFormalCharge = tmpAtom.getFormalCharge();
+            if (Objects.isNull(tmpFormalCharge) || tmpFormalCharge.intValue() == 0) {
+                continue;
+            }
+            tmpAtom.setFormalCharge(0);
+            if (Objects.isNull(tmpNeutralizedAtoms)) {
+                tmpNeutralizedAtoms = new ArrayList<>(8);
+            }
+            tmpNeutralizedAtoms.add(tmpAtom);
+        }
+        if (Objects.isNull(tmpNeutralizedAtoms)) {
+            return;
+        }
+        IChemObjectBuilder tmpBuilder = aMolecule.getBuilder();
+        if (Objects.isNull(tmpBuilder)) {
+            throw new CDKException("Builder of the given atom container is 'null'.");
+        }
+        //second pass: re-type and re-hydrogenate only the affected atoms
+        ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+        CDKHydrogenAdder tmpHAdder = tmpContext.getHydrogenAdder(tmpBuilder);
+        CDKAtomTypeMatcher tmpMatcher = tmpContext.getAtomTypeMatcher(tmpBuilder);
+        for (IAtom tmpAtom : tmpNeutralizedAtoms) {
+            //Can throw CDKException
+            IAtomType tmpMatchedType = tmpMatcher.findMatchingAtomType(aMolecule, tmpAtom);
+            if (Objects.isNull(tmpMatchedType)) {
+                throw new CDKException("Matched atom type is 'null'.");
+            }
+            AtomTypeManipulator.configure(tmpAtom, tmpMatchedType);
+            //Can throw CDKException
+            tmpHAdder.addImplicitHydrogens(aMolecule, tmpAtom);
         }
     }
 
@@ -542,8 +1013,9 @@ public class ErtlFunctionalGroupsFinderUtility {
             if (Objects.isNull(tmpBuilder)) {
                 throw new CDKException("Builder of the given atom container is 'null'.");
             }
-            CDKHydrogenAdder tmpHAdder = CDKHydrogenAdder.getInstance(tmpBuilder);
-            CDKAtomTypeMatcher tmpMatcher = CDKAtomTypeMatcher.getInstance(tmpBuilder);
+            ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+            CDKHydrogenAdder tmpHAdder = tmpContext.getHydrogenAdder(tmpBuilder);
+            CDKAtomTypeMatcher tmpMatcher = tmpContext.getAtomTypeMatcher(tmpBuilder);
             //Can throw CDKException
             IAtomType tmpMatchedType = tmpMatcher.findMatchingAtomType(aParentMolecule, anAtom);
             if (Objects.isNull(tmpMatchedType)) {
@@ -579,6 +1051,45 @@ public class ErtlFunctionalGroupsFinderUtility {
         AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(aMolecule);
     }
 
+    /**
+     * Sets the valency of every atom in the given molecule to the sum of the orders of its bonds plus its implicit
+     * hydrogen count plus the number of its single electrons. This is the only atom type property that
+     * ErtlFunctionalGroupsFinder relies on (for the generalization of functional groups), so for molecules that have
+     * bond orders and implicit hydrogen counts set, e.g. by CDK's SmilesParser with kekulisation turned on, this
+     * method can replace the much more expensive perceiveAtomTypesAndConfigureAtoms() in the preprocessing if the
+     * aromaticity model does not rely on atom types either. Atoms that are neutralized later are typed then.
+     * <br>NOTE: This method changes properties of the atoms of the given IAtomContainer object!
+     *
+     * @param aMolecule the molecule to configure
+     * @throws NullPointerException if aMolecule is 'null'
+     * @throws CDKException if an implicit hydrogen count or a bond order is undefined
+     * @see PreprocessingProfile#PARSED_SMILES
+     */
+    public static void configureValencies(IAtomContainer aMolecule) throws NullPointerException, CDKException {
+        Objects.requireNonNull(aMolecule, "Given molecule is 'null'.");
+        int[] tmpValencies = new int[aMolecule.getAtomCount()];
+        for (IBond tmpBond : aMolecule.bonds()) {
+            IBond.Order tmpOrder = tmpBond.getOrder();
+            if (Objects.isNull(tmpOrder) || tmpOrder == IBond.Order.UNSET) {
+                throw new CDKException("Bond order is undefined.");
+            }
+            int tmpOrderNumeric = tmpOrder.numeric();
+            tmpValencies[ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpBond.getBegin(), aMolecule)] += tmpOrderNumeric;
+            tmpValencies[ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpBond.getEnd(), aMolecule)] += tmpOrderNumeric;
+        }
+        for (ISingleElectron tmpSingleElectron : aMolecule.singleElectrons()) {
+            tmpValencies[ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpSingleElectron.getAtom(), aMolecule)]++;
+        }
+        for (int i = 0; i < tmpValencies.length; i++) {
+            IAtom tmpAtom = aMolecule.getAtom(i);
+            Integer tmpImplicitHydrogenCount = tmpAtom.getImplicitHydrogenCount();
+            if (Objects.isNull(tmpImplicitHydrogenCount)) {
+                throw new CDKException("Implicit hydrogen count is 'null'.");
+            }
+            tmpAtom.setValency(tmpValencies[i] + tmpImplicitHydrogenCount);
+        }
+    }
+
     /**
      * Convenience method for applying the given aromaticity model to the given molecule. Any existing aromaticity flags
      * are removed - even if no aromatic bonds were found. This follows the idea of applying an aromaticity model to a
@@ -608,16 +1119,54 @@ public class ErtlFunctionalGroupsFinderUtility {
             //Note: Contrary to the docs, an Intractable exception might be thrown
             tmpIsAromatic = anAromaticityModel.apply(aMolecule);
         } catch (Intractable anIntractableException) {
-            ErtlFunctionalGroupsFinderUtility.LOGGER.log(Level.SEVERE,
-                    anIntractableException.toString() + " Molecule ID: " + ErtlFunctionalGroupsFinderUtility.getIDForLogging(aMolecule),
-                    anIntractableException);
-            String tmpMessage = anIntractableException.getMessage();
-            Throwable tmpCause = anIntractableException.getCause();
-            throw new CDKException(tmpMessage, tmpCause);
+            throw ErtlFunctionalGroupsFinderUtility.handleIntractableException(anIntractableException, aMolecule);
+        }
+        return tmpIsAromatic;
+    }
+
+    /**
+     * Applies the aromaticity model of the given ring system cache to the given molecule like
+     * applyAromaticityDetection(IAtomContainer, Aromaticity), but sets the aromaticity flags from the cached
+     * assignments of the ring systems of the molecule if all of them are cached. Otherwise, the aromaticity model is
+     * applied and the assignments of the ring systems missing in the cache are added to it. The result is the same as
+     * with the aromaticity model alone for the electron donation models supported by the cache.
+     * <br>NOTE: This method changes major properties and the composition of the given IAtomContainer object! If you
+     * want to retain your object unchanged for future calculations, use copy() in this class or the IAtomContainer's
+     * clone() method.
+     *
+     * @param aMolecule the molecule to apply the model to
+     * @param aCache the ring system cache holding the aromaticity model to apply
+     * @return true if the molecule (or parts of it) is determined to be aromatic
+     * @throws NullPointerException if a parameter is 'null'
+     * @throws CDKException if a problem occurred with the cycle perception (see CDK docs)
+     * @see RingSystemAromaticityCache
+     */
+    public static boolean applyAromaticityDetection(IAtomContainer aMolecule, RingSystemAromaticityCache aCache) throws NullPointerException, CDKException {
+        Objects.requireNonNull(aMolecule, "Given molecule is 'null'.");
+        Objects.requireNonNull(aCache, "Given ring system aromaticity cache is 'null'.");
+        boolean tmpIsAromatic = false;
+        try {
+            tmpIsAromatic = aCache.apply(aMolecule);
+        } catch (Intractable anIntractableException) {
+            throw ErtlFunctionalGroupsFinderUtility.handleIntractableException(anIntractableException, aMolecule);
         }
         return tmpIsAromatic;
     }
 
+    /**
+     * Checks whether the aromaticity of the given molecule was perceived with the fallback cycle finder of a
+     * BoundedCycleFinder, i.e. whether the property AROMATICITY_FALLBACK_PROPERTY_KEY is set to true.
+     *
+     * @param aMolecule the molecule to check
+     * @return true if the fallback cycle finder was used for the aromaticity detection of the molecule
+     * @throws NullPointerException if aMolecule is 'null'
+     * @see BoundedCycleFinder
+     */
+    public static boolean isAromaticityFallbackUsed(IAtomContainer aMolecule) throws NullPointerException {
+        Objects.requireNonNull(aMolecule, "Given molecule is 'null'.");
+        return Boolean.TRUE.equals(aMolecule.getProperty(ErtlFunctionalGroupsFinderUtility.AROMATICITY_FALLBACK_PROPERTY_KEY));
+    }
+
     /**
      * Checks whether the given molecule represented by an atom container should be filtered instead of being passed
      * on to the ErtlFunctionalGroupsFinder.find() method and if not, applies necessary preprocessing steps.
@@ -673,69 +1222,139 @@ public class ErtlFunctionalGroupsFinderUtility {
      * class' logger
      */
     public static IAtomContainer applyFiltersAndPreprocessing(IAtomContainer aMolecule, Aromaticity anAromaticityModel, boolean areSingleAtomsFiltered) throws NullPointerException {
-        Objects.requireNonNull(aMolecule, "Given atom container is 'null'.");
-        Objects.requireNonNull(anAromaticityModel, "Given aromaticity model is 'null'.");
-        try {
-            ErtlFunctionalGroupsFinderUtility.perceiveAtomTypesAndConfigureAtoms(aMolecule);
-            //Filter
-            if (areSingleAtomsFiltered) {
-                boolean tmpIsAtomOrBondCountZero = ErtlFunctionalGroupsFinderUtility.isAtomOrBondCountZero(aMolecule);
-                if (tmpIsAtomOrBondCountZero) {
-                    return null;
-                }
-            } else {
-                boolean tmpIsAtomCountZero = aMolecule.getAtomCount() == 0;
-                if (tmpIsAtomCountZero) {
-                    return null;
-                }
-            }
-            //From structures containing two or more unconnected structures (e.g. ions) choose the largest structure
-            boolean tmpIsUnconnected = ErtlFunctionalGroupsFinderUtility.isStructureUnconnected(aMolecule);
-            if (tmpIsUnconnected) {
-                aMolecule = ErtlFunctionalGroupsFinderUtility.selectBiggestUnconnectedComponent(aMolecule);
-            }
-            //Filter
-            boolean tmpContainsInvalidAtoms = ErtlFunctionalGroupsFinderUtility.containsInvalidAtomicNumbers(aMolecule);
-            if (tmpContainsInvalidAtoms) {
-                return null;
-            }
-            //Neutralize charges if there are any
-            boolean tmpIsCharged = ErtlFunctionalGroupsFinderUtility.isMoleculeCharged(aMolecule);
-            if (tmpIsCharged) {
-                ErtlFunctionalGroupsFinderUtility.neutralizeCharges(aMolecule);
-            }
-            //Application of aromaticity model
-            ErtlFunctionalGroupsFinderUtility.applyAromaticityDetection(aMolecule, anAromaticityModel);
-        } catch (Exception anException) {
+        PreprocessingResult tmpResult = ErtlFunctionalGroupsFinderUtility.preprocess(aMolecule, anAromaticityModel, areSingleAtomsFiltered);
+        if (tmpResult.getOutcome().isFailure()) {
+            Exception tmpException = tmpResult.getException();
             ErtlFunctionalGroupsFinderUtility.LOGGER.log(Level.SEVERE,
-                    anException.toString() + " Molecule ID: " + ErtlFunctionalGroupsFinderUtility.getIDForLogging(aMolecule),
-                    anException);
-            return null;
+                    tmpException + " Molecule ID: " + ErtlFunctionalGroupsFinderUtility.getIDForLogging(aMolecule),
+                    tmpException);
         }
-        return aMolecule;
+        return tmpResult.getMolecule();
     }
-    //</editor-fold>
-    //
-    //<editor-fold desc="Additional functionalities">
+
     /**
-     * Extracts functional groups from the given molecule, using the Ertl algorithm / ErtlFunctionalGroupsFinder, but
-     * only the marked atoms of every functional group are returned. They do not contain their environment (i.e. connected,
-     * unmarked carbon atoms) and are also not generalized.
+     * Checks whether the given molecule represented by an atom container should be filtered instead of being passed
+     * on to the ErtlFunctionalGroupsFinder.find() method and if not, applies the necessary preprocessing steps, like
+     * applyFiltersAndPreprocessing(), but reports the outcome as a result object instead of returning 'null' and
+     * logging exceptions.
+     * <br>The steps are ordered by their cost so that filtered molecules are rejected as cheaply as possible: first,
+     * the molecule is validated in a single pass (see validateMolecule()) and empty molecules (and single atoms if
+     * areSingleAtomsFiltered is true) are filtered. Then, the biggest unconnected component is selected if the molecule
+     * is unconnected and filtered if it contains invalid atomic numbers. Only molecules that pass these checks are
+     * subjected to the expensive steps, i.e. atom type perception, neutralization of charges, and aromaticity
+     * detection, in this order. Atom types are perceived for the selected component only, not for the discarded ones.
+     * <br>To bound the time spent on the aromaticity detection of dense polycyclic molecules, use an aromaticity model
+     * with a BoundedCycleFinder (see ErtlFunctionalGroupsFinderContext.getBoundedDaylightAromaticityModel()); whether
+     * its fallback cycle finder was used is reported in the returned result.
+     * <br>NOTE: This method changes major properties and the composition of the given IAtomContainer object! If you
+     * want to retain your object unchanged for future calculations, use the IAtomContainer's
+     * clone() method.
      *
-     * @param aMolecule the molecule to extracts functional groups from; it is not cloned in this method!
-     * @return List of IAtomContainer objects representing the detected functional groups
-     * @throws NullPointerException if the given atom container is null
-     * @throws IllegalArgumentException if the given atom container cannot be passed to ErtlFunctionalGroupsFinder;
-     * check methods for filtering and preprocessing in this case
+     * @param aMolecule the molecule to check and process
+     * @param anAromaticityModel the aromaticity model to apply to the molecule in preprocessing; Note: The chosen
+     * ElectronDonation model can massively influence the extracted function groups of a molecule when using
+     * ErtlFunctionGroupsFinder!
+     * @param areSingleAtomsFiltered if false, molecules with bond count 0 but atom count 1 will be processed and
+     *                               not filtered
+     * @return the result holding the outcome and, if successful, the preprocessed molecule
+     * @throws NullPointerException if a parameter is 'null'; Note: All other exceptions are caught and reported in the
+     * returned result
+     * @see PreprocessingResult
      */
-    public static List<IAtomContainer> findMarkedAtoms(IAtomContainer aMolecule) throws NullPointerException, IllegalArgumentException {
-        return ErtlFunctionalGroupsFinderUtility.findMarkedAtoms(aMolecule, true);
+    public static PreprocessingResult preprocess(IAtomContainer aMolecule, Aromaticity anAromaticityModel, boolean areSingleAtomsFiltered) throws NullPointerException {
+        return ErtlFunctionalGroupsFinderUtility.preprocess(aMolecule, anAromaticityModel, areSingleAtomsFiltered, PreprocessingProfile.STANDARD);
     }
 
     /**
-     * Extracts functional groups from the given molecule, using the Ertl algorithm / ErtlFunctionalGroupsFinder, but
-     * only the marked atoms of every functional group are returned. They do not contain their environment (i.e. connected,
-     * unmarked carbon atoms) and are also not generalized.
+     * Checks whether the given molecule should be filtered and if not, applies the necessary preprocessing steps like
+     * preprocess(IAtomContainer, Aromaticity, boolean), but configures the atoms according to the given profile. With
+     * PreprocessingProfile.PARSED_SMILES, the perception of atom types, one of the most expensive preprocessing steps,
+     * is replaced by the cheap configuration of the atom valencies from the data set by the SMILES parser (see
+     * configureValencies()) and atom types are only perceived for charged atoms that are neutralized.
+     * <br>NOTE: This method changes major properties and the composition of the given IAtomContainer object! If you
+     * want to retain your object unchanged for future calculations, use the IAtomContainer's
+     * clone() method.
+     *
+     * @param aMolecule the molecule to check and process
+     * @param anAromaticityModel the aromaticity model to apply to the molecule in preprocessing; Note: The chosen
+     * ElectronDonation model can massively influence the extracted function groups of a molecule when using
+     * ErtlFunctionGroupsFinder! With PreprocessingProfile.PARSED_SMILES, the electron donation model must not rely on
+     * atom types, e.g. ElectronDonation.daylight()
+     * @param areSingleAtomsFiltered if false, molecules with bond count 0 but atom count 1 will be processed and
+     *                               not filtered
+     * @param aProfile the preprocessing profile determining how the atoms are configured
+     * @return the result holding the outcome and, if successful, the preprocessed molecule
+     * @throws NullPointerException if a parameter is 'null'; Note: All other exceptions are caught and reported in the
+     * returned result
+     * @see PreprocessingProfile
+     */
+    public static PreprocessingResult preprocess(
+            IAtomContainer aMolecule,
+            Aromaticity anAromaticityModel,
+            boolean areSingleAtomsFiltered,
+            PreprocessingProfile aProfile) throws NullPointerException {
+        Objects.requireNonNull(aMolecule, "Given atom container is 'null'.");
+        Objects.requireNonNull(anAromaticityModel, "Given aromaticity model is 'null'.");
+        Objects.requireNonNull(aProfile, "Given preprocessing profile is 'null'.");
+        return ErtlFunctionalGroupsFinderUtility.preprocess(aMolecule, anAromaticityModel, null, areSingleAtomsFiltered, aProfile);
+    }
+
+    /**
+     * Checks whether the given molecule should be filtered and if not, applies the necessary preprocessing steps like
+     * preprocess(IAtomContainer, Aromaticity, boolean, PreprocessingProfile), but applies the aromaticity model of the
+     * given ring system cache through it, see applyAromaticityDetection(IAtomContainer, RingSystemAromaticityCache).
+     * So the aromaticity of ring systems that occurred in previously preprocessed molecules is not perceived again.
+     * <br>NOTE: This method changes major properties and the composition of the given IAtomContainer object! If you
+     * want to retain your object unchanged for future calculations, use the IAtomContainer's
+     * clone() method.
+     *
+     * @param aMolecule the molecule to check and process
+     * @param aCache the ring system cache holding the aromaticity model to apply to the molecule in preprocessing
+     * @param areSingleAtomsFiltered if false, molecules with bond count 0 but atom count 1 will be processed and
+     *                               not filtered
+     * @param aProfile the preprocessing profile determining how the atoms are configured
+     * @return the result holding the outcome and, if successful, the preprocessed molecule
+     * @throws NullPointerException if a parameter is 'null'; Note: All other exceptions are caught and reported in the
+     * returned result
+     * @see RingSystemAromaticityCache
+     */
+    public static PreprocessingResult preprocess(
+            IAtomContainer aMolecule,
+            RingSystemAromaticityCache aCache,
+            boolean areSingleAtomsFiltered,
+            PreprocessingProfile aProfile) throws NullPointerException {
+        Objects.requireNonNull(aMolecule, "Given atom container is 'null'.");
+        Objects.requireNonNull(aCache, "Given ring system aromaticity cache is 'null'.");
+        Objects.requireNonNull(aProfile, "Given preprocessing profile is 'null'.");
+        return ErtlFunctionalGroupsFinderUtility.preprocess(aMolecule, aCache.getAromaticityModel(), aCache, areSingleAtomsFiltered, aProfile);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Additional functionalities">
+    /**
+     * Extracts functional groups from the given molecule, using the Ertl algorithm / ErtlFunctionalGroupsFinder, but
+     * only the marked atoms of every functional group are returned. They do not contain their environment (i.e. connected,
+     * unmarked carbon atoms) and are also not generalized.
+     *
+     * @param aMolecule the molecule to extracts functional groups from; it is not cloned in this method!
+     * @return List of IAtomContainer objects representing the detected functional groups
+     * @throws NullPointerException if the given atom container is null
+     * @throws IllegalArgumentException if the given atom container cannot be passed to ErtlFunctionalGroupsFinder;
+     * check methods for filtering and preprocessing in this case
+     */
+    public static List<IAtomContainer> findMarkedAtoms(IAtomContainer aMolecule) throws NullPointerException, IllegalArgumentException {
+        return ErtlFunctionalGroupsFinderUtility.findMarkedAtoms(aMolecule, true);
+    }
+
+    /**
+     * Extracts functional groups from the given molecule, using the Ertl algorithm / ErtlFunctionalGroupsFinder, but
+     * only the marked atoms of every functional group are returned. They do not contain their environment (i.e. connected,
+     * unmarked carbon atoms) and are also not generalized.
+     * <br>The groups are built directly from the marked atom indices returned by
+     * ErtlFunctionalGroupsFinder.findMarkedAtomGroups(), so no environment is expanded and removed again and no
+     * properties are left on the atoms of the given molecule. The groups consist of the atom and bond objects of the
+     * given molecule; as in the groups returned by ErtlFunctionalGroupsFinder.find(), the implicit hydrogen counts of
+     * their atoms are set to 0.
      *
      * @param aMolecule the molecule to extracts functional groups from; it is not cloned in this method!
      * @param areSingleAtomsFiltered if false, molecules with bond count 0 but atom count 1 will be processed and not raise
@@ -754,41 +1373,40 @@ public class ErtlFunctionalGroupsFinderUtility {
         if (!tmpCanBeFragmented) {
             throw new IllegalArgumentException("Given molecule cannot be fragmented but needs to be filtered or preprocessed.");
         }
-        HashMap<Integer, IAtom> tmpIdToAtomMap = new HashMap<>(aMolecule.getAtomCount() + 1, 1);
-        for (int i = 0; i < aMolecule.getAtomCount(); i++) {
-            IAtom tmpAtom = aMolecule.getAtom(i);
-            tmpAtom.setProperty("EFGFUtility.INDEX", i);
-            tmpIdToAtomMap.put(i, tmpAtom);
-        }
-        ErtlFunctionalGroupsFinder tmpEFGF = new ErtlFunctionalGroupsFinder(ErtlFunctionalGroupsFinder.Mode.DEFAULT);
-        List<IAtomContainer> tmpFunctionalGroups = tmpEFGF.find(aMolecule, false);
-        if (tmpFunctionalGroups.isEmpty()) {
+        List<int[]> tmpMarkedAtomGroups = ErtlFunctionalGroupsFinderContext.get().getGeneralizingFinder().findMarkedAtomGroups(aMolecule);
+        List<IAtomContainer> tmpFunctionalGroups = new ArrayList<>(tmpMarkedAtomGroups.size());
+        if (tmpMarkedAtomGroups.isEmpty()) {
             return tmpFunctionalGroups;
         }
-        for (IAtomContainer tmpFunctionalGroup : tmpFunctionalGroups) {
-            for (int i = 0; i < tmpFunctionalGroup.getAtomCount(); i++) {
-                IAtom tmpAtom = tmpFunctionalGroup.getAtom(i);
-                if (Objects.isNull(tmpAtom.getProperty("EFGFUtility.INDEX"))) {
-                    if (tmpAtom instanceof IPseudoAtom && "R".equals(((IPseudoAtom)tmpAtom).getLabel())) {
-                        //atom is a pseudo atom added by the EFGF in generalization
-                        tmpFunctionalGroup.removeAtom(tmpAtom);
-                        i = i - 1;
-                        continue;
-                    } else if (tmpAtom.getSymbol().equals("C")){
-                        //atom is an environmental C added by the EFGF
-                        tmpFunctionalGroup.removeAtom(tmpAtom);
-                        i = i - 1;
-                        continue;
-                    } else if (tmpAtom.getSymbol().equals("H")) {
-                        //atom is an explicit H added by the EFGF
-                        tmpFunctionalGroup.removeAtom(tmpAtom);
-                        i = i - 1;
-                        continue;
-                    } else {
-                        //unknown atom
-                        throw new IllegalArgumentException("Something went wrong, identified unknown added atom.");
-                    }
-                }
+        int[] tmpAtomToGroupMap = new int[aMolecule.getAtomCount()];
+        Arrays.fill(tmpAtomToGroupMap, -1);
+        for (int i = 0; i < tmpMarkedAtomGroups.size(); i++) {
+            IAtomContainer tmpFunctionalGroup = aMolecule.getBuilder().newAtomContainer();
+            for (int tmpAtomIndex : tmpMarkedAtomGroups.get(i)) {
+                tmpAtomToGroupMap[tmpAtomIndex] = i;
+                IAtom tmpAtom = aMolecule.getAtom(tmpAtomIndex);
+                //as in the groups returned by ErtlFunctionalGroupsFinder.find(), hydrogen atoms are not part of the groups
+                tmpAtom.setImplicitHydrogenCount(0);
+                tmpFunctionalGroup.addAtom(tmpAtom);
+            }
+            tmpFunctionalGroups.add(tmpFunctionalGroup);
+        }
+        for (IBond tmpBond : aMolecule.bonds()) {
+            int tmpGroupIndex = tmpAtomToGroupMap[ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpBond.getBegin(), aMolecule)];
+            if (tmpGroupIndex >= 0 && tmpGroupIndex == tmpAtomToGroupMap[ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpBond.getEnd(), aMolecule)]) {
+                tmpFunctionalGroups.get(tmpGroupIndex).addBond(tmpBond);
+            }
+        }
+        for (ISingleElectron tmpSingleElectron : aMolecule.singleElectrons()) {
+            int tmpGroupIndex = tmpAtomToGroupMap[ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpSingleElectron.getAtom(), aMolecule)];
+            if (tmpGroupIndex >= 0) {
+                tmpFunctionalGroups.get(tmpGroupIndex).addSingleElectron(tmpSingleElectron);
+            }
+        }
+        for (ILonePair tmpLonePair : aMolecule.lonePairs()) {
+            int tmpGroupIndex = tmpAtomToGroupMap[ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpLonePair.getAtom(), aMolecule)];
+            if (tmpGroupIndex >= 0) {
+                tmpFunctionalGroups.get(tmpGroupIndex).addLonePair(tmpLonePair);
             }
         }
         return tmpFunctionalGroups;
@@ -802,6 +1420,9 @@ public class ErtlFunctionalGroupsFinderUtility {
      * "List{@literal <}IAtomContainer{@literal >} find(IAtomContainer container, boolean clone)" with clone set to false for this purpose.
      * <br>Also note that the result differs if the environment has been generalized by the EFGF or not. In the former
      * case, only environmental carbon atoms replaced by R-atoms in the generalized FG are restored.
+     * <br>The atoms of the molecule are mapped to their indices and the neighbours of every atom are determined once
+     * per call, so the atoms of the molecule are never searched in the molecule or the groups and the cost does not
+     * grow with the product of molecule size and group count.
      *
      * @param aListOfFunctionalGroups functional groups of the molecule identified by EFGF
      * @param aMolecule original structure in which the groups were identified
@@ -812,7 +1433,8 @@ public class ErtlFunctionalGroupsFinderUtility {
      * @param aBuilder a chem object builder instance
      * @throws NullPointerException if a parameter is null
      * @throws IllegalArgumentException if one of the functional groups does not originate from the given molecule
-     *                                  or the molecule has been cloned for the extraction of functional groups
+     *                                  or the molecule has been cloned for the extraction of functional groups, or if
+     *                                  an inserted environmental atom is not connected to an atom of the molecule
      * @author Michael Wenk, Jonas Schaub
      */
     public static void restoreOriginalEnvironmentalCarbons(
@@ -832,11 +1454,18 @@ public class ErtlFunctionalGroupsFinderUtility {
         if (aMolecule.isEmpty()) {
             throw new IllegalArgumentException("Given molecule is empty.");
         }
+        int tmpMoleculeAtomCount = aMolecule.getAtomCount();
+        //atom references of the groups are not identical to the ones of the molecule but equal to them
+        HashMap<IAtom, Integer> tmpAtomToIndexMap = new HashMap<>(tmpMoleculeAtomCount * 2);
+        for (int i = 0; i < tmpMoleculeAtomCount; i++) {
+            tmpAtomToIndexMap.put(aMolecule.getAtom(i), i);
+        }
         for (IAtomContainer tmpFG : aListOfFunctionalGroups) {
             boolean tmpIsFGofMolecule = false;
             for (IAtom tmpAtom : tmpFG.atoms()) {
-                if (aMolecule.contains(tmpAtom)) {
+                if (tmpAtomToIndexMap.containsKey(tmpAtom)) {
                     tmpIsFGofMolecule = true;
+                    break;
                 }
             }
             if (!tmpIsFGofMolecule) {
@@ -845,38 +1474,100 @@ public class ErtlFunctionalGroupsFinderUtility {
             }
         }
         //</editor-fold>
-        CDKHydrogenAdder tmpHadder = CDKHydrogenAdder.getInstance(aBuilder);
+        //neighbours and connecting bonds of every atom of the molecule, in the order of getConnectedAtomsList()
+        int[] tmpDegrees = new int[tmpMoleculeAtomCount];
+        int[][] tmpBondAtomIndices = new int[aMolecule.getBondCount()][];
+        for (int i = 0; i < tmpBondAtomIndices.length; i++) {
+            IBond tmpBond = aMolecule.getBond(i);
+            int tmpBeginIndex = ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpBond.getBegin(), aMolecule);
+            int tmpEndIndex = ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpBond.getEnd(), aMolecule);
+            tmpBondAtomIndices[i] = new int[] {tmpBeginIndex, tmpEndIndex};
+            tmpDegrees[tmpBeginIndex]++;
+            tmpDegrees[tmpEndIndex]++;
+        }
+        int[][] tmpNeighbours = new int[tmpMoleculeAtomCount][];
+        IBond[][] tmpConnectingBonds = new IBond[tmpMoleculeAtomCount][];
+        for (int i = 0; i < tmpMoleculeAtomCount; i++) {
+            tmpNeighbours[i] = new int[tmpDegrees[i]];
+            tmpConnectingBonds[i] = new IBond[tmpDegrees[i]];
+            tmpDegrees[i] = 0;
+        }
+        for (int i = 0; i < tmpBondAtomIndices.length; i++) {
+            IBond tmpBond = aMolecule.getBond(i);
+            int tmpBeginIndex = tmpBondAtomIndices[i][0];
+            int tmpEndIndex = tmpBondAtomIndices[i][1];
+            tmpNeighbours[tmpBeginIndex][tmpDegrees[tmpBeginIndex]] = tmpEndIndex;
+            tmpConnectingBonds[tmpBeginIndex][tmpDegrees[tmpBeginIndex]++] = tmpBond;
+            tmpNeighbours[tmpEndIndex][tmpDegrees[tmpEndIndex]] = tmpBeginIndex;
+            tmpConnectingBonds[tmpEndIndex][tmpDegrees[tmpEndIndex]++] = tmpBond;
+        }
+        //marks the atoms of the molecule that are part of the group currently processed, with the group number + 1
+        int[] tmpGroupMarks = new int[tmpMoleculeAtomCount];
+        CDKHydrogenAdder tmpHadder = ErtlFunctionalGroupsFinderContext.get().getHydrogenAdder(aBuilder);
         for (int i = 0; i < aListOfFunctionalGroups.size(); i++) {
             IAtomContainer tmpFG = aListOfFunctionalGroups.get(i);
+            int tmpGroupMark = i + 1;
             //convert explicit hydrogens to implicit
             if (aConvertExplicitHydrogens) {
                 AtomContainerManipulator.suppressHydrogens(tmpFG);
             }
-            //create a list of all atoms of the group because of atom removals and additions in group atom container
-            List<IAtom> tmpListofFGatoms = new ArrayList<>();
-            for (IAtom tmpAtom : tmpFG.atoms()) {
-                tmpListofFGatoms.add(tmpAtom);
+            int tmpGroupAtomCount = tmpFG.getAtomCount();
+            //detect the "unknown" atoms, inserted as new environmental IAtom objects (carbon or pseudo-atoms)
+            boolean[] tmpIsInsertedAtom = new boolean[tmpGroupAtomCount];
+            boolean tmpHasInsertedAtoms = false;
+            for (int j = 0; j < tmpGroupAtomCount; j++) {
+                IAtom tmpAtom = tmpFG.getAtom(j);
+                Integer tmpIndex = tmpAtomToIndexMap.get(tmpAtom);
+                if (!Objects.isNull(tmpIndex)) {
+                    tmpGroupMarks[tmpIndex] = tmpGroupMark;
+                } else if (!tmpAtom.getAtomicNumber().equals(1)) {
+                    //technically, all elements except carbon should be excluded but this way, it is the easiest to
+                    // also include pseudo atoms
+                    tmpIsInsertedAtom[j] = true;
+                    tmpHasInsertedAtoms = true;
+                }
             }
-            for (IAtom tmpAtom : tmpListofFGatoms) {
-                //technically, all elements except carbon should be excluded but this way, it is the easiest to also include
-                // pseudo atoms
-                if (tmpAtom.getAtomicNumber().equals(1)) {
-                    continue;
+            if (tmpHasInsertedAtoms) {
+                //environmental carbon and pseudo-atoms (carbon or hydrogen) added by the EFGF can only have one bond
+                // partner in the FG that should be part of the original molecule; it is identified before any atom is removed
+                IAtom[] tmpConnectedAtomsInGroup = new IAtom[tmpGroupAtomCount];
+                for (IBond tmpBond : tmpFG.bonds()) {
+                    int tmpBeginIndex = ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpBond.getBegin(), tmpFG);
+                    int tmpEndIndex = ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpBond.getEnd(), tmpFG);
+                    if (tmpIsInsertedAtom[tmpBeginIndex] && Objects.isNull(tmpConnectedAtomsInGroup[tmpBeginIndex])) {
+                        tmpConnectedAtomsInGroup[tmpBeginIndex] = tmpBond.getEnd();
+                    }
+                    if (tmpIsInsertedAtom[tmpEndIndex] && Objects.isNull(tmpConnectedAtomsInGroup[tmpEndIndex])) {
+                        tmpConnectedAtomsInGroup[tmpEndIndex] = tmpBond.getBegin();
+                    }
                 }
-                //detect whether the current atom is an "unknown" one, inserted as new environmental IAtom object
-                if (!aMolecule.contains(tmpAtom)) {
-                    //environmental carbon and pseudo-atoms (carbon or hydrogen) added by the EFGF can only have one bond partner in the FG.
-                    // identify its bond partner in the FG that should be part of the original molecule
-                    IAtom tmpConnectedAtomInGroup = tmpFG.getConnectedAtomsList(tmpAtom).get(0);
+                //create a list of the inserted atoms because of atom removals and additions in group atom container
+                List<IAtom> tmpInsertedAtoms = new ArrayList<>(tmpGroupAtomCount);
+                List<IAtom> tmpConnectedAtoms = new ArrayList<>(tmpGroupAtomCount);
+                for (int j = 0; j < tmpGroupAtomCount; j++) {
+                    if (tmpIsInsertedAtom[j]) {
+                        tmpInsertedAtoms.add(tmpFG.getAtom(j));
+                        tmpConnectedAtoms.add(tmpConnectedAtomsInGroup[j]);
+                    }
+                }
+                for (int j = 0; j < tmpInsertedAtoms.size(); j++) {
+                    IAtom tmpConnectedAtomInGroup = tmpConnectedAtoms.get(j);
+                    Integer tmpParentIndex = Objects.isNull(tmpConnectedAtomInGroup) ? null : tmpAtomToIndexMap.get(tmpConnectedAtomInGroup);
+                    if (Objects.isNull(tmpParentIndex)) {
+                        throw new IllegalArgumentException("An inserted environmental atom of a functional group is not "
+                                + "connected to an atom of the given molecule.");
+                    }
                     //remove the inserted atom and the bond to it
-                    tmpFG.removeBond(tmpAtom, tmpConnectedAtomInGroup);
-                    tmpFG.removeAtom(tmpAtom);
+                    tmpFG.removeAtom(tmpInsertedAtoms.get(j));
                     //starting from the parent atom search for neighboring carbons which are not already in the group and add them
-                    for (IAtom tmpConnectedAtomInOriginalStructure : aMolecule.getConnectedAtomsList(tmpConnectedAtomInGroup)) {
+                    for (int k = 0; k < tmpNeighbours[tmpParentIndex].length; k++) {
+                        int tmpNeighbourIndex = tmpNeighbours[tmpParentIndex][k];
+                        IAtom tmpConnectedAtomInOriginalStructure = aMolecule.getAtom(tmpNeighbourIndex);
                         if (tmpConnectedAtomInOriginalStructure.getSymbol().equals("C")
-                                && !tmpFG.contains(tmpConnectedAtomInOriginalStructure)) {
+                                && tmpGroupMarks[tmpNeighbourIndex] != tmpGroupMark) {
+                            tmpGroupMarks[tmpNeighbourIndex] = tmpGroupMark;
                             tmpFG.addAtom(tmpConnectedAtomInOriginalStructure);
-                            tmpFG.addBond(aMolecule.getBond(tmpConnectedAtomInGroup, tmpConnectedAtomInOriginalStructure));
+                            tmpFG.addBond(tmpConnectingBonds[tmpParentIndex][k]);
                         }
                     }
                 }
@@ -894,58 +1585,88 @@ public class ErtlFunctionalGroupsFinderUtility {
     }
 
     /**
-     * Aims at doing a deep copy of the given atom container, i.e. all information stored in the object is copied exactly
-     * but original and copy do not share any references. The method used here writes an SDF representation (via CDK's
-     * SDFWriter) of the given atom container as a string and then constructs a new atom container by reading this string
-     * using IteratingSDFReader. Furthermore, all properties that were stored in the original atom container are transferred
-     * to the clone.
+     * Does a deep copy of the given atom container, i.e. all information stored in the object is copied exactly but
+     * original and copy do not share any references to atoms, bonds, electron containers, or stereo elements. The atoms
+     * are cloned, so their class (e.g. IPseudoAtom), atomic number, isotope, charge, implicit hydrogen count, atom type
+     * fields, coordinates, flags (e.g. aromaticity), and properties are retained. The bonds are created anew with the
+     * builder of the given atom container and get the order, stereo, display, flags, ID, and properties of the original
+     * bonds. Lone pairs and single electrons are added to the respective atoms of the copy and the stereo elements are
+     * mapped onto the atoms and bonds of the copy. Finally, the ID, flags, and properties of the atom container are
+     * transferred.
      * <p>
      *     RESTRICTIONS:
-     *     - All chemical information that an SDF can represent is copied but not all 'object information', e.g. the new
-     *       IAtomContainer object and its internal objects like IAtom or IBond objects will have different hash codes
-     *       because these are calculated based on their memory address.
-     *     - Properties stored on internal objects like IAtom or IBond objects will not be copied
-     *     - Because the atom container's properties are simply transferred, copy and original will still share references
-     *       to objects used as description or property
-     *     - In the instantiation of the new IAtomContainer object things like unsaturated bonds might be lost
+     *     - The copy is created by the builder of the given atom container, so it is an instance of the builder's
+     *       default IAtomContainer class and not necessarily of the class of the given object
+     *     - The property maps of the atom container, the atoms, and the bonds are copied but copy and original still share
+     *       references to the objects used as property keys and values
      * </p>
      *
      * @param aMolecule the atom container to copy
      * @return a deep copy of the given atom container (see restrictions)
      * @throws NullPointerException if the given atom container is 'null'
-     * @throws CDKException if the SDFWriter cannot write the given atom container
+     * @throws IllegalArgumentException if a bond or electron container refers to an atom that is not part of the given
+     * atom container
+     * @throws CDKException if an atom of the given atom container cannot be cloned
      */
-    public static IAtomContainer copy(IAtomContainer aMolecule) throws NullPointerException, CDKException {
+    public static IAtomContainer copy(IAtomContainer aMolecule) throws NullPointerException, IllegalArgumentException, CDKException {
         Objects.requireNonNull(aMolecule, "Given molecule is 'null'.");
-        StringWriter tmpStringWriter = new StringWriter();
-        SDFWriter tmpSDFWriter = new SDFWriter(tmpStringWriter);
-        boolean tmpAcceptsClass = tmpSDFWriter.accepts(aMolecule.getClass());
-        if (!tmpAcceptsClass) {
-            throw new CDKException("Given IChemObject/IAtomContainer implementing class can not be copied");
-        }
-        //Might throw CDKException
-        tmpSDFWriter.write(aMolecule);
-        tmpStringWriter.flush();
-        try {
-            tmpStringWriter.close();
-            tmpSDFWriter.close();
-        } catch (IOException anIOException) {
-            //Should not happen because nothing is written to file
-            ErtlFunctionalGroupsFinderUtility.LOGGER.log(Level.SEVERE,
-                    anIOException.toString() + " Molecule ID: " + ErtlFunctionalGroupsFinderUtility.getIDForLogging(aMolecule),
-                    anIOException);
-        }
-        String tmpSDFRepresentation = tmpStringWriter.toString();
-        StringReader tmpStringReader = new StringReader(tmpSDFRepresentation);
-        IteratingSDFReader tmpSDFReader = new IteratingSDFReader(tmpStringReader, aMolecule.getBuilder(), true);
-        IAtomContainer tmpCopy = tmpSDFReader.next();
-        //SD representation should contain string-type properties; so for the non-string-type properties, the following is done:
-        Map<Object, Object> tmpProperties = aMolecule.getProperties();
-        for (Object tmpKey : tmpProperties.keySet()) {
-            boolean tmpCloneHasProperty = !Objects.isNull(tmpCopy.getProperty(tmpKey));
-            if (!tmpCloneHasProperty) {
-                tmpCopy.setProperty(tmpKey, tmpProperties.get(tmpKey));
+        IChemObjectBuilder tmpBuilder = aMolecule.getBuilder();
+        IAtomContainer tmpCopy = tmpBuilder.newAtomContainer();
+        int tmpAtomCount = aMolecule.getAtomCount();
+        int tmpBondCount = aMolecule.getBondCount();
+        IAtom[] tmpAtomCopies = new IAtom[tmpAtomCount];
+        for (int i = 0; i < tmpAtomCount; i++) {
+            IAtom tmpAtom = aMolecule.getAtom(i);
+            try {
+                tmpCopy.addAtom(tmpAtom.clone());
+            } catch (CloneNotSupportedException aCloneNotSupportedException) {
+                throw new CDKException("Atom " + i + " of the given molecule can not be cloned: "
+                        + aCloneNotSupportedException.toString(), aCloneNotSupportedException);
+            }
+            //the container may wrap the added atom, so the stored reference is used
+            tmpAtomCopies[i] = tmpCopy.getAtom(i);
+        }
+        IBond[] tmpBondCopies = new IBond[tmpBondCount];
+        for (int i = 0; i < tmpBondCount; i++) {
+            IBond tmpBond = aMolecule.getBond(i);
+            IAtom[] tmpBondAtoms = new IAtom[tmpBond.getAtomCount()];
+            for (int j = 0; j < tmpBondAtoms.length; j++) {
+                tmpBondAtoms[j] = tmpAtomCopies[ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpBond.getAtom(j), aMolecule)];
             }
+            IBond tmpBondCopy = tmpBuilder.newInstance(IBond.class, tmpBondAtoms, tmpBond.getOrder());
+            tmpBondCopy.setStereo(tmpBond.getStereo());
+            tmpBondCopy.setDisplay(tmpBond.getDisplay());
+            tmpBondCopy.setFlags(tmpBond.getFlags());
+            tmpBondCopy.setID(tmpBond.getID());
+            if (!tmpBond.getProperties().isEmpty()) {
+                tmpBondCopy.addProperties(tmpBond.getProperties());
+            }
+            tmpCopy.addBond(tmpBondCopy);
+            tmpBondCopies[i] = tmpCopy.getBond(i);
+        }
+        for (ILonePair tmpLonePair : aMolecule.lonePairs()) {
+            tmpCopy.addLonePair(ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpLonePair.getAtom(), aMolecule));
+        }
+        for (ISingleElectron tmpSingleElectron : aMolecule.singleElectrons()) {
+            tmpCopy.addSingleElectron(ErtlFunctionalGroupsFinderUtility.getAtomIndex(tmpSingleElectron.getAtom(), aMolecule));
+        }
+        if (aMolecule.stereoElements().iterator().hasNext()) {
+            Map<IAtom, IAtom> tmpAtomMap = new HashMap<>(tmpAtomCount * 2);
+            for (int i = 0; i < tmpAtomCount; i++) {
+                tmpAtomMap.put(aMolecule.getAtom(i), tmpAtomCopies[i]);
+            }
+            Map<IBond, IBond> tmpBondMap = new HashMap<>(tmpBondCount * 2);
+            for (int i = 0; i < tmpBondCount; i++) {
+                tmpBondMap.put(aMolecule.getBond(i), tmpBondCopies[i]);
+            }
+            for (IStereoElement<?, ?> tmpStereoElement : aMolecule.stereoElements()) {
+                tmpCopy.addStereoElement(tmpStereoElement.map(tmpAtomMap, tmpBondMap));
+            }
+        }
+        tmpCopy.setID(aMolecule.getID());
+        tmpCopy.setFlags(aMolecule.getFlags());
+        if (!aMolecule.getProperties().isEmpty()) {
+            tmpCopy.addProperties(aMolecule.getProperties());
         }
         return tmpCopy;
     }
@@ -978,7 +1699,9 @@ public class ErtlFunctionalGroupsFinderUtility {
      * by asterisks (*) and pseudo atoms are indicated by 'R'.
      * <br>The function generates the SMILES string of the given molecule using CDK's SmilesGenerator and then
      * replaces lowercase c, n, o etc. by C*, N*, O* etc. and wildcards ('*') by 'R' in the resulting string.
-     * For that, the function iterates through all characters in the generated SMILES string.
+     * For that, the function iterates once through all characters in the generated SMILES string and writes the
+     * translation into a pre-sized buffer, so it scales linearly with the length of the SMILES string. The SMILES
+     * generator is created only once and shared between calls.
      * <br>Note: All pseudo atoms or atoms that are represented by a wildcard ('*') in the generated SMILES string
      * (e.g. the element [Uup] is interpreted by the CDK SmilesGenerator as a wildcard) are turned into an 'R' atom.
      *
@@ -989,186 +1712,640 @@ public class ErtlFunctionalGroupsFinderUtility {
      */
     public static String createPseudoSmilesCode(IAtomContainer aMolecule) throws NullPointerException, CDKException {
         Objects.requireNonNull(aMolecule, "Given molecule is 'null'.");
-        SmilesGenerator tmpSmilesGenerator = new SmilesGenerator(SmiFlavor.Unique | SmiFlavor.UseAromaticSymbols);
+        String tmpSmilesCode;
+        try {
+            //Might throw CDKException if the SMILES string cannot be created or NullPointerException if an atom has an
+            //  undefined number of implicit hydrogen atoms in the SMILES string
+            tmpSmilesCode = ErtlFunctionalGroupsFinderUtility.PSEUDO_SMILES_GENERATOR.create(aMolecule);
+        } catch (NullPointerException anException) {
+            throw new CDKException(anException.getMessage(), anException);
+        }
+        //every atom adds at most one character (the asterisk marking aromaticity) to the SMILES code
+        return ErtlFunctionalGroupsFinderUtility.translateToPseudoSmilesCode(tmpSmilesCode,
+                tmpSmilesCode.length() + aMolecule.getAtomCount());
+    }
+
+    /**
+     * Creates the canonical form of the given functional group (or molecule) that holds its hash key, its canonical
+     * SMILES code (with aromatic symbols), and its pseudo SMILES code. All three are derived from one canonical labelling
+     * of the atoms.
+     * <br>The labelling is calculated using the same atom properties as the MoleculeHashGenerator returned by
+     * getFunctionalGroupHashGenerator(), i.e. element, bond order sum, and aromaticity. Therefore, functional groups that
+     * are only different in the positions of their double bonds (e.g. "*[N](*)=C(N(*)*)N(*)*" and
+     * "*N(*)C(=[N](*)*)N(*)*") are assigned the same hash key and the same SMILES code, which is not the case for the
+     * unique SMILES codes created by the CDK SmilesGenerator. The SMILES code is written in the canonical order of
+     * the atoms and translated into the pseudo SMILES code (see createPseudoSmilesCode()). Since the labelling does not
+     * consider the bond orders, the bond orders written are not taken from the given atom container but assigned anew
+     * to the canonically ordered atoms and bonds: every bond in canonical order gets the highest order that still allows
+     * all atoms to keep their bond order sums. So the SMILES code does not depend on the order of the atoms and bonds
+     * or on the positions of the double bonds, e.g. in the two Kekule structures of a pyridinium group, and all
+     * functional groups with the same hash key get the same SMILES code. Only if the assignment exceeds a search limit
+     * (which does not happen for functional groups), the given bond orders are written.
+     * <br>Calling this method once is cheaper than calling MoleculeHashGenerator.generate(), SmilesGenerator.create(), and
+     * createPseudoSmilesCode() for the same functional group because each of them canonicalizes the group on its own.
+     * Note that the hash key is not the same number as the one calculated by the MoleculeHashGenerator and that the
+     * SMILES codes may be different from the ones created by the other methods.
+     *
+     * @param aMolecule the functional group (or molecule) to create the canonical form of
+     * @return the canonical form of the given functional group
+     * @throws NullPointerException if aMolecule is 'null'
+     * @throws CDKException if the SMILES code of aMolecule cannot be generated
+     * @see FunctionalGroupCanonicalForm
+     */
+    public static FunctionalGroupCanonicalForm createCanonicalForm(IAtomContainer aMolecule) throws NullPointerException, CDKException {
+        Objects.requireNonNull(aMolecule, "Given molecule is 'null'.");
+        int tmpAtomCount = aMolecule.getAtomCount();
+        int[][] tmpAdjacencyList = GraphUtil.toAdjList(aMolecule);
+        long[] tmpAtomInvariants = new long[tmpAtomCount];
+        for (int i = 0; i < tmpAtomCount; i++) {
+            tmpAtomInvariants[i] = ErtlFunctionalGroupsFinderUtility.getCanonicalAtomInvariant(aMolecule.getAtom(i), aMolecule);
+        }
+        //Canon labels start at 1
+        long[] tmpLabels = Canon.label(aMolecule, tmpAdjacencyList, tmpAtomInvariants);
+        int[] tmpCanonicalOrder = new int[tmpAtomCount];
+        IAtom[] tmpAtomsInCanonicalOrder = new IAtom[tmpAtomCount];
+        for (int i = 0; i < tmpAtomCount; i++) {
+            tmpCanonicalOrder[i] = (int) tmpLabels[i] - 1;
+            tmpAtomsInCanonicalOrder[tmpCanonicalOrder[i]] = aMolecule.getAtom(i);
+        }
+        long[] tmpBondKeys = new long[aMolecule.getBondCount()];
+        IBond[] tmpBondsInCanonicalOrder = new IBond[tmpBondKeys.length];
+        for (int i = 0; i < tmpBondKeys.length; i++) {
+            IBond tmpBond = aMolecule.getBond(i);
+            int tmpBeginPosition = tmpCanonicalOrder[aMolecule.indexOf(tmpBond.getBegin())];
+            int tmpEndPosition = tmpCanonicalOrder[aMolecule.indexOf(tmpBond.getEnd())];
+            //bond index in the lowest bits to restore the bond after sorting
+            tmpBondKeys[i] = ((long) Math.min(tmpBeginPosition, tmpEndPosition) << 42)
+                    | ((long) Math.max(tmpBeginPosition, tmpEndPosition) << 21) | i;
+        }
+        Arrays.sort(tmpBondKeys);
+        for (int i = 0; i < tmpBondKeys.length; i++) {
+            tmpBondsInCanonicalOrder[i] = aMolecule.getBond((int) (tmpBondKeys[i] & 0x1FFFFF));
+        }
+        IBond.Order[] tmpCanonicalBondOrders = ErtlFunctionalGroupsFinderUtility.assignCanonicalBondOrders(tmpBondKeys,
+                tmpBondsInCanonicalOrder, tmpAtomCount);
+        if (Objects.nonNull(tmpCanonicalBondOrders)) {
+            for (int i = 0; i < tmpBondKeys.length; i++) {
+                IBond tmpBond = tmpBondsInCanonicalOrder[i];
+                if (tmpBond.getOrder() != tmpCanonicalBondOrders[i]) {
+                    //the bonds of the given atom container are not altered
+                    IBond tmpBondCopy = aMolecule.getBuilder().newInstance(IBond.class, tmpBond.getBegin(), tmpBond.getEnd(),
+                            tmpCanonicalBondOrders[i]);
+                    tmpBondCopy.setIsAromatic(tmpBond.isAromatic());
+                    tmpBondsInCanonicalOrder[i] = tmpBondCopy;
+                }
+            }
+        }
+        //the SMILES generator writes the atoms in the order of the atom container, so no second canonicalization is done
+        IAtomContainer tmpCanonicallyOrderedMolecule = aMolecule.getBuilder().newAtomContainer();
+        tmpCanonicallyOrderedMolecule.setAtoms(tmpAtomsInCanonicalOrder);
+        tmpCanonicallyOrderedMolecule.setBonds(tmpBondsInCanonicalOrder);
+        String tmpSmilesCode;
+        try {
+            //Might throw CDKException if the SMILES string cannot be created or NullPointerException if an atom has an
+            //  undefined number of implicit hydrogen atoms in the SMILES string
+            tmpSmilesCode = ErtlFunctionalGroupsFinderUtility.CANONICAL_ORDER_SMILES_GENERATOR.create(tmpCanonicallyOrderedMolecule);
+        } catch (NullPointerException anException) {
+            throw new CDKException(anException.getMessage(), anException);
+        }
+        String tmpPseudoSmilesCode = ErtlFunctionalGroupsFinderUtility.translateToPseudoSmilesCode(tmpSmilesCode,
+                tmpSmilesCode.length() + tmpAtomCount);
+        long tmpHashKey = tmpAtomCount;
+        for (int i = 0; i < tmpAtomCount; i++) {
+            tmpHashKey = ErtlFunctionalGroupsFinderUtility.mix(tmpHashKey * ErtlFunctionalGroupsFinderUtility.CANONICAL_HASH_KEY_PRIME
+                    + ErtlFunctionalGroupsFinderUtility.getCanonicalAtomInvariant(tmpAtomsInCanonicalOrder[i], aMolecule));
+        }
+        for (long tmpBondKey : tmpBondKeys) {
+            tmpHashKey = ErtlFunctionalGroupsFinderUtility.mix(tmpHashKey * ErtlFunctionalGroupsFinderUtility.CANONICAL_HASH_KEY_PRIME
+                    + (tmpBondKey >>> 21));
+        }
+        return new FunctionalGroupCanonicalForm(tmpHashKey, tmpSmilesCode, tmpPseudoSmilesCode);
+    }
+
+    /**
+     * Creates the functional group profile of a molecule from its functional groups as returned by
+     * ErtlFunctionalGroupsFinder.find(), i.e. the hash keys of their canonical forms with their frequencies.
+     *
+     * @param aListOfFunctionalGroups functional groups of one molecule
+     * @return the functional group profile
+     * @throws NullPointerException if the given list or one of its elements is 'null'
+     * @throws CDKException if the canonical form of a functional group cannot be created
+     * @see ErtlFunctionalGroupsFinderUtility#createCanonicalForm(IAtomContainer)
+     */
+    public static FunctionalGroupProfile createFunctionalGroupProfile(List<IAtomContainer> aListOfFunctionalGroups)
+            throws NullPointerException, CDKException {
+        return ErtlFunctionalGroupsFinderUtility.createFunctionalGroupProfile(aListOfFunctionalGroups, null);
+    }
+
+    /**
+     * Creates the functional group profile of a molecule from its functional groups as returned by
+     * ErtlFunctionalGroupsFinder.find() and puts the canonical forms of functional groups that are not yet known into
+     * the given map, using their hash keys as keys. This way, the map can be used as a dictionary to resolve the hash
+     * keys of the profiles of many molecules into SMILES and pseudo SMILES codes. Since all functional groups with the
+     * same hash key have the same canonical form, it does not matter which molecule registers a hash key first.
+     *
+     * @param aListOfFunctionalGroups functional groups of one molecule
+     * @param aCanonicalFormsMap map of hash keys to canonical forms that is updated with the functional groups of this
+     *                           molecule; may be 'null' if no dictionary is needed
+     * @return the functional group profile
+     * @throws NullPointerException if the given list or one of its elements is 'null'
+     * @throws CDKException if the canonical form of a functional group cannot be created
+     * @see ErtlFunctionalGroupsFinderUtility#createCanonicalForm(IAtomContainer)
+     */
+    public static FunctionalGroupProfile createFunctionalGroupProfile(List<IAtomContainer> aListOfFunctionalGroups,
+                                                                      Map<Long, FunctionalGroupCanonicalForm> aCanonicalFormsMap)
+            throws NullPointerException, CDKException {
+        Objects.requireNonNull(aListOfFunctionalGroups, "Given list of functional groups is 'null'.");
+        long[] tmpHashKeys = new long[aListOfFunctionalGroups.size()];
+        for (int i = 0; i < tmpHashKeys.length; i++) {
+            IAtomContainer tmpFunctionalGroup = aListOfFunctionalGroups.get(i);
+            Objects.requireNonNull(tmpFunctionalGroup, "Functional group at position " + i + " is 'null'.");
+            FunctionalGroupCanonicalForm tmpCanonicalForm = ErtlFunctionalGroupsFinderUtility.createCanonicalForm(tmpFunctionalGroup);
+            tmpHashKeys[i] = tmpCanonicalForm.getHashKey();
+            if (Objects.nonNull(aCanonicalFormsMap)) {
+                aCanonicalFormsMap.putIfAbsent(tmpHashKeys[i], tmpCanonicalForm);
+            }
+        }
+        return FunctionalGroupProfile.fromHashKeys(tmpHashKeys);
+    }
+
+    /**
+     * DEPRECATED: Use getPseudoSmilesCode(aMolecule) instead
+     * <br>Gives the pseudo SMILES code for a given molecule / functional group. In this notation, aromatic atoms are marked
+     * by asterisks (*) and pseudo atoms are indicated by 'R'.
+     * <br>Note: Aromatic atoms in the given atom container are substituted by placeholder atoms (of very rare occurrence
+     * and due to the input restrictions of ErtlFunctionalGroupsFinder, they should not be in the given functional groups anyway),
+     * then the SMILES string is generated and turned into a pseudo SMILES code. This workaround is necessary to preserve
+     * the aromaticity information.
+     * <br>Note: The substitution is done in a placeholder atom container that shares all unchanged atoms and bonds with
+     * the given one. The given atom container object is not altered, so the method can be called concurrently on the
+     * same molecule. The regular expressions turning the placeholder elements into pseudo SMILES symbols are compiled
+     * only once.
+     *
+     * @param aMolecule the molecule whose pseudo SMILES code to generate
+     * @return the pseudo SMILES representation as a string
+     * @throws NullPointerException if aMolecule is 'null'
+     * @throws IllegalArgumentException if aMolecule contains atoms of invalid atomic numbers
+     * @throws CDKException if the SMILES code of aMolecule cannot be generated
+     * @see ErtlFunctionalGroupsFinderUtility#containsInvalidAtomicNumbers(IAtomContainer)
+     * @deprecated this method of pseudo SMILES generation was used in the ErtlFunctionalGroupsFinder publication (see
+     * class documentation but the new method is preferable to use)
+     */
+    @Deprecated
+    public static String getLegacyPseudoSmilesCode(IAtomContainer aMolecule) throws NullPointerException, IllegalArgumentException, CDKException {
+        Objects.requireNonNull(aMolecule, "Given molecule is 'null'.");
+        //Note: This is necessary to ensure that the elements used for substitution are not already present in the given molecule
+        if (ErtlFunctionalGroupsFinderUtility.containsInvalidAtomicNumbers(aMolecule)) {
+            throw new IllegalArgumentException("The given molecule contains metal, metalloid or R atoms.");
+        }
+        IChemObjectBuilder tmpBuilder = aMolecule.getBuilder();
+        int tmpAtomCount = aMolecule.getAtomCount();
+        IAtom[] tmpPlaceholderAtoms = new IAtom[tmpAtomCount];
+        boolean tmpIsAnyAtomSubstituted = false;
+        for (int i = 0; i < tmpAtomCount; i++) {
+            IAtom tmpAtom = aMolecule.getAtom(i);
+            boolean tmpIsAromatic = tmpAtom.isAromatic();
+            boolean tmpIsPseudoAtom = (tmpAtom instanceof IPseudoAtom && "R".equals(((IPseudoAtom)tmpAtom).getLabel()));
+            String tmpReplacementElementSymbol = null;
+            if (tmpIsPseudoAtom) {
+                tmpReplacementElementSymbol = ErtlFunctionalGroupsFinderUtility.LEGACY_AROMATIC_ELEMENT_TO_PLACEHOLDER_ELEMENT_MAP.get("R");
+            } else if (tmpIsAromatic && !Objects.isNull(tmpAtom.getSymbol())) {
+                tmpReplacementElementSymbol = ErtlFunctionalGroupsFinderUtility.LEGACY_AROMATIC_ELEMENT_TO_PLACEHOLDER_ELEMENT_MAP.get(tmpAtom.getSymbol());
+            }
+            if (Objects.isNull(tmpReplacementElementSymbol)) {
+                tmpPlaceholderAtoms[i] = tmpAtom;
+            } else {
+                IAtom tmpReplacementAtom = tmpBuilder.newInstance(IAtom.class, tmpReplacementElementSymbol);
+                Integer tmpImplicitHydrogenCount = tmpAtom.getImplicitHydrogenCount();
+                tmpReplacementAtom.setImplicitHydrogenCount(tmpImplicitHydrogenCount == null ? 0 : tmpImplicitHydrogenCount);
+                tmpPlaceholderAtoms[i] = tmpReplacementAtom;
+                tmpIsAnyAtomSubstituted = true;
+            }
+        }
+        IAtomContainer tmpPlaceholderMolecule;
+        if (tmpIsAnyAtomSubstituted) {
+            tmpPlaceholderMolecule = tmpBuilder.newInstance(IAtomContainer.class);
+            for (IAtom tmpAtom : tmpPlaceholderAtoms) {
+                tmpPlaceholderMolecule.addAtom(tmpAtom);
+            }
+            for (IBond tmpBond : aMolecule.bonds()) {
+                IAtom tmpBegin = tmpPlaceholderAtoms[aMolecule.indexOf(tmpBond.getBegin())];
+                IAtom tmpEnd = tmpPlaceholderAtoms[aMolecule.indexOf(tmpBond.getEnd())];
+                if (tmpBegin == tmpBond.getBegin() && tmpEnd == tmpBond.getEnd()) {
+                    tmpPlaceholderMolecule.addBond(tmpBond);
+                } else {
+                    IBond tmpPlaceholderBond = tmpBuilder.newInstance(IBond.class, tmpBegin, tmpEnd, tmpBond.getOrder());
+                    tmpPlaceholderBond.setIsAromatic(tmpBond.isAromatic());
+                    tmpPlaceholderMolecule.addBond(tmpPlaceholderBond);
+                }
+            }
+            for (ISingleElectron tmpSingleElectron : aMolecule.singleElectrons()) {
+                tmpPlaceholderMolecule.addSingleElectron(aMolecule.indexOf(tmpSingleElectron.getAtom()));
+            }
+        } else {
+            tmpPlaceholderMolecule = aMolecule;
+        }
         String tmpPseudoSmilesCode;
         try {
             //Might throw CDKException if the SMILES string cannot be created or NullPointerException if an atom has an
             //  undefined number of implicit hydrogen atoms in the SMILES string
-            tmpPseudoSmilesCode = tmpSmilesGenerator.create(aMolecule);
+            tmpPseudoSmilesCode = ErtlFunctionalGroupsFinderUtility.LEGACY_PSEUDO_SMILES_GENERATOR.create(tmpPlaceholderMolecule);
         } catch (NullPointerException anException) {
             throw new CDKException(anException.getMessage(), anException);
         }
-        tmpPseudoSmilesCode = tmpPseudoSmilesCode.replaceAll("\\*", "R");
-        tmpPseudoSmilesCode = tmpPseudoSmilesCode.replaceAll("\\[se", "[Se*");
-        StringBuilder tmpStringBuilder = new StringBuilder(tmpPseudoSmilesCode);
-        int tmpLength = tmpStringBuilder.length();
-        for (int tmpIndex = 0; tmpIndex < tmpLength; tmpIndex++) {
-            char tmpChar = tmpStringBuilder.charAt(tmpIndex);
-            char tmpPrevChar = '_';
-            char tmpPrevPrevChar = '_';
-            if (tmpIndex > 0) {
-                tmpPrevChar = tmpStringBuilder.charAt(tmpIndex - 1);
+        for (int i = 0; i < ErtlFunctionalGroupsFinderUtility.LEGACY_PLACEHOLDER_PATTERNS.length; i++) {
+            tmpPseudoSmilesCode = ErtlFunctionalGroupsFinderUtility.LEGACY_PLACEHOLDER_PATTERNS[i].matcher(tmpPseudoSmilesCode)
+                    .replaceAll(ErtlFunctionalGroupsFinderUtility.LEGACY_PLACEHOLDER_REPLACEMENTS[i]);
+        }
+        return tmpPseudoSmilesCode;
+    }
+    //</editor-fold>
+    //</editor-fold>
+    //
+    //<editor-fold desc="Package-private static methods">
+    /**
+     * Returns the root of the set containing the given element in the given union-find parent array, halving the path
+     * on the way.
+     *
+     * @param aParents parent array of the union-find structure
+     * @param anElement the element to find the root for
+     * @return root of the set of the element
+     */
+    static int findRoot(int[] aParents, int anElement) {
+        int tmpElement = anElement;
+        while (aParents[tmpElement] != tmpElement) {
+            aParents[tmpElement] = aParents[aParents[tmpElement]];
+            tmpElement = aParents[tmpElement];
+        }
+        return tmpElement;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static methods">
+    /**
+     * Implements preprocess(); the aromaticity model is applied through the given cache if it is not 'null'.
+     *
+     * @param aMolecule the molecule to check and process
+     * @param anAromaticityModel the aromaticity model to apply to the molecule in preprocessing
+     * @param aCache the ring system cache to apply the aromaticity model through, may be 'null'
+     * @param areSingleAtomsFiltered if false, molecules with bond count 0 but atom count 1 will be processed and
+     *                               not filtered
+     * @param aProfile the preprocessing profile determining how the atoms are configured
+     * @return the result holding the outcome and, if successful, the preprocessed molecule
+     */
+    private static PreprocessingResult preprocess(
+            IAtomContainer aMolecule,
+            Aromaticity anAromaticityModel,
+            RingSystemAromaticityCache aCache,
+            boolean areSingleAtomsFiltered,
+            PreprocessingProfile aProfile) {
+        int tmpValidationResult = ErtlFunctionalGroupsFinderUtility.validateMolecule(aMolecule);
+        //Filter
+        if ((tmpValidationResult & ErtlFunctionalGroupsFinderUtility.VALIDATION_ATOM_COUNT_ZERO) != 0) {
+            return new PreprocessingResult(PreprocessingResult.Outcome.FILTERED_EMPTY, null, tmpValidationResult, false, false, false, null);
+        }
+        if (areSingleAtomsFiltered && (tmpValidationResult & ErtlFunctionalGroupsFinderUtility.VALIDATION_BOND_COUNT_ZERO) != 0) {
+            return new PreprocessingResult(PreprocessingResult.Outcome.FILTERED_NO_BONDS, null, tmpValidationResult, false, false, false, null);
+        }
+        int tmpInvalidAtomBits = ErtlFunctionalGroupsFinderUtility.VALIDATION_INVALID_ATOMIC_NUMBER
+                | ErtlFunctionalGroupsFinderUtility.VALIDATION_UNDEFINED_ATOMIC_NUMBER;
+        boolean tmpContainsInvalidAtoms = (tmpValidationResult & tmpInvalidAtomBits) != 0;
+        boolean tmpIsCharged = (tmpValidationResult & ErtlFunctionalGroupsFinderUtility.VALIDATION_CHARGED) != 0;
+        //From structures containing two or more unconnected structures (e.g. ions) choose the largest structure
+        IAtomContainer tmpMolecule = aMolecule;
+        boolean tmpIsFragmentSelected = false;
+        if ((tmpValidationResult & ErtlFunctionalGroupsFinderUtility.VALIDATION_UNCONNECTED) != 0) {
+            try {
+                tmpMolecule = ErtlFunctionalGroupsFinderUtility.selectBiggestUnconnectedComponent(aMolecule);
+            } catch (Exception anException) {
+                return new PreprocessingResult(PreprocessingResult.Outcome.FRAGMENT_SELECTION_FAILED, null, tmpValidationResult, false, false, false, anException);
             }
-            if (tmpIndex > 1) {
-                tmpPrevPrevChar = tmpStringBuilder.charAt(tmpIndex - 2);
+            tmpIsFragmentSelected = true;
+            //invalid atoms and charges may have been located in the discarded components
+            if (tmpContainsInvalidAtoms || tmpIsCharged) {
+                int tmpComponentValidationResult = ErtlFunctionalGroupsFinderUtility.validateMolecule(tmpMolecule);
+                tmpContainsInvalidAtoms = (tmpComponentValidationResult & tmpInvalidAtomBits) != 0;
+                tmpIsCharged = (tmpComponentValidationResult & ErtlFunctionalGroupsFinderUtility.VALIDATION_CHARGED) != 0;
             }
+        }
+        //Filter
+        if (tmpContainsInvalidAtoms) {
+            return new PreprocessingResult(PreprocessingResult.Outcome.FILTERED_INVALID_ELEMENT, null, tmpValidationResult, tmpIsFragmentSelected, false, false, null);
+        }
+        try {
+            if (aProfile == PreprocessingProfile.PARSED_SMILES) {
+                ErtlFunctionalGroupsFinderUtility.configureValencies(tmpMolecule);
+            } else {
+                ErtlFunctionalGroupsFinderUtility.perceiveAtomTypesAndConfigureAtoms(tmpMolecule);
+            }
+        } catch (Exception anException) {
+            return new PreprocessingResult(PreprocessingResult.Outcome.ATOM_TYPING_FAILED, null, tmpValidationResult, tmpIsFragmentSelected, false, false, anException);
+        }
+        //Neutralize charges if there are any
+        if (tmpIsCharged) {
+            try {
+                ErtlFunctionalGroupsFinderUtility.neutralizeCharges(tmpMolecule);
+            } catch (Exception anException) {
+                return new PreprocessingResult(PreprocessingResult.Outcome.NEUTRALIZATION_FAILED, null, tmpValidationResult, tmpIsFragmentSelected, false, false, anException);
+            }
+        }
+        //Application of aromaticity model
+        tmpMolecule.removeProperty(ErtlFunctionalGroupsFinderUtility.AROMATICITY_FALLBACK_PROPERTY_KEY);
+        try {
+            if (Objects.isNull(aCache)) {
+                ErtlFunctionalGroupsFinderUtility.applyAromaticityDetection(tmpMolecule, anAromaticityModel);
+            } else {
+                ErtlFunctionalGroupsFinderUtility.applyAromaticityDetection(tmpMolecule, aCache);
+            }
+        } catch (Exception anException) {
+            return new PreprocessingResult(PreprocessingResult.Outcome.AROMATICITY_FAILED, null, tmpValidationResult, tmpIsFragmentSelected, tmpIsCharged, false, anException);
+        }
+        boolean tmpIsAromaticityFallbackUsed = ErtlFunctionalGroupsFinderUtility.isAromaticityFallbackUsed(tmpMolecule);
+        return new PreprocessingResult(PreprocessingResult.Outcome.PREPROCESSED, tmpMolecule, tmpValidationResult, tmpIsFragmentSelected, tmpIsCharged, tmpIsAromaticityFallbackUsed, null);
+    }
+
+    /**
+     * Returns the atomic number of the bracket atom between the given positions of a SMILES code, e.g. 'Na+' or '13cH'.
+     * The isotope is skipped and the element symbol, which may be written in lowercase letters for aromatic atoms, is
+     * read; everything after it (chirality, hydrogen count, charge, atom class) is ignored.
+     *
+     * @param aSmilesCode the SMILES code
+     * @param aStart position after the opening bracket
+     * @param anEnd position of the closing bracket
+     * @return the atomic number, 0 for '*', or -1 if the element symbol is unknown
+     */
+    private static int getBracketAtomAtomicNumber(String aSmilesCode, int aStart, int anEnd) {
+        int tmpPosition = aStart;
+        while (tmpPosition < anEnd && Character.isDigit(aSmilesCode.charAt(tmpPosition))) {
+            tmpPosition++;
+        }
+        if (tmpPosition == anEnd) {
+            return -1;
+        }
+        char tmpFirstChar = aSmilesCode.charAt(tmpPosition);
+        if (tmpFirstChar == '*') {
+            return 0;
+        }
+        if (!Character.isLetter(tmpFirstChar)) {
+            return -1;
+        }
+        //Elements.ofString() ignores the case, so aromatic symbols like 'se' are found as well
+        if (tmpPosition + 1 < anEnd && Character.isLowerCase(aSmilesCode.charAt(tmpPosition + 1))) {
+            Elements tmpElement = Elements.ofString(aSmilesCode.substring(tmpPosition, tmpPosition + 2));
+            if (tmpElement != Elements.Unknown) {
+                return tmpElement.number();
+            }
+            //the second character may only belong to the element symbol
+            return -1;
+        }
+        Elements tmpElement = Elements.ofString(String.valueOf(tmpFirstChar));
+        return tmpElement == Elements.Unknown ? -1 : tmpElement.number();
+    }
+
+    /**
+     * Logs the given Intractable exception thrown by the cycle perception of an aromaticity model and converts it into
+     * a CDKException, as documented for Aromaticity.apply().
+     *
+     * @param anIntractableException the exception thrown by the aromaticity model
+     * @param aMolecule the molecule the aromaticity model was applied to
+     * @return the CDKException to throw
+     */
+    private static CDKException handleIntractableException(Intractable anIntractableException, IAtomContainer aMolecule) {
+        ErtlFunctionalGroupsFinderUtility.LOGGER.log(Level.SEVERE,
+                anIntractableException.toString() + " Molecule ID: " + ErtlFunctionalGroupsFinderUtility.getIDForLogging(aMolecule),
+                anIntractableException);
+        String tmpMessage = anIntractableException.getMessage();
+        Throwable tmpCause = anIntractableException.getCause();
+        return new CDKException(tmpMessage, tmpCause);
+    }
+
+    /**
+     * Returns the index of the given atom in the given molecule. The index stored in the atom is used if the atom
+     * refers to the given molecule or the molecule holds the atom at this index (see IAtom.getIndex()), otherwise the
+     * atom is searched in the molecule.
+     *
+     * @param anAtom the atom
+     * @param aMolecule the molecule containing the atom
+     * @return index of the atom in the molecule
+     * @throws IllegalArgumentException if the atom is not part of the molecule
+     */
+    private static int getAtomIndex(IAtom anAtom, IAtomContainer aMolecule) throws IllegalArgumentException {
+        int tmpIndex = anAtom.getIndex();
+        if (anAtom.getContainer() == aMolecule) {
+            return tmpIndex;
+        }
+        if (tmpIndex < 0 || tmpIndex >= aMolecule.getAtomCount() || !aMolecule.getAtom(tmpIndex).equals(anAtom)) {
+            tmpIndex = aMolecule.indexOf(anAtom);
+        }
+        if (tmpIndex < 0) {
+            throw new IllegalArgumentException("Given atom is not part of the given molecule.");
+        }
+        return tmpIndex;
+    }
+
+    /**
+     * Translates the given SMILES code, generated with aromatic symbols, into a pseudo SMILES code in one pass over its
+     * characters. Wildcards ('*') are turned into 'R' atoms, aromatic (lowercase) c, n, s, o, p, and se are turned into
+     * C*, N*, S*, O*, P*, and Se*. Lowercase letters that are the second letter of an element symbol in brackets (like
+     * the 'c' in [Sc] or the 's' in [Uus]) are retained.
+     * <br>The decisions are based on the two characters last written to the output buffer, which reproduces the former
+     * replaceAll()/insert() based implementation character by character.
+     *
+     * @param aSmilesCode the SMILES code to translate
+     * @param anExpectedLength initial capacity of the output buffer, the length of the pseudo SMILES code should not exceed it
+     * @return the pseudo SMILES code
+     */
+    private static String translateToPseudoSmilesCode(String aSmilesCode, int anExpectedLength) {
+        int tmpLength = aSmilesCode.length();
+        StringBuilder tmpStringBuilder = new StringBuilder(anExpectedLength);
+        for (int tmpIndex = 0; tmpIndex < tmpLength; tmpIndex++) {
+            char tmpChar = aSmilesCode.charAt(tmpIndex);
+            int tmpOutputLength = tmpStringBuilder.length();
+            char tmpPrevChar = tmpOutputLength > 0 ? tmpStringBuilder.charAt(tmpOutputLength - 1) : '_';
+            char tmpPrevPrevChar = tmpOutputLength > 1 ? tmpStringBuilder.charAt(tmpOutputLength - 2) : '_';
             switch (tmpChar) {
+                case '*':
+                    tmpStringBuilder.append('R');
+                    break;
+                case '[':
+                    //aromatic selenium, [se
+                    if (tmpIndex + 2 < tmpLength && aSmilesCode.charAt(tmpIndex + 1) == 's' && aSmilesCode.charAt(tmpIndex + 2) == 'e') {
+                        tmpStringBuilder.append("[Se*");
+                        tmpIndex += 2;
+                    } else {
+                        tmpStringBuilder.append(tmpChar);
+                    }
+                    break;
                 case 'c':
                     //c in [Sc], [Tc], and [Ac] should not be replaced
                     if ((tmpPrevChar == 'S' || tmpPrevChar == 'T' || tmpPrevChar == 'A') && tmpPrevPrevChar == '[') {
-                        break;
+                        tmpStringBuilder.append(tmpChar);
                     } else {
-                        tmpStringBuilder.setCharAt(tmpIndex, 'C');
-                        tmpStringBuilder.insert(tmpIndex + 1, '*');
+                        tmpStringBuilder.append("C*");
                     }
                     break;
                 case 'n':
                     //n in [Mn], [Zn], [Cn], [In], [Sn], and [Rn] should not be replaced
                     if ((tmpPrevChar == 'M' || tmpPrevChar == 'Z' || tmpPrevChar == 'C' || tmpPrevChar == 'I' || tmpPrevChar == 'S' || tmpPrevChar == 'R') && tmpPrevPrevChar == '[') {
-                        break;
+                        tmpStringBuilder.append(tmpChar);
                     } else {
-                        tmpStringBuilder.setCharAt(tmpIndex, 'N');
-                        tmpStringBuilder.insert(tmpIndex + 1, '*');
+                        tmpStringBuilder.append("N*");
                     }
                     break;
                 case 's':
                     //s in [Cs], [Os], [As], [Es], [Hs], and [Uus] should not be replaced
-                    if ((tmpPrevChar == 'C' || tmpPrevChar == 'O' || tmpPrevChar == 'A' || tmpPrevChar == 'E' || tmpPrevChar == 'H') && tmpPrevPrevChar == '[') {
-                        break;
-                    } else if (tmpPrevChar == 'u' && tmpPrevPrevChar == 'U') {
-                        break;
+                    if (((tmpPrevChar == 'C' || tmpPrevChar == 'O' || tmpPrevChar == 'A' || tmpPrevChar == 'E' || tmpPrevChar == 'H') && tmpPrevPrevChar == '[')
+                            || (tmpPrevChar == 'u' && tmpPrevPrevChar == 'U')) {
+                        tmpStringBuilder.append(tmpChar);
                     } else {
-                        tmpStringBuilder.setCharAt(tmpIndex, 'S');
-                        tmpStringBuilder.insert(tmpIndex + 1, '*');
+                        tmpStringBuilder.append("S*");
                     }
                     break;
                 case 'o':
                     //o in [Mo], [Co], [Po], [Uuo], [Ho], and [No] should not be replaced
-                    if ((tmpPrevChar == 'M' || tmpPrevChar == 'C' || tmpPrevChar == 'P' || tmpPrevChar == 'H' || tmpPrevChar == 'N') && tmpPrevPrevChar == '[') {
-                        break;
-                    } else if (tmpPrevChar == 'u' && tmpPrevPrevChar == 'U') {
-                        break;
+                    if (((tmpPrevChar == 'M' || tmpPrevChar == 'C' || tmpPrevChar == 'P' || tmpPrevChar == 'H' || tmpPrevChar == 'N') && tmpPrevPrevChar == '[')
+                            || (tmpPrevChar == 'u' && tmpPrevPrevChar == 'U')) {
+                        tmpStringBuilder.append(tmpChar);
                     } else {
-                        tmpStringBuilder.setCharAt(tmpIndex, 'O');
-                        tmpStringBuilder.insert(tmpIndex + 1, '*');
+                        tmpStringBuilder.append("O*");
                     }
                     break;
                 case 'p':
                     //p in [Uup] and [Np] should not be replaced
-                    if (tmpPrevChar == 'N' && tmpPrevPrevChar == '[') {
-                        break;
-                    } else if (tmpPrevChar == 'u' && tmpPrevPrevChar == 'U') {
-                        break;
+                    if ((tmpPrevChar == 'N' && tmpPrevPrevChar == '[') || (tmpPrevChar == 'u' && tmpPrevPrevChar == 'U')) {
+                        tmpStringBuilder.append(tmpChar);
                     } else {
-                        tmpStringBuilder.setCharAt(tmpIndex, 'P');
-                        tmpStringBuilder.insert(tmpIndex + 1, '*');
+                        tmpStringBuilder.append("P*");
                     }
                     break;
                 default:
+                    tmpStringBuilder.append(tmpChar);
                     break;
             }
-            tmpLength = tmpStringBuilder.length();
         }
-        tmpPseudoSmilesCode = tmpStringBuilder.toString();
-        return tmpPseudoSmilesCode;
+        return tmpStringBuilder.toString();
     }
 
     /**
-     * DEPRECATED: Use getPseudoSmilesCode(aMolecule) instead
-     * <br>Gives the pseudo SMILES code for a given molecule / functional group. In this notation, aromatic atoms are marked
-     * by asterisks (*) and pseudo atoms are indicated by 'R'.
-     * <br>Note: Aromatic atoms in the given atom container are substituted by placeholder atoms (of very rare occurrence
-     * and due to the input restrictions of ErtlFunctionalGroupsFinder, they should not be in the given functional groups anyway),
-     * then the SMILES string is generated and turned into a pseudo SMILES code. Finally, the placeholder atoms are
-     * resubstituted with the original atoms. This workaround is necessary to preserve the aromaticity information.
-     * <br>Note: The given atom container object is altered, so cloning it is advised if it will be used again afterwards
+     * Assigns the bond orders of the given bonds in canonical order anew, as a function of the canonically labelled
+     * graph only: every bond, in canonical order, gets the highest order that still allows all atoms to keep their
+     * bond order sums, see createCanonicalForm().
      *
-     * @param aMolecule the molecule whose pseudo SMILES code to generate
-     * @return the pseudo SMILES representation as a string
-     * @throws NullPointerException if aMolecule is 'null'
-     * @throws IllegalArgumentException if aMolecule contains atoms of invalid atomic numbers
-     * @throws CDKException if the SMILES code of aMolecule cannot be generated
-     * @see ErtlFunctionalGroupsFinderUtility#containsInvalidAtomicNumbers(IAtomContainer)
-     * @deprecated this method of pseudo SMILES generation was used in the ErtlFunctionalGroupsFinder publication (see
-     * class documentation but the new method is preferable to use)
+     * @param aSortedBondKeys keys of the bonds created in createCanonicalForm(), holding the canonical positions of
+     *                        their atoms, in ascending order
+     * @param aBondsInCanonicalOrder the bonds in the order of the keys
+     * @param anAtomCount number of atoms
+     * @return the assigned bond orders in the order of the keys or 'null' if a bond has no order up to quadruple or the
+     * search exceeds the step limit
      */
-    @Deprecated
-    public static String getLegacyPseudoSmilesCode(IAtomContainer aMolecule) throws NullPointerException, IllegalArgumentException, CDKException {
-        Objects.requireNonNull(aMolecule, "Given molecule is 'null'.");
-        //Note: This is necessary to ensure that the elements used for substitution are not already present in the given molecule
-        if (ErtlFunctionalGroupsFinderUtility.containsInvalidAtomicNumbers(aMolecule)) {
-            throw new IllegalArgumentException("The given molecule contains metal, metalloid or R atoms.");
+    private static IBond.Order[] assignCanonicalBondOrders(long[] aSortedBondKeys, IBond[] aBondsInCanonicalOrder, int anAtomCount) {
+        int tmpBondCount = aSortedBondKeys.length;
+        int[] tmpBeginPositions = new int[tmpBondCount];
+        int[] tmpEndPositions = new int[tmpBondCount];
+        //number of bond order units of every atom that exceed a single bond to each neighbour
+        int[] tmpExcessOrders = new int[anAtomCount];
+        //index of the last bond of every atom in canonical order, -1 if the atom has no bonds
+        int[] tmpLastBondIndices = new int[anAtomCount];
+        Arrays.fill(tmpLastBondIndices, -1);
+        for (int i = 0; i < tmpBondCount; i++) {
+            IBond.Order tmpOrder = aBondsInCanonicalOrder[i].getOrder();
+            if (Objects.isNull(tmpOrder) || tmpOrder == IBond.Order.UNSET
+                    || tmpOrder.numeric() > ErtlFunctionalGroupsFinderUtility.CANONICAL_BOND_ORDERS.length) {
+                return null;
+            }
+            tmpBeginPositions[i] = (int) (aSortedBondKeys[i] >>> 42);
+            tmpEndPositions[i] = (int) ((aSortedBondKeys[i] >>> 21) & 0x1FFFFF);
+            tmpExcessOrders[tmpBeginPositions[i]] += tmpOrder.numeric() - 1;
+            tmpExcessOrders[tmpEndPositions[i]] += tmpOrder.numeric() - 1;
+            tmpLastBondIndices[tmpBeginPositions[i]] = i;
+            tmpLastBondIndices[tmpEndPositions[i]] = i;
         }
-        Iterable<IAtom> tmpAtoms = aMolecule.atoms();
-        HashMap<IAtom, IAtom> tmpMapForResubstitution = new HashMap(20, 0.8f);
-        HashMap<String, String> aromaticElementToPlaceholderElementMap = new HashMap<>(10, 1);
-        aromaticElementToPlaceholderElementMap.put("C", "Ce");
-        aromaticElementToPlaceholderElementMap.put("N", "Nd");
-        aromaticElementToPlaceholderElementMap.put("S", "Sm");
-        aromaticElementToPlaceholderElementMap.put("O", "Os");
-        aromaticElementToPlaceholderElementMap.put("Se", "Sc");
-        aromaticElementToPlaceholderElementMap.put("P", "Pm");
-        aromaticElementToPlaceholderElementMap.put("R", "Es");
-        HashMap<String, String> placeholderElementToPseudoSmilesSymbolMap = new HashMap<>(10, 1);
-        placeholderElementToPseudoSmilesSymbolMap.put("Es", "R");
-        placeholderElementToPseudoSmilesSymbolMap.put("Pm", "P*");
-        placeholderElementToPseudoSmilesSymbolMap.put("Sc", "Se*");
-        placeholderElementToPseudoSmilesSymbolMap.put("Os", "O*");
-        placeholderElementToPseudoSmilesSymbolMap.put("Sm", "S*");
-        placeholderElementToPseudoSmilesSymbolMap.put("Nd", "N*");
-        placeholderElementToPseudoSmilesSymbolMap.put("Ce", "C*");
-        for (IAtom tmpAtom: tmpAtoms) {
-            boolean tmpIsAromatic = tmpAtom.isAromatic();
-            boolean tmpIsPseudoAtom = (tmpAtom instanceof IPseudoAtom && "R".equals(((IPseudoAtom)tmpAtom).getLabel()));
-            if (tmpIsAromatic && !tmpIsPseudoAtom) {
-                String tmpSymbol = tmpAtom.getSymbol();
-                if (Objects.isNull(tmpSymbol)) {
-                    continue;
+        //depth-first search that tries the highest possible excess order of every bond first; -1 marks a bond that is
+        //  not yet assigned
+        int[] tmpExcessBondOrders = new int[tmpBondCount];
+        Arrays.fill(tmpExcessBondOrders, -1);
+        int tmpStepCount = 0;
+        int tmpBondIndex = 0;
+        while (tmpBondIndex < tmpBondCount) {
+            if (tmpBondIndex < 0) {
+                return null;
+            }
+            int tmpBegin = tmpBeginPositions[tmpBondIndex];
+            int tmpEnd = tmpEndPositions[tmpBondIndex];
+            int tmpExcessOrder;
+            if (tmpExcessBondOrders[tmpBondIndex] < 0) {
+                tmpExcessOrder = Math.min(ErtlFunctionalGroupsFinderUtility.CANONICAL_BOND_ORDERS.length - 1,
+                        Math.min(tmpExcessOrders[tmpBegin], tmpExcessOrders[tmpEnd]));
+            } else {
+                //backtracking, the last tried excess order is released
+                tmpExcessOrders[tmpBegin] += tmpExcessBondOrders[tmpBondIndex];
+                tmpExcessOrders[tmpEnd] += tmpExcessBondOrders[tmpBondIndex];
+                tmpExcessOrder = tmpExcessBondOrders[tmpBondIndex] - 1;
+            }
+            tmpExcessBondOrders[tmpBondIndex] = -1;
+            for (; tmpExcessOrder >= 0; tmpExcessOrder--) {
+                if (++tmpStepCount > ErtlFunctionalGroupsFinderUtility.CANONICAL_BOND_ORDER_STEP_LIMIT) {
+                    return null;
                 }
-                boolean tmpContainsKey = aromaticElementToPlaceholderElementMap.containsKey(tmpSymbol);
-                if (tmpContainsKey) {
-                    String tmpReplacementElementSymbol = aromaticElementToPlaceholderElementMap.get(tmpSymbol);
-                    IAtom tmpReplacementAtom = new Atom(tmpReplacementElementSymbol);
-                    Integer tmpImplicitHydrogenCount = tmpAtom.getImplicitHydrogenCount();
-                    //TODO: Get returned boolean and throw exception if replacement could not be made? See also replacements below
-                    AtomContainerManipulator.replaceAtomByAtom(aMolecule, tmpAtom, tmpReplacementAtom);
-                    tmpReplacementAtom.setImplicitHydrogenCount(tmpImplicitHydrogenCount == null ? 0 : tmpImplicitHydrogenCount);
-                    tmpMapForResubstitution.put(tmpReplacementAtom, tmpAtom);
+                //an atom whose last bond is assigned must not have excess orders left
+                if ((tmpLastBondIndices[tmpBegin] != tmpBondIndex || tmpExcessOrders[tmpBegin] == tmpExcessOrder)
+                        && (tmpLastBondIndices[tmpEnd] != tmpBondIndex || tmpExcessOrders[tmpEnd] == tmpExcessOrder)) {
+                    break;
                 }
             }
-            if (tmpIsPseudoAtom) {
-                String tmpReplacementElementSymbol = aromaticElementToPlaceholderElementMap.get("R");
-                IAtom tmpReplacementAtom = new Atom(tmpReplacementElementSymbol);
-                Integer tmpImplicitHydrogenCount = tmpAtom.getImplicitHydrogenCount();
-                AtomContainerManipulator.replaceAtomByAtom(aMolecule, tmpAtom, tmpReplacementAtom);
-                tmpReplacementAtom.setImplicitHydrogenCount(tmpImplicitHydrogenCount == null ? 0 : tmpImplicitHydrogenCount);
-                tmpMapForResubstitution.put(tmpReplacementAtom, tmpAtom);
+            if (tmpExcessOrder < 0) {
+                tmpBondIndex--;
+            } else {
+                tmpExcessOrders[tmpBegin] -= tmpExcessOrder;
+                tmpExcessOrders[tmpEnd] -= tmpExcessOrder;
+                tmpExcessBondOrders[tmpBondIndex] = tmpExcessOrder;
+                tmpBondIndex++;
             }
         }
-        SmilesGenerator tmpSmilesGenerator = new SmilesGenerator(SmiFlavor.Unique);
-        String tmpPseudoSmilesCode;
-        try {
-            //Might throw CDKException if the SMILES string cannot be created or NullPointerException if an atom has an
-            //  undefined number of implicit hydrogen atoms in the SMILES string
-            tmpPseudoSmilesCode = tmpSmilesGenerator.create(aMolecule);
-        } catch (NullPointerException anException) {
-            throw new CDKException(anException.getMessage(), anException);
+        IBond.Order[] tmpOrders = new IBond.Order[tmpBondCount];
+        for (int i = 0; i < tmpBondCount; i++) {
+            tmpOrders[i] = ErtlFunctionalGroupsFinderUtility.CANONICAL_BOND_ORDERS[tmpExcessBondOrders[i]];
         }
-        for (String tmpPlaceholderElementSymbol : placeholderElementToPseudoSmilesSymbolMap.keySet()) {
-            tmpPseudoSmilesCode = tmpPseudoSmilesCode.replaceAll("(\\[" + tmpPlaceholderElementSymbol + "\\])",
-                    placeholderElementToPseudoSmilesSymbolMap.get(tmpPlaceholderElementSymbol))
-                    .replaceAll("(" + tmpPlaceholderElementSymbol + ")",
-                            placeholderElementToPseudoSmilesSymbolMap.get(tmpPlaceholderElementSymbol));
-        }
-        for (IAtom tmpReplacementAtom: tmpMapForResubstitution.keySet()) {
-            IAtom tmpOriginalAtom = tmpMapForResubstitution.get(tmpReplacementAtom);
-            Integer tmpImplicitHydrogenCount = tmpReplacementAtom.getImplicitHydrogenCount();
-            AtomContainerManipulator.replaceAtomByAtom(aMolecule, tmpReplacementAtom, tmpOriginalAtom);
-            tmpOriginalAtom.setImplicitHydrogenCount(tmpImplicitHydrogenCount == null ? 0 : tmpImplicitHydrogenCount);
-            tmpMapForResubstitution.remove(tmpReplacementAtom, tmpOriginalAtom);
+        return tmpOrders;
+    }
+
+    /**
+     * Returns the invariant of the given atom that is used for the canonical labelling in createCanonicalForm(). It
+     * encodes the same properties as the MoleculeHashGenerator returned by getFunctionalGroupHashGenerator(), i.e.
+     * the atomic number (0 for pseudo atoms), the bond order sum, and the aromaticity flag. Additionally, the number of
+     * connected atoms is encoded because the canonical labelling does not consider explicit terminal hydrogen atoms
+     * in the graph (so that e.g. the oxygen atoms of a carboxylic acid group can be discriminated).
+     *
+     * @param anAtom the atom to calculate the invariant for
+     * @param aMolecule the molecule containing the atom
+     * @return the atom invariant
+     */
+    private static long getCanonicalAtomInvariant(IAtom anAtom, IAtomContainer aMolecule) {
+        Integer tmpAtomicNumber = anAtom.getAtomicNumber();
+        List<IBond> tmpConnectedBonds = aMolecule.getConnectedBondsList(anAtom);
+        long tmpBondOrderSum = 0;
+        for (IBond tmpBond : tmpConnectedBonds) {
+            if (Objects.nonNull(tmpBond.getOrder())) {
+                tmpBondOrderSum += tmpBond.getOrder().numeric();
+            }
         }
-        return tmpPseudoSmilesCode;
+        long tmpInvariant = Objects.isNull(tmpAtomicNumber) ? 0 : tmpAtomicNumber;
+        tmpInvariant = (tmpInvariant << 16) | tmpBondOrderSum;
+        tmpInvariant = (tmpInvariant << 16) | tmpConnectedBonds.size();
+        return (tmpInvariant << 1) | (anAtom.isAromatic() ? 1 : 0);
+    }
+
+    /**
+     * Scrambles the bits of the given value (finalization step of the SplitMix64 pseudo random number generator).
+     *
+     * @param aValue the value to scramble
+     * @return the scrambled value
+     */
+    private static long mix(long aValue) {
+        long tmpValue = aValue;
+        tmpValue = (tmpValue ^ (tmpValue >>> 30)) * 0xBF58476D1CE4E5B9L;
+        tmpValue = (tmpValue ^ (tmpValue >>> 27)) * 0x94D049BB133111EBL;
+        return tmpValue ^ (tmpValue >>> 31);
     }
-    //</editor-fold>
     //</editor-fold>
 }
@@ -0,0 +1,185 @@
+/*
+ * Utilities for
+ * ErtlFunctionalGroupsFinder for CDK
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscience.cdk.tools;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Canonical representation of a functional group returned by ErtlFunctionalGroupsFinder. It holds a 64-bit hash key,
+ * the canonical SMILES code (with aromatic symbols) and the pseudo SMILES code of the group. All three are derived from
+ * one canonical labelling of the group's atoms, see
+ * {@link ErtlFunctionalGroupsFinderUtility#createCanonicalForm(org.openscience.cdk.interfaces.IAtomContainer)}.
+ * <br>Two canonical forms are equal if their hash keys are equal. Note that the hash key is not the same number as the
+ * one calculated by the MoleculeHashGenerator returned by
+ * {@link ErtlFunctionalGroupsFinderUtility#getFunctionalGroupHashGenerator()} but it discriminates functional groups
+ * based on the same atom properties.
+ * <br>The canonical SMILES codes changed once after this class was introduced: originally, the bond orders of the
+ * given functional group were written, so groups with indistinguishable double bond positions (e.g. the two Kekule
+ * structures of a pyridinium group) got SMILES codes that depended on the order of their atoms. Now, the bond orders
+ * are assigned anew in canonical order. The hash keys did not change. Stored canonical forms of the first version
+ * should therefore not be mixed with new ones, see FunctionalGroupExtractor.SETTINGS.
+ * <br>Objects of this class are immutable.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class FunctionalGroupCanonicalForm {
+    //<editor-fold desc="Private final variables">
+    /**
+     * Hash key of the functional group, calculated from its canonically ordered atoms and bonds
+     */
+    private final long hashKey;
+
+    /**
+     * SMILES code of the functional group in canonical atom order, using aromatic symbols
+     */
+    private final String canonicalSmiles;
+
+    /**
+     * Pseudo SMILES code of the functional group
+     */
+    private final String pseudoSmiles;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructor">
+    /**
+     * Constructor that sets all fields; objects of this class are created by
+     * ErtlFunctionalGroupsFinderUtility.createCanonicalForm().
+     *
+     * @param aHashKey hash key of the functional group
+     * @param aCanonicalSmiles canonical SMILES code of the functional group
+     * @param aPseudoSmiles pseudo SMILES code of the functional group
+     * @throws NullPointerException if a SMILES code is 'null'
+     */
+    FunctionalGroupCanonicalForm(long aHashKey, String aCanonicalSmiles, String aPseudoSmiles) throws NullPointerException {
+        Objects.requireNonNull(aCanonicalSmiles, "Given canonical SMILES code is 'null'.");
+        Objects.requireNonNull(aPseudoSmiles, "Given pseudo SMILES code is 'null'.");
+        this.hashKey = aHashKey;
+        this.canonicalSmiles = aCanonicalSmiles;
+        this.pseudoSmiles = aPseudoSmiles;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static methods">
+    /**
+     * Reads a canonical form written by writeTo(), e.g. to restore the dictionary of a persisted profile cache.
+     *
+     * @param anInput the input to read from
+     * @return the canonical form read
+     * @throws NullPointerException if anInput is 'null'
+     * @throws IOException if the input cannot be read
+     */
+    public static FunctionalGroupCanonicalForm readFrom(DataInput anInput) throws NullPointerException, IOException {
+        Objects.requireNonNull(anInput, "Given data input is 'null'.");
+        long tmpHashKey = anInput.readLong();
+        String tmpCanonicalSmiles = anInput.readUTF();
+        String tmpPseudoSmiles = anInput.readUTF();
+        return new FunctionalGroupCanonicalForm(tmpHashKey, tmpCanonicalSmiles, tmpPseudoSmiles);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * Writes this canonical form to the given output: the hash key followed by the canonical and the pseudo SMILES
+     * code in modified UTF-8, see DataOutput.writeUTF().
+     *
+     * @param anOutput the output to write to
+     * @throws NullPointerException if anOutput is 'null'
+     * @throws IOException if the output cannot be written
+     */
+    public void writeTo(DataOutput anOutput) throws NullPointerException, IOException {
+        Objects.requireNonNull(anOutput, "Given data output is 'null'.");
+        anOutput.writeLong(this.hashKey);
+        anOutput.writeUTF(this.canonicalSmiles);
+        anOutput.writeUTF(this.pseudoSmiles);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the 64-bit hash key of the functional group.
+     *
+     * @return hash key
+     */
+    public long getHashKey() {
+        return this.hashKey;
+    }
+
+    /**
+     * Returns the SMILES code of the functional group, written in canonical atom order and with aromatic symbols.
+     * Functional groups that differ only in the positions of their double bonds or in the order of their atoms have the
+     * same hash key and the same SMILES code because the bond orders are assigned anew to the canonically ordered
+     * atoms (see ErtlFunctionalGroupsFinderUtility.createCanonicalForm()).
+     *
+     * @return canonical SMILES code
+     */
+    public String getCanonicalSmiles() {
+        return this.canonicalSmiles;
+    }
+
+    /**
+     * Returns the pseudo SMILES code of the functional group, translated from the canonical SMILES code in the same way
+     * as in ErtlFunctionalGroupsFinderUtility.createPseudoSmilesCode().
+     *
+     * @return pseudo SMILES code
+     */
+    public String getPseudoSmiles() {
+        return this.pseudoSmiles;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Overridden public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object anObject) {
+        if (this == anObject) {
+            return true;
+        }
+        if (!(anObject instanceof FunctionalGroupCanonicalForm)) {
+            return false;
+        }
+        FunctionalGroupCanonicalForm tmpOther = (FunctionalGroupCanonicalForm) anObject;
+        return this.hashKey == tmpOther.hashKey;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return Long.hashCode(this.hashKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return this.pseudoSmiles + " (" + this.canonicalSmiles + ", " + this.hashKey + ")";
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,517 @@
+/*
+ * Utilities for
+ * ErtlFunctionalGroupsFinder for CDK
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscience.cdk.tools;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.aromaticity.Aromaticity;
+import org.openscience.cdk.aromaticity.ElectronDonation;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.graph.Cycles;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.smarts.SmartsPattern;
+import org.openscience.cdk.smiles.SmilesParser;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns common names (e.g. "ester", "amide", "phenol") and categories to generalized functional groups returned by
+ * ErtlFunctionalGroupsFinder. The classifier holds a table of the hash keys of curated functional groups (see
+ * FunctionalGroupCanonicalForm.getHashKey()) with their names, so a known group is classified with a single map lookup.
+ * Only groups that are not part of the table are classified by SMARTS matching on their structure, resulting in more
+ * general names like "other carbonyl group". These results are cached by hash key, so the SMARTS patterns are matched
+ * only once per distinct functional group.
+ * <br>The table is built from a curated list of pseudo SMILES codes of functional groups that are detected in small
+ * example molecules, preprocessed with the Daylight electron donation model and the combination of all cycles and the
+ * CDK aromatic set (the settings used for the analysis of COCONUT). Functional groups should be detected with the same
+ * settings and in generalizing mode to be classified by the table.
+ * <br>Objects of this class are thread-safe; every thread matches its own copies of the fallback SMARTS patterns, so
+ * concurrent classifications do not wait for each other.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class FunctionalGroupClassifier {
+    //<editor-fold desc="Enum Category">
+    /**
+     * Enumeration of functional group categories.
+     */
+    public enum Category {
+        /**
+         * Hydroxyl groups, e.g. alcohol, phenol, enol
+         */
+        HYDROXYL,
+
+        /**
+         * Ethers and epoxides
+         */
+        ETHER,
+
+        /**
+         * Aldehydes and ketones
+         */
+        CARBONYL,
+
+        /**
+         * Carboxylic acids and their derivatives, e.g. esters, amides, anhydrides
+         */
+        CARBOXYLIC_ACID_DERIVATIVE,
+
+        /**
+         * Derivatives of carbonic acid, e.g. urea, carbamates, carbonates
+         */
+        CARBONIC_ACID_DERIVATIVE,
+
+        /**
+         * Amines and ammonium groups
+         */
+        AMINE,
+
+        /**
+         * Other nitrogen-containing groups, e.g. imines, nitriles, nitro groups
+         */
+        NITROGEN,
+
+        /**
+         * Sulfur-containing groups
+         */
+        SULFUR,
+
+        /**
+         * Phosphorus-containing groups
+         */
+        PHOSPHORUS,
+
+        /**
+         * Halogen atoms
+         */
+        HALOGEN,
+
+        /**
+         * Heteroatoms in aromatic rings
+         */
+        HETEROAROMATIC,
+
+        /**
+         * Carbon-carbon double and triple bonds
+         */
+        CARBON_CARBON_MULTIPLE_BOND,
+
+        /**
+         * Groups that could not be assigned to any other category
+         */
+        OTHER;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Class Classification">
+    /**
+     * Name and category of a functional group. Objects of this class are immutable.
+     */
+    public static final class Classification {
+        /**
+         * Common name of the functional group
+         */
+        private final String name;
+
+        /**
+         * Category of the functional group
+         */
+        private final Category category;
+
+        /**
+         * True if the functional group is part of the curated table, false if it was classified by SMARTS matching
+         */
+        private final boolean isCurated;
+
+        /**
+         * Constructor.
+         *
+         * @param aName common name of the functional group
+         * @param aCategory category of the functional group
+         * @param anIsCurated whether the functional group is part of the curated table
+         */
+        private Classification(String aName, Category aCategory, boolean anIsCurated) {
+            this.name = aName;
+            this.category = aCategory;
+            this.isCurated = anIsCurated;
+        }
+
+        /**
+         * Returns the common name of the functional group.
+         *
+         * @return name
+         */
+        public String getName() {
+            return this.name;
+        }
+
+        /**
+         * Returns the category of the functional group.
+         *
+         * @return category
+         */
+        public Category getCategory() {
+            return this.category;
+        }
+
+        /**
+         * Returns true if the functional group is part of the curated table and false if it was classified by SMARTS
+         * matching.
+         *
+         * @return whether the classification stems from the curated table
+         */
+        public boolean isCurated() {
+            return this.isCurated;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object anObject) {
+            if (this == anObject) {
+                return true;
+            }
+            if (!(anObject instanceof Classification)) {
+                return false;
+            }
+            Classification tmpOther = (Classification) anObject;
+            return this.isCurated == tmpOther.isCurated && this.name.equals(tmpOther.name) && this.category == tmpOther.category;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.name, this.category, this.isCurated);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return this.name + " (" + this.category + ")";
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static final class constants">
+    /**
+     * Curated functional groups: pseudo SMILES code as created by ErtlFunctionalGroupsFinderUtility.createPseudoSmilesCode(),
+     * SMILES code of an example molecule containing the group, name, and category (enum constant name)
+     */
+    private static final String[][] CURATED_FUNCTIONAL_GROUPS = {
+            {"[H]O[C]", "CCO", "alcohol", "HYDROXYL"},
+            {"[H]O[C*]", "Oc1ccccc1", "phenol", "HYDROXYL"},
+            {"[H]O[C]=[C]", "OC=C", "enol", "HYDROXYL"},
+            {"ROR", "COC", "ether", "ETHER"},
+            {"[C]1[C]O1", "C1CO1", "epoxide", "ETHER"},
+            {"RO*R", "c1ccoc1", "aromatic oxygen", "HETEROAROMATIC"},
+            {"[C]=O", "CC=O", "aldehyde", "CARBONYL"},
+            {"RC(R)=O", "CC(=O)C", "ketone", "CARBONYL"},
+            {"[C*]=O", "O=c1cc[nH]cc1", "aromatic carbonyl", "CARBONYL"},
+            {"[C]=[C][C]=O", "C(=O)C=C", "alpha,beta-unsaturated carbonyl", "CARBONYL"},
+            {"RC(=O)O[H]", "CC(=O)O", "carboxylic acid", "CARBOXYLIC_ACID_DERIVATIVE"},
+            {"[H]OC(=O)[C]=[C]", "CC(C)=CC(=O)O", "alpha,beta-unsaturated carboxylic acid", "CARBOXYLIC_ACID_DERIVATIVE"},
+            {"ROC(R)=O", "CC(=O)OC", "ester", "CARBOXYLIC_ACID_DERIVATIVE"},
+            {"ROC(=O)[C]=[C]", "O=C1OCC=C1", "alpha,beta-unsaturated ester", "CARBOXYLIC_ACID_DERIVATIVE"},
+            {"RSC(R)=O", "CC(=O)SC", "thioester", "CARBOXYLIC_ACID_DERIVATIVE"},
+            //hydrogen atoms on amide nitrogens are generalized, so primary, secondary, and tertiary amides are one group
+            {"RC(=O)N(R)R", "CC(=O)NC", "amide", "CARBOXYLIC_ACID_DERIVATIVE"},
+            {"RC(=O)Cl", "CC(=O)Cl", "acyl chloride", "CARBOXYLIC_ACID_DERIVATIVE"},
+            {"RC(=O)OC(R)=O", "CC(=O)OC(C)=O", "carboxylic acid anhydride", "CARBOXYLIC_ACID_DERIVATIVE"},
+            {"RN(R)C(=O)N(R)R", "NC(=O)N", "urea", "CARBONIC_ACID_DERIVATIVE"},
+            {"ROC(=O)N(R)R", "COC(N)=O", "carbamate", "CARBONIC_ACID_DERIVATIVE"},
+            {"ROC(=O)OR", "COC(=O)OC", "carbonate", "CARBONIC_ACID_DERIVATIVE"},
+            {"[H]N([H])[C]", "CN", "primary amine", "AMINE"},
+            {"[H]N([H])[C*]", "Nc1ccccc1", "primary aromatic amine", "AMINE"},
+            {"RN(R)[H]", "CNC", "secondary amine", "AMINE"},
+            {"RN(R)R", "CN(C)C", "tertiary amine", "AMINE"},
+            {"R[N](R)(R)R", "C[N+](C)(C)C", "quaternary ammonium", "AMINE"},
+            {"RN*(R)R", "c1ccncc1", "aromatic nitrogen", "HETEROAROMATIC"},
+            {"RN=[C]", "CC=NC", "imine", "NITROGEN"},
+            {"[H]ON=[C]", "CC(C)=NO", "oxime", "NITROGEN"},
+            {"[C]#N", "CC#N", "nitrile", "NITROGEN"},
+            {"R[N](=O)O[H]", "C[N+](=O)[O-]", "nitro", "NITROGEN"},
+            {"RN=C=O", "CN=C=O", "isocyanate", "NITROGEN"},
+            {"RN(R)O[H]", "CNO", "hydroxylamine", "NITROGEN"},
+            {"RN(R)N(R)R", "CNN", "hydrazine", "NITROGEN"},
+            {"RN=NR", "CN=NC", "azo", "NITROGEN"},
+            {"RS[H]", "CS", "thiol", "SULFUR"},
+            {"RSR", "CSC", "thioether", "SULFUR"},
+            {"RSSR", "CSSC", "disulfide", "SULFUR"},
+            {"RS(R)=O", "CS(C)=O", "sulfoxide", "SULFUR"},
+            {"RS(R)(=O)=O", "CS(C)(=O)=O", "sulfone", "SULFUR"},
+            {"RS(=O)(=O)O[H]", "CS(=O)(=O)O", "sulfonic acid", "SULFUR"},
+            {"RN(R)S(R)(=O)=O", "CS(=O)(=O)N", "sulfonamide", "SULFUR"},
+            {"RS*R", "c1ccsc1", "aromatic sulfur", "HETEROAROMATIC"},
+            {"ROP(=O)(O[H])O[H]", "COP(=O)(O)O", "phosphate monoester", "PHOSPHORUS"},
+            {"RF", "CF", "fluoride", "HALOGEN"},
+            {"RCl", "CCl", "chloride", "HALOGEN"},
+            {"RBr", "CBr", "bromide", "HALOGEN"},
+            {"RI", "CI", "iodide", "HALOGEN"},
+            {"[C]=[C]", "C=C", "alkene", "CARBON_CARBON_MULTIPLE_BOND"},
+            {"[C]=[C][C]=[C]", "C=CC=C", "conjugated diene", "CARBON_CARBON_MULTIPLE_BOND"},
+            {"[C]#[C]", "C#C", "alkyne", "CARBON_CARBON_MULTIPLE_BOND"}
+    };
+
+    /**
+     * SMARTS patterns for the classification of functional groups that are not part of the curated table, with name
+     * and category; they are matched in the given order and the first match determines the classification. Pseudo
+     * atoms (R) have atomic number 0.
+     */
+    private static final String[][] FALLBACK_SMARTS = {
+            {"[#6](=[O,S])(N)N", "other urea derivative", "CARBONIC_ACID_DERIVATIVE"},
+            {"[#6](=[O,S])([O,S,N])[O,S,N]", "other carbonic acid derivative", "CARBONIC_ACID_DERIVATIVE"},
+            {"[#6](=[O,S])[O,S,N,F,Cl,Br,I]", "other carboxylic acid derivative", "CARBOXYLIC_ACID_DERIVATIVE"},
+            {"[#6]=[O,S]", "other carbonyl group", "CARBONYL"},
+            {"[a;!#6]", "other heteroaromatic group", "HETEROAROMATIC"},
+            {"[#16]", "other sulfur group", "SULFUR"},
+            {"[#15]", "other phosphorus group", "PHOSPHORUS"},
+            {"[#7;X4,$([#7](-*)(-*)-*)]", "other amine", "AMINE"},
+            {"[#7]", "other nitrogen group", "NITROGEN"},
+            {"[#8]-[#1]", "other hydroxyl group", "HYDROXYL"},
+            {"[#8]", "other oxygen group", "ETHER"},
+            {"[F,Cl,Br,I]", "other halogen group", "HALOGEN"},
+            {"[#6]=,#[#6]", "other carbon-carbon multiple bond", "CARBON_CARBON_MULTIPLE_BOND"}
+    };
+
+    /**
+     * Classification of functional groups that match none of the fallback SMARTS patterns
+     */
+    private static final Classification UNCLASSIFIED = new Classification("unclassified", Category.OTHER, false);
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static class InstanceHolder">
+    /**
+     * Holder of the shared instance, initialized on first access of getInstance().
+     */
+    private static final class InstanceHolder {
+        /**
+         * Shared classifier instance
+         */
+        private static final FunctionalGroupClassifier INSTANCE = new FunctionalGroupClassifier();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * Hash keys of the curated functional groups mapped to their classifications; not altered after construction
+     */
+    private final Map<Long, Classification> curatedTable;
+
+    /**
+     * Cached classifications of functional groups that were classified by SMARTS matching
+     */
+    private final ConcurrentHashMap<Long, Classification> fallbackCache;
+
+    /**
+     * Fallback SMARTS patterns of the calling thread, matching the order of FALLBACK_SMARTS; SmartsPattern objects are
+     * not thread-safe, so every thread matches its own ones
+     */
+    private final ThreadLocal<SmartsPattern[]> fallbackPatterns;
+
+    /**
+     * Classifications that are assigned if the fallback SMARTS pattern at the same position matches
+     */
+    private final Classification[] fallbackClassifications;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructor">
+    /**
+     * Private constructor that builds the table of curated functional groups; the shared instance is obtained via
+     * getInstance().
+     *
+     * @throws IllegalStateException if a curated functional group is not detected in its example molecule or two
+     * different curated functional groups have the same hash key
+     */
+    private FunctionalGroupClassifier() throws IllegalStateException {
+        SmilesParser tmpSmilesParser = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+        Aromaticity tmpAromaticity = new Aromaticity(ElectronDonation.daylight(), Cycles.or(Cycles.all(), Cycles.cdkAromaticSet()));
+        ErtlFunctionalGroupsFinder tmpFinder = ErtlFunctionalGroupsFinderUtility.getErtlFunctionalGroupsFinderGeneralizingMode();
+        HashMap<Long, Classification> tmpCuratedTable = new HashMap<>(FunctionalGroupClassifier.CURATED_FUNCTIONAL_GROUPS.length * 2);
+        for (String[] tmpEntry : FunctionalGroupClassifier.CURATED_FUNCTIONAL_GROUPS) {
+            String tmpPseudoSmilesCode = tmpEntry[0];
+            Long tmpHashKey = null;
+            try {
+                IAtomContainer tmpMolecule = tmpSmilesParser.parseSmiles(tmpEntry[1]);
+                tmpMolecule = ErtlFunctionalGroupsFinderUtility.applyFiltersAndPreprocessing(tmpMolecule, tmpAromaticity);
+                if (Objects.nonNull(tmpMolecule)) {
+                    for (IAtomContainer tmpFunctionalGroup : tmpFinder.find(tmpMolecule, false)) {
+                        if (tmpPseudoSmilesCode.equals(ErtlFunctionalGroupsFinderUtility.createPseudoSmilesCode(tmpFunctionalGroup))) {
+                            tmpHashKey = ErtlFunctionalGroupsFinderUtility.createCanonicalForm(tmpFunctionalGroup).getHashKey();
+                            break;
+                        }
+                    }
+                }
+            } catch (CDKException aCDKException) {
+                throw new IllegalStateException("Example molecule " + tmpEntry[1] + " of curated functional group "
+                        + tmpPseudoSmilesCode + " cannot be processed.", aCDKException);
+            }
+            if (Objects.isNull(tmpHashKey)) {
+                throw new IllegalStateException("Curated functional group " + tmpPseudoSmilesCode
+                        + " is not detected in its example molecule " + tmpEntry[1] + ".");
+            }
+            Classification tmpClassification = new Classification(tmpEntry[2], Category.valueOf(tmpEntry[3]), true);
+            Classification tmpPrevious = tmpCuratedTable.put(tmpHashKey, tmpClassification);
+            if (Objects.nonNull(tmpPrevious)) {
+                throw new IllegalStateException("Curated functional groups " + tmpPrevious + " and " + tmpClassification
+                        + " have the same hash key.");
+            }
+        }
+        this.curatedTable = Collections.unmodifiableMap(tmpCuratedTable);
+        this.fallbackCache = new ConcurrentHashMap<>(256);
+        this.fallbackClassifications = new Classification[FunctionalGroupClassifier.FALLBACK_SMARTS.length];
+        for (int i = 0; i < FunctionalGroupClassifier.FALLBACK_SMARTS.length; i++) {
+            String[] tmpEntry = FunctionalGroupClassifier.FALLBACK_SMARTS[i];
+            this.fallbackClassifications[i] = new Classification(tmpEntry[1], Category.valueOf(tmpEntry[2]), false);
+        }
+        this.fallbackPatterns = ThreadLocal.withInitial(FunctionalGroupClassifier::createFallbackPatterns);
+        //invalid SMARTS patterns are reported here and not on the first fallback classification
+        this.fallbackPatterns.get();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static methods">
+    /**
+     * Returns the shared classifier instance; the table of curated functional groups is built on the first call.
+     *
+     * @return classifier
+     */
+    public static FunctionalGroupClassifier getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * Classifies the given functional group as returned by ErtlFunctionalGroupsFinder (in generalizing mode). Its hash
+     * key is calculated and looked up in the curated table and the cache; only if it is found in neither, the group is
+     * classified by SMARTS matching.
+     *
+     * @param aFunctionalGroup the functional group to classify
+     * @return the classification, never 'null'
+     * @throws NullPointerException if aFunctionalGroup is 'null'
+     * @throws CDKException if the canonical form of the functional group cannot be created
+     */
+    public Classification classify(IAtomContainer aFunctionalGroup) throws NullPointerException, CDKException {
+        Objects.requireNonNull(aFunctionalGroup, "Given functional group is 'null'.");
+        long tmpHashKey = ErtlFunctionalGroupsFinderUtility.createCanonicalForm(aFunctionalGroup).getHashKey();
+        return this.classify(tmpHashKey, aFunctionalGroup);
+    }
+
+    /**
+     * Classifies the given functional group with the given, already calculated hash key. The hash key is looked up in
+     * the curated table and the cache; only if it is found in neither, the group is classified by SMARTS matching.
+     *
+     * @param aHashKey hash key of the canonical form of the functional group
+     * @param aFunctionalGroup the functional group to classify
+     * @return the classification, never 'null'
+     * @throws NullPointerException if aFunctionalGroup is 'null'
+     */
+    public Classification classify(long aHashKey, IAtomContainer aFunctionalGroup) throws NullPointerException {
+        Objects.requireNonNull(aFunctionalGroup, "Given functional group is 'null'.");
+        Classification tmpClassification = this.lookup(aHashKey);
+        if (Objects.nonNull(tmpClassification)) {
+            return tmpClassification;
+        }
+        tmpClassification = this.matchFallbackPatterns(aFunctionalGroup);
+        Classification tmpCachedClassification = this.fallbackCache.putIfAbsent(aHashKey, tmpClassification);
+        return Objects.isNull(tmpCachedClassification) ? tmpClassification : tmpCachedClassification;
+    }
+
+    /**
+     * Returns the classification of the functional group with the given hash key if it is part of the curated table or
+     * has already been classified by SMARTS matching, without doing any matching.
+     *
+     * @param aHashKey hash key of the canonical form of the functional group
+     * @return the classification or 'null' if the hash key is unknown
+     */
+    public Classification lookup(long aHashKey) {
+        Classification tmpClassification = this.curatedTable.get(aHashKey);
+        if (Objects.isNull(tmpClassification)) {
+            tmpClassification = this.fallbackCache.get(aHashKey);
+        }
+        return tmpClassification;
+    }
+
+    /**
+     * Returns the number of functional groups in the curated table.
+     *
+     * @return size of the curated table
+     */
+    public int getCuratedTableSize() {
+        return this.curatedTable.size();
+    }
+
+    /**
+     * Returns the number of distinct functional groups that have been classified by SMARTS matching so far.
+     *
+     * @return size of the fallback cache
+     */
+    public int getFallbackCacheSize() {
+        return this.fallbackCache.size();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private methods">
+    /**
+     * Matches the fallback SMARTS patterns in their given order on the given functional group and returns the
+     * classification of the first matching pattern.
+     *
+     * @param aFunctionalGroup the functional group to classify
+     * @return the classification, UNCLASSIFIED if no pattern matches
+     */
+    private Classification matchFallbackPatterns(IAtomContainer aFunctionalGroup) {
+        SmartsPattern[] tmpPatterns = this.fallbackPatterns.get();
+        for (int i = 0; i < tmpPatterns.length; i++) {
+            if (tmpPatterns[i].matches(aFunctionalGroup)) {
+                return this.fallbackClassifications[i];
+            }
+        }
+        return FunctionalGroupClassifier.UNCLASSIFIED;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static methods">
+    /**
+     * Creates the fallback SMARTS patterns in the order of FALLBACK_SMARTS.
+     *
+     * @return new fallback SMARTS patterns
+     */
+    private static SmartsPattern[] createFallbackPatterns() {
+        SmartsPattern[] tmpPatterns = new SmartsPattern[FunctionalGroupClassifier.FALLBACK_SMARTS.length];
+        for (int i = 0; i < FunctionalGroupClassifier.FALLBACK_SMARTS.length; i++) {
+            //the aromaticity flags set by the preprocessing should be used, so the functional groups are not prepared
+            //again
+            tmpPatterns[i] = SmartsPattern.create(FunctionalGroupClassifier.FALLBACK_SMARTS[i][0]).setPrepare(false);
+        }
+        return tmpPatterns;
+    }
+    //</editor-fold>
+}
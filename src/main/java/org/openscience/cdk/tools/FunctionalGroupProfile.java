@@ -0,0 +1,352 @@
+/*
+ * Utilities for
+ * ErtlFunctionalGroupsFinder for CDK
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscience.cdk.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Functional group profile of one molecule (or a set of molecules): the hash keys of the detected functional groups
+ * (see FunctionalGroupCanonicalForm.getHashKey()) with their frequencies. Keys are held in a sorted array of primitive
+ * longs without duplicates, the frequencies in an int array of the same length. Profiles are created from the output
+ * of ErtlFunctionalGroupsFinder.find() by ErtlFunctionalGroupsFinderUtility.createFunctionalGroupProfile().
+ * <br>Objects of this class are immutable.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class FunctionalGroupProfile {
+    //<editor-fold desc="Public static final constants">
+    /**
+     * Profile without any functional groups
+     */
+    public static final FunctionalGroupProfile EMPTY = new FunctionalGroupProfile(new long[0], new int[0]);
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * Hash keys of the functional groups, sorted in ascending order, no duplicates
+     */
+    private final long[] hashKeys;
+
+    /**
+     * Frequencies of the functional groups, matching the hash keys at the same positions
+     */
+    private final int[] counts;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructor">
+    /**
+     * Constructor that does not copy or check the given arrays.
+     *
+     * @param aSortedHashKeys hash keys, sorted in ascending order, without duplicates
+     * @param aCounts frequencies of the functional groups, all positive
+     */
+    private FunctionalGroupProfile(long[] aSortedHashKeys, int[] aCounts) {
+        this.hashKeys = aSortedHashKeys;
+        this.counts = aCounts;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static methods">
+    /**
+     * Creates a profile from the given hash keys of functional groups that may contain duplicates, in any order. The
+     * frequency of a functional group in the profile is the number of its occurrences in the given array.
+     *
+     * @param aHashKeys hash keys of functional groups; the array is not altered
+     * @return new profile
+     * @throws NullPointerException if aHashKeys is 'null'
+     */
+    public static FunctionalGroupProfile fromHashKeys(long[] aHashKeys) throws NullPointerException {
+        Objects.requireNonNull(aHashKeys, "Given hash keys array is 'null'.");
+        if (aHashKeys.length == 0) {
+            return FunctionalGroupProfile.EMPTY;
+        }
+        long[] tmpSortedKeys = Arrays.copyOf(aHashKeys, aHashKeys.length);
+        Arrays.sort(tmpSortedKeys);
+        int tmpDistinctCount = 0;
+        int[] tmpCounts = new int[tmpSortedKeys.length];
+        for (int i = 0; i < tmpSortedKeys.length; i++) {
+            if (tmpDistinctCount > 0 && tmpSortedKeys[tmpDistinctCount - 1] == tmpSortedKeys[i]) {
+                tmpCounts[tmpDistinctCount - 1]++;
+            } else {
+                tmpSortedKeys[tmpDistinctCount] = tmpSortedKeys[i];
+                tmpCounts[tmpDistinctCount] = 1;
+                tmpDistinctCount++;
+            }
+        }
+        return new FunctionalGroupProfile(Arrays.copyOf(tmpSortedKeys, tmpDistinctCount), Arrays.copyOf(tmpCounts, tmpDistinctCount));
+    }
+
+    /**
+     * Reads a profile written by writeTo().
+     *
+     * @param anInput the input to read from
+     * @return the profile read
+     * @throws NullPointerException if anInput is 'null'
+     * @throws IOException if the input cannot be read or does not contain a valid profile
+     */
+    public static FunctionalGroupProfile readFrom(DataInput anInput) throws NullPointerException, IOException {
+        Objects.requireNonNull(anInput, "Given data input is 'null'.");
+        int tmpSize = anInput.readInt();
+        if (tmpSize < 0) {
+            throw new IOException("Invalid functional group profile size: " + tmpSize);
+        }
+        if (tmpSize == 0) {
+            return FunctionalGroupProfile.EMPTY;
+        }
+        long[] tmpHashKeys = new long[tmpSize];
+        int[] tmpCounts = new int[tmpSize];
+        for (int i = 0; i < tmpSize; i++) {
+            tmpHashKeys[i] = anInput.readLong();
+            tmpCounts[i] = anInput.readInt();
+            if (tmpCounts[i] <= 0 || (i > 0 && tmpHashKeys[i - 1] >= tmpHashKeys[i])) {
+                throw new IOException("Invalid functional group profile entry at position " + i + ".");
+            }
+        }
+        return new FunctionalGroupProfile(tmpHashKeys, tmpCounts);
+    }
+
+    /**
+     * Creates a profile from a byte array created by toByteArray().
+     *
+     * @param aByteArray the serialized profile
+     * @return the profile
+     * @throws NullPointerException if aByteArray is 'null'
+     * @throws IOException if the byte array does not contain a valid profile
+     */
+    public static FunctionalGroupProfile fromByteArray(byte[] aByteArray) throws NullPointerException, IOException {
+        Objects.requireNonNull(aByteArray, "Given byte array is 'null'.");
+        try (DataInputStream tmpInput = new DataInputStream(new ByteArrayInputStream(aByteArray))) {
+            return FunctionalGroupProfile.readFrom(tmpInput);
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the number of distinct functional groups in this profile.
+     *
+     * @return number of distinct functional groups
+     */
+    public int size() {
+        return this.hashKeys.length;
+    }
+
+    /**
+     * Returns true if this profile does not contain any functional groups.
+     *
+     * @return true if the profile is empty
+     */
+    public boolean isEmpty() {
+        return this.hashKeys.length == 0;
+    }
+
+    /**
+     * Returns the hash key of the functional group at the given position; keys are sorted in ascending order.
+     *
+     * @param anIndex position in the profile, 0 to size() - 1
+     * @return hash key
+     * @throws IndexOutOfBoundsException if anIndex is out of range
+     */
+    public long getHashKey(int anIndex) throws IndexOutOfBoundsException {
+        return this.hashKeys[anIndex];
+    }
+
+    /**
+     * Returns the frequency of the functional group at the given position.
+     *
+     * @param anIndex position in the profile, 0 to size() - 1
+     * @return frequency of the functional group
+     * @throws IndexOutOfBoundsException if anIndex is out of range
+     */
+    public int getCount(int anIndex) throws IndexOutOfBoundsException {
+        return this.counts[anIndex];
+    }
+
+    /**
+     * Returns the frequency of the functional group with the given hash key, determined by binary search.
+     *
+     * @param aHashKey hash key of the functional group
+     * @return frequency of the functional group, 0 if it is not part of this profile
+     */
+    public int getCountOf(long aHashKey) {
+        int tmpIndex = Arrays.binarySearch(this.hashKeys, aHashKey);
+        return tmpIndex < 0 ? 0 : this.counts[tmpIndex];
+    }
+
+    /**
+     * Returns the sum of all frequencies, i.e. the total number of functional groups in this profile.
+     *
+     * @return total number of functional groups
+     */
+    public int getTotalCount() {
+        int tmpTotalCount = 0;
+        for (int tmpCount : this.counts) {
+            tmpTotalCount += tmpCount;
+        }
+        return tmpTotalCount;
+    }
+
+    /**
+     * Returns a copy of the sorted hash keys of this profile.
+     *
+     * @return hash keys array
+     */
+    public long[] getHashKeys() {
+        return Arrays.copyOf(this.hashKeys, this.hashKeys.length);
+    }
+
+    /**
+     * Returns a copy of the frequencies of this profile, matching the hash keys at the same positions.
+     *
+     * @return frequencies array
+     */
+    public int[] getCounts() {
+        return Arrays.copyOf(this.counts, this.counts.length);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * Returns a new profile with the functional groups of this and the given profile; frequencies of functional groups
+     * contained in both are summed up. Since both key arrays are sorted, they are merged in a single linear pass.
+     *
+     * @param aProfile the profile to merge with this one
+     * @return merged profile
+     * @throws NullPointerException if aProfile is 'null'
+     */
+    public FunctionalGroupProfile merge(FunctionalGroupProfile aProfile) throws NullPointerException {
+        Objects.requireNonNull(aProfile, "Given profile is 'null'.");
+        if (aProfile.isEmpty()) {
+            return this;
+        }
+        if (this.isEmpty()) {
+            return aProfile;
+        }
+        long[] tmpHashKeys = new long[this.hashKeys.length + aProfile.hashKeys.length];
+        int[] tmpCounts = new int[tmpHashKeys.length];
+        int i = 0;
+        int j = 0;
+        int tmpSize = 0;
+        while (i < this.hashKeys.length || j < aProfile.hashKeys.length) {
+            if (j == aProfile.hashKeys.length || (i < this.hashKeys.length && this.hashKeys[i] < aProfile.hashKeys[j])) {
+                tmpHashKeys[tmpSize] = this.hashKeys[i];
+                tmpCounts[tmpSize] = this.counts[i];
+                i++;
+            } else if (i == this.hashKeys.length || aProfile.hashKeys[j] < this.hashKeys[i]) {
+                tmpHashKeys[tmpSize] = aProfile.hashKeys[j];
+                tmpCounts[tmpSize] = aProfile.counts[j];
+                j++;
+            } else {
+                tmpHashKeys[tmpSize] = this.hashKeys[i];
+                tmpCounts[tmpSize] = this.counts[i] + aProfile.counts[j];
+                i++;
+                j++;
+            }
+            tmpSize++;
+        }
+        return new FunctionalGroupProfile(Arrays.copyOf(tmpHashKeys, tmpSize), Arrays.copyOf(tmpCounts, tmpSize));
+    }
+
+    /**
+     * Writes this profile to the given output: the number of distinct functional groups followed by pairs of hash key
+     * and frequency, i.e. 4 + size() * 12 bytes.
+     *
+     * @param anOutput the output to write to
+     * @throws NullPointerException if anOutput is 'null'
+     * @throws IOException if the output cannot be written
+     */
+    public void writeTo(DataOutput anOutput) throws NullPointerException, IOException {
+        Objects.requireNonNull(anOutput, "Given data output is 'null'.");
+        anOutput.writeInt(this.hashKeys.length);
+        for (int i = 0; i < this.hashKeys.length; i++) {
+            anOutput.writeLong(this.hashKeys[i]);
+            anOutput.writeInt(this.counts[i]);
+        }
+    }
+
+    /**
+     * Returns this profile serialized into a byte array, see writeTo().
+     *
+     * @return serialized profile
+     */
+    public byte[] toByteArray() {
+        ByteArrayOutputStream tmpByteArrayOutputStream = new ByteArrayOutputStream(4 + this.hashKeys.length * 12);
+        try (DataOutputStream tmpOutput = new DataOutputStream(tmpByteArrayOutputStream)) {
+            this.writeTo(tmpOutput);
+        } catch (IOException anIOException) {
+            //cannot happen for a byte array output stream
+            throw new IllegalStateException(anIOException);
+        }
+        return tmpByteArrayOutputStream.toByteArray();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Overridden public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object anObject) {
+        if (this == anObject) {
+            return true;
+        }
+        if (!(anObject instanceof FunctionalGroupProfile)) {
+            return false;
+        }
+        FunctionalGroupProfile tmpOther = (FunctionalGroupProfile) anObject;
+        return Arrays.equals(this.hashKeys, tmpOther.hashKeys) && Arrays.equals(this.counts, tmpOther.counts);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(this.hashKeys) + Arrays.hashCode(this.counts);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        StringBuilder tmpStringBuilder = new StringBuilder(this.hashKeys.length * 24 + 2);
+        tmpStringBuilder.append('{');
+        for (int i = 0; i < this.hashKeys.length; i++) {
+            if (i > 0) {
+                tmpStringBuilder.append(", ");
+            }
+            tmpStringBuilder.append(this.hashKeys[i]).append('=').append(this.counts[i]);
+        }
+        return tmpStringBuilder.append('}').toString();
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,224 @@
+/*
+ * Utilities for
+ * ErtlFunctionalGroupsFinder for CDK
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscience.cdk.tools;
+
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of functional group profiles keyed on a stereo-free canonical form of the input molecules. The functional
+ * groups detected by ErtlFunctionalGroupsFinder do not depend on tetrahedral or double bond stereo, so all stereoisomers
+ * of a constitution share one profile and only the first one of them has to be preprocessed and passed on to find().
+ * <br>The key of a molecule is its unique SMILES code without stereo and isotope information, see createKey(). It is
+ * created from the molecule as given, i.e. before preprocessing, because the preprocessing result depends on the
+ * constitution only as well. Note that the InChIKey is not used as key, because its first block merges tautomers and
+ * charge states, which can have different functional groups.
+ * <br>The cache holds at most the given number of entries and evicts the least recently used entry if it is full.
+ * Hits and misses are counted for run statistics. All methods are thread-safe.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class FunctionalGroupProfileCache {
+    //<editor-fold desc="Public static final constants">
+    /**
+     * Default maximum number of cached profiles
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 100000;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * Maximum number of cached profiles
+     */
+    private final int maximumSize;
+
+    /**
+     * Cached profiles in access order
+     */
+    private final LinkedHashMap<String, FunctionalGroupProfile> profiles;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private variables">
+    /**
+     * Number of successful lookups
+     */
+    private long hitCount;
+
+    /**
+     * Number of unsuccessful lookups
+     */
+    private long missCount;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor using the default maximum size.
+     */
+    public FunctionalGroupProfileCache() {
+        this(FunctionalGroupProfileCache.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param aMaximumSize maximum number of cached profiles
+     * @throws IllegalArgumentException if aMaximumSize is smaller than 1
+     */
+    public FunctionalGroupProfileCache(int aMaximumSize) throws IllegalArgumentException {
+        if (aMaximumSize < 1) {
+            throw new IllegalArgumentException("Given maximum size must be positive but is " + aMaximumSize + ".");
+        }
+        this.maximumSize = aMaximumSize;
+        this.profiles = new LinkedHashMap<String, FunctionalGroupProfile>(Math.min(aMaximumSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FunctionalGroupProfile> anEldestEntry) {
+                return this.size() > FunctionalGroupProfileCache.this.maximumSize;
+            }
+        };
+        this.hitCount = 0L;
+        this.missCount = 0L;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static methods">
+    /**
+     * Creates the cache key of the given molecule, i.e. its unique SMILES code without stereo and isotope information,
+     * using the unique SMILES generator of the current thread's context. All stereoisomers of a constitution have the
+     * same key. The given molecule is not changed.
+     *
+     * @param aMolecule the molecule as given, i.e. before preprocessing
+     * @return the stereo-free cache key
+     * @throws NullPointerException if aMolecule is 'null'
+     * @throws CDKException if no SMILES code can be created for the molecule
+     */
+    public static String createKey(IAtomContainer aMolecule) throws NullPointerException, CDKException {
+        Objects.requireNonNull(aMolecule, "Given molecule is 'null'.");
+        return ErtlFunctionalGroupsFinderContext.get().getUniqueSmilesGenerator().create(aMolecule);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * Returns the cached profile for the given key and counts the lookup as hit or miss.
+     *
+     * @param aKey the key created by createKey()
+     * @return the cached profile or 'null' if there is none
+     * @throws NullPointerException if aKey is 'null'
+     */
+    public synchronized FunctionalGroupProfile get(String aKey) throws NullPointerException {
+        Objects.requireNonNull(aKey, "Given key is 'null'.");
+        FunctionalGroupProfile tmpProfile = this.profiles.get(aKey);
+        if (Objects.isNull(tmpProfile)) {
+            this.missCount++;
+        } else {
+            this.hitCount++;
+        }
+        return tmpProfile;
+    }
+
+    /**
+     * Caches the given profile for the given key; the least recently used entry is evicted if the cache is full.
+     *
+     * @param aKey the key created by createKey()
+     * @param aProfile the profile of the molecule the key was created from
+     * @throws NullPointerException if a parameter is 'null'
+     */
+    public synchronized void put(String aKey, FunctionalGroupProfile aProfile) throws NullPointerException {
+        Objects.requireNonNull(aKey, "Given key is 'null'.");
+        Objects.requireNonNull(aProfile, "Given profile is 'null'.");
+        this.profiles.put(aKey, aProfile);
+    }
+
+    /**
+     * Removes all cached profiles and resets the hit and miss counters.
+     */
+    public synchronized void clear() {
+        this.profiles.clear();
+        this.hitCount = 0L;
+        this.missCount = 0L;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the number of cached profiles.
+     *
+     * @return number of cached profiles
+     */
+    public synchronized int size() {
+        return this.profiles.size();
+    }
+
+    /**
+     * Returns the maximum number of cached profiles.
+     *
+     * @return maximum size
+     */
+    public int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    /**
+     * Returns the number of lookups that found a cached profile.
+     *
+     * @return hit count
+     */
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * Returns the number of lookups that found no cached profile.
+     *
+     * @return miss count
+     */
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * Returns the fraction of lookups that found a cached profile.
+     *
+     * @return hit rate between 0 and 1; 0 if there were no lookups
+     */
+    public synchronized double getHitRate() {
+        long tmpLookupCount = this.hitCount + this.missCount;
+        return tmpLookupCount == 0L ? 0.0 : (double) this.hitCount / tmpLookupCount;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Overridden public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return "FunctionalGroupProfileCache (size: " + this.profiles.size() + ", hits: " + this.hitCount + ", misses: "
+                + this.missCount + ", hit rate: " + String.format("%.4f", this.getHitRate()) + ")";
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,49 @@
+/*
+ * Utilities for
+ * ErtlFunctionalGroupsFinder for CDK
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscience.cdk.tools;
+
+/**
+ * Profiles for the preprocessing of molecules by
+ * {@link ErtlFunctionalGroupsFinderUtility#preprocess(org.openscience.cdk.interfaces.IAtomContainer, org.openscience.cdk.aromaticity.Aromaticity, boolean, PreprocessingProfile)},
+ * determining how the atoms are configured before charges are neutralized and the aromaticity model is applied.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public enum PreprocessingProfile {
+    /**
+     * The atom types of all atoms are perceived and the atoms are configured accordingly, see
+     * ErtlFunctionalGroupsFinderUtility.perceiveAtomTypesAndConfigureAtoms(). Suitable for molecules from any source.
+     */
+    STANDARD,
+
+    /**
+     * For molecules parsed by CDK's SmilesParser (with kekulisation turned on), which already have implicit hydrogen
+     * counts and bond orders set. The atom types are not perceived; only the valencies that ErtlFunctionalGroupsFinder
+     * needs are derived from the bond orders, implicit hydrogen counts, and single electrons, see
+     * ErtlFunctionalGroupsFinderUtility.configureValencies(). Atom types are perceived only for the charged atoms
+     * that are neutralized. The detected functional groups are the same as with the STANDARD profile, but the
+     * aromaticity model must use an electron donation model that does not rely on atom types, like
+     * ElectronDonation.daylight().
+     */
+    PARSED_SMILES;
+}
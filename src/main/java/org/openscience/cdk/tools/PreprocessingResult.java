@@ -0,0 +1,274 @@
+/*
+ * Utilities for
+ * ErtlFunctionalGroupsFinder for CDK
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscience.cdk.tools;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+import java.util.Objects;
+
+/**
+ * Result of the filtering and preprocessing of one molecule by
+ * {@link ErtlFunctionalGroupsFinderUtility#preprocess(IAtomContainer, org.openscience.cdk.aromaticity.Aromaticity, boolean)}.
+ * It holds the outcome, the preprocessed molecule if the preprocessing was successful, the preprocessing steps that
+ * were applied, the validation bitmask of the given molecule (see ErtlFunctionalGroupsFinderUtility.validateMolecule()),
+ * and the exception that made a preprocessing step fail, if any. So filtered and failed molecules can be counted
+ * without parsing log entries.
+ * <br>Objects of this class are immutable but the molecule they hold is not copied.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class PreprocessingResult {
+    //<editor-fold desc="Enum Outcome">
+    /**
+     * Outcomes of the filtering and preprocessing of a molecule, in the order in which the respective steps are
+     * executed.
+     */
+    public static enum Outcome {
+        /**
+         * The molecule has no atoms.
+         */
+        FILTERED_EMPTY,
+
+        /**
+         * The molecule has no bonds, i.e. it consists of single atoms, and single atoms should be filtered.
+         */
+        FILTERED_NO_BONDS,
+
+        /**
+         * The biggest unconnected component of the molecule could not be selected.
+         */
+        FRAGMENT_SELECTION_FAILED,
+
+        /**
+         * The (biggest unconnected component of the) molecule contains atoms with atomic numbers that
+         * ErtlFunctionalGroupsFinder does not accept, or atoms with undefined atomic numbers.
+         */
+        FILTERED_INVALID_ELEMENT,
+
+        /**
+         * The perception and configuration of atom types (or of the valencies, depending on the preprocessing profile)
+         * failed.
+         */
+        ATOM_TYPING_FAILED,
+
+        /**
+         * The neutralization of charged atoms failed.
+         */
+        NEUTRALIZATION_FAILED,
+
+        /**
+         * The aromaticity detection failed, e.g. because the cycle perception was intractable.
+         */
+        AROMATICITY_FAILED,
+
+        /**
+         * All preprocessing steps were successful; the molecule can be passed on to ErtlFunctionalGroupsFinder.find().
+         * Whether the biggest unconnected component was selected and charges were neutralized is reported by
+         * isFragmentSelected() and isNeutralized().
+         */
+        PREPROCESSED;
+
+        /**
+         * Returns true if the molecule was filtered by one of the cheap checks that precede the actual preprocessing,
+         * i.e. for FILTERED_EMPTY, FILTERED_NO_BONDS, and FILTERED_INVALID_ELEMENT.
+         *
+         * @return true if this outcome represents a filtered molecule
+         */
+        public boolean isFiltered() {
+            return this == Outcome.FILTERED_EMPTY || this == Outcome.FILTERED_NO_BONDS || this == Outcome.FILTERED_INVALID_ELEMENT;
+        }
+
+        /**
+         * Returns true if a preprocessing step threw an exception, i.e. for all outcomes that end with "FAILED".
+         *
+         * @return true if this outcome represents a failed preprocessing step
+         */
+        public boolean isFailure() {
+            return !this.isFiltered() && this != Outcome.PREPROCESSED;
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * Outcome of the preprocessing
+     */
+    private final Outcome outcome;
+
+    /**
+     * The preprocessed molecule; 'null' if the outcome is not PREPROCESSED
+     */
+    private final IAtomContainer molecule;
+
+    /**
+     * Bitmask of ErtlFunctionalGroupsFinderUtility.validateMolecule() for the given molecule
+     */
+    private final int validationResult;
+
+    /**
+     * True if the biggest unconnected component of the given molecule was selected
+     */
+    private final boolean isFragmentSelected;
+
+    /**
+     * True if charged atoms of the molecule were neutralized
+     */
+    private final boolean isNeutralized;
+
+    /**
+     * True if the aromaticity was perceived with the fallback cycle finder of a BoundedCycleFinder
+     */
+    private final boolean isAromaticityFallbackUsed;
+
+    /**
+     * The exception that made a preprocessing step fail; 'null' if no step failed
+     */
+    private final Exception exception;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructor">
+    /**
+     * Constructor that sets all fields; objects of this class are created by ErtlFunctionalGroupsFinderUtility.preprocess().
+     *
+     * @param anOutcome outcome of the preprocessing
+     * @param aMolecule the preprocessed molecule, may be 'null' if the outcome is not PREPROCESSED
+     * @param aValidationResult validation bitmask of the given molecule
+     * @param anIsFragmentSelected true if the biggest unconnected component was selected
+     * @param anIsNeutralized true if charged atoms were neutralized
+     * @param anIsAromaticityFallbackUsed true if the fallback cycle finder was used for the aromaticity detection
+     * @param anException the exception that made a step fail, may be 'null'
+     * @throws NullPointerException if anOutcome is 'null' or it is PREPROCESSED and aMolecule is 'null'
+     */
+    PreprocessingResult(
+            Outcome anOutcome,
+            IAtomContainer aMolecule,
+            int aValidationResult,
+            boolean anIsFragmentSelected,
+            boolean anIsNeutralized,
+            boolean anIsAromaticityFallbackUsed,
+            Exception anException) throws NullPointerException {
+        Objects.requireNonNull(anOutcome, "Given outcome is 'null'.");
+        if (anOutcome == Outcome.PREPROCESSED) {
+            Objects.requireNonNull(aMolecule, "Given molecule is 'null'.");
+        }
+        this.outcome = anOutcome;
+        this.molecule = anOutcome == Outcome.PREPROCESSED ? aMolecule : null;
+        this.validationResult = aValidationResult;
+        this.isFragmentSelected = anIsFragmentSelected;
+        this.isNeutralized = anIsNeutralized;
+        this.isAromaticityFallbackUsed = anIsAromaticityFallbackUsed;
+        this.exception = anException;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the outcome of the preprocessing.
+     *
+     * @return outcome
+     */
+    public Outcome getOutcome() {
+        return this.outcome;
+    }
+
+    /**
+     * Returns true if all preprocessing steps were successful and the molecule can be passed on to
+     * ErtlFunctionalGroupsFinder.find().
+     *
+     * @return true if the outcome is PREPROCESSED
+     */
+    public boolean isPreprocessed() {
+        return this.outcome == Outcome.PREPROCESSED;
+    }
+
+    /**
+     * Returns the preprocessed molecule. This is the given molecule or, if it consisted of multiple unconnected
+     * components, its biggest component.
+     *
+     * @return the preprocessed molecule or 'null' if the outcome is not PREPROCESSED
+     */
+    public IAtomContainer getMolecule() {
+        return this.molecule;
+    }
+
+    /**
+     * Returns the bitmask of ErtlFunctionalGroupsFinderUtility.validateMolecule() for the given molecule, i.e. before
+     * any preprocessing step was applied.
+     *
+     * @return validation bitmask
+     */
+    public int getValidationResult() {
+        return this.validationResult;
+    }
+
+    /**
+     * Returns true if the given molecule consisted of multiple unconnected components and the biggest one was selected.
+     *
+     * @return true if the biggest unconnected component was selected
+     */
+    public boolean isFragmentSelected() {
+        return this.isFragmentSelected;
+    }
+
+    /**
+     * Returns true if charged atoms were neutralized.
+     *
+     * @return true if charges were neutralized
+     */
+    public boolean isNeutralized() {
+        return this.isNeutralized;
+    }
+
+    /**
+     * Returns true if the aromaticity of the molecule was perceived with the fallback cycle finder of a
+     * BoundedCycleFinder because the enumeration of all cycles exceeded the work budget. The molecule is marked with
+     * the property ErtlFunctionalGroupsFinderUtility.AROMATICITY_FALLBACK_PROPERTY_KEY in this case as well.
+     *
+     * @return true if the fallback cycle finder was used
+     */
+    public boolean isAromaticityFallbackUsed() {
+        return this.isAromaticityFallbackUsed;
+    }
+
+    /**
+     * Returns the exception that made a preprocessing step fail.
+     *
+     * @return the exception or 'null' if no preprocessing step failed
+     */
+    public Exception getException() {
+        return this.exception;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Overridden public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return this.outcome + " (fragment selected: " + this.isFragmentSelected + ", neutralized: " + this.isNeutralized
+                + ", aromaticity fallback used: " + this.isAromaticityFallbackUsed
+                + (Objects.isNull(this.exception) ? "" : ", " + this.exception) + ")";
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,704 @@
+/*
+ * Utilities for
+ * ErtlFunctionalGroupsFinder for CDK
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscience.cdk.tools;
+
+import org.openscience.cdk.CDKConstants;
+import org.openscience.cdk.aromaticity.Aromaticity;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.graph.invariant.Canon;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.ringsearch.RingSearch;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Cache of aromaticity assignments of ring systems for an aromaticity model. Natural products reuse a limited number
+ * of ring systems (like the ones of flavones, indoles, coumarins, or steroids), so the cycle perception and electron
+ * counting of the aromaticity model only have to be done for the first molecule containing a ring system. The cache
+ * is applied by ErtlFunctionalGroupsFinderUtility.applyAromaticityDetection(IAtomContainer, RingSystemAromaticityCache).
+ * <br>Every ring system (isolated ring or fused ring system) of a molecule is keyed on its canonical form including
+ * the element, formal charge, and implicit hydrogen count of its atoms, the orders of its bonds, and the orders and
+ * neighbour elements of the exocyclic bonds of its atoms. The cached value is the set of aromatic bonds of the ring
+ * system. If all ring systems of a molecule are cached, the aromaticity flags are set from the cache without invoking
+ * the aromaticity model; otherwise, the model is applied to the whole molecule and the assignments of the missing ring
+ * systems are cached. Assignments perceived with the fallback cycle finder of a BoundedCycleFinder are not cached.
+ * <br>NOTE: The electron donation model of the aromaticity model must depend on the atoms of a ring system and their
+ * direct neighbours only, like ElectronDonation.daylight(), and its cycle finder must not depend on the atom order,
+ * like Cycles.all(). Electron donation models based on atom types, like ElectronDonation.cdk(), are not supported
+ * because atom types can depend on atoms further away.
+ * <br>The cache holds at most the given number of ring systems and evicts the least recently used one if it is full.
+ * Hits and misses are counted per ring system. All methods are thread-safe if the aromaticity model is.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public final class RingSystemAromaticityCache {
+    //<editor-fold desc="Private static final class RingSystem">
+    /**
+     * Canonical form of a ring system of a molecule.
+     */
+    private static final class RingSystem {
+        /**
+         * Cache key; 'null' if the ring system cannot be cached
+         */
+        private final String key;
+
+        /**
+         * Bonds of the ring system in canonical order; 'null' if the ring system cannot be cached
+         */
+        private final IBond[] bondsInCanonicalOrder;
+
+        /**
+         * Constructor.
+         *
+         * @param aKey cache key, may be 'null'
+         * @param aBondsInCanonicalOrder bonds in canonical order, may be 'null'
+         */
+        private RingSystem(String aKey, IBond[] aBondsInCanonicalOrder) {
+            this.key = aKey;
+            this.bondsInCanonicalOrder = aBondsInCanonicalOrder;
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static final constants">
+    /**
+     * Default maximum number of cached ring systems
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 100000;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static final class constants">
+    /**
+     * Ring system that cannot be cached, e.g. because of undefined bond orders or implicit hydrogen counts
+     */
+    private static final RingSystem UNCACHEABLE_RING_SYSTEM = new RingSystem(null, null);
+
+    /**
+     * Maximum number of exocyclic bonds of a ring atom that can be encoded in its invariant
+     */
+    private static final int MAX_EXOCYCLIC_BOND_COUNT = 4;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private final variables">
+    /**
+     * Aromaticity model applied on cache misses
+     */
+    private final Aromaticity aromaticityModel;
+
+    /**
+     * Maximum number of cached ring systems
+     */
+    private final int maximumSize;
+
+    /**
+     * Aromatic bonds (positions in canonical bond order) of the cached ring systems in access order
+     */
+    private final LinkedHashMap<String, BitSet> aromaticBonds;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private variables">
+    /**
+     * Number of ring systems found in the cache
+     */
+    private long hitCount;
+
+    /**
+     * Number of ring systems not found in the cache
+     */
+    private long missCount;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor using the default maximum size.
+     *
+     * @param anAromaticityModel the aromaticity model to apply on cache misses, see class documentation for the
+     *                           supported models
+     * @throws NullPointerException if anAromaticityModel is 'null'
+     */
+    public RingSystemAromaticityCache(Aromaticity anAromaticityModel) throws NullPointerException {
+        this(anAromaticityModel, RingSystemAromaticityCache.DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param anAromaticityModel the aromaticity model to apply on cache misses, see class documentation for the
+     *                           supported models
+     * @param aMaximumSize maximum number of cached ring systems
+     * @throws NullPointerException if anAromaticityModel is 'null'
+     * @throws IllegalArgumentException if aMaximumSize is smaller than 1
+     */
+    public RingSystemAromaticityCache(Aromaticity anAromaticityModel, int aMaximumSize) throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(anAromaticityModel, "Given aromaticity model is 'null'.");
+        if (aMaximumSize < 1) {
+            throw new IllegalArgumentException("Given maximum size must be positive but is " + aMaximumSize + ".");
+        }
+        this.aromaticityModel = anAromaticityModel;
+        this.maximumSize = aMaximumSize;
+        this.aromaticBonds = new LinkedHashMap<String, BitSet>(Math.min(aMaximumSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BitSet> anEldestEntry) {
+                return this.size() > RingSystemAromaticityCache.this.maximumSize;
+            }
+        };
+        this.hitCount = 0L;
+        this.missCount = 0L;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * Removes all cached ring systems and resets the hit and miss counters.
+     */
+    public synchronized void clear() {
+        this.aromaticBonds.clear();
+        this.hitCount = 0L;
+        this.missCount = 0L;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public properties">
+    /**
+     * Returns the aromaticity model applied on cache misses.
+     *
+     * @return aromaticity model
+     */
+    public Aromaticity getAromaticityModel() {
+        return this.aromaticityModel;
+    }
+
+    /**
+     * Returns the number of cached ring systems.
+     *
+     * @return number of cached ring systems
+     */
+    public synchronized int size() {
+        return this.aromaticBonds.size();
+    }
+
+    /**
+     * Returns the maximum number of cached ring systems.
+     *
+     * @return maximum size
+     */
+    public int getMaximumSize() {
+        return this.maximumSize;
+    }
+
+    /**
+     * Returns the number of ring systems found in the cache.
+     *
+     * @return hit count
+     */
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * Returns the number of ring systems not found in the cache, including the ones that cannot be cached.
+     *
+     * @return miss count
+     */
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * Returns the fraction of ring systems found in the cache.
+     *
+     * @return hit rate between 0 and 1; 0 if there were no lookups
+     */
+    public synchronized double getHitRate() {
+        long tmpLookupCount = this.hitCount + this.missCount;
+        return tmpLookupCount == 0L ? 0.0 : (double) this.hitCount / tmpLookupCount;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Overridden public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return "RingSystemAromaticityCache (size: " + this.aromaticBonds.size() + ", hits: " + this.hitCount + ", misses: "
+                + this.missCount + ", hit rate: " + String.format("%.4f", this.getHitRate()) + ")";
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Package-private methods">
+    /**
+     * Applies the aromaticity model to the given molecule like Aromaticity.apply(), using the cached assignments of
+     * its ring systems if all of them are cached.
+     *
+     * @param aMolecule the molecule to apply the model to
+     * @return true if the molecule (or parts of it) is determined to be aromatic
+     * @throws NullPointerException if aMolecule is 'null'
+     * @throws CDKException if the aromaticity model throws an exception, e.g. an Intractable exception
+     */
+    boolean apply(IAtomContainer aMolecule) throws NullPointerException, CDKException {
+        Objects.requireNonNull(aMolecule, "Given molecule is 'null'.");
+        //adjacency list representation of the molecule with the bond of every adjacency
+        int tmpAtomCount = aMolecule.getAtomCount();
+        int[] tmpDegrees = new int[tmpAtomCount];
+        int[] tmpBeginIndices = new int[aMolecule.getBondCount()];
+        int[] tmpEndIndices = new int[tmpBeginIndices.length];
+        for (int i = 0; i < tmpBeginIndices.length; i++) {
+            IBond tmpBond = aMolecule.getBond(i);
+            tmpBeginIndices[i] = aMolecule.indexOf(tmpBond.getBegin());
+            tmpEndIndices[i] = aMolecule.indexOf(tmpBond.getEnd());
+            tmpDegrees[tmpBeginIndices[i]]++;
+            tmpDegrees[tmpEndIndices[i]]++;
+        }
+        int[][] tmpGraph = new int[tmpAtomCount][];
+        IBond[][] tmpGraphBonds = new IBond[tmpAtomCount][];
+        for (int i = 0; i < tmpAtomCount; i++) {
+            tmpGraph[i] = new int[tmpDegrees[i]];
+            tmpGraphBonds[i] = new IBond[tmpDegrees[i]];
+            tmpDegrees[i] = 0;
+        }
+        for (int i = 0; i < tmpBeginIndices.length; i++) {
+            int tmpBegin = tmpBeginIndices[i];
+            int tmpEnd = tmpEndIndices[i];
+            IBond tmpBond = aMolecule.getBond(i);
+            tmpGraph[tmpBegin][tmpDegrees[tmpBegin]] = tmpEnd;
+            tmpGraphBonds[tmpBegin][tmpDegrees[tmpBegin]++] = tmpBond;
+            tmpGraph[tmpEnd][tmpDegrees[tmpEnd]] = tmpBegin;
+            tmpGraphBonds[tmpEnd][tmpDegrees[tmpEnd]++] = tmpBond;
+        }
+        RingSearch tmpRingSearch = new RingSearch(aMolecule, tmpGraph);
+        //ring systems are the connected components of the ring bonds, so spiro-connected rings form one ring system
+        int[] tmpParents = new int[tmpAtomCount];
+        for (int i = 0; i < tmpAtomCount; i++) {
+            tmpParents[i] = i;
+        }
+        for (int i = 0; i < tmpAtomCount; i++) {
+            for (int tmpNeighbour : tmpGraph[i]) {
+                if (tmpNeighbour > i && tmpRingSearch.cyclic(i, tmpNeighbour)) {
+                    int tmpRoot1 = ErtlFunctionalGroupsFinderUtility.findRoot(tmpParents, i);
+                    int tmpRoot2 = ErtlFunctionalGroupsFinderUtility.findRoot(tmpParents, tmpNeighbour);
+                    if (tmpRoot1 != tmpRoot2) {
+                        tmpParents[Math.max(tmpRoot1, tmpRoot2)] = Math.min(tmpRoot1, tmpRoot2);
+                    }
+                }
+            }
+        }
+        //index of the ring system of every atom, -1 for acyclic atoms, and index of every cyclic atom in its ring system
+        int[] tmpRingSystemIndices = new int[tmpAtomCount];
+        int[] tmpLocalIndices = new int[tmpAtomCount];
+        int[] tmpRingSystemSizes = new int[tmpAtomCount];
+        int tmpRingSystemCount = 0;
+        for (int i = 0; i < tmpAtomCount; i++) {
+            if (!tmpRingSearch.cyclic(i)) {
+                tmpRingSystemIndices[i] = -1;
+                continue;
+            }
+            int tmpRoot = ErtlFunctionalGroupsFinderUtility.findRoot(tmpParents, i);
+            //roots are the atoms with the lowest index in their ring system and therefore visited first
+            tmpRingSystemIndices[i] = tmpRoot == i ? tmpRingSystemCount++ : tmpRingSystemIndices[tmpRoot];
+            tmpLocalIndices[i] = tmpRingSystemSizes[tmpRingSystemIndices[i]]++;
+        }
+        int[][] tmpRingSystemAtomIndices = new int[tmpRingSystemCount][];
+        for (int i = 0; i < tmpRingSystemCount; i++) {
+            tmpRingSystemAtomIndices[i] = new int[tmpRingSystemSizes[i]];
+        }
+        for (int i = 0; i < tmpAtomCount; i++) {
+            if (tmpRingSystemIndices[i] >= 0) {
+                tmpRingSystemAtomIndices[tmpRingSystemIndices[i]][tmpLocalIndices[i]] = i;
+            }
+        }
+        RingSystem[] tmpRingSystems = new RingSystem[tmpRingSystemCount];
+        BitSet[] tmpCachedAromaticBonds = new BitSet[tmpRingSystemCount];
+        boolean tmpAreAllRingSystemsCached = true;
+        for (int i = 0; i < tmpRingSystemCount; i++) {
+            tmpRingSystems[i] = RingSystemAromaticityCache.createRingSystem(aMolecule, tmpGraph, tmpGraphBonds, tmpRingSystemAtomIndices[i],
+                    i, tmpRingSystemIndices, tmpLocalIndices);
+            tmpCachedAromaticBonds[i] = this.get(tmpRingSystems[i].key);
+            if (Objects.isNull(tmpCachedAromaticBonds[i])) {
+                tmpAreAllRingSystemsCached = false;
+            }
+        }
+        if (!tmpAreAllRingSystemsCached) {
+            boolean tmpIsAromatic = this.aromaticityModel.apply(aMolecule);
+            if (!ErtlFunctionalGroupsFinderUtility.isAromaticityFallbackUsed(aMolecule)) {
+                for (int i = 0; i < tmpRingSystemCount; i++) {
+                    if (Objects.isNull(tmpCachedAromaticBonds[i]) && Objects.nonNull(tmpRingSystems[i].key)) {
+                        IBond[] tmpBonds = tmpRingSystems[i].bondsInCanonicalOrder;
+                        BitSet tmpAromaticBonds = new BitSet(tmpBonds.length);
+                        for (int j = 0; j < tmpBonds.length; j++) {
+                            tmpAromaticBonds.set(j, tmpBonds[j].isAromatic());
+                        }
+                        this.put(tmpRingSystems[i].key, tmpAromaticBonds);
+                    }
+                }
+            }
+            return tmpIsAromatic;
+        }
+        for (IBond tmpBond : aMolecule.bonds()) {
+            tmpBond.setIsAromatic(false);
+        }
+        for (IAtom tmpAtom : aMolecule.atoms()) {
+            tmpAtom.setIsAromatic(false);
+        }
+        boolean tmpIsAromatic = false;
+        for (int i = 0; i < tmpRingSystemCount; i++) {
+            IBond[] tmpBonds = tmpRingSystems[i].bondsInCanonicalOrder;
+            BitSet tmpAromaticBonds = tmpCachedAromaticBonds[i];
+            for (int j = tmpAromaticBonds.nextSetBit(0); j >= 0; j = tmpAromaticBonds.nextSetBit(j + 1)) {
+                tmpBonds[j].setIsAromatic(true);
+                tmpBonds[j].getBegin().setIsAromatic(true);
+                tmpBonds[j].getEnd().setIsAromatic(true);
+                tmpIsAromatic = true;
+            }
+        }
+        aMolecule.setFlag(CDKConstants.ISAROMATIC, tmpIsAromatic);
+        return tmpIsAromatic;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private methods">
+    /**
+     * Returns the cached aromatic bonds for the given key and counts the lookup as hit or miss.
+     *
+     * @param aKey the key of a ring system, may be 'null' if the ring system cannot be cached
+     * @return the cached aromatic bonds or 'null' if there are none
+     */
+    private synchronized BitSet get(String aKey) {
+        BitSet tmpAromaticBonds = Objects.isNull(aKey) ? null : this.aromaticBonds.get(aKey);
+        if (Objects.isNull(tmpAromaticBonds)) {
+            this.missCount++;
+        } else {
+            this.hitCount++;
+        }
+        return tmpAromaticBonds;
+    }
+
+    /**
+     * Caches the given aromatic bonds for the given key.
+     *
+     * @param aKey the key of a ring system
+     * @param anAromaticBonds positions of the aromatic bonds in canonical bond order
+     */
+    private synchronized void put(String aKey, BitSet anAromaticBonds) {
+        this.aromaticBonds.put(aKey, anAromaticBonds);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static methods">
+    /**
+     * Creates the canonical form of the given ring system, i.e. its key and its bonds in canonical order. The atoms
+     * are labelled canonically using their invariants (see getAtomInvariant()) and the key lists the atom invariants
+     * in canonical order followed by the bonds, sorted by the canonical labels of their atoms, with their orders.
+     *
+     * @param aMolecule the molecule
+     * @param aGraph adjacency list representation of the molecule
+     * @param aGraphBonds bonds of the adjacencies of the adjacency list
+     * @param anAtomIndices indices of the atoms of the ring system
+     * @param aRingSystemIndex index of the ring system
+     * @param aRingSystemIndices indices of the ring systems of all atoms, -1 for acyclic atoms
+     * @param aLocalIndices indices of all cyclic atoms in their ring system
+     * @return the canonical form or UNCACHEABLE_RING_SYSTEM if the ring system cannot be cached
+     */
+    private static RingSystem createRingSystem(
+            IAtomContainer aMolecule,
+            int[][] aGraph,
+            IBond[][] aGraphBonds,
+            int[] anAtomIndices,
+            int aRingSystemIndex,
+            int[] aRingSystemIndices,
+            int[] aLocalIndices) {
+        int tmpAtomCount = anAtomIndices.length;
+        IAtom[] tmpAtoms = new IAtom[tmpAtomCount];
+        long[] tmpAtomInvariants = new long[tmpAtomCount];
+        int[][] tmpLocalGraph = new int[tmpAtomCount][];
+        IBond[][] tmpLocalGraphBonds = new IBond[tmpAtomCount][];
+        int tmpBondCount = 0;
+        for (int i = 0; i < tmpAtomCount; i++) {
+            int tmpAtomIndex = anAtomIndices[i];
+            tmpAtoms[i] = aMolecule.getAtom(tmpAtomIndex);
+            tmpAtomInvariants[i] = RingSystemAromaticityCache.getAtomInvariant(aMolecule, aGraph, aGraphBonds, tmpAtomIndex,
+                    aRingSystemIndex, aRingSystemIndices);
+            if (tmpAtomInvariants[i] < 0) {
+                return RingSystemAromaticityCache.UNCACHEABLE_RING_SYSTEM;
+            }
+            int tmpRingNeighbourCount = 0;
+            for (int tmpNeighbour : aGraph[tmpAtomIndex]) {
+                if (aRingSystemIndices[tmpNeighbour] == aRingSystemIndex) {
+                    tmpRingNeighbourCount++;
+                }
+            }
+            tmpLocalGraph[i] = new int[tmpRingNeighbourCount];
+            tmpLocalGraphBonds[i] = new IBond[tmpRingNeighbourCount];
+            tmpRingNeighbourCount = 0;
+            for (int j = 0; j < aGraph[tmpAtomIndex].length; j++) {
+                int tmpNeighbour = aGraph[tmpAtomIndex][j];
+                if (aRingSystemIndices[tmpNeighbour] == aRingSystemIndex) {
+                    tmpLocalGraph[i][tmpRingNeighbourCount] = aLocalIndices[tmpNeighbour];
+                    tmpLocalGraphBonds[i][tmpRingNeighbourCount++] = aGraphBonds[tmpAtomIndex][j];
+                }
+            }
+            tmpBondCount += tmpRingNeighbourCount;
+        }
+        tmpBondCount /= 2;
+        if (tmpBondCount == tmpAtomCount) {
+            //every atom has two ring neighbours, so the ring system is a single ring
+            return RingSystemAromaticityCache.createRing(tmpAtomInvariants, tmpLocalGraph, tmpLocalGraphBonds);
+        }
+        //Canon does not consider bond orders, so every multiple bond is subdivided by a vertex representing it
+        IBond[] tmpBonds = new IBond[tmpBondCount];
+        int[] tmpBeginIndices = new int[tmpBondCount];
+        int[] tmpEndIndices = new int[tmpBondCount];
+        int[] tmpDegrees = new int[tmpAtomCount + tmpBondCount];
+        int tmpBondIndex = 0;
+        int tmpVertexCount = tmpAtomCount;
+        for (int i = 0; i < tmpAtomCount; i++) {
+            for (int j = 0; j < tmpLocalGraph[i].length; j++) {
+                int tmpNeighbour = tmpLocalGraph[i][j];
+                if (tmpNeighbour < i) {
+                    continue;
+                }
+                IBond tmpBond = tmpLocalGraphBonds[i][j];
+                if (Objects.isNull(tmpBond.getOrder()) || tmpBond.getOrder() == IBond.Order.UNSET) {
+                    return RingSystemAromaticityCache.UNCACHEABLE_RING_SYSTEM;
+                }
+                tmpBonds[tmpBondIndex] = tmpBond;
+                tmpBeginIndices[tmpBondIndex] = i;
+                tmpEndIndices[tmpBondIndex] = tmpNeighbour;
+                tmpDegrees[i]++;
+                tmpDegrees[tmpNeighbour]++;
+                if (tmpBond.getOrder() != IBond.Order.SINGLE) {
+                    tmpDegrees[tmpVertexCount++] = 2;
+                }
+                tmpBondIndex++;
+            }
+        }
+        int[][] tmpSubdividedGraph = new int[tmpVertexCount][];
+        long[] tmpVertexInvariants = Arrays.copyOf(tmpAtomInvariants, tmpVertexCount);
+        for (int i = 0; i < tmpVertexCount; i++) {
+            tmpSubdividedGraph[i] = new int[tmpDegrees[i]];
+            tmpDegrees[i] = 0;
+        }
+        tmpVertexCount = tmpAtomCount;
+        for (int i = 0; i < tmpBondCount; i++) {
+            int tmpBegin = tmpBeginIndices[i];
+            int tmpEnd = tmpEndIndices[i];
+            if (tmpBonds[i].getOrder() == IBond.Order.SINGLE) {
+                tmpSubdividedGraph[tmpBegin][tmpDegrees[tmpBegin]++] = tmpEnd;
+                tmpSubdividedGraph[tmpEnd][tmpDegrees[tmpEnd]++] = tmpBegin;
+            } else {
+                int tmpBondVertex = tmpVertexCount++;
+                //atom invariants use the lower 50 bits only
+                tmpVertexInvariants[tmpBondVertex] = (1L << 60) | tmpBonds[i].getOrder().ordinal();
+                tmpSubdividedGraph[tmpBegin][tmpDegrees[tmpBegin]++] = tmpBondVertex;
+                tmpSubdividedGraph[tmpEnd][tmpDegrees[tmpEnd]++] = tmpBondVertex;
+                tmpSubdividedGraph[tmpBondVertex][0] = tmpBegin;
+                tmpSubdividedGraph[tmpBondVertex][1] = tmpEnd;
+            }
+        }
+        //Canon reads the atoms only to find terminal hydrogen atoms, so ring atoms, which are never hydrogen atoms, are
+        //  used as placeholders for the bond vertices
+        IAtom[] tmpVertexAtoms = new IAtom[tmpVertexCount];
+        for (int i = 0; i < tmpVertexCount; i++) {
+            tmpVertexAtoms[i] = tmpAtoms[i % tmpAtomCount];
+        }
+        IAtomContainer tmpRingSystemContainer = aMolecule.getBuilder().newAtomContainer();
+        tmpRingSystemContainer.setAtoms(tmpVertexAtoms);
+        long[] tmpVertexLabels = Canon.label(tmpRingSystemContainer, tmpSubdividedGraph, tmpVertexInvariants);
+        //ranks of the atom labels, starting at 0
+        long[] tmpSortedAtomLabels = Arrays.copyOf(tmpVertexLabels, tmpAtomCount);
+        Arrays.sort(tmpSortedAtomLabels);
+        long[] tmpLabels = new long[tmpAtomCount];
+        long[] tmpInvariantsInCanonicalOrder = new long[tmpAtomCount];
+        for (int i = 0; i < tmpAtomCount; i++) {
+            tmpLabels[i] = Arrays.binarySearch(tmpSortedAtomLabels, tmpVertexLabels[i]);
+            tmpInvariantsInCanonicalOrder[(int) tmpLabels[i]] = tmpAtomInvariants[i];
+        }
+        long[] tmpBondKeys = new long[tmpBondCount];
+        for (int i = 0; i < tmpBondCount; i++) {
+            long tmpBeginLabel = Math.min(tmpLabels[tmpBeginIndices[i]], tmpLabels[tmpEndIndices[i]]);
+            long tmpEndLabel = Math.max(tmpLabels[tmpBeginIndices[i]], tmpLabels[tmpEndIndices[i]]);
+            //bond order in the middle bits and bond index in the lowest bits to restore the bond after sorting
+            tmpBondKeys[i] = (tmpBeginLabel << 42) | (tmpEndLabel << 24) | ((long) tmpBonds[i].getOrder().ordinal() << 20) | i;
+        }
+        Arrays.sort(tmpBondKeys);
+        IBond[] tmpBondsInCanonicalOrder = new IBond[tmpBondCount];
+        //the key starts with the atom count, which is never 0, followed by the atom invariants and the bonds
+        char[] tmpKey = new char[1 + 4 * (tmpAtomCount + tmpBondCount)];
+        tmpKey[0] = (char) tmpAtomCount;
+        for (int i = 0; i < tmpAtomCount; i++) {
+            RingSystemAromaticityCache.writeLong(tmpKey, 1 + 4 * i, tmpInvariantsInCanonicalOrder[i]);
+        }
+        for (int i = 0; i < tmpBondCount; i++) {
+            tmpBondsInCanonicalOrder[i] = tmpBonds[(int) (tmpBondKeys[i] & 0xFFFFF)];
+            RingSystemAromaticityCache.writeLong(tmpKey, 1 + 4 * (tmpAtomCount + i), tmpBondKeys[i] >>> 20);
+        }
+        return new RingSystem(new String(tmpKey), tmpBondsInCanonicalOrder);
+    }
+
+    /**
+     * Creates the canonical form of the given isolated ring without a canonical labelling of its atoms: the atoms are
+     * walked around the ring, starting at the atom and in the direction that give the lexicographically smallest
+     * sequence of atom invariants and bond orders. The key lists this sequence.
+     *
+     * @param anAtomInvariants invariants of the atoms of the ring
+     * @param aLocalGraph adjacency list representation of the ring
+     * @param aLocalGraphBonds bonds of the adjacencies of the adjacency list
+     * @return the canonical form or UNCACHEABLE_RING_SYSTEM if the ring cannot be cached
+     */
+    private static RingSystem createRing(long[] anAtomInvariants, int[][] aLocalGraph, IBond[][] aLocalGraphBonds) {
+        int tmpAtomCount = anAtomInvariants.length;
+        //atoms in ring order and the bond from every atom to its successor
+        int[] tmpPath = new int[tmpAtomCount];
+        IBond[] tmpPathBonds = new IBond[tmpAtomCount];
+        int[] tmpBondOrders = new int[tmpAtomCount];
+        int tmpPrevious = aLocalGraph[0][1];
+        int tmpCurrent = 0;
+        for (int i = 0; i < tmpAtomCount; i++) {
+            int tmpNextPosition = aLocalGraph[tmpCurrent][0] == tmpPrevious ? 1 : 0;
+            int tmpNext = aLocalGraph[tmpCurrent][tmpNextPosition];
+            IBond tmpBond = aLocalGraphBonds[tmpCurrent][tmpNextPosition];
+            if (Objects.isNull(tmpBond.getOrder()) || tmpBond.getOrder() == IBond.Order.UNSET) {
+                return RingSystemAromaticityCache.UNCACHEABLE_RING_SYSTEM;
+            }
+            tmpPath[i] = tmpCurrent;
+            tmpPathBonds[i] = tmpBond;
+            tmpBondOrders[i] = tmpBond.getOrder().ordinal();
+            tmpPrevious = tmpCurrent;
+            tmpCurrent = tmpNext;
+        }
+        int tmpBestStart = 0;
+        int tmpBestDirection = 1;
+        for (int tmpStart = 0; tmpStart < tmpAtomCount; tmpStart++) {
+            for (int tmpDirection = -1; tmpDirection <= 1; tmpDirection += 2) {
+                for (int k = 0; k < tmpAtomCount; k++) {
+                    int tmpPosition = Math.floorMod(tmpStart + tmpDirection * k, tmpAtomCount);
+                    int tmpBestPosition = Math.floorMod(tmpBestStart + tmpBestDirection * k, tmpAtomCount);
+                    int tmpComparison = Long.compare(anAtomInvariants[tmpPath[tmpPosition]], anAtomInvariants[tmpPath[tmpBestPosition]]);
+                    if (tmpComparison == 0) {
+                        //walking backwards, the bond to the successor is the one of the previous position
+                        tmpComparison = Integer.compare(
+                                tmpBondOrders[tmpDirection == 1 ? tmpPosition : Math.floorMod(tmpPosition - 1, tmpAtomCount)],
+                                tmpBondOrders[tmpBestDirection == 1 ? tmpBestPosition : Math.floorMod(tmpBestPosition - 1, tmpAtomCount)]);
+                    }
+                    if (tmpComparison < 0) {
+                        tmpBestStart = tmpStart;
+                        tmpBestDirection = tmpDirection;
+                    }
+                    if (tmpComparison != 0) {
+                        break;
+                    }
+                }
+            }
+        }
+        IBond[] tmpBondsInCanonicalOrder = new IBond[tmpAtomCount];
+        //the key starts with 0 to tell it apart from the keys of fused ring systems
+        char[] tmpKey = new char[1 + 5 * tmpAtomCount];
+        for (int k = 0; k < tmpAtomCount; k++) {
+            int tmpPosition = Math.floorMod(tmpBestStart + tmpBestDirection * k, tmpAtomCount);
+            int tmpBondPosition = tmpBestDirection == 1 ? tmpPosition : Math.floorMod(tmpPosition - 1, tmpAtomCount);
+            tmpBondsInCanonicalOrder[k] = tmpPathBonds[tmpBondPosition];
+            RingSystemAromaticityCache.writeLong(tmpKey, 1 + 5 * k, anAtomInvariants[tmpPath[tmpPosition]]);
+            tmpKey[5 + 5 * k] = (char) tmpBondOrders[tmpBondPosition];
+        }
+        return new RingSystem(new String(tmpKey), tmpBondsInCanonicalOrder);
+    }
+
+    /**
+     * Returns the invariant of the given ring atom that encodes everything the supported electron donation models
+     * consider, i.e. its atomic number, formal charge, implicit hydrogen count, and the orders and neighbour atomic
+     * numbers of its exocyclic bonds.
+     *
+     * @param aMolecule the molecule
+     * @param aGraph adjacency list representation of the molecule
+     * @param aGraphBonds bonds of the adjacencies of the adjacency list
+     * @param anAtomIndex index of the atom
+     * @param aRingSystemIndex index of the ring system of the atom
+     * @param aRingSystemIndices indices of the ring systems of all atoms, -1 for acyclic atoms
+     * @return the atom invariant or -1 if the atom cannot be encoded, e.g. because its implicit hydrogen count is
+     * undefined
+     */
+    private static long getAtomInvariant(
+            IAtomContainer aMolecule,
+            int[][] aGraph,
+            IBond[][] aGraphBonds,
+            int anAtomIndex,
+            int aRingSystemIndex,
+            int[] aRingSystemIndices) {
+        IAtom tmpAtom = aMolecule.getAtom(anAtomIndex);
+        Integer tmpAtomicNumber = tmpAtom.getAtomicNumber();
+        Integer tmpFormalCharge = tmpAtom.getFormalCharge();
+        Integer tmpImplicitHydrogenCount = tmpAtom.getImplicitHydrogenCount();
+        if (Objects.isNull(tmpAtomicNumber) || tmpAtomicNumber < 0 || tmpAtomicNumber > 127
+                || Objects.isNull(tmpImplicitHydrogenCount) || tmpImplicitHydrogenCount > 7
+                || (Objects.nonNull(tmpFormalCharge) && Math.abs(tmpFormalCharge) > 7)) {
+            return -1L;
+        }
+        long[] tmpExocyclicBonds = new long[RingSystemAromaticityCache.MAX_EXOCYCLIC_BOND_COUNT];
+        int tmpExocyclicBondCount = 0;
+        for (int i = 0; i < aGraph[anAtomIndex].length; i++) {
+            int tmpNeighbour = aGraph[anAtomIndex][i];
+            if (aRingSystemIndices[tmpNeighbour] == aRingSystemIndex) {
+                continue;
+            }
+            if (tmpExocyclicBondCount == RingSystemAromaticityCache.MAX_EXOCYCLIC_BOND_COUNT) {
+                return -1L;
+            }
+            IBond.Order tmpOrder = aGraphBonds[anAtomIndex][i].getOrder();
+            Integer tmpNeighbourAtomicNumber = aMolecule.getAtom(tmpNeighbour).getAtomicNumber();
+            if (Objects.isNull(tmpOrder) || tmpOrder == IBond.Order.UNSET || tmpOrder.numeric() > 3
+                    || Objects.isNull(tmpNeighbourAtomicNumber) || tmpNeighbourAtomicNumber < 0 || tmpNeighbourAtomicNumber > 127) {
+                return -1L;
+            }
+            tmpExocyclicBonds[tmpExocyclicBondCount++] = ((long) tmpOrder.numeric() << 7) | tmpNeighbourAtomicNumber;
+        }
+        //empty slots are 0 and sorted to the front
+        Arrays.sort(tmpExocyclicBonds);
+        long tmpInvariant = tmpAtomicNumber;
+        tmpInvariant = (tmpInvariant << 4) | ((Objects.isNull(tmpFormalCharge) ? 0 : tmpFormalCharge) + 8);
+        tmpInvariant = (tmpInvariant << 3) | tmpImplicitHydrogenCount;
+        for (long tmpExocyclicBond : tmpExocyclicBonds) {
+            tmpInvariant = (tmpInvariant << 9) | tmpExocyclicBond;
+        }
+        return tmpInvariant;
+    }
+
+    /**
+     * Writes the given value into four characters of the given array, starting with the highest 16 bits.
+     *
+     * @param aKey the character array
+     * @param aPosition position of the first character
+     * @param aValue the value to write
+     */
+    private static void writeLong(char[] aKey, int aPosition, long aValue) {
+        for (int i = 0; i < 4; i++) {
+            aKey[aPosition + i] = (char) (aValue >>> (48 - 16 * i));
+        }
+    }
+    //</editor-fold>
+}
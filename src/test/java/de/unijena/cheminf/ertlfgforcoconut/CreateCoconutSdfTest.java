@@ -107,6 +107,11 @@ public class CreateCoconutSdfTest {
      */
     private static final String SMILES_CODE_KEY = "smiles";
 
+    /**
+     * Number of documents per batch of the MongoDB cursor
+     */
+    private static final int BATCH_SIZE = MongoCollectionReader.DEFAULT_BATCH_SIZE;
+
     /**
      * Logger of this class
      */
@@ -123,9 +128,14 @@ public class CreateCoconutSdfTest {
         MongoClient tmpMongoClient = MongoClients.create(tmpSettings);
         MongoDatabase tmpDatabase = tmpMongoClient.getDatabase(CreateCoconutSdfTest.DATABASE_NAME);
         MongoCollection<Document> tmpCollection = tmpDatabase.getCollection(CreateCoconutSdfTest.COLLECTION_NAME);
+        //all fields are transferred because they are written as properties, documents without SMILES code are skipped
+        //by the server, and the cursor may be idle during long scans
+        MongoCollectionReader tmpReader = new MongoCollectionReader(null,
+                MongoCollectionReader.createSmilesCodeFilter(CreateCoconutSdfTest.SMILES_CODE_KEY),
+                CreateCoconutSdfTest.BATCH_SIZE, true);
         MongoCursor<Document> tmpCursor = null;
         try {
-            tmpCursor = tmpCollection.find().iterator();
+            tmpCursor = tmpReader.open(tmpCollection);
         } catch (MongoTimeoutException aMongoTimeoutException) {
             CreateCoconutSdfTest.LOGGER.log(Level.SEVERE, aMongoTimeoutException.toString(), aMongoTimeoutException);
             System.out.println("Timed out while trying to connect to MongoDB. Test is ignored.");
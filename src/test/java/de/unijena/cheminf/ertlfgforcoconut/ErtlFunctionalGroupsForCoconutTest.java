@@ -33,31 +33,25 @@ import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
 import org.bson.Document;
 import org.junit.Assume;
 import org.junit.Test;
-import org.openscience.cdk.DefaultChemObjectBuilder;
-import org.openscience.cdk.aromaticity.Aromaticity;
-import org.openscience.cdk.aromaticity.ElectronDonation;
-import org.openscience.cdk.graph.Cycles;
-import org.openscience.cdk.hash.MoleculeHashGenerator;
-import org.openscience.cdk.interfaces.IAtomContainer;
-import org.openscience.cdk.smiles.SmiFlavor;
-import org.openscience.cdk.smiles.SmilesGenerator;
-import org.openscience.cdk.smiles.SmilesParser;
-import org.openscience.cdk.tools.ErtlFunctionalGroupsFinder;
-import org.openscience.cdk.tools.ErtlFunctionalGroupsFinderUtility;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Objects;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -66,7 +60,8 @@ import java.util.logging.SimpleFormatter;
 /**
  * This test class can be used to load a MongoDB database (or rather one collection in it) containing molecules
  * (represented as SMILES code strings), extracting all Ertl functional groups from these molecules, and compiling the
- * information which functional groups occurred in each molecule in a text (csv) file.
+ * information which functional groups occurred in each molecule in a text (csv) file and in a results collection of
+ * the database.
  *
  * @author Jonas Schaub
  * @version 1.0.0.0
@@ -103,6 +98,26 @@ public class ErtlFunctionalGroupsForCoconutTest {
      */
     private static final String OUTPUT_File_NAME = "Functional_groups.txt";
 
+    /**
+     * Name of the checkpoint file of the run
+     */
+    private static final String CHECKPOINT_FILE_NAME = "Checkpoint.json";
+
+    /**
+     * Name of the file of the persistent profile cache, kept between runs on different releases of the database
+     */
+    private static final String PROFILE_CACHE_FILE_NAME = "Profile_cache.bin";
+
+    /**
+     * Name of the results file merged from the results files of all shards
+     */
+    private static final String MERGED_OUTPUT_FILE_NAME = "Functional_groups_merged.txt";
+
+    /**
+     * Name of the frequency table of the functional groups in the merged results file
+     */
+    private static final String FREQUENCY_FILE_NAME = "Functional_group_frequencies.txt";
+
     /**
      * Name of the log file for exceptions
      */
@@ -118,11 +133,74 @@ public class ErtlFunctionalGroupsForCoconutTest {
      */
     private static final String SMILES_CODE_KEY = "smiles"; //clean_smiles or smiles
 
+    /**
+     * Number of documents per batch of the MongoDB cursor
+     */
+    private static final int BATCH_SIZE = MongoCollectionReader.DEFAULT_BATCH_SIZE;
+
     /**
      * Separator for the results file (csv)
      */
     private static final String OUTPUT_FILE_SEPARATOR = ",";
 
+    /**
+     * Number of threads detecting functional groups
+     */
+    private static final int WORKER_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Capacity of the queues between reading, detection, and writing
+     */
+    private static final int QUEUE_SIZE = FunctionalGroupExtractionPipeline.DEFAULT_QUEUE_SIZE;
+
+    /**
+     * Number of _id ranges the collection is split into
+     */
+    private static final int PARTITION_COUNT = 16;
+
+    /**
+     * Number of concurrent MongoDB cursors
+     */
+    private static final int READER_COUNT = 4;
+
+    /**
+     * Maximum number of read attempts of a partition
+     */
+    private static final int MAX_ATTEMPTS = FunctionalGroupExtractionPipeline.DEFAULT_MAX_ATTEMPTS;
+
+    /**
+     * Collection the functional groups of the molecules are written to, one document per molecule
+     */
+    private static final String RESULTS_COLLECTION_NAME = "functionalGroups";
+
+    /**
+     * Number of write operations per bulk write to the results collection
+     */
+    private static final int WRITE_BACK_BATCH_SIZE = MongoBulkResultSink.DEFAULT_BATCH_SIZE;
+
+    /**
+     * Number of records between two checkpoints, a multiple of the write-back batch size
+     */
+    private static final int CHECKPOINT_INTERVAL = CheckpointingResultSink.DEFAULT_CHECKPOINT_INTERVAL;
+
+    /**
+     * True if an interrupted run is resumed from its checkpoint instead of starting a new run; set with the system
+     * property "ertlfg.resume"
+     */
+    private static final boolean IS_RESUMING = Boolean.getBoolean("ertlfg.resume");
+
+    /**
+     * Number of shards the molecules are split into, each processed by its own JVM, e.g. on another machine; set with
+     * the system property "ertlfg.shardCount"
+     */
+    private static final int SHARD_COUNT = Integer.getInteger("ertlfg.shardCount", 1);
+
+    /**
+     * Index of the shard processed by this JVM, from 0 to the shard count - 1; set with the system property
+     * "ertlfg.shardIndex"
+     */
+    private static final int SHARD_INDEX = Integer.getInteger("ertlfg.shardIndex", 0);
+
     /**
      * Logger of this class
      */
@@ -133,7 +211,15 @@ public class ErtlFunctionalGroupsForCoconutTest {
     /**
      * This test method loads a MongoDB database (or rather one collection in it) containing molecules
      * (represented as SMILES code strings), extracts all Ertl functional groups from these molecules, and compiles the
-     * information which functional groups occurred in each molecule in a text (csv) file.
+     * information which functional groups occurred in each molecule in a text (csv) file. The functional groups of
+     * every molecule are also written to a results collection in the database, indexed for queries by functional
+     * group. A checkpoint is saved periodically, so an interrupted run can be resumed by setting the system property
+     * "ertlfg.resume" to true; results written after the last checkpoint are discarded and repeated then.
+     * The profiles are kept in a persistent cache keyed on the SMILES codes, so a run on a new release of the
+     * database only processes new or changed structures.
+     * <br>The molecules can be split into shards by a stable hash of their ID, set with the system properties
+     * "ertlfg.shardCount" and "ertlfg.shardIndex", so several JVMs or machines can each process one shard; every shard
+     * writes its own results, checkpoint, cache, and log files, which are combined by mergeShardResults().
      * <br>If no connection to MongoDB can be made, the test is ignored.
      *
      * @throws Exception if anything unexpected happens; all exceptions caused by the respective molecules are caught and logged
@@ -147,9 +233,17 @@ public class ErtlFunctionalGroupsForCoconutTest {
         MongoClient tmpMongoClient = MongoClients.create(tmpSettings);
         MongoDatabase tmpDatabase = tmpMongoClient.getDatabase(ErtlFunctionalGroupsForCoconutTest.DATABASE_NAME);
         MongoCollection<Document> tmpCollection = tmpDatabase.getCollection(ErtlFunctionalGroupsForCoconutTest.COLLECTION_NAME);
-        MongoCursor<Document> tmpCursor = null;
+        //only ID and SMILES code of documents with a SMILES code are transferred, the cursor may be idle during long scans
+        MongoCollectionReader tmpReader = new MongoCollectionReader(
+                Arrays.asList(ErtlFunctionalGroupsForCoconutTest.ID_KEY, ErtlFunctionalGroupsForCoconutTest.SMILES_CODE_KEY),
+                MongoCollectionReader.createSmilesCodeFilter(ErtlFunctionalGroupsForCoconutTest.SMILES_CODE_KEY),
+                ErtlFunctionalGroupsForCoconutTest.BATCH_SIZE, true);
+        //the collection is split into _id ranges that are read by concurrent cursors, only the molecules of this shard are processed
+        ExtractionShard tmpShard = new ExtractionShard(ErtlFunctionalGroupsForCoconutTest.SHARD_INDEX,
+                ErtlFunctionalGroupsForCoconutTest.SHARD_COUNT, ErtlFunctionalGroupsForCoconutTest.ID_KEY);
+        ShardedDocumentSource tmpSource = new ShardedDocumentSource(new MongoPartitionedDocumentSource(tmpCollection, tmpReader), tmpShard);
         try {
-            tmpCursor = tmpCollection.find().iterator();
+            tmpDatabase.runCommand(new Document("ping", 1));
         } catch (MongoTimeoutException aMongoTimeoutException) {
             ErtlFunctionalGroupsForCoconutTest.LOGGER.log(Level.SEVERE, aMongoTimeoutException.toString(), aMongoTimeoutException);
             System.out.println("Timed out while trying to connect to MongoDB. Test is ignored.");
@@ -159,29 +253,49 @@ public class ErtlFunctionalGroupsForCoconutTest {
         System.out.println("Collection " + ErtlFunctionalGroupsForCoconutTest.COLLECTION_NAME + " in database " + ErtlFunctionalGroupsForCoconutTest.DATABASE_NAME + " is loaded.");
         ClassLoader tmpClassLoader = this.getClass().getClassLoader();
         String tmpOutputFolderPath = (new File(tmpClassLoader.getResource(ErtlFunctionalGroupsForCoconutTest.OUTPUT_FOLDER_NAME).getFile())).getAbsolutePath() + File.separator;
+        Path tmpCheckpointFile = new File(tmpOutputFolderPath + tmpShard.createFileName(ErtlFunctionalGroupsForCoconutTest.CHECKPOINT_FILE_NAME)).toPath();
+        ExtractionCheckpoint tmpCheckpoint;
+        if (ErtlFunctionalGroupsForCoconutTest.IS_RESUMING && Files.exists(tmpCheckpointFile)) {
+            //the partitions are sampled randomly, so the ones of the interrupted run are reused
+            tmpCheckpoint = ExtractionCheckpoint.load(tmpCheckpointFile);
+        } else {
+            tmpCheckpoint = new ExtractionCheckpoint(tmpSource.createPartitions(ErtlFunctionalGroupsForCoconutTest.PARTITION_COUNT),
+                    0, null, 0L, 0L);
+        }
         System.out.println("Output directory: " + tmpOutputFolderPath);
-        File tmpOutputFile = new File(tmpOutputFolderPath + ErtlFunctionalGroupsForCoconutTest.OUTPUT_File_NAME);
-        FileWriter tmpResultsWriter = null;
+        System.out.println("Shard: " + tmpShard);
+        File tmpOutputFile = new File(tmpOutputFolderPath + tmpShard.createFileName(ErtlFunctionalGroupsForCoconutTest.OUTPUT_File_NAME));
+        FileChannel tmpResultsChannel = null;
         try {
-            tmpResultsWriter = new FileWriter(tmpOutputFile);
+            if (tmpCheckpoint.getOutputOffset() > 0L) {
+                //results written after the checkpoint are discarded, the file is continued from the checkpoint
+                tmpResultsChannel = tmpCheckpoint.reopenOutput(tmpOutputFile.toPath());
+                System.out.println("Resuming from " + tmpCheckpoint);
+            } else {
+                tmpResultsChannel = FileChannel.open(tmpOutputFile.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
         } catch (IOException anIOException) {
             ErtlFunctionalGroupsForCoconutTest.LOGGER.log(Level.SEVERE, anIOException.toString(), anIOException);
-            System.out.println("An exception occurred while creating the results file. Test is abandoned.");
+            System.out.println("An exception occurred while opening the results file. Test is abandoned.");
             Assume.assumeTrue(false);
         }
-        PrintWriter tmpResultsPrinter = new PrintWriter(tmpResultsWriter);
-        tmpResultsPrinter.println(ErtlFunctionalGroupsForCoconutTest.ID_KEY + ErtlFunctionalGroupsForCoconutTest.OUTPUT_FILE_SEPARATOR
-                + "FgSMILES" + ErtlFunctionalGroupsForCoconutTest.OUTPUT_FILE_SEPARATOR + "FgPseudoSMILES"
-                + ErtlFunctionalGroupsForCoconutTest.OUTPUT_FILE_SEPARATOR + "Frequency");
-        tmpResultsPrinter.flush();
-        SmilesParser tmpSmiPar = new SmilesParser(DefaultChemObjectBuilder.getInstance());
-        SmilesGenerator tmpSmiGen = new SmilesGenerator(SmiFlavor.Unique | SmiFlavor.UseAromaticSymbols);
-        Aromaticity tmpAromaticityModel = new Aromaticity(ElectronDonation.daylight(), Cycles.or(Cycles.all(), Cycles.cdkAromaticSet()));
-        ErtlFunctionalGroupsFinder tmpErtlFinder = ErtlFunctionalGroupsFinderUtility.getErtlFunctionalGroupsFinderGeneralizingMode();
-        MoleculeHashGenerator tmpHashGenerator = ErtlFunctionalGroupsFinderUtility.getFunctionalGroupHashGenerator();
+        PrintWriter tmpResultsPrinter = new PrintWriter(new BufferedWriter(Channels.newWriter(tmpResultsChannel, StandardCharsets.UTF_8)));
+        //molecules whose SMILES code was processed in a former run, e.g. on an older release, are not parsed again
+        PersistentProfileCache tmpPersistentCache = PersistentProfileCache.open(
+                new File(tmpOutputFolderPath + tmpShard.createFileName(ErtlFunctionalGroupsForCoconutTest.PROFILE_CACHE_FILE_NAME)).toPath(),
+                FunctionalGroupExtractor.SETTINGS);
+        FunctionalGroupExtractor tmpExtractor = new FunctionalGroupExtractor(ErtlFunctionalGroupsForCoconutTest.OUTPUT_FILE_SEPARATOR,
+                tmpPersistentCache);
+        if (tmpResultsChannel.position() == 0L) {
+            tmpResultsPrinter.println(tmpExtractor.createHeaderLine(ErtlFunctionalGroupsForCoconutTest.ID_KEY));
+            tmpResultsPrinter.flush();
+            tmpCheckpoint = new ExtractionCheckpoint(tmpCheckpoint.getPartitions(), 0, null, tmpResultsChannel.position(), 0L);
+        }
+        ScanProgress tmpProgress = tmpCheckpoint.createProgress();
         FileHandler tmpLogFileHandler = null;
         try {
-            tmpLogFileHandler = new FileHandler(tmpOutputFolderPath + ErtlFunctionalGroupsForCoconutTest.LOG_FILE_NAME);
+            tmpLogFileHandler = new FileHandler(tmpOutputFolderPath + tmpShard.createFileName(ErtlFunctionalGroupsForCoconutTest.LOG_FILE_NAME));
         } catch (IOException anIOException) {
             ErtlFunctionalGroupsForCoconutTest.LOGGER.log(Level.SEVERE, anIOException.toString(), anIOException);
             System.out.println("An exception occurred while setting up the log file. Logging will be done in default configuration.");
@@ -190,88 +304,72 @@ public class ErtlFunctionalGroupsForCoconutTest {
         tmpLogFileHandler.setFormatter(new SimpleFormatter());
         Logger.getLogger("").addHandler(tmpLogFileHandler);
         Logger.getLogger("").setLevel(Level.ALL);
-        Document tmpCurrentDoc = null;
-        String tmpID = "";
-        String tmpSmilesCode = "";
-        IAtomContainer tmpMolecule = null;
-        List<IAtomContainer> tmpFunctionalGroupsGeneralized;
-        int tmpMoleculeCounter = 0;
-        int tmpExceptionsCounter = 0;
-        int tmpFilteredCounter = 0;
-        int tmpNoneDetectedCounter = 0;
-        while (tmpCursor.hasNext()) {
-            try {
-                tmpCurrentDoc = tmpCursor.next();
-                tmpMoleculeCounter++;
-                tmpID = tmpCurrentDoc.getString(ErtlFunctionalGroupsForCoconutTest.ID_KEY);
-                tmpSmilesCode = tmpCurrentDoc.getString(ErtlFunctionalGroupsForCoconutTest.SMILES_CODE_KEY);
-                tmpMolecule = tmpSmiPar.parseSmiles(tmpSmilesCode);
-                if (Objects.isNull(tmpMolecule)) {
-                    tmpFilteredCounter++;
-                    continue;
-                }
-                tmpMolecule.setTitle(tmpID);
-                tmpMolecule = ErtlFunctionalGroupsFinderUtility.applyFiltersAndPreprocessing(tmpMolecule, tmpAromaticityModel);
-                if (Objects.isNull(tmpMolecule)) {
-                    tmpResultsPrinter.println(tmpID + ErtlFunctionalGroupsForCoconutTest.OUTPUT_FILE_SEPARATOR + "[got filtered]");
-                    tmpResultsPrinter.flush();
-                    tmpFilteredCounter++;
-                    continue;
-                }
-                tmpFunctionalGroupsGeneralized = tmpErtlFinder.find(tmpMolecule, false);
-                if (tmpFunctionalGroupsGeneralized.isEmpty()) {
-                    tmpResultsPrinter.println(tmpID + ErtlFunctionalGroupsForCoconutTest.OUTPUT_FILE_SEPARATOR + "[none detected]");
-                    tmpResultsPrinter.flush();
-                    tmpNoneDetectedCounter++;
-                    continue;
-                }
-                HashMap<Long, IAtomContainer> tmpResultsMap = new HashMap<>(tmpFunctionalGroupsGeneralized.size(), 1);
-                for (IAtomContainer tmpFunctionalGroup : tmpFunctionalGroupsGeneralized) {
-                    Long tmpHashCode = tmpHashGenerator.generate(tmpFunctionalGroup);
-                    if (tmpResultsMap.keySet().contains(tmpHashCode)) {
-                        int tmpFrequency = tmpResultsMap.get(tmpHashCode).getProperty("FREQUENCY");
-                        tmpResultsMap.get(tmpHashCode).setProperty("FREQUENCY", tmpFrequency + 1);
-                    } else {
-                        tmpFunctionalGroup.setProperty("FREQUENCY", 1);
-                        tmpResultsMap.put(tmpHashCode, tmpFunctionalGroup);
-                    }
-                }
-                String tmpResultsLine = tmpID;
-                for (Long tmpHashCode : tmpResultsMap.keySet()) {
-                    IAtomContainer tmpFunctionalGroup = tmpResultsMap.get(tmpHashCode);
-                    String tmpFGSmilesCode = tmpSmiGen.create(tmpFunctionalGroup);
-                    String tmpFGPseudoSmilesCode = ErtlFunctionalGroupsFinderUtility.createPseudoSmilesCode(tmpFunctionalGroup);
-                    int tmpFrequency = tmpFunctionalGroup.getProperty("FREQUENCY");
-                    tmpResultsLine = tmpResultsLine + ErtlFunctionalGroupsForCoconutTest.OUTPUT_FILE_SEPARATOR
-                            + tmpFGSmilesCode + ErtlFunctionalGroupsForCoconutTest.OUTPUT_FILE_SEPARATOR
-                            + tmpFGPseudoSmilesCode + ErtlFunctionalGroupsForCoconutTest.OUTPUT_FILE_SEPARATOR + tmpFrequency;
-                }
-                tmpResultsPrinter.println(tmpResultsLine);
-                tmpResultsPrinter.flush();
-                tmpCurrentDoc = null;
-                tmpID = "";
-                tmpSmilesCode = "";
-                tmpMolecule = null;
-            } catch (Exception anException) {
-                ErtlFunctionalGroupsForCoconutTest.LOGGER.log(Level.SEVERE, anException.toString() + " ID: " + tmpID, anException);
-                tmpExceptionsCounter++;
-                tmpResultsPrinter.println(tmpID + ErtlFunctionalGroupsForCoconutTest.OUTPUT_FILE_SEPARATOR + "[exception occurred]");
-                tmpResultsPrinter.flush();
-                continue;
-            }
-        }
+        //reading from MongoDB, functional group detection and writing overlap, the output order is the input order
+        FunctionalGroupExtractionPipeline tmpPipeline = new FunctionalGroupExtractionPipeline(tmpExtractor,
+                ErtlFunctionalGroupsForCoconutTest.ID_KEY, ErtlFunctionalGroupsForCoconutTest.SMILES_CODE_KEY,
+                ErtlFunctionalGroupsForCoconutTest.WORKER_COUNT, ErtlFunctionalGroupsForCoconutTest.QUEUE_SIZE,
+                ErtlFunctionalGroupsForCoconutTest.QUEUE_SIZE);
+        //the functional groups are written to the results file and, in unordered bulk writes, to the results collection
+        MongoBulkResultSink tmpWriteBackSink = MongoBulkResultSink.createSideCollectionSink(
+                tmpDatabase.getCollection(ErtlFunctionalGroupsForCoconutTest.RESULTS_COLLECTION_NAME),
+                ErtlFunctionalGroupsForCoconutTest.ID_KEY, MongoBulkResultSink.DEFAULT_FIELD_NAME,
+                MongoBulkResultSink.Representation.HASH_KEYS, tmpExtractor.getCanonicalFormsMap(),
+                ErtlFunctionalGroupsForCoconutTest.WRITE_BACK_BATCH_SIZE);
+        tmpWriteBackSink.createIndexes();
+        //the write-back is idempotent, so the records repeated after resuming are simply written again; the persistent
+        //profile cache is flushed at every checkpoint, so the profiles computed before an interruption are kept
+        CheckpointingResultSink tmpCheckpointingSink = new CheckpointingResultSink(
+                ResultSink.combine(new PrintWriterResultSink(tmpResultsPrinter), tmpWriteBackSink,
+                        ResultSink.createFlushSink(tmpPersistentCache)), tmpResultsChannel,
+                tmpSource.getPartitionKey(), tmpCheckpoint, tmpCheckpointFile, ErtlFunctionalGroupsForCoconutTest.CHECKPOINT_INTERVAL);
+        tmpPipeline.run(tmpSource, tmpProgress, ErtlFunctionalGroupsForCoconutTest.READER_COUNT, ErtlFunctionalGroupsForCoconutTest.MAX_ATTEMPTS,
+                tmpCheckpointingSink);
         System.out.println("Done.");
-        System.out.println("Molecules counter: " + tmpMoleculeCounter);
-        System.out.println("Exceptions counter: " + tmpExceptionsCounter);
-        System.out.println("Filtered counter: " + tmpFilteredCounter);
-        System.out.println("No functional groups detected: " + tmpNoneDetectedCounter);
+        System.out.println("Molecules counter: " + tmpExtractor.getMoleculeCount());
+        System.out.println("Exceptions counter: " + tmpExtractor.getExceptionCount());
+        System.out.println("Filtered counter: " + tmpExtractor.getFilteredCount());
+        System.out.println("Filtered before parsing: " + tmpExtractor.getPrefilteredCount());
+        System.out.println("No functional groups detected: " + tmpExtractor.getNoneDetectedCount());
+        System.out.println("Preprocessing outcomes: " + tmpExtractor.getOutcomeCounts());
+        System.out.println("Aromaticity fallback used: " + tmpExtractor.getAromaticityFallbackCount());
+        System.out.println("Profile cache: " + tmpExtractor.getProfileCache());
+        System.out.println("Aromaticity cache: " + tmpExtractor.getAromaticityCache());
+        System.out.println("Persistent profile cache: " + tmpPersistentCache);
+        System.out.println("Scan: " + tmpProgress);
+        System.out.println("Skipped molecules of other shards: " + tmpSource.getSkippedCount());
+        System.out.println("Write-back: " + tmpWriteBackSink);
+        System.out.println("Checkpoint: " + tmpCheckpointingSink.getLastCheckpoint());
         tmpResultsPrinter.close();
-        try {
-            tmpResultsWriter.close();
-        } catch (IOException anIOException) {
-            ErtlFunctionalGroupsForCoconutTest.LOGGER.log(Level.SEVERE, anIOException.toString(), anIOException);
+        tmpPersistentCache.close();
+        tmpMongoClient.close();
+    }
+
+    /**
+     * This test method merges the results files written by all shards of a sharded run of
+     * extractFunctionalGroupsFromCoconut() into one results file sorted by ID and one frequency table of the
+     * functional groups. The shard count is set with the system property "ertlfg.shardCount".
+     * <br>If the results file of a shard is missing in the output folder, the test is ignored.
+     *
+     * @throws Exception if a results file cannot be read or written
+     */
+    @Test
+    public void mergeShardResults() throws Exception {
+        URL tmpOutputFolderURL = this.getClass().getClassLoader().getResource(ErtlFunctionalGroupsForCoconutTest.OUTPUT_FOLDER_NAME);
+        Assume.assumeNotNull(tmpOutputFolderURL);
+        Path tmpOutputFolder = new File(tmpOutputFolderURL.getFile()).toPath();
+        List<Path> tmpShardFiles = ShardResultsMerger.resolveShardFiles(tmpOutputFolder,
+                ErtlFunctionalGroupsForCoconutTest.OUTPUT_File_NAME, ErtlFunctionalGroupsForCoconutTest.SHARD_COUNT);
+        for (Path tmpShardFile : tmpShardFiles) {
+            if (!Files.exists(tmpShardFile)) {
+                System.out.println("Results file " + tmpShardFile + " of a shard is missing. Test is ignored.");
+                Assume.assumeTrue(false);
+            }
         }
-        tmpCursor.close();
+        ShardResultsMerger tmpMerger = new ShardResultsMerger(ErtlFunctionalGroupsForCoconutTest.OUTPUT_FILE_SEPARATOR);
+        long tmpRecordCount = tmpMerger.merge(tmpShardFiles,
+                tmpOutputFolder.resolve(ErtlFunctionalGroupsForCoconutTest.MERGED_OUTPUT_FILE_NAME),
+                tmpOutputFolder.resolve(ErtlFunctionalGroupsForCoconutTest.FREQUENCY_FILE_NAME));
+        System.out.println("Merged " + tmpRecordCount + " records of " + tmpShardFiles.size() + " shards.");
     }
     //</editor-fold>
 }
@@ -0,0 +1,264 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Tests the ExtractionCheckpoint and CheckpointingResultSink classes by interrupting and resuming a range-partitioned
+ * run on a local stand-in for the MongoDB collection.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public class ExtractionCheckpointTest {
+    //<editor-fold desc="Private static final constants">
+    /**
+     * Name of the document variable that contains the ID of a molecule
+     */
+    private static final String ID_KEY = "coconut_id";
+
+    /**
+     * Name of the document variable that contains the SMILES code of a molecule
+     */
+    private static final String SMILES_CODE_KEY = "smiles";
+
+    /**
+     * Name of the document variable the documents are partitioned on
+     */
+    private static final String PARTITION_KEY = "_id";
+
+    /**
+     * SMILES codes the test molecules are drawn from
+     */
+    private static final String[] SMILES_CODES = {"CCO", "CC(=O)O", "CCCCCC", "[Na+].[Cl-]", "C1CC(C", "OCCO",
+            "CC(=O)OCC", "c1ccccc1O", "NCC(=O)O", "CC(C)=O"};
+
+    /**
+     * Number of test molecules
+     */
+    private static final int DOCUMENT_COUNT = 300;
+
+    /**
+     * Number of records between two checkpoints
+     */
+    private static final int CHECKPOINT_INTERVAL = 25;
+
+    /**
+     * Number of records after which the interrupted run crashes
+     */
+    private static final int CRASH_POSITION = 137;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public variables">
+    /**
+     * Folder for the results and checkpoint files, deleted after every test
+     */
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public test methods">
+    /**
+     * Tests that a run that crashes after some checkpoints and is resumed from the last one gives the same results file
+     * as an uninterrupted run, while only the records after the last checkpoint are processed again.
+     *
+     * @throws Exception if a file cannot be accessed or a stage of the pipeline fails unexpectedly
+     */
+    @Test
+    public void testResumedRunIsIdenticalToUninterruptedRun() throws Exception {
+        InMemoryDocumentSource tmpSource = new InMemoryDocumentSource(ExtractionCheckpointTest.createDocuments(),
+                ExtractionCheckpointTest.PARTITION_KEY, Integer.MAX_VALUE);
+        List<DocumentPartition> tmpPartitions = tmpSource.createPartitions(5);
+        Path tmpExpectedFile = this.temporaryFolder.getRoot().toPath().resolve("expected.txt");
+        this.run(tmpSource, null, tmpExpectedFile, tmpPartitions, Integer.MAX_VALUE);
+        Path tmpResultsFile = this.temporaryFolder.getRoot().toPath().resolve("results.txt");
+        try {
+            this.run(tmpSource, null, tmpResultsFile, tmpPartitions, ExtractionCheckpointTest.CRASH_POSITION);
+            Assert.fail("ExecutionException expected.");
+        } catch (ExecutionException anExecutionException) {
+            Assert.assertTrue(anExecutionException.getCause() instanceof IllegalStateException);
+        }
+        ExtractionCheckpoint tmpCheckpoint = ExtractionCheckpoint.load(this.getCheckpointFile(tmpResultsFile));
+        Assert.assertFalse(tmpCheckpoint.isCompleted());
+        Assert.assertTrue(tmpCheckpoint.getWrittenCount() > 0L);
+        Assert.assertTrue(tmpCheckpoint.getWrittenCount() <= ExtractionCheckpointTest.CRASH_POSITION);
+        //the results of the records after the checkpoint were written before the crash and are discarded on resume
+        Assert.assertTrue(Files.size(tmpResultsFile) > tmpCheckpoint.getOutputOffset());
+        FunctionalGroupExtractor tmpResumedExtractor = this.run(tmpSource, tmpCheckpoint, tmpResultsFile, tmpPartitions,
+                Integer.MAX_VALUE);
+        Assert.assertEquals(ExtractionCheckpointTest.DOCUMENT_COUNT - tmpCheckpoint.getWrittenCount(),
+                tmpResumedExtractor.getMoleculeCount());
+        Assert.assertEquals(new String(Files.readAllBytes(tmpExpectedFile), StandardCharsets.UTF_8),
+                new String(Files.readAllBytes(tmpResultsFile), StandardCharsets.UTF_8));
+        ExtractionCheckpoint tmpFinalCheckpoint = ExtractionCheckpoint.load(this.getCheckpointFile(tmpResultsFile));
+        Assert.assertTrue(tmpFinalCheckpoint.isCompleted());
+        Assert.assertEquals(ExtractionCheckpointTest.DOCUMENT_COUNT, tmpFinalCheckpoint.getWrittenCount());
+        Assert.assertEquals(Files.size(tmpResultsFile), tmpFinalCheckpoint.getOutputOffset());
+        Assert.assertTrue(tmpFinalCheckpoint.createProgress().isCompleted());
+    }
+
+    /**
+     * Tests that a checkpoint with ObjectId keys is restored with the same key types and values, and that the progress
+     * created from it resumes the partition being written.
+     *
+     * @throws Exception if the checkpoint file cannot be accessed
+     */
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        ObjectId tmpFirstBound = new ObjectId();
+        ObjectId tmpSecondBound = new ObjectId();
+        ObjectId tmpLastKey = new ObjectId();
+        List<DocumentPartition> tmpPartitions = Arrays.asList(new DocumentPartition(0, null, tmpFirstBound),
+                new DocumentPartition(1, tmpFirstBound, tmpSecondBound), new DocumentPartition(2, tmpSecondBound, null));
+        Path tmpFile = this.temporaryFolder.getRoot().toPath().resolve("checkpoint.json");
+        new ExtractionCheckpoint(tmpPartitions, 0, null, 0L, 0L).save(tmpFile);
+        new ExtractionCheckpoint(tmpPartitions, 1, tmpLastKey, 12345678901L, 42L).save(tmpFile);
+        ExtractionCheckpoint tmpCheckpoint = ExtractionCheckpoint.load(tmpFile);
+        Assert.assertEquals(1, tmpCheckpoint.getPartitionIndex());
+        Assert.assertEquals(tmpLastKey, tmpCheckpoint.getLastKey());
+        Assert.assertEquals(12345678901L, tmpCheckpoint.getOutputOffset());
+        Assert.assertEquals(42L, tmpCheckpoint.getWrittenCount());
+        Assert.assertEquals(3, tmpCheckpoint.getPartitions().size());
+        Assert.assertNull(tmpCheckpoint.getPartitions().get(0).getLowerBound());
+        Assert.assertEquals(tmpFirstBound, tmpCheckpoint.getPartitions().get(1).getLowerBound());
+        Assert.assertEquals(tmpSecondBound, tmpCheckpoint.getPartitions().get(1).getUpperBound());
+        Assert.assertFalse(Files.exists(tmpFile.resolveSibling(tmpFile.getFileName() + ".tmp")));
+        ScanProgress tmpProgress = tmpCheckpoint.createProgress();
+        Assert.assertEquals(ScanProgress.State.COMPLETED, tmpProgress.getState(0));
+        Assert.assertEquals(ScanProgress.State.PENDING, tmpProgress.getState(1));
+        Assert.assertEquals(tmpLastKey, tmpProgress.getLastKey(1));
+        Assert.assertNull(tmpProgress.getLastKey(2));
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static methods">
+    /**
+     * Creates the test documents with integer _id values in random order.
+     *
+     * @return the test documents
+     */
+    private static List<Document> createDocuments() {
+        List<Document> tmpDocuments = new ArrayList<>(ExtractionCheckpointTest.DOCUMENT_COUNT);
+        Random tmpRandom = new Random(42L);
+        for (int i = 0; i < ExtractionCheckpointTest.DOCUMENT_COUNT; i++) {
+            tmpDocuments.add(new Document(ExtractionCheckpointTest.PARTITION_KEY, i)
+                    .append(ExtractionCheckpointTest.ID_KEY, "ID" + i)
+                    .append(ExtractionCheckpointTest.SMILES_CODE_KEY,
+                            ExtractionCheckpointTest.SMILES_CODES[tmpRandom.nextInt(ExtractionCheckpointTest.SMILES_CODES.length)]));
+        }
+        Collections.shuffle(tmpDocuments, tmpRandom);
+        return tmpDocuments;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private methods">
+    /**
+     * Runs the pipeline on the given source like the COCONUT driver, i.e. writes the header and the results lines to
+     * the given results file and saves checkpoints next to it, either from the start or resuming from the given
+     * checkpoint.
+     *
+     * @param aSource source of the partitions
+     * @param aCheckpoint checkpoint to resume from; 'null' for a new run
+     * @param aResultsFile the results file
+     * @param aPartitions partitions of a new run
+     * @param aCrashPosition number of records after which the run crashes, after flushing the results file
+     * @return the extractor of the run
+     * @throws Exception if a file cannot be accessed or a stage of the pipeline fails
+     */
+    private FunctionalGroupExtractor run(InMemoryDocumentSource aSource, ExtractionCheckpoint aCheckpoint,
+                                         Path aResultsFile, List<DocumentPartition> aPartitions, int aCrashPosition)
+            throws Exception {
+        FunctionalGroupExtractor tmpExtractor = new FunctionalGroupExtractor();
+        FileChannel tmpChannel;
+        if (Objects.isNull(aCheckpoint)) {
+            tmpChannel = FileChannel.open(aResultsFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } else {
+            tmpChannel = aCheckpoint.reopenOutput(aResultsFile);
+        }
+        try (PrintWriter tmpPrinter = new PrintWriter(new BufferedWriter(Channels.newWriter(tmpChannel, StandardCharsets.UTF_8)))) {
+            ExtractionCheckpoint tmpStartCheckpoint = aCheckpoint;
+            if (Objects.isNull(tmpStartCheckpoint)) {
+                tmpPrinter.println(tmpExtractor.createHeaderLine(ExtractionCheckpointTest.ID_KEY));
+                tmpPrinter.flush();
+                tmpStartCheckpoint = new ExtractionCheckpoint(aPartitions, 0, null, tmpChannel.position(), 0L);
+            }
+            PrintWriterResultSink tmpPrinterSink = new PrintWriterResultSink(tmpPrinter);
+            ResultSink tmpCrashingSink = new ResultSink() {
+                private int count = 0;
+                @Override
+                public void accept(Document aDocument, ExtractionResult aResult) throws Exception {
+                    if (this.count++ == aCrashPosition) {
+                        tmpPrinterSink.flush();
+                        throw new IllegalStateException("Crash.");
+                    }
+                    tmpPrinterSink.accept(aDocument, aResult);
+                }
+                @Override
+                public void flush() throws Exception {
+                    tmpPrinterSink.flush();
+                }
+            };
+            CheckpointingResultSink tmpSink = new CheckpointingResultSink(tmpCrashingSink, tmpChannel,
+                    ExtractionCheckpointTest.PARTITION_KEY, tmpStartCheckpoint, this.getCheckpointFile(aResultsFile),
+                    ExtractionCheckpointTest.CHECKPOINT_INTERVAL);
+            FunctionalGroupExtractionPipeline tmpPipeline = new FunctionalGroupExtractionPipeline(tmpExtractor,
+                    ExtractionCheckpointTest.ID_KEY, ExtractionCheckpointTest.SMILES_CODE_KEY, 3, 4, 4);
+            tmpPipeline.run(aSource, tmpStartCheckpoint.createProgress(), 2, 1, tmpSink);
+        }
+        return tmpExtractor;
+    }
+
+    /**
+     * Returns the checkpoint file of the given results file.
+     *
+     * @param aResultsFile the results file
+     * @return the checkpoint file
+     */
+    private Path getCheckpointFile(Path aResultsFile) {
+        return aResultsFile.resolveSibling(aResultsFile.getFileName() + ".checkpoint");
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,382 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import org.bson.Document;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.io.iterator.IteratingSDFReader;
+import org.openscience.cdk.smiles.SmiFlavor;
+import org.openscience.cdk.smiles.SmilesGenerator;
+
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Tests the FunctionalGroupExtractionPipeline class on documents created from the ChEBI subset in the test resources.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public class FunctionalGroupExtractionPipelineTest {
+    //<editor-fold desc="Private static final constants">
+    /**
+     * Path of the SD file containing the ChEBI subset
+     */
+    private static final String SD_FILE_PATH = "ChEBI_lite_3star_subset.sdf";
+
+    /**
+     * Name of the document variable that contains the ID of a molecule
+     */
+    private static final String ID_KEY = "coconut_id";
+
+    /**
+     * Name of the document variable that contains the SMILES code of a molecule
+     */
+    private static final String SMILES_CODE_KEY = "smiles";
+
+    /**
+     * Position of the document whose reading fails in the failing iterator
+     */
+    private static final int FAILING_DOCUMENT_POSITION = 7;
+
+    /**
+     * Name of the document variable the documents are partitioned on
+     */
+    private static final String PARTITION_KEY = "_id";
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public test methods">
+    /**
+     * Tests that the output of the pipeline is identical to the output of processing the documents one after the other
+     * on the calling thread, for one and for several workers and for queue sizes that force the writer to restore the
+     * input order. The documents include stereoisomers that hit the profile cache, records that are filtered or cannot
+     * be parsed, records with missing or wrongly typed variables, and a document whose reading fails.
+     *
+     * @throws Exception if the SD file cannot be read or a stage of the pipeline fails
+     */
+    @Test
+    public void testOutputIsIdenticalToSequentialProcessing() throws Exception {
+        List<Document> tmpDocuments = this.createDocuments();
+        FunctionalGroupExtractor tmpSequentialExtractor = new FunctionalGroupExtractor();
+        String tmpExpectedOutput = FunctionalGroupExtractionPipelineTest.processSequentially(tmpSequentialExtractor,
+                new FailingIterator(tmpDocuments.iterator()));
+        int[][] tmpSettings = {{1, 1, 1}, {1, 16, 16}, {4, 2, 3}, {8, 64, 5}};
+        for (int[] tmpSetting : tmpSettings) {
+            FunctionalGroupExtractor tmpExtractor = new FunctionalGroupExtractor();
+            FunctionalGroupExtractionPipeline tmpPipeline = new FunctionalGroupExtractionPipeline(tmpExtractor,
+                    FunctionalGroupExtractionPipelineTest.ID_KEY, FunctionalGroupExtractionPipelineTest.SMILES_CODE_KEY,
+                    tmpSetting[0], tmpSetting[1], tmpSetting[2]);
+            StringWriter tmpStringWriter = new StringWriter();
+            PrintWriter tmpPrinter = new PrintWriter(tmpStringWriter);
+            long tmpReadCount = tmpPipeline.run(new FailingIterator(tmpDocuments.iterator()), tmpPrinter);
+            Assert.assertEquals(tmpDocuments.size(), tmpReadCount);
+            Assert.assertEquals(tmpExpectedOutput, tmpStringWriter.toString());
+            Assert.assertEquals(tmpSequentialExtractor.getMoleculeCount(), tmpExtractor.getMoleculeCount());
+            Assert.assertEquals(tmpSequentialExtractor.getExceptionCount(), tmpExtractor.getExceptionCount());
+            Assert.assertEquals(tmpSequentialExtractor.getFilteredCount(), tmpExtractor.getFilteredCount());
+            Assert.assertEquals(tmpSequentialExtractor.getPrefilteredCount(), tmpExtractor.getPrefilteredCount());
+        }
+        Assert.assertTrue(tmpExpectedOutput.contains(FunctionalGroupExtractor.FILTERED_MARKER));
+        Assert.assertTrue(tmpExpectedOutput.contains(FunctionalGroupExtractor.NONE_DETECTED_MARKER));
+        Assert.assertTrue(tmpExpectedOutput.contains(FunctionalGroupExtractor.EXCEPTION_MARKER));
+        Assert.assertTrue(tmpSequentialExtractor.getProfileCache().getHitCount() > 0L);
+    }
+
+    /**
+     * Tests that a failing hasNext() of the document iterator is reported as ExecutionException and does not block.
+     *
+     * @throws Exception if the pipeline cannot be interrupted
+     */
+    @Test(timeout = 60000L)
+    public void testFailingHasNextIsReported() throws Exception {
+        Iterator<Document> tmpIterator = new Iterator<Document>() {
+            private int count = 0;
+            @Override
+            public boolean hasNext() {
+                if (this.count == 100) {
+                    throw new IllegalStateException("Cursor lost.");
+                }
+                return true;
+            }
+            @Override
+            public Document next() {
+                this.count++;
+                return new Document(FunctionalGroupExtractionPipelineTest.ID_KEY, "ID" + this.count)
+                        .append(FunctionalGroupExtractionPipelineTest.SMILES_CODE_KEY, "CCO");
+            }
+        };
+        FunctionalGroupExtractionPipeline tmpPipeline = new FunctionalGroupExtractionPipeline(new FunctionalGroupExtractor(),
+                FunctionalGroupExtractionPipelineTest.ID_KEY, FunctionalGroupExtractionPipelineTest.SMILES_CODE_KEY,
+                3, 4, 4);
+        try {
+            tmpPipeline.run(tmpIterator, new PrintWriter(new StringWriter()));
+            Assert.fail("ExecutionException expected.");
+        } catch (ExecutionException anExecutionException) {
+            Assert.assertTrue(anExecutionException.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    /**
+     * Tests that a range-partitioned scan of a local stand-in for the MongoDB collection gives the same output as
+     * processing the documents one after the other in the order of their _id, for several numbers of readers and
+     * workers, while the cursors of two partitions fail once and are resumed.
+     *
+     * @throws Exception if the SD file cannot be read or a stage of the pipeline fails
+     */
+    @Test
+    public void testPartitionedScanIsIdenticalToSequentialProcessing() throws Exception {
+        List<Document> tmpDocuments = this.createDocuments();
+        for (int i = 0; i < tmpDocuments.size(); i++) {
+            tmpDocuments.get(i).append(FunctionalGroupExtractionPipelineTest.PARTITION_KEY, i);
+        }
+        Collections.shuffle(tmpDocuments, new Random(42L));
+        InMemoryDocumentSource tmpSource = new InMemoryDocumentSource(tmpDocuments, FunctionalGroupExtractionPipelineTest.PARTITION_KEY, 5);
+        String tmpExpectedOutput = FunctionalGroupExtractionPipelineTest.processSequentially(new FunctionalGroupExtractor(),
+                tmpSource.getSortedDocuments().iterator());
+        int[][] tmpSettings = {{1, 1}, {3, 2}, {8, 4}};
+        for (int[] tmpSetting : tmpSettings) {
+            ScanProgress tmpProgress = new ScanProgress(tmpSource.createPartitions(7));
+            Assert.assertEquals(7, tmpProgress.getPartitionCount());
+            tmpSource.injectFailures(2, 1);
+            tmpSource.injectFailures(4, 1);
+            FunctionalGroupExtractionPipeline tmpPipeline = new FunctionalGroupExtractionPipeline(new FunctionalGroupExtractor(),
+                    FunctionalGroupExtractionPipelineTest.ID_KEY, FunctionalGroupExtractionPipelineTest.SMILES_CODE_KEY,
+                    tmpSetting[1], 8, 8);
+            StringWriter tmpStringWriter = new StringWriter();
+            long tmpReadCount = tmpPipeline.run(tmpSource, tmpProgress, tmpSetting[0],
+                    FunctionalGroupExtractionPipeline.DEFAULT_MAX_ATTEMPTS, new PrintWriter(tmpStringWriter));
+            Assert.assertEquals(tmpDocuments.size(), tmpReadCount);
+            Assert.assertEquals(tmpExpectedOutput, tmpStringWriter.toString());
+            Assert.assertTrue(tmpProgress.isCompleted());
+            long tmpProgressReadCount = 0L;
+            for (int i = 0; i < tmpProgress.getPartitionCount(); i++) {
+                Assert.assertEquals(i == 2 || i == 4 ? 2 : 1, tmpProgress.getAttemptCount(i));
+                tmpProgressReadCount += tmpProgress.getReadCount(i);
+            }
+            Assert.assertEquals(tmpDocuments.size(), tmpProgressReadCount);
+        }
+    }
+
+    /**
+     * Tests that a partition whose read attempts all fail is marked as failed and reported as ExecutionException.
+     *
+     * @throws Exception if the SD file cannot be read or the pipeline cannot be interrupted
+     */
+    @Test(timeout = 60000L)
+    public void testFailedPartitionIsReported() throws Exception {
+        List<Document> tmpDocuments = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++) {
+            tmpDocuments.add(new Document(FunctionalGroupExtractionPipelineTest.PARTITION_KEY, i)
+                    .append(FunctionalGroupExtractionPipelineTest.ID_KEY, "ID" + i)
+                    .append(FunctionalGroupExtractionPipelineTest.SMILES_CODE_KEY, "CCO"));
+        }
+        InMemoryDocumentSource tmpSource = new InMemoryDocumentSource(tmpDocuments, FunctionalGroupExtractionPipelineTest.PARTITION_KEY, 3);
+        ScanProgress tmpProgress = new ScanProgress(tmpSource.createPartitions(4));
+        tmpSource.injectFailures(1, 2);
+        FunctionalGroupExtractionPipeline tmpPipeline = new FunctionalGroupExtractionPipeline(new FunctionalGroupExtractor(),
+                FunctionalGroupExtractionPipelineTest.ID_KEY, FunctionalGroupExtractionPipelineTest.SMILES_CODE_KEY,
+                2, 4, 4);
+        try {
+            tmpPipeline.run(tmpSource, tmpProgress, 2, 2, new PrintWriter(new StringWriter()));
+            Assert.fail("ExecutionException expected.");
+        } catch (ExecutionException anExecutionException) {
+            Assert.assertTrue(anExecutionException.getCause() instanceof IllegalStateException);
+        }
+        Assert.assertEquals(ScanProgress.State.FAILED, tmpProgress.getState(1));
+        Assert.assertEquals(2, tmpProgress.getAttemptCount(1));
+        //the failed partition was resumed after the documents read in the first attempt
+        Assert.assertEquals(6L, tmpProgress.getReadCount(1));
+        Assert.assertEquals(ScanProgress.State.COMPLETED, tmpProgress.getState(0));
+        Assert.assertFalse(tmpProgress.isCompleted());
+    }
+
+    /**
+     * Tests that the partitions created from sampled keys are ordered, disjoint, and cover all keys, also for
+     * duplicate sample values and more partitions than distinct values.
+     */
+    @Test
+    public void testPartitionCreation() {
+        List<DocumentPartition> tmpPartitions = DocumentPartition.createPartitions(Collections.emptyList(), 5);
+        Assert.assertEquals(1, tmpPartitions.size());
+        Assert.assertNull(tmpPartitions.get(0).getLowerBound());
+        Assert.assertNull(tmpPartitions.get(0).getUpperBound());
+        List<Integer> tmpKeys = new ArrayList<>(1000);
+        for (int i = 0; i < 1000; i++) {
+            tmpKeys.add((i * 7919) % 1000);
+        }
+        tmpPartitions = DocumentPartition.createPartitions(tmpKeys, 4);
+        Assert.assertEquals(4, tmpPartitions.size());
+        Assert.assertEquals(Arrays.asList(250, 500, 750), Arrays.asList(tmpPartitions.get(0).getUpperBound(),
+                tmpPartitions.get(1).getUpperBound(), tmpPartitions.get(2).getUpperBound()));
+        for (int i = 0; i < tmpPartitions.size(); i++) {
+            Assert.assertEquals(i, tmpPartitions.get(i).getIndex());
+            if (i > 0) {
+                Assert.assertEquals(tmpPartitions.get(i - 1).getUpperBound(), tmpPartitions.get(i).getLowerBound());
+            }
+        }
+        Assert.assertNull(tmpPartitions.get(0).getLowerBound());
+        Assert.assertNull(tmpPartitions.get(3).getUpperBound());
+        tmpPartitions = DocumentPartition.createPartitions(Arrays.asList(3, 1, 3, 1, 2, 2, 3), 10);
+        Assert.assertEquals(3, tmpPartitions.size());
+        Assert.assertEquals(2, tmpPartitions.get(0).getUpperBound());
+        Assert.assertEquals(3, tmpPartitions.get(1).getUpperBound());
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static methods">
+    /**
+     * Processes the documents of the given iterator one after the other on the calling thread like the former
+     * sequential implementation of ErtlFunctionalGroupsForCoconutTest and returns the written results lines.
+     *
+     * @param anExtractor extractor to apply
+     * @param aDocumentIterator iterator of the documents
+     * @return the results lines
+     */
+    private static String processSequentially(FunctionalGroupExtractor anExtractor, Iterator<Document> aDocumentIterator) {
+        StringWriter tmpStringWriter = new StringWriter();
+        PrintWriter tmpPrinter = new PrintWriter(tmpStringWriter);
+        while (aDocumentIterator.hasNext()) {
+            String tmpLine;
+            try {
+                tmpLine = anExtractor.process(aDocumentIterator.next(), FunctionalGroupExtractionPipelineTest.ID_KEY,
+                        FunctionalGroupExtractionPipelineTest.SMILES_CODE_KEY);
+            } catch (Exception anException) {
+                tmpLine = anExtractor.reportException("", anException).getLine();
+            }
+            if (Objects.nonNull(tmpLine)) {
+                tmpPrinter.println(tmpLine);
+            }
+        }
+        tmpPrinter.flush();
+        return tmpStringWriter.toString();
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private methods">
+    /**
+     * Creates the test documents from the molecules of the ChEBI subset. Every molecule is added with its isomeric
+     * SMILES code and the first molecules are added a second time without stereo information, followed by some
+     * special records.
+     *
+     * @return the test documents
+     * @throws Exception if the SD file cannot be read
+     */
+    private List<Document> createDocuments() throws Exception {
+        List<Document> tmpDocuments = new ArrayList<>(2500);
+        SmilesGenerator tmpIsomericGenerator = new SmilesGenerator(SmiFlavor.Isomeric);
+        SmilesGenerator tmpStereoFreeGenerator = new SmilesGenerator(SmiFlavor.Default);
+        InputStream tmpInputStream = this.getClass().getClassLoader().getResourceAsStream(FunctionalGroupExtractionPipelineTest.SD_FILE_PATH);
+        Assert.assertNotNull(tmpInputStream);
+        List<String> tmpStereoFreeSmilesCodes = new ArrayList<>(200);
+        try (IteratingSDFReader tmpReader = new IteratingSDFReader(tmpInputStream, DefaultChemObjectBuilder.getInstance(), true)) {
+            while (tmpReader.hasNext()) {
+                IAtomContainer tmpMolecule = tmpReader.next();
+                String tmpSmilesCode;
+                try {
+                    tmpSmilesCode = tmpIsomericGenerator.create(tmpMolecule);
+                    if (tmpStereoFreeSmilesCodes.size() < 200) {
+                        tmpStereoFreeSmilesCodes.add(tmpStereoFreeGenerator.create(tmpMolecule));
+                    }
+                } catch (Exception anException) {
+                    continue;
+                }
+                tmpDocuments.add(new Document(FunctionalGroupExtractionPipelineTest.ID_KEY, "CHEBI" + tmpDocuments.size())
+                        .append(FunctionalGroupExtractionPipelineTest.SMILES_CODE_KEY, tmpSmilesCode));
+            }
+        }
+        for (String tmpSmilesCode : tmpStereoFreeSmilesCodes) {
+            tmpDocuments.add(new Document(FunctionalGroupExtractionPipelineTest.ID_KEY, "STEREOFREE" + tmpDocuments.size())
+                    .append(FunctionalGroupExtractionPipelineTest.SMILES_CODE_KEY, tmpSmilesCode));
+        }
+        tmpDocuments.add(new Document(FunctionalGroupExtractionPipelineTest.ID_KEY, "SALT")
+                .append(FunctionalGroupExtractionPipelineTest.SMILES_CODE_KEY, "[Na+].[Cl-]"));
+        tmpDocuments.add(new Document(FunctionalGroupExtractionPipelineTest.ID_KEY, "ALKANE")
+                .append(FunctionalGroupExtractionPipelineTest.SMILES_CODE_KEY, "CCCCCC"));
+        tmpDocuments.add(new Document(FunctionalGroupExtractionPipelineTest.ID_KEY, "UNPARSABLE")
+                .append(FunctionalGroupExtractionPipelineTest.SMILES_CODE_KEY, "C1CC(C"));
+        tmpDocuments.add(new Document(FunctionalGroupExtractionPipelineTest.ID_KEY, "NO_SMILES"));
+        tmpDocuments.add(new Document(FunctionalGroupExtractionPipelineTest.ID_KEY, 42)
+                .append(FunctionalGroupExtractionPipelineTest.SMILES_CODE_KEY, "CCO"));
+        return tmpDocuments;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static final class FailingIterator">
+    /**
+     * Document iterator whose next() throws an exception at a fixed position.
+     */
+    private static final class FailingIterator implements Iterator<Document> {
+        /**
+         * Wrapped iterator
+         */
+        private final Iterator<Document> iterator;
+
+        /**
+         * Number of calls of next()
+         */
+        private int count;
+
+        /**
+         * Constructor.
+         *
+         * @param anIterator wrapped iterator
+         */
+        private FailingIterator(Iterator<Document> anIterator) {
+            this.iterator = anIterator;
+            this.count = 0;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext() {
+            return this.iterator.hasNext();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Document next() {
+            Document tmpDocument = this.iterator.next();
+            if (this.count++ == FunctionalGroupExtractionPipelineTest.FAILING_DOCUMENT_POSITION) {
+                throw new IllegalStateException("Document could not be read.");
+            }
+            return tmpDocument;
+        }
+    }
+    //</editor-fold>
+}
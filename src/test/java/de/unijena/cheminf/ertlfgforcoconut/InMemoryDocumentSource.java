@@ -0,0 +1,243 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Local stand-in for a MongoDB collection that is read in partitions. The documents are held in memory and sorted by
+ * their partition key, and the split points of the partitions are taken from all key values. Read failures can be
+ * injected per partition to test retries.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+class InMemoryDocumentSource implements PartitionedDocumentSource {
+    //<editor-fold desc="Private final variables">
+    /**
+     * Documents sorted by their partition key
+     */
+    private final List<Document> documents;
+
+    /**
+     * Name of the document variable the documents are partitioned on
+     */
+    private final String partitionKey;
+
+    /**
+     * Number of injected failures per partition index
+     */
+    private final Map<Integer, Integer> remainingFailures;
+
+    /**
+     * Number of documents returned by a cursor of a partition before an injected failure
+     */
+    private final int failAfterCount;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Constructor.
+     *
+     * @param aDocuments the documents, all of them with a value of the partition key of one BSON type bracket; not
+     *                   altered
+     * @param aPartitionKey name of the document variable the documents are partitioned on
+     * @param aFailAfterCount number of documents returned by a cursor of a partition before an injected failure
+     */
+    InMemoryDocumentSource(List<Document> aDocuments, String aPartitionKey, int aFailAfterCount) {
+        this.documents = new ArrayList<>(aDocuments);
+        this.documents.sort((aFirst, aSecond) -> DocumentPartition.compareKeys(aFirst.get(aPartitionKey),
+                aSecond.get(aPartitionKey)));
+        this.partitionKey = aPartitionKey;
+        this.remainingFailures = new HashMap<>();
+        this.failAfterCount = aFailAfterCount;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Package-private methods">
+    /**
+     * Makes the next given number of cursors of the given partition fail.
+     *
+     * @param aPartitionIndex index of the partition
+     * @param aFailureCount number of failing cursors
+     */
+    synchronized void injectFailures(int aPartitionIndex, int aFailureCount) {
+        this.remainingFailures.put(aPartitionIndex, aFailureCount);
+    }
+
+    /**
+     * Returns the documents sorted by their partition key.
+     *
+     * @return the sorted documents
+     */
+    List<Document> getSortedDocuments() {
+        return this.documents;
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public methods">
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getPartitionKey() {
+        return this.partitionKey;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<DocumentPartition> createPartitions(int aPartitionCount) throws IllegalArgumentException {
+        List<Object> tmpKeys = new ArrayList<>(this.documents.size());
+        for (Document tmpDocument : this.documents) {
+            tmpKeys.add(tmpDocument.get(this.partitionKey));
+        }
+        return DocumentPartition.createPartitions(tmpKeys, aPartitionCount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MongoCursor<Document> open(DocumentPartition aPartition, Object aResumeKey) throws NullPointerException {
+        Objects.requireNonNull(aPartition, "Given partition is 'null'.");
+        List<Document> tmpSelectedDocuments = new ArrayList<>();
+        for (Document tmpDocument : this.documents) {
+            Object tmpKey = tmpDocument.get(this.partitionKey);
+            if ((Objects.isNull(aPartition.getLowerBound())
+                    || DocumentPartition.compareKeys(tmpKey, aPartition.getLowerBound()) >= 0)
+                    && (Objects.isNull(aPartition.getUpperBound())
+                    || DocumentPartition.compareKeys(tmpKey, aPartition.getUpperBound()) < 0)
+                    && (Objects.isNull(aResumeKey) || DocumentPartition.compareKeys(tmpKey, aResumeKey) > 0)) {
+                tmpSelectedDocuments.add(tmpDocument);
+            }
+        }
+        boolean tmpIsFailing;
+        synchronized (this) {
+            int tmpRemainingFailures = this.remainingFailures.getOrDefault(aPartition.getIndex(), 0);
+            tmpIsFailing = tmpRemainingFailures > 0;
+            this.remainingFailures.put(aPartition.getIndex(), tmpRemainingFailures - 1);
+        }
+        return new InMemoryCursor(tmpSelectedDocuments, tmpIsFailing ? this.failAfterCount : -1);
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static final class InMemoryCursor">
+    /**
+     * Cursor on a list of documents that optionally fails after a given number of documents.
+     */
+    private static final class InMemoryCursor implements MongoCursor<Document> {
+        /**
+         * Documents of the cursor
+         */
+        private final List<Document> documents;
+
+        /**
+         * Number of documents returned before the cursor fails; negative if it does not fail
+         */
+        private final int failAfterCount;
+
+        /**
+         * Position of the next document
+         */
+        private int position;
+
+        /**
+         * Constructor.
+         *
+         * @param aDocuments documents of the cursor
+         * @param aFailAfterCount number of documents returned before the cursor fails; negative if it does not fail
+         */
+        private InMemoryCursor(List<Document> aDocuments, int aFailAfterCount) {
+            this.documents = aDocuments;
+            this.failAfterCount = aFailAfterCount;
+            this.position = 0;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            //nothing to release
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNext() {
+            if (this.position == this.failAfterCount) {
+                throw new IllegalStateException("Injected cursor failure.");
+            }
+            return this.position < this.documents.size();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Document next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.documents.get(this.position++);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Document tryNext() {
+            return this.hasNext() ? this.next() : null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ServerCursor getServerCursor() {
+            return null;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public ServerAddress getServerAddress() {
+            return null;
+        }
+    }
+    //</editor-fold>
+}
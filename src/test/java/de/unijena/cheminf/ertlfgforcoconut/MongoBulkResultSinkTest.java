@@ -0,0 +1,270 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoNamespace;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openscience.cdk.tools.FunctionalGroupCanonicalForm;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the MongoBulkResultSink class on a local stand-in for a MongoDB collection that records the bulk writes.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public class MongoBulkResultSinkTest {
+    //<editor-fold desc="Private static final constants">
+    /**
+     * Name of the document variable that contains the ID of a molecule
+     */
+    private static final String ID_KEY = "coconut_id";
+
+    /**
+     * Name of the document variable that contains the SMILES code of a molecule
+     */
+    private static final String SMILES_CODE_KEY = "smiles";
+
+    /**
+     * SMILES codes of the test molecules; ethanol and acetic acid have functional groups, hexane has none, the salt is
+     * filtered, and the next one cannot be parsed
+     */
+    private static final String[] SMILES_CODES = {"CCO", "CC(=O)O", "CCCCCC", "[Na+].[Cl-]", "C1CC(C", "OCCO", "CC(=O)OCC"};
+
+    /**
+     * Number of write operations, one per test molecule; the filtered and the unparsable one get no functional groups
+     * field
+     */
+    private static final int WRITTEN_COUNT = 7;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public test methods">
+    /**
+     * Tests that the pipeline writes the profiles into a side collection in unordered bulk writes of the given size,
+     * as upserts with the molecule ID and the hash keys and frequencies of the functional groups, next to the results
+     * file, and that the molecules without a profile get a side document without functional groups field.
+     *
+     * @throws Exception if a stage of the pipeline fails
+     */
+    @Test
+    public void testSideCollectionWriteBack() throws Exception {
+        List<Document> tmpDocuments = MongoBulkResultSinkTest.createDocuments();
+        FunctionalGroupExtractor tmpExtractor = new FunctionalGroupExtractor();
+        List<List<? extends WriteModel<? extends Document>>> tmpBulkWrites = new ArrayList<>();
+        List<IndexModel> tmpIndexes = new ArrayList<>();
+        MongoBulkResultSink tmpMongoSink = MongoBulkResultSink.createSideCollectionSink(
+                MongoBulkResultSinkTest.createCollection(tmpBulkWrites, tmpIndexes), MongoBulkResultSinkTest.ID_KEY,
+                MongoBulkResultSink.DEFAULT_FIELD_NAME, MongoBulkResultSink.Representation.HASH_KEYS,
+                tmpExtractor.getCanonicalFormsMap(), 2);
+        StringWriter tmpStringWriter = new StringWriter();
+        FunctionalGroupExtractionPipeline tmpPipeline = new FunctionalGroupExtractionPipeline(tmpExtractor,
+                MongoBulkResultSinkTest.ID_KEY, MongoBulkResultSinkTest.SMILES_CODE_KEY, 3, 2, 2);
+        tmpPipeline.run(tmpDocuments.iterator(), ResultSink.combine(new PrintWriterResultSink(new PrintWriter(tmpStringWriter)),
+                tmpMongoSink));
+        Assert.assertEquals(MongoBulkResultSinkTest.SMILES_CODES.length, tmpStringWriter.toString().split("\n").length);
+        Assert.assertEquals(MongoBulkResultSinkTest.WRITTEN_COUNT, tmpMongoSink.getWriteCount());
+        Assert.assertEquals(4L, tmpMongoSink.getBulkWriteCount());
+        Assert.assertEquals(Arrays.asList(2, 2, 2, 1), Arrays.asList(tmpBulkWrites.get(0).size(), tmpBulkWrites.get(1).size(),
+                tmpBulkWrites.get(2).size(), tmpBulkWrites.get(3).size()));
+        List<String> tmpWrittenIDs = new ArrayList<>(MongoBulkResultSinkTest.WRITTEN_COUNT);
+        for (List<? extends WriteModel<? extends Document>> tmpBulkWrite : tmpBulkWrites) {
+            for (WriteModel<? extends Document> tmpModel : tmpBulkWrite) {
+                Assert.assertTrue(tmpModel instanceof ReplaceOneModel);
+                ReplaceOneModel<? extends Document> tmpReplaceModel = (ReplaceOneModel<? extends Document>) tmpModel;
+                Assert.assertTrue(tmpReplaceModel.getReplaceOptions().isUpsert());
+                Document tmpReplacement = tmpReplaceModel.getReplacement();
+                Assert.assertEquals(MongoBulkResultSinkTest.render(tmpReplaceModel.getFilter()).get("_id"),
+                        MongoBulkResultSinkTest.render(new Document("_id", tmpReplacement.get("_id"))).get("_id"));
+                tmpWrittenIDs.add(tmpReplacement.getString(MongoBulkResultSinkTest.ID_KEY));
+                String tmpID = tmpReplacement.getString(MongoBulkResultSinkTest.ID_KEY);
+                if (tmpID.equals("ID3") || tmpID.equals("ID4")) {
+                    Assert.assertFalse(tmpReplacement.containsKey(MongoBulkResultSink.DEFAULT_FIELD_NAME));
+                    continue;
+                }
+                List<?> tmpFunctionalGroups = (List<?>) tmpReplacement.get(MongoBulkResultSink.DEFAULT_FIELD_NAME);
+                if (tmpID.equals("ID2")) {
+                    Assert.assertTrue(tmpFunctionalGroups.isEmpty());
+                } else {
+                    Assert.assertFalse(tmpFunctionalGroups.isEmpty());
+                }
+                for (Object tmpFunctionalGroup : tmpFunctionalGroups) {
+                    Document tmpFunctionalGroupDocument = (Document) tmpFunctionalGroup;
+                    Assert.assertTrue(tmpExtractor.getCanonicalFormsMap().containsKey(
+                            tmpFunctionalGroupDocument.getLong(MongoBulkResultSink.HASH_KEY_FIELD_NAME)));
+                    Assert.assertTrue(tmpFunctionalGroupDocument.getInteger(MongoBulkResultSink.FREQUENCY_FIELD_NAME) > 0);
+                }
+            }
+        }
+        //written in input order by the writer thread of the pipeline
+        Assert.assertEquals(Arrays.asList("ID0", "ID1", "ID2", "ID3", "ID4", "ID5", "ID6"), tmpWrittenIDs);
+        Assert.assertEquals(Arrays.asList("functional_groups.id", "coconut_id"), tmpMongoSink.createIndexes());
+        Assert.assertEquals(2, tmpIndexes.size());
+    }
+
+    /**
+     * Tests that the profiles are written into the source documents as field updates with the pseudo SMILES codes of
+     * the functional groups and that the field is removed from the documents of molecules without a profile.
+     *
+     * @throws Exception if a stage of the pipeline fails
+     */
+    @Test
+    public void testSourceCollectionWriteBack() throws Exception {
+        FunctionalGroupExtractor tmpExtractor = new FunctionalGroupExtractor();
+        List<List<? extends WriteModel<? extends Document>>> tmpBulkWrites = new ArrayList<>();
+        List<IndexModel> tmpIndexes = new ArrayList<>();
+        MongoBulkResultSink tmpMongoSink = MongoBulkResultSink.createSourceCollectionSink(
+                MongoBulkResultSinkTest.createCollection(tmpBulkWrites, tmpIndexes), "fg",
+                MongoBulkResultSink.Representation.PSEUDO_SMILES, tmpExtractor.getCanonicalFormsMap(),
+                MongoBulkResultSink.DEFAULT_BATCH_SIZE);
+        FunctionalGroupExtractionPipeline tmpPipeline = new FunctionalGroupExtractionPipeline(tmpExtractor,
+                MongoBulkResultSinkTest.ID_KEY, MongoBulkResultSinkTest.SMILES_CODE_KEY, 2, 4, 4);
+        tmpPipeline.run(MongoBulkResultSinkTest.createDocuments().iterator(), tmpMongoSink);
+        Assert.assertEquals(1, tmpBulkWrites.size());
+        Assert.assertEquals(MongoBulkResultSinkTest.WRITTEN_COUNT, tmpBulkWrites.get(0).size());
+        UpdateOneModel<? extends Document> tmpModel = (UpdateOneModel<? extends Document>) tmpBulkWrites.get(0).get(0);
+        Assert.assertEquals(0, MongoBulkResultSinkTest.render(tmpModel.getFilter()).getInt32("_id").getValue());
+        BsonDocument tmpUpdate = MongoBulkResultSinkTest.render(tmpModel.getUpdate()).getDocument("$set");
+        BsonDocument tmpFunctionalGroup = tmpUpdate.getArray("fg").get(0).asDocument();
+        Assert.assertEquals(1, tmpFunctionalGroup.getInt32(MongoBulkResultSink.FREQUENCY_FIELD_NAME).getValue());
+        String tmpPseudoSmilesCode = tmpFunctionalGroup.getString(MongoBulkResultSink.PSEUDO_SMILES_FIELD_NAME).getValue();
+        boolean tmpIsKnown = false;
+        for (Map.Entry<Long, FunctionalGroupCanonicalForm> tmpEntry : tmpExtractor.getCanonicalFormsMap().entrySet()) {
+            tmpIsKnown |= tmpEntry.getValue().getPseudoSmiles().equals(tmpPseudoSmilesCode);
+        }
+        Assert.assertTrue(tmpIsKnown);
+        //the salt is filtered and the SMILES code of the next molecule cannot be parsed
+        for (int i = 3; i <= 4; i++) {
+            UpdateOneModel<? extends Document> tmpUnsetModel = (UpdateOneModel<? extends Document>) tmpBulkWrites.get(0).get(i);
+            Assert.assertEquals(i, MongoBulkResultSinkTest.render(tmpUnsetModel.getFilter()).getInt32("_id").getValue());
+            Assert.assertTrue(MongoBulkResultSinkTest.render(tmpUnsetModel.getUpdate()).getDocument("$unset").containsKey("fg"));
+        }
+        Assert.assertEquals(Arrays.asList("fg.pseudo_smiles"), tmpMongoSink.createIndexes());
+    }
+
+    /**
+     * Tests that invalid settings and documents without _id are rejected.
+     */
+    @Test
+    public void testInvalidArguments() {
+        MongoCollection<Document> tmpCollection = MongoBulkResultSinkTest.createCollection(new ArrayList<>(), new ArrayList<>());
+        FunctionalGroupExtractor tmpExtractor = new FunctionalGroupExtractor();
+        try {
+            MongoBulkResultSink.createSourceCollectionSink(tmpCollection, MongoBulkResultSink.DEFAULT_FIELD_NAME,
+                    MongoBulkResultSink.Representation.HASH_KEYS, tmpExtractor.getCanonicalFormsMap(), 0);
+            Assert.fail("IllegalArgumentException expected.");
+        } catch (IllegalArgumentException anException) {
+            //expected
+        }
+        MongoBulkResultSink tmpSink = MongoBulkResultSink.createSourceCollectionSink(tmpCollection,
+                MongoBulkResultSink.DEFAULT_FIELD_NAME, MongoBulkResultSink.Representation.HASH_KEYS,
+                tmpExtractor.getCanonicalFormsMap(), 1);
+        Document tmpDocument = new Document(MongoBulkResultSinkTest.ID_KEY, "ID").append(MongoBulkResultSinkTest.SMILES_CODE_KEY, "CCO");
+        try {
+            tmpSink.accept(tmpDocument, tmpExtractor.extract(tmpDocument, MongoBulkResultSinkTest.ID_KEY,
+                    MongoBulkResultSinkTest.SMILES_CODE_KEY));
+            Assert.fail("IllegalArgumentException expected.");
+        } catch (IllegalArgumentException anException) {
+            //expected
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static methods">
+    /**
+     * Creates the test documents with ascending _id values.
+     *
+     * @return the test documents
+     */
+    private static List<Document> createDocuments() {
+        List<Document> tmpDocuments = new ArrayList<>(MongoBulkResultSinkTest.SMILES_CODES.length);
+        for (int i = 0; i < MongoBulkResultSinkTest.SMILES_CODES.length; i++) {
+            tmpDocuments.add(new Document("_id", i).append(MongoBulkResultSinkTest.ID_KEY, "ID" + i)
+                    .append(MongoBulkResultSinkTest.SMILES_CODE_KEY, MongoBulkResultSinkTest.SMILES_CODES[i]));
+        }
+        return tmpDocuments;
+    }
+
+    /**
+     * Creates a stand-in for a MongoDB collection that records the write models of its unordered bulk writes and the
+     * created indexes. Other methods are not supported.
+     *
+     * @param aBulkWrites list the write models of every bulk write are added to
+     * @param anIndexes list the created indexes are added to
+     * @return the stand-in
+     */
+    @SuppressWarnings("unchecked")
+    private static MongoCollection<Document> createCollection(List<List<? extends WriteModel<? extends Document>>> aBulkWrites,
+                                                              List<IndexModel> anIndexes) {
+        return (MongoCollection<Document>) Proxy.newProxyInstance(MongoBulkResultSinkTest.class.getClassLoader(),
+                new Class<?>[] {MongoCollection.class}, (aProxy, aMethod, anArguments) -> {
+                    switch (aMethod.getName()) {
+                        case "bulkWrite":
+                            Assert.assertFalse(((BulkWriteOptions) anArguments[1]).isOrdered());
+                            List<? extends WriteModel<? extends Document>> tmpModels = (List<? extends WriteModel<? extends Document>>) anArguments[0];
+                            aBulkWrites.add(tmpModels);
+                            return BulkWriteResult.acknowledged(0, tmpModels.size(), 0, tmpModels.size(), new ArrayList<>(0));
+                        case "createIndexes":
+                            List<String> tmpNames = new ArrayList<>();
+                            for (IndexModel tmpIndex : (List<IndexModel>) anArguments[0]) {
+                                anIndexes.add(tmpIndex);
+                                tmpNames.add(String.join(".", MongoBulkResultSinkTest.render(tmpIndex.getKeys()).keySet()));
+                            }
+                            return tmpNames;
+                        case "getNamespace":
+                            return new MongoNamespace("COCONUT", "functional_groups");
+                        default:
+                            throw new UnsupportedOperationException(aMethod.getName());
+                    }
+                });
+    }
+
+    /**
+     * Renders the given filter, update, or index keys with the default codec registry.
+     *
+     * @param aBson filter, update, or index keys
+     * @return the rendered document
+     */
+    private static BsonDocument render(Bson aBson) {
+        return aBson.toBsonDocument(Document.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,86 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the settings of the MongoCollectionReader class; the cursors themselves need a running MongoDB instance.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public class MongoCollectionReaderTest {
+    //<editor-fold desc="Public test methods">
+    /**
+     * Tests that the molecule reader projects the ID and the SMILES code, skips documents without SMILES code string,
+     * and keeps idle cursors open.
+     */
+    @Test
+    public void testMoleculeReaderSettings() {
+        MongoCollectionReader tmpReader = MongoCollectionReader.createMoleculeReader("coconut_id", "smiles");
+        Assert.assertEquals(BsonDocument.parse("{\"coconut_id\": 1, \"smiles\": 1}"),
+                MongoCollectionReaderTest.render(tmpReader.getProjection()));
+        Assert.assertEquals(BsonDocument.parse("{\"smiles\": {\"$type\": 2}}"),
+                MongoCollectionReaderTest.render(tmpReader.getFilter()));
+        Assert.assertEquals(MongoCollectionReader.DEFAULT_BATCH_SIZE, tmpReader.getBatchSize());
+        Assert.assertTrue(tmpReader.isNoCursorTimeout());
+    }
+
+    /**
+     * Tests that a reader without projection and filter returns all fields of all documents and that invalid settings
+     * are rejected.
+     */
+    @Test
+    public void testDefaultAndInvalidSettings() {
+        MongoCollectionReader tmpReader = new MongoCollectionReader(null, null, 0, false);
+        Assert.assertNull(tmpReader.getProjection());
+        Assert.assertTrue(tmpReader.getProjectedFields().isEmpty());
+        Assert.assertEquals(new BsonDocument(), MongoCollectionReaderTest.render(tmpReader.getFilter()));
+        Assert.assertFalse(tmpReader.isNoCursorTimeout());
+        try {
+            new MongoCollectionReader(null, null, -1, false);
+            Assert.fail("IllegalArgumentException expected.");
+        } catch (IllegalArgumentException anIllegalArgumentException) {
+            //expected
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static methods">
+    /**
+     * Renders the given filter or projection as BSON document.
+     *
+     * @param aBson filter or projection
+     * @return the BSON document
+     */
+    private static BsonDocument render(Bson aBson) {
+        return aBson.toBsonDocument(Document.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+    //</editor-fold>
+}
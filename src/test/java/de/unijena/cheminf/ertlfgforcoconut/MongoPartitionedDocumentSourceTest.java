@@ -0,0 +1,474 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Tests the MongoPartitionedDocumentSource class on a local stand-in for a MongoDB collection that evaluates the
+ * generated range filters and sorts with the type bracketing of MongoDB queries, and the comparison of key values in
+ * DocumentPartition.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public class MongoPartitionedDocumentSourceTest {
+    //<editor-fold desc="Private static final constants">
+    /**
+     * Name of the document variable that contains the ID of a molecule
+     */
+    private static final String ID_KEY = "coconut_id";
+
+    /**
+     * Number of test documents
+     */
+    private static final int DOCUMENT_COUNT = 300;
+
+    /**
+     * Number of partitions
+     */
+    private static final int PARTITION_COUNT = 5;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public test methods">
+    /**
+     * Tests that the partitions of string keys with non-ASCII characters are disjoint and cover all documents, i.e.
+     * that the split points are ordered like the database orders the keys, that every partition is read in ascending
+     * key order with a range filter on the key, and that a resumed read only returns the keys after the resume key.
+     */
+    @Test
+    public void testPartitionCoverageOfStringKeys() {
+        List<Document> tmpDocuments = new ArrayList<>(MongoPartitionedDocumentSourceTest.DOCUMENT_COUNT);
+        //U+FF5E sorts before the supplementary characters in UTF-8 but after their surrogates in UTF-16
+        String[] tmpPrefixes = {"CNP", "é", "～", "😀", "𝄞"};
+        for (int i = 0; i < MongoPartitionedDocumentSourceTest.DOCUMENT_COUNT; i++) {
+            tmpDocuments.add(new Document("_id", tmpPrefixes[i % tmpPrefixes.length] + String.format("%04d", i)));
+        }
+        List<Bson> tmpFilters = new ArrayList<>();
+        MongoPartitionedDocumentSource tmpSource = new MongoPartitionedDocumentSource(
+                MongoPartitionedDocumentSourceTest.createCollection(tmpDocuments, tmpFilters),
+                new MongoCollectionReader(null, null, 0, false));
+        List<DocumentPartition> tmpPartitions = tmpSource.createPartitions(
+                MongoPartitionedDocumentSourceTest.PARTITION_COUNT);
+        Assert.assertEquals(MongoPartitionedDocumentSourceTest.PARTITION_COUNT, tmpPartitions.size());
+        Set<Object> tmpReadKeys = new HashSet<>(MongoPartitionedDocumentSourceTest.DOCUMENT_COUNT * 2);
+        for (DocumentPartition tmpPartition : tmpPartitions) {
+            List<Object> tmpPartitionKeys = MongoPartitionedDocumentSourceTest.readKeys(tmpSource.open(tmpPartition,
+                    null));
+            Assert.assertFalse(tmpPartition.toString(), tmpPartitionKeys.isEmpty());
+            for (int i = 0; i < tmpPartitionKeys.size(); i++) {
+                Assert.assertTrue(tmpReadKeys.add(tmpPartitionKeys.get(i)));
+                if (i > 0) {
+                    Assert.assertTrue(DocumentPartition.compareKeys(tmpPartitionKeys.get(i - 1),
+                            tmpPartitionKeys.get(i)) < 0);
+                }
+            }
+        }
+        Assert.assertEquals(MongoPartitionedDocumentSourceTest.DOCUMENT_COUNT, tmpReadKeys.size());
+        DocumentPartition tmpMiddlePartition = tmpPartitions.get(2);
+        BsonDocument tmpRangeFilter = MongoPartitionedDocumentSourceTest.render(tmpFilters.get(tmpFilters.size() - 1));
+        Assert.assertTrue(tmpRangeFilter.toJson().contains("\"$gte\""));
+        Assert.assertFalse(tmpRangeFilter.toJson().contains("\"$lt\""));
+        tmpSource.open(tmpMiddlePartition, null).close();
+        tmpRangeFilter = MongoPartitionedDocumentSourceTest.render(tmpFilters.get(tmpFilters.size() - 1));
+        Assert.assertTrue(tmpRangeFilter.toJson().contains("\"$gte\""));
+        Assert.assertTrue(tmpRangeFilter.toJson().contains("\"$lt\""));
+        List<Object> tmpMiddleKeys = MongoPartitionedDocumentSourceTest.readKeys(tmpSource.open(tmpMiddlePartition,
+                null));
+        List<Object> tmpResumedKeys = MongoPartitionedDocumentSourceTest.readKeys(tmpSource.open(tmpMiddlePartition,
+                tmpMiddleKeys.get(2)));
+        Assert.assertEquals(tmpMiddleKeys.subList(3, tmpMiddleKeys.size()), tmpResumedKeys);
+        Assert.assertTrue(MongoPartitionedDocumentSourceTest.render(tmpFilters.get(tmpFilters.size() - 1)).toJson()
+                .contains("\"$gt\""));
+    }
+
+    /**
+     * Tests that the partitions of numeric keys of different types are disjoint and cover all documents.
+     */
+    @Test
+    public void testPartitionCoverageOfMixedNumericKeys() {
+        List<Document> tmpDocuments = new ArrayList<>(MongoPartitionedDocumentSourceTest.DOCUMENT_COUNT);
+        for (int i = 0; i < MongoPartitionedDocumentSourceTest.DOCUMENT_COUNT; i++) {
+            Object tmpKey = i % 3 == 0 ? (Object) i : i % 3 == 1 ? (Object) (i * 1000000000000L) : (Object) (i + 0.5);
+            tmpDocuments.add(new Document("_id", new ObjectId()).append(MongoPartitionedDocumentSourceTest.ID_KEY,
+                    tmpKey));
+        }
+        MongoPartitionedDocumentSource tmpSource = new MongoPartitionedDocumentSource(
+                MongoPartitionedDocumentSourceTest.createCollection(tmpDocuments, new ArrayList<>()),
+                new MongoCollectionReader(null, null, 0, false), MongoPartitionedDocumentSourceTest.ID_KEY,
+                MongoPartitionedDocumentSource.DEFAULT_SAMPLES_PER_PARTITION);
+        int tmpReadCount = 0;
+        List<DocumentPartition> tmpPartitions = tmpSource.createPartitions(
+                MongoPartitionedDocumentSourceTest.PARTITION_COUNT);
+        for (DocumentPartition tmpPartition : tmpPartitions) {
+            tmpReadCount += MongoPartitionedDocumentSourceTest.readKeys(tmpSource.open(tmpPartition, null)).size();
+        }
+        Assert.assertEquals(MongoPartitionedDocumentSourceTest.DOCUMENT_COUNT, tmpReadCount);
+    }
+
+    /**
+     * Tests that the partitioning is rejected if a document lacks the partition key or the key values belong to
+     * different BSON type brackets, because range filters would skip these documents.
+     */
+    @Test
+    public void testMissingKeysAndMixedTypeBrackets() {
+        List<Document> tmpDocuments = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tmpDocuments.add(new Document("_id", i).append(MongoPartitionedDocumentSourceTest.ID_KEY, "CNP" + i));
+        }
+        tmpDocuments.add(new Document("_id", 10));
+        MongoPartitionedDocumentSource tmpSource = new MongoPartitionedDocumentSource(
+                MongoPartitionedDocumentSourceTest.createCollection(tmpDocuments, new ArrayList<>()),
+                new MongoCollectionReader(null, null, 0, false), MongoPartitionedDocumentSourceTest.ID_KEY, 10);
+        for (int tmpPartitionCount : new int[] {1, 3}) {
+            try {
+                tmpSource.createPartitions(tmpPartitionCount);
+                Assert.fail("IllegalStateException expected.");
+            } catch (IllegalStateException anException) {
+                //expected
+            }
+        }
+        tmpDocuments.add(new Document("_id", "ID11"));
+        tmpSource = new MongoPartitionedDocumentSource(
+                MongoPartitionedDocumentSourceTest.createCollection(tmpDocuments, new ArrayList<>()),
+                new MongoCollectionReader(null, null, 0, false));
+        try {
+            tmpSource.createPartitions(3);
+            Assert.fail("IllegalStateException expected.");
+        } catch (IllegalStateException anException) {
+            //expected
+        }
+        Assert.assertEquals(1, new MongoPartitionedDocumentSource(
+                MongoPartitionedDocumentSourceTest.createCollection(new ArrayList<>(), new ArrayList<>()),
+                new MongoCollectionReader(null, null, 0, false)).createPartitions(3).size());
+    }
+
+    /**
+     * Tests the comparison of key values in the order of the database.
+     */
+    @Test
+    public void testKeyComparison() {
+        String tmpFullwidthTilde = "～";
+        String tmpEmoji = "😀";
+        Assert.assertTrue(tmpFullwidthTilde.compareTo(tmpEmoji) > 0);
+        Assert.assertTrue(DocumentPartition.compareKeys(tmpFullwidthTilde, tmpEmoji) < 0);
+        Assert.assertTrue(DocumentPartition.compareKeys("Z", "a") < 0);
+        Assert.assertTrue(DocumentPartition.compareKeys(2, 3L) < 0);
+        Assert.assertTrue(DocumentPartition.compareKeys(3L, 2.5) > 0);
+        Assert.assertEquals(0, DocumentPartition.compareKeys(2, 2.0));
+        Assert.assertTrue(DocumentPartition.compareKeys(Double.NaN, Double.NEGATIVE_INFINITY) < 0);
+        Assert.assertTrue(DocumentPartition.compareKeys(Long.MAX_VALUE, (double) Long.MAX_VALUE) < 0);
+        ObjectId tmpFirstId = new ObjectId("5f0000000000000000000001");
+        ObjectId tmpSecondId = new ObjectId("5f0000000000000000000002");
+        Assert.assertTrue(DocumentPartition.compareKeys(tmpFirstId, tmpSecondId) < 0);
+        try {
+            DocumentPartition.compareKeys(1, "1");
+            Assert.fail("ClassCastException expected.");
+        } catch (ClassCastException anException) {
+            //expected
+        }
+        List<DocumentPartition> tmpPartitions = DocumentPartition.createPartitions(Arrays.asList(tmpEmoji, "CNP",
+                tmpFullwidthTilde, "é"), 4);
+        Assert.assertEquals(4, tmpPartitions.size());
+        Assert.assertEquals("é", tmpPartitions.get(1).getLowerBound());
+        Assert.assertEquals(tmpFullwidthTilde, tmpPartitions.get(2).getLowerBound());
+        Assert.assertEquals(tmpEmoji, tmpPartitions.get(3).getLowerBound());
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static methods">
+    /**
+     * Reads the partition key values of all documents of the given cursor and closes it.
+     *
+     * @param aCursor the cursor
+     * @return the key values in the order of the cursor
+     */
+    private static List<Object> readKeys(MongoCursor<Document> aCursor) {
+        List<Object> tmpKeys = new ArrayList<>();
+        try (MongoCursor<Document> tmpCursor = aCursor) {
+            while (tmpCursor.hasNext()) {
+                Document tmpDocument = tmpCursor.next();
+                tmpKeys.add(tmpDocument.containsKey(MongoPartitionedDocumentSourceTest.ID_KEY)
+                        ? tmpDocument.get(MongoPartitionedDocumentSourceTest.ID_KEY) : tmpDocument.get("_id"));
+            }
+        }
+        return tmpKeys;
+    }
+
+    /**
+     * Creates a stand-in for a MongoDB collection of the given documents that supports $sample aggregations, which
+     * return all documents, and find operations with filter, sort, and limit. Range filters only match values of the
+     * same BSON type bracket like MongoDB queries do; documents without the key sort first. The filters of the find
+     * operations are added to the given list. Other methods are not supported.
+     *
+     * @param aDocuments documents of the collection
+     * @param aFilters list the filters of the find operations are added to
+     * @return the stand-in
+     */
+    @SuppressWarnings("unchecked")
+    private static MongoCollection<Document> createCollection(List<Document> aDocuments, List<Bson> aFilters) {
+        return (MongoCollection<Document>) Proxy.newProxyInstance(
+                MongoPartitionedDocumentSourceTest.class.getClassLoader(), new Class<?>[] {MongoCollection.class},
+                (aProxy, aMethod, anArguments) -> {
+                    switch (aMethod.getName()) {
+                        case "aggregate":
+                            return MongoPartitionedDocumentSourceTest.createIterable(AggregateIterable.class,
+                                    new ArrayList<>(aDocuments), null);
+                        case "find":
+                            aFilters.add((Bson) anArguments[0]);
+                            BsonDocument tmpFilter = MongoPartitionedDocumentSourceTest.render((Bson) anArguments[0]);
+                            List<Document> tmpMatches = new ArrayList<>();
+                            for (Document tmpDocument : aDocuments) {
+                                if (MongoPartitionedDocumentSourceTest.matches(tmpDocument, tmpFilter)) {
+                                    tmpMatches.add(tmpDocument);
+                                }
+                            }
+                            return MongoPartitionedDocumentSourceTest.createIterable(FindIterable.class, tmpMatches,
+                                    null);
+                        default:
+                            throw new UnsupportedOperationException(aMethod.getName());
+                    }
+                });
+    }
+
+    /**
+     * Creates a stand-in for a find or aggregate iterable over the given documents that supports sort on one key,
+     * limit, first, and iterator; projection, batch size, and cursor timeout settings are ignored.
+     *
+     * @param anIterableClass FindIterable or AggregateIterable
+     * @param aDocuments documents of the iterable
+     * @param aLimit maximum number of documents; 'null' if unlimited
+     * @return the stand-in
+     */
+    private static Object createIterable(Class<?> anIterableClass, List<Document> aDocuments, Integer aLimit) {
+        return Proxy.newProxyInstance(MongoPartitionedDocumentSourceTest.class.getClassLoader(),
+                new Class<?>[] {anIterableClass}, (aProxy, aMethod, anArguments) -> {
+                    List<Document> tmpDocuments = Objects.isNull(aLimit) || aLimit >= aDocuments.size() ? aDocuments
+                            : aDocuments.subList(0, aLimit);
+                    switch (aMethod.getName()) {
+                        case "sort":
+                            Map.Entry<String, BsonValue> tmpSort = MongoPartitionedDocumentSourceTest.render(
+                                    (Bson) anArguments[0]).entrySet().iterator().next();
+                            List<Document> tmpSortedDocuments = new ArrayList<>(aDocuments);
+                            tmpSortedDocuments.sort((aFirst, aSecond) -> tmpSort.getValue().asInt32().getValue()
+                                    * MongoPartitionedDocumentSourceTest.compare(aFirst.get(tmpSort.getKey()),
+                                    aSecond.get(tmpSort.getKey())));
+                            return MongoPartitionedDocumentSourceTest.createIterable(anIterableClass,
+                                    tmpSortedDocuments, aLimit);
+                        case "limit":
+                            return MongoPartitionedDocumentSourceTest.createIterable(anIterableClass, aDocuments,
+                                    (Integer) anArguments[0]);
+                        case "first":
+                            return tmpDocuments.isEmpty() ? null : tmpDocuments.get(0);
+                        case "iterator":
+                            return MongoPartitionedDocumentSourceTest.createCursor(tmpDocuments.iterator());
+                        case "projection":
+                        case "batchSize":
+                        case "noCursorTimeout":
+                            return aProxy;
+                        default:
+                            throw new UnsupportedOperationException(aMethod.getName());
+                    }
+                });
+    }
+
+    /**
+     * Creates a stand-in for a cursor over the given documents.
+     *
+     * @param anIterator iterator over the documents
+     * @return the stand-in
+     */
+    @SuppressWarnings("unchecked")
+    private static MongoCursor<Document> createCursor(Iterator<Document> anIterator) {
+        return (MongoCursor<Document>) Proxy.newProxyInstance(
+                MongoPartitionedDocumentSourceTest.class.getClassLoader(), new Class<?>[] {MongoCursor.class},
+                (aProxy, aMethod, anArguments) -> {
+                    switch (aMethod.getName()) {
+                        case "hasNext":
+                            return anIterator.hasNext();
+                        case "next":
+                            return anIterator.next();
+                        case "close":
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(aMethod.getName());
+                    }
+                });
+    }
+
+    /**
+     * Returns whether the given document matches the given filter, which may consist of $and and the comparison
+     * operators $gte, $lt, and $gt on a field. Comparisons only match values of the same BSON type bracket.
+     *
+     * @param aDocument the document
+     * @param aFilter the rendered filter
+     * @return true if the document matches
+     */
+    private static boolean matches(Document aDocument, BsonDocument aFilter) {
+        for (Map.Entry<String, BsonValue> tmpEntry : aFilter.entrySet()) {
+            if (tmpEntry.getKey().equals("$and")) {
+                for (BsonValue tmpSubFilter : tmpEntry.getValue().asArray()) {
+                    if (!MongoPartitionedDocumentSourceTest.matches(aDocument, tmpSubFilter.asDocument())) {
+                        return false;
+                    }
+                }
+                continue;
+            }
+            Object tmpValue = aDocument.get(tmpEntry.getKey());
+            for (Map.Entry<String, BsonValue> tmpOperator : tmpEntry.getValue().asDocument().entrySet()) {
+                Object tmpOperand = MongoPartitionedDocumentSourceTest.toJavaValue(tmpOperator.getValue());
+                int tmpBracket = MongoPartitionedDocumentSourceTest.getTypeBracket(tmpValue);
+                if (tmpBracket != MongoPartitionedDocumentSourceTest.getTypeBracket(tmpOperand)) {
+                    return false;
+                }
+                int tmpComparison = MongoPartitionedDocumentSourceTest.compare(tmpValue, tmpOperand);
+                switch (tmpOperator.getKey()) {
+                    case "$gte":
+                        if (tmpComparison < 0) {
+                            return false;
+                        }
+                        break;
+                    case "$lt":
+                        if (tmpComparison >= 0) {
+                            return false;
+                        }
+                        break;
+                    case "$gt":
+                        if (tmpComparison <= 0) {
+                            return false;
+                        }
+                        break;
+                    default:
+                        throw new UnsupportedOperationException(tmpOperator.getKey());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares two values like MongoDB sorts them: first by type bracket, then numbers by value, strings by their
+     * UTF-8 bytes, and ObjectIds by their bytes.
+     *
+     * @param aValue1 first value; 'null' if missing
+     * @param aValue2 second value; 'null' if missing
+     * @return the comparison result
+     */
+    private static int compare(Object aValue1, Object aValue2) {
+        int tmpBracket1 = MongoPartitionedDocumentSourceTest.getTypeBracket(aValue1);
+        int tmpBracket2 = MongoPartitionedDocumentSourceTest.getTypeBracket(aValue2);
+        if (tmpBracket1 != tmpBracket2) {
+            return Integer.compare(tmpBracket1, tmpBracket2);
+        }
+        if (aValue1 instanceof Number) {
+            return Double.compare(((Number) aValue1).doubleValue(), ((Number) aValue2).doubleValue());
+        }
+        if (aValue1 instanceof String) {
+            return Arrays.compareUnsigned(((String) aValue1).getBytes(StandardCharsets.UTF_8),
+                    ((String) aValue2).getBytes(StandardCharsets.UTF_8));
+        }
+        if (aValue1 instanceof ObjectId) {
+            return ((ObjectId) aValue1).compareTo((ObjectId) aValue2);
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the position of the BSON type bracket of the given value in the comparison order of MongoDB for the
+     * types used in the tests.
+     *
+     * @param aValue the value; 'null' if missing
+     * @return the position of the type bracket
+     */
+    private static int getTypeBracket(Object aValue) {
+        if (Objects.isNull(aValue)) {
+            return 1;
+        }
+        if (aValue instanceof Number) {
+            return 2;
+        }
+        if (aValue instanceof String) {
+            return 3;
+        }
+        if (aValue instanceof ObjectId) {
+            return 7;
+        }
+        throw new UnsupportedOperationException(aValue.getClass().getName());
+    }
+
+    /**
+     * Converts the given BSON value of a filter into the Java value of a decoded document.
+     *
+     * @param aValue the BSON value
+     * @return the Java value
+     */
+    private static Object toJavaValue(BsonValue aValue) {
+        switch (aValue.getBsonType()) {
+            case STRING:
+                return aValue.asString().getValue();
+            case INT32:
+                return aValue.asInt32().getValue();
+            case INT64:
+                return aValue.asInt64().getValue();
+            case DOUBLE:
+                return aValue.asDouble().getValue();
+            case OBJECT_ID:
+                return aValue.asObjectId().getValue();
+            default:
+                throw new UnsupportedOperationException(aValue.getBsonType().name());
+        }
+    }
+
+    /**
+     * Renders the given filter or sort with the default codec registry.
+     *
+     * @param aBson filter or sort
+     * @return the rendered document
+     */
+    private static BsonDocument render(Bson aBson) {
+        return aBson.toBsonDocument(Document.class, MongoClientSettings.getDefaultCodecRegistry());
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,315 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openscience.cdk.tools.FunctionalGroupCanonicalForm;
+import org.openscience.cdk.tools.FunctionalGroupProfile;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Tests the PersistentProfileCache class and its use by the FunctionalGroupExtractor for incremental re-runs.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public class PersistentProfileCacheTest {
+    //<editor-fold desc="Private static final constants">
+    /**
+     * SMILES codes of the first release; the two stereoisomers share one constitution, the salt is filtered before
+     * parsing, hexane has no functional groups, and the last one cannot be parsed
+     */
+    private static final String[] FIRST_RELEASE = {"CCO", "CC(=O)O", "C[C@H](N)C(=O)O", "C[C@@H](N)C(=O)O",
+            "[Na+].[Cl-]", "CCCCCC", "O=C1OC(CO)C(O)=C1O", "C1CC(C"};
+
+    /**
+     * SMILES codes added in the second release
+     */
+    private static final String[] NEW_STRUCTURES = {"c1ccccc1C(=O)OC", "NCCS"};
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public variables">
+    /**
+     * Folder for the cache files, deleted after every test
+     */
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public test methods">
+    /**
+     * Tests that a re-run with the persisted cache gives the same results lines and only parses the new structures,
+     * while all profiles, including empty ones, are restored together with the canonical forms of their functional
+     * groups.
+     *
+     * @throws Exception if the cache file cannot be accessed
+     */
+    @Test
+    public void testIncrementalRerun() throws Exception {
+        Path tmpFile = this.temporaryFolder.getRoot().toPath().resolve("profiles.bin");
+        List<String> tmpFirstLines;
+        try (PersistentProfileCache tmpCache = PersistentProfileCache.open(tmpFile, FunctionalGroupExtractor.SETTINGS)) {
+            FunctionalGroupExtractor tmpExtractor = new FunctionalGroupExtractor(FunctionalGroupExtractor.DEFAULT_SEPARATOR, tmpCache);
+            tmpFirstLines = PersistentProfileCacheTest.process(tmpExtractor, PersistentProfileCacheTest.FIRST_RELEASE);
+            //salt and unparsable SMILES code are not cached
+            Assert.assertEquals(PersistentProfileCacheTest.FIRST_RELEASE.length - 2, tmpCache.size());
+            Assert.assertEquals(0L, tmpCache.getHitCount());
+        }
+        String[] tmpSecondRelease = new String[PersistentProfileCacheTest.FIRST_RELEASE.length + PersistentProfileCacheTest.NEW_STRUCTURES.length];
+        System.arraycopy(PersistentProfileCacheTest.FIRST_RELEASE, 0, tmpSecondRelease, 0, PersistentProfileCacheTest.FIRST_RELEASE.length);
+        System.arraycopy(PersistentProfileCacheTest.NEW_STRUCTURES, 0, tmpSecondRelease, PersistentProfileCacheTest.FIRST_RELEASE.length,
+                PersistentProfileCacheTest.NEW_STRUCTURES.length);
+        List<String> tmpExpectedLines = PersistentProfileCacheTest.process(new FunctionalGroupExtractor(), tmpSecondRelease);
+        Assert.assertEquals(tmpFirstLines, tmpExpectedLines.subList(0, tmpFirstLines.size()));
+        try (PersistentProfileCache tmpCache = PersistentProfileCache.open(tmpFile, FunctionalGroupExtractor.SETTINGS)) {
+            Assert.assertEquals(PersistentProfileCacheTest.FIRST_RELEASE.length - 2, tmpCache.getLoadedCount());
+            FunctionalGroupExtractor tmpExtractor = new FunctionalGroupExtractor(FunctionalGroupExtractor.DEFAULT_SEPARATOR, tmpCache);
+            Assert.assertEquals(tmpCache.getCanonicalForms().size(), tmpExtractor.getCanonicalFormsMap().size());
+            Assert.assertEquals(tmpExpectedLines, PersistentProfileCacheTest.process(tmpExtractor, tmpSecondRelease));
+            Assert.assertEquals(PersistentProfileCacheTest.FIRST_RELEASE.length - 2, tmpCache.getHitCount());
+            //only the new structures and the unparsable SMILES code reached the parser and the in-memory cache
+            Assert.assertEquals(PersistentProfileCacheTest.NEW_STRUCTURES.length, tmpExtractor.getProfileCache().getMissCount());
+            Assert.assertEquals(1, tmpExtractor.getNoneDetectedCount());
+            Assert.assertEquals(tmpSecondRelease.length - 2, tmpCache.size());
+        }
+    }
+
+    /**
+     * Tests that profiles cached under other settings are not returned and that an extractor rejects a cache with
+     * other settings.
+     *
+     * @throws Exception if the cache file cannot be accessed
+     */
+    @Test
+    public void testSettingsArePartOfKey() throws Exception {
+        Path tmpFile = this.temporaryFolder.getRoot().toPath().resolve("profiles.bin");
+        try (PersistentProfileCache tmpCache = PersistentProfileCache.open(tmpFile, FunctionalGroupExtractor.SETTINGS)) {
+            PersistentProfileCacheTest.process(new FunctionalGroupExtractor(FunctionalGroupExtractor.DEFAULT_SEPARATOR, tmpCache),
+                    PersistentProfileCacheTest.FIRST_RELEASE);
+            Assert.assertNotNull(tmpCache.get("CCO"));
+        }
+        Assert.assertNotEquals(PersistentProfileCache.createKey("a", "CCO"), PersistentProfileCache.createKey("b", "CCO"));
+        try (PersistentProfileCache tmpCache = PersistentProfileCache.open(tmpFile, "aromaticity: cdk legacy")) {
+            Assert.assertNull(tmpCache.get("CCO"));
+            try {
+                new FunctionalGroupExtractor(FunctionalGroupExtractor.DEFAULT_SEPARATOR, tmpCache);
+                Assert.fail("IllegalArgumentException expected.");
+            } catch (IllegalArgumentException anException) {
+                //expected
+            }
+        }
+    }
+
+    /**
+     * Tests that a record cut off by a crash is discarded when the cache is opened again and that new entries are
+     * appended after the last complete record.
+     *
+     * @throws Exception if the cache file cannot be accessed
+     */
+    @Test
+    public void testIncompleteRecordIsDiscarded() throws Exception {
+        Path tmpFile = this.temporaryFolder.getRoot().toPath().resolve("profiles.bin");
+        try (PersistentProfileCache tmpCache = PersistentProfileCache.open(tmpFile, FunctionalGroupExtractor.SETTINGS)) {
+            PersistentProfileCacheTest.process(new FunctionalGroupExtractor(FunctionalGroupExtractor.DEFAULT_SEPARATOR, tmpCache),
+                    PersistentProfileCacheTest.FIRST_RELEASE);
+        }
+        try (FileChannel tmpChannel = FileChannel.open(tmpFile, StandardOpenOption.WRITE)) {
+            tmpChannel.truncate(tmpChannel.size() - 3L);
+        }
+        FunctionalGroupProfile tmpProfile;
+        try (PersistentProfileCache tmpCache = PersistentProfileCache.open(tmpFile, FunctionalGroupExtractor.SETTINGS)) {
+            Assert.assertEquals(PersistentProfileCacheTest.FIRST_RELEASE.length - 3, tmpCache.getLoadedCount());
+            FunctionalGroupExtractor tmpExtractor = new FunctionalGroupExtractor(FunctionalGroupExtractor.DEFAULT_SEPARATOR, tmpCache);
+            PersistentProfileCacheTest.process(tmpExtractor, PersistentProfileCacheTest.FIRST_RELEASE);
+            Assert.assertEquals(PersistentProfileCacheTest.FIRST_RELEASE.length - 2, tmpCache.size());
+            tmpProfile = tmpCache.get("O=C1OC(CO)C(O)=C1O");
+        }
+        long tmpLength = Files.size(tmpFile);
+        try (PersistentProfileCache tmpCache = PersistentProfileCache.open(tmpFile, FunctionalGroupExtractor.SETTINGS)) {
+            Assert.assertEquals(PersistentProfileCacheTest.FIRST_RELEASE.length - 2, tmpCache.getLoadedCount());
+            Assert.assertEquals(tmpProfile, tmpCache.get("O=C1OC(CO)C(O)=C1O"));
+        }
+        Assert.assertEquals(tmpLength, Files.size(tmpFile));
+    }
+
+    /**
+     * Tests that the profiles of molecules whose aromaticity was perceived with the fallback cycle finder, e.g.
+     * fullerene, are neither kept in the profile cache of the extractor nor in the persistent cache, so every record
+     * that needs the fallback is processed and counted anew.
+     *
+     * @throws Exception if the cache file cannot be accessed
+     */
+    @Test
+    public void testFallbackProfilesAreNotCached() throws Exception {
+        Path tmpFile = this.temporaryFolder.getRoot().toPath().resolve("profiles.bin");
+        String tmpFullereneSmiles = "c12c3c4c5c1c1c6c7c2c2c8c3c3c9c4c4c%10c5c5c1c1c6c6c%11c7c2c2c7c8c3c3c8c9c4c4c9c%10"
+                + "c5c5c1c1c6c6c%11c2c2c7c3c3c8c4c4c9c5c1c1c6c2c3c41";
+        try (PersistentProfileCache tmpCache = PersistentProfileCache.open(tmpFile,
+                FunctionalGroupExtractor.SETTINGS)) {
+            FunctionalGroupExtractor tmpExtractor = new FunctionalGroupExtractor(
+                    FunctionalGroupExtractor.DEFAULT_SEPARATOR, tmpCache);
+            String tmpFirstLine = tmpExtractor.process("ID0", tmpFullereneSmiles);
+            Assert.assertEquals(1, tmpExtractor.getAromaticityFallbackCount());
+            Assert.assertEquals(tmpFirstLine.replace("ID0", "ID1"), tmpExtractor.process("ID1", tmpFullereneSmiles));
+            Assert.assertEquals(2, tmpExtractor.getAromaticityFallbackCount());
+            Assert.assertEquals(0, tmpExtractor.getProfileCache().size());
+            Assert.assertEquals(0, tmpCache.size());
+            tmpExtractor.process("ID2", "CCO");
+            Assert.assertEquals(1, tmpExtractor.getProfileCache().size());
+            Assert.assertEquals(1, tmpCache.size());
+        }
+    }
+
+    /**
+     * Tests that a cache file written with other settings is compacted when it is opened, i.e. its entries are
+     * discarded instead of being kept next to the ones of the current settings.
+     *
+     * @throws Exception if the cache file cannot be accessed
+     */
+    @Test
+    public void testCompactionOnOpen() throws Exception {
+        Path tmpFile = this.temporaryFolder.getRoot().toPath().resolve("profiles.bin");
+        Path tmpEmptyFile = this.temporaryFolder.getRoot().toPath().resolve("empty.bin");
+        PersistentProfileCache.open(tmpEmptyFile, "aromaticity: cdk legacy").close();
+        try (PersistentProfileCache tmpCache = PersistentProfileCache.open(tmpFile, "aromaticity: cdk legacy")) {
+            tmpCache.put("CCO", FunctionalGroupProfile.EMPTY, Collections.emptyMap());
+        }
+        Assert.assertTrue(Files.size(tmpFile) > Files.size(tmpEmptyFile));
+        try (PersistentProfileCache tmpCache = PersistentProfileCache.open(tmpFile,
+                FunctionalGroupExtractor.SETTINGS)) {
+            Assert.assertEquals(0, tmpCache.getLoadedCount());
+            PersistentProfileCacheTest.process(new FunctionalGroupExtractor(FunctionalGroupExtractor.DEFAULT_SEPARATOR,
+                    tmpCache), PersistentProfileCacheTest.FIRST_RELEASE);
+        }
+        long tmpFullLength = Files.size(tmpFile);
+        try (PersistentProfileCache tmpCache = PersistentProfileCache.open(tmpFile, "aromaticity: cdk legacy")) {
+            Assert.assertEquals(0, tmpCache.getLoadedCount());
+            Assert.assertTrue(tmpCache.getCanonicalForms().isEmpty());
+            Assert.assertEquals(Files.size(tmpEmptyFile), Files.size(tmpFile));
+        }
+        try (PersistentProfileCache tmpCache = PersistentProfileCache.open(tmpFile,
+                FunctionalGroupExtractor.SETTINGS)) {
+            Assert.assertEquals(0, tmpCache.getLoadedCount());
+            PersistentProfileCacheTest.process(new FunctionalGroupExtractor(FunctionalGroupExtractor.DEFAULT_SEPARATOR,
+                    tmpCache), PersistentProfileCacheTest.FIRST_RELEASE);
+        }
+        Assert.assertEquals(tmpFullLength, Files.size(tmpFile));
+    }
+
+    /**
+     * Tests that an entry whose functional groups lack canonical forms is neither cached nor partially written to the
+     * file, also if the canonical forms of some of its functional groups are given.
+     *
+     * @throws Exception if the cache file cannot be accessed
+     */
+    @Test
+    public void testFailedPutLeavesNoPartialRecord() throws Exception {
+        Path tmpFile = this.temporaryFolder.getRoot().toPath().resolve("profiles.bin");
+        FunctionalGroupExtractor tmpExtractor = new FunctionalGroupExtractor();
+        tmpExtractor.process("ID0", "CCO");
+        Map<Long, FunctionalGroupCanonicalForm> tmpCanonicalFormsMap = tmpExtractor.getCanonicalFormsMap();
+        long[] tmpHashKeys = new long[tmpCanonicalFormsMap.size() + 1];
+        int tmpIndex = 0;
+        for (long tmpHashKey : tmpCanonicalFormsMap.keySet()) {
+            tmpHashKeys[tmpIndex++] = tmpHashKey;
+        }
+        //the profile is sorted by hash key, so the missing canonical form is the last one
+        tmpHashKeys[tmpIndex] = Long.MAX_VALUE;
+        FunctionalGroupProfile tmpProfile = FunctionalGroupProfile.fromHashKeys(tmpHashKeys);
+        long tmpEmptyLength;
+        try (PersistentProfileCache tmpCache = PersistentProfileCache.open(tmpFile,
+                FunctionalGroupExtractor.SETTINGS)) {
+            tmpEmptyLength = Files.size(tmpFile);
+            try {
+                tmpCache.put("CCO", tmpProfile, tmpCanonicalFormsMap);
+                Assert.fail("IllegalArgumentException expected.");
+            } catch (IllegalArgumentException anException) {
+                //expected
+            }
+            Assert.assertNull(tmpCache.get("CCO"));
+            Assert.assertTrue(tmpCache.getCanonicalForms().isEmpty());
+        }
+        Assert.assertEquals(tmpEmptyLength, Files.size(tmpFile));
+    }
+
+    /**
+     * Tests that the cache is flushed at every checkpoint of a CheckpointingResultSink if it is combined with the
+     * sink, so the cached profiles are in the file before the cache is closed.
+     *
+     * @throws Exception if a file cannot be accessed
+     */
+    @Test
+    public void testFlushAtCheckpoint() throws Exception {
+        Path tmpFile = this.temporaryFolder.getRoot().toPath().resolve("profiles.bin");
+        Path tmpResultsFile = this.temporaryFolder.getRoot().toPath().resolve("results.txt");
+        ExtractionCheckpoint tmpStartCheckpoint = new ExtractionCheckpoint(
+                Collections.singletonList(new DocumentPartition(0, null, null)), 0, null, 0L, 0L);
+        try (PersistentProfileCache tmpCache = PersistentProfileCache.open(tmpFile, FunctionalGroupExtractor.SETTINGS);
+             FileChannel tmpResultsChannel = FileChannel.open(tmpResultsFile, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE)) {
+            CheckpointingResultSink tmpSink = new CheckpointingResultSink(ResultSink.createFlushSink(tmpCache),
+                    tmpResultsChannel, "_id", tmpStartCheckpoint, tmpResultsFile.resolveSibling("results.checkpoint"),
+                    CheckpointingResultSink.DEFAULT_CHECKPOINT_INTERVAL);
+            PersistentProfileCacheTest.process(new FunctionalGroupExtractor(FunctionalGroupExtractor.DEFAULT_SEPARATOR,
+                    tmpCache), PersistentProfileCacheTest.FIRST_RELEASE);
+            tmpSink.onPartitionEnd(0);
+            try (PersistentProfileCache tmpReopenedCache = PersistentProfileCache.open(tmpFile,
+                    FunctionalGroupExtractor.SETTINGS)) {
+                Assert.assertEquals(tmpCache.size(), tmpReopenedCache.getLoadedCount());
+            }
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static methods">
+    /**
+     * Processes the given SMILES codes with IDs of their positions and returns the results lines.
+     *
+     * @param anExtractor extractor to apply
+     * @param aSmilesCodes the SMILES codes
+     * @return the results lines, without the ones of unparsable SMILES codes
+     */
+    private static List<String> process(FunctionalGroupExtractor anExtractor, String[] aSmilesCodes) {
+        List<String> tmpLines = new ArrayList<>(aSmilesCodes.length);
+        for (int i = 0; i < aSmilesCodes.length; i++) {
+            String tmpLine = anExtractor.process("ID" + i, aSmilesCodes[i]);
+            if (Objects.nonNull(tmpLine)) {
+                tmpLines.add(tmpLine);
+            }
+        }
+        return tmpLines;
+    }
+    //</editor-fold>
+}
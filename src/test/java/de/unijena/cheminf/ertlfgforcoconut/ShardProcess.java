@@ -0,0 +1,119 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import org.bson.Document;
+
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local stand-in for one shard of a sharded run on another machine, started in its own JVM by ShardedExtractionTest.
+ * The molecule documents are read from a tab-separated file of _id, ID, and SMILES code, and the results file of the
+ * shard is written like the one of the COCONUT extraction.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+final class ShardProcess {
+    //<editor-fold desc="Package-private static final constants">
+    /**
+     * Name of the document variable that contains the ID of the molecule
+     */
+    static final String ID_KEY = "coconut_id";
+
+    /**
+     * Name of the document variable that contains the SMILES code of the molecule
+     */
+    static final String SMILES_CODE_KEY = "smiles";
+
+    /**
+     * Name of the document variable the documents are partitioned on
+     */
+    static final String PARTITION_KEY = "_id";
+
+    /**
+     * Number of partitions the documents are read in
+     */
+    static final int PARTITION_COUNT = 3;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Constructors">
+    /**
+     * Private constructor, only the static methods are used.
+     */
+    private ShardProcess() {
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public static methods">
+    /**
+     * Runs one shard. Arguments: molecules file, shard index, shard count, and results file.
+     *
+     * @param anArguments the command line arguments
+     * @throws Exception if the shard fails
+     */
+    public static void main(String[] anArguments) throws Exception {
+        ShardProcess.run(Paths.get(anArguments[0]), new ExtractionShard(Integer.parseInt(anArguments[1]),
+                Integer.parseInt(anArguments[2]), ShardProcess.ID_KEY), Paths.get(anArguments[3]));
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Package-private static methods">
+    /**
+     * Extracts the functional groups of the molecules of the given shard and writes them to the given results file.
+     *
+     * @param aMoleculesFile tab-separated file of _id, ID, and SMILES code
+     * @param aShard the shard to process
+     * @param aResultsFile results file of the shard
+     * @return the source of the shard
+     * @throws Exception if the molecules file cannot be read or the run fails
+     */
+    static ShardedDocumentSource run(Path aMoleculesFile, ExtractionShard aShard, Path aResultsFile) throws Exception {
+        List<Document> tmpDocuments = new ArrayList<>();
+        for (String tmpLine : Files.readAllLines(aMoleculesFile, StandardCharsets.UTF_8)) {
+            String[] tmpFields = tmpLine.split("\t");
+            tmpDocuments.add(new Document(ShardProcess.PARTITION_KEY, Integer.parseInt(tmpFields[0]))
+                    .append(ShardProcess.ID_KEY, tmpFields[1])
+                    .append(ShardProcess.SMILES_CODE_KEY, tmpFields[2]));
+        }
+        ShardedDocumentSource tmpSource = new ShardedDocumentSource(
+                new InMemoryDocumentSource(tmpDocuments, ShardProcess.PARTITION_KEY, -1), aShard);
+        FunctionalGroupExtractor tmpExtractor = new FunctionalGroupExtractor();
+        FunctionalGroupExtractionPipeline tmpPipeline = new FunctionalGroupExtractionPipeline(tmpExtractor,
+                ShardProcess.ID_KEY, ShardProcess.SMILES_CODE_KEY, 2,
+                FunctionalGroupExtractionPipeline.DEFAULT_QUEUE_SIZE, FunctionalGroupExtractionPipeline.DEFAULT_QUEUE_SIZE);
+        try (PrintWriter tmpPrinter = new PrintWriter(Files.newBufferedWriter(aResultsFile, StandardCharsets.UTF_8))) {
+            tmpPrinter.println(tmpExtractor.createHeaderLine(ShardProcess.ID_KEY));
+            tmpPipeline.run(tmpSource, new ScanProgress(tmpSource.createPartitions(ShardProcess.PARTITION_COUNT)),
+                    ShardProcess.PARTITION_COUNT, FunctionalGroupExtractionPipeline.DEFAULT_MAX_ATTEMPTS, tmpPrinter);
+        }
+        return tmpSource;
+    }
+    //</editor-fold>
+}
@@ -0,0 +1,216 @@
+/*
+ * Uses
+ * ErtlFunctionalGroupsFinder for CDK
+ * to extract functional groups from a database of natural products
+ * Copyright (C) 2022 Jonas Schaub
+ *
+ * Source code is available at <https://github.com/JonasSchaub/Ertl-FG-for-COCONUT>
+ * ErtlFunctionalGroupsFinder for CDK is available at <https://github.com/zielesny/ErtlFunctionalGroupsFinder>
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2.1
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.unijena.cheminf.ertlfgforcoconut;
+
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the sharded extraction with ExtractionShard and ShardedDocumentSource and the merge of the shard outputs with
+ * the ShardResultsMerger.
+ *
+ * @author Jonas Schaub
+ * @version 1.0.0.0
+ */
+public class ShardedExtractionTest {
+    //<editor-fold desc="Private static final constants">
+    /**
+     * SMILES codes of the molecules, including stereoisomers, a salt, a molecule without functional groups, an
+     * unparsable SMILES code, and two Kekule structures of the same pyridinium ion with different atom orders
+     */
+    private static final String[] SMILES_CODES = {"CCO", "CC(=O)O", "C[C@H](N)C(=O)O", "C[C@@H](N)C(=O)O",
+            "[Na+].[Cl-]", "CCCCCC", "O=C1OC(CO)C(O)=C1O", "C1CC(C", "c1ccccc1C(=O)OC", "NCCS",
+            "OC1=CC=C(C=C1)C=CC(=O)O", "CN1C=NC2=C1C(=O)N(C(=O)N2C)C", "C=CC[N+]1=CC=CC=C1", "C1=C[N+](CC=C)=CC=C1"};
+
+    /**
+     * Number of molecules
+     */
+    private static final int MOLECULE_COUNT = 60;
+
+    /**
+     * Number of shards
+     */
+    private static final int SHARD_COUNT = 3;
+
+    /**
+     * Maximum time to wait for a shard process in seconds
+     */
+    private static final long PROCESS_TIMEOUT = 300L;
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public variables">
+    /**
+     * Folder for the molecules file and the results files, deleted after every test
+     */
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    //</editor-fold>
+    //
+    //<editor-fold desc="Public test methods">
+    /**
+     * Tests that the shard of an ID does not change, that the sharded sources return disjoint sets of documents that
+     * cover all documents, and that the shards get their own file names.
+     */
+    @Test
+    public void testShardsAreDisjointAndComplete() {
+        //CRC-32 checksums of the UTF-8 bytes, the same on every JVM
+        Assert.assertEquals(3, ExtractionShard.computeShardIndex("CNP0000001", 4));
+        Assert.assertEquals(3, ExtractionShard.computeShardIndex("CNP0123456", 7));
+        Assert.assertEquals(0, ExtractionShard.computeShardIndex("CNP0123456", 1));
+        InMemoryDocumentSource tmpSource = new InMemoryDocumentSource(ShardedExtractionTest.createDocuments(),
+                ShardProcess.PARTITION_KEY, -1);
+        Set<String> tmpAllIDs = new HashSet<>(ShardedExtractionTest.MOLECULE_COUNT * 2);
+        for (int i = 0; i < ShardedExtractionTest.SHARD_COUNT; i++) {
+            ExtractionShard tmpShard = new ExtractionShard(i, ShardedExtractionTest.SHARD_COUNT, ShardProcess.ID_KEY);
+            ShardedDocumentSource tmpShardSource = new ShardedDocumentSource(tmpSource, tmpShard);
+            int tmpShardSize = 0;
+            for (DocumentPartition tmpPartition : tmpShardSource.createPartitions(ShardProcess.PARTITION_COUNT)) {
+                try (MongoCursor<Document> tmpCursor = tmpShardSource.open(tmpPartition, null)) {
+                    while (tmpCursor.hasNext()) {
+                        Document tmpDocument = tmpCursor.next();
+                        Assert.assertEquals(i, ExtractionShard.computeShardIndex(tmpDocument.getString(ShardProcess.ID_KEY),
+                                ShardedExtractionTest.SHARD_COUNT));
+                        Assert.assertTrue(tmpAllIDs.add(tmpDocument.getString(ShardProcess.ID_KEY)));
+                        tmpShardSize++;
+                    }
+                }
+            }
+            Assert.assertTrue(tmpShardSize > 0);
+            Assert.assertEquals(ShardedExtractionTest.MOLECULE_COUNT - tmpShardSize, tmpShardSource.getSkippedCount());
+            Assert.assertEquals("Functional_groups_shard_" + i + "_of_3.txt", tmpShard.createFileName("Functional_groups.txt"));
+        }
+        Assert.assertEquals(ShardedExtractionTest.MOLECULE_COUNT, tmpAllIDs.size());
+        Assert.assertEquals("Functional_groups.txt",
+                new ExtractionShard(0, 1, ShardProcess.ID_KEY).createFileName("Functional_groups.txt"));
+    }
+
+    /**
+     * Tests that the shards run in separate local JVMs give the same merged results file and frequency table as a run
+     * with one shard, that the merged results file is sorted by ID, and that no functional group is split into two
+     * rows of the frequency table.
+     *
+     * @throws Exception if a file cannot be accessed or a shard process fails
+     */
+    @Test
+    public void testMergeOfLocalShardProcesses() throws Exception {
+        Path tmpFolder = this.temporaryFolder.getRoot().toPath();
+        Path tmpMoleculesFile = tmpFolder.resolve("molecules.tsv");
+        List<String> tmpMoleculeLines = new ArrayList<>(ShardedExtractionTest.MOLECULE_COUNT);
+        for (Document tmpDocument : ShardedExtractionTest.createDocuments()) {
+            tmpMoleculeLines.add(tmpDocument.get(ShardProcess.PARTITION_KEY) + "\t" + tmpDocument.get(ShardProcess.ID_KEY)
+                    + "\t" + tmpDocument.get(ShardProcess.SMILES_CODE_KEY));
+        }
+        Files.write(tmpMoleculesFile, tmpMoleculeLines, StandardCharsets.UTF_8);
+        List<Path> tmpShardFiles = ShardResultsMerger.resolveShardFiles(tmpFolder, "Functional_groups.txt",
+                ShardedExtractionTest.SHARD_COUNT);
+        List<Process> tmpProcesses = new ArrayList<>(ShardedExtractionTest.SHARD_COUNT);
+        List<Path> tmpLogFiles = new ArrayList<>(ShardedExtractionTest.SHARD_COUNT);
+        String tmpJavaPath = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (int i = 0; i < ShardedExtractionTest.SHARD_COUNT; i++) {
+            Path tmpLogFile = tmpFolder.resolve("shard_" + i + ".log");
+            tmpLogFiles.add(tmpLogFile);
+            ProcessBuilder tmpBuilder = new ProcessBuilder(tmpJavaPath, "-cp", System.getProperty("java.class.path"),
+                    ShardProcess.class.getName(), tmpMoleculesFile.toString(), Integer.toString(i),
+                    Integer.toString(ShardedExtractionTest.SHARD_COUNT), tmpShardFiles.get(i).toString());
+            tmpBuilder.redirectErrorStream(true);
+            tmpBuilder.redirectOutput(tmpLogFile.toFile());
+            tmpProcesses.add(tmpBuilder.start());
+        }
+        for (int i = 0; i < ShardedExtractionTest.SHARD_COUNT; i++) {
+            Process tmpProcess = tmpProcesses.get(i);
+            if (!tmpProcess.waitFor(ShardedExtractionTest.PROCESS_TIMEOUT, TimeUnit.SECONDS)) {
+                tmpProcess.destroyForcibly();
+                Assert.fail("Shard " + i + " timed out.");
+            }
+            Assert.assertEquals("Shard " + i + " failed: " + new String(Files.readAllBytes(tmpLogFiles.get(i)), StandardCharsets.UTF_8),
+                    0, tmpProcess.exitValue());
+        }
+        Path tmpSingleShardFile = tmpFolder.resolve("Functional_groups.txt");
+        ShardProcess.run(tmpMoleculesFile, new ExtractionShard(0, 1, ShardProcess.ID_KEY), tmpSingleShardFile);
+        ShardResultsMerger tmpMerger = new ShardResultsMerger();
+        Path tmpExpectedResultsFile = tmpFolder.resolve("expected_results.txt");
+        Path tmpExpectedFrequencyFile = tmpFolder.resolve("expected_frequencies.txt");
+        long tmpExpectedCount = tmpMerger.merge(Collections.singletonList(tmpSingleShardFile), tmpExpectedResultsFile,
+                tmpExpectedFrequencyFile);
+        Assert.assertEquals(ShardedExtractionTest.MOLECULE_COUNT, tmpExpectedCount);
+        List<Path> tmpReversedShardFiles = new ArrayList<>(tmpShardFiles);
+        Collections.reverse(tmpReversedShardFiles);
+        Path tmpMergedResultsFile = tmpFolder.resolve("merged_results.txt");
+        Path tmpMergedFrequencyFile = tmpFolder.resolve("merged_frequencies.txt");
+        Assert.assertEquals(tmpExpectedCount, tmpMerger.merge(tmpReversedShardFiles, tmpMergedResultsFile, tmpMergedFrequencyFile));
+        List<String> tmpMergedLines = Files.readAllLines(tmpMergedResultsFile, StandardCharsets.UTF_8);
+        Assert.assertEquals(Files.readAllLines(tmpExpectedResultsFile, StandardCharsets.UTF_8), tmpMergedLines);
+        Assert.assertEquals(Files.readAllLines(tmpExpectedFrequencyFile, StandardCharsets.UTF_8),
+                Files.readAllLines(tmpMergedFrequencyFile, StandardCharsets.UTF_8));
+        for (int i = 2; i < tmpMergedLines.size(); i++) {
+            Assert.assertTrue(tmpMergedLines.get(i - 1).compareTo(tmpMergedLines.get(i)) < 0);
+        }
+        List<String> tmpFrequencyLines = Files.readAllLines(tmpMergedFrequencyFile, StandardCharsets.UTF_8);
+        Assert.assertEquals("FgSMILES,FgPseudoSMILES,Frequency,MoleculeFrequency", tmpFrequencyLines.get(0));
+        Assert.assertTrue(tmpFrequencyLines.size() > 1);
+        long tmpLastMoleculeFrequency = Long.MAX_VALUE;
+        Set<String> tmpPseudoSmilesCodes = new HashSet<>(tmpFrequencyLines.size() * 2);
+        for (String tmpLine : tmpFrequencyLines.subList(1, tmpFrequencyLines.size())) {
+            String[] tmpFields = tmpLine.split(",");
+            Assert.assertTrue(tmpLine, tmpPseudoSmilesCodes.add(tmpFields[1]));
+            long tmpMoleculeFrequency = Long.parseLong(tmpFields[3]);
+            Assert.assertTrue(tmpMoleculeFrequency <= tmpLastMoleculeFrequency);
+            Assert.assertTrue(Long.parseLong(tmpFields[2]) >= tmpMoleculeFrequency);
+            tmpLastMoleculeFrequency = tmpMoleculeFrequency;
+        }
+    }
+    //</editor-fold>
+    //
+    //<editor-fold desc="Private static methods">
+    /**
+     * Creates the molecule documents; the IDs are assigned in the reverse order of the _id values, so the merged
+     * results file is ordered differently from the shard results files.
+     *
+     * @return the documents
+     */
+    private static List<Document> createDocuments() {
+        List<Document> tmpDocuments = new ArrayList<>(ShardedExtractionTest.MOLECULE_COUNT);
+        for (int i = 0; i < ShardedExtractionTest.MOLECULE_COUNT; i++) {
+            tmpDocuments.add(new Document(ShardProcess.PARTITION_KEY, i)
+                    .append(ShardProcess.ID_KEY, String.format("CNP%07d", ShardedExtractionTest.MOLECULE_COUNT - i))
+                    .append(ShardProcess.SMILES_CODE_KEY, ShardedExtractionTest.SMILES_CODES[i % ShardedExtractionTest.SMILES_CODES.length]));
+        }
+        return tmpDocuments;
+    }
+    //</editor-fold>
+}
@@ -28,21 +28,53 @@ package org.openscience.cdk.tools.test;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.openscience.cdk.Atom;
+import org.openscience.cdk.CDKConstants;
 import org.openscience.cdk.DefaultChemObjectBuilder;
 import org.openscience.cdk.aromaticity.Aromaticity;
+import org.openscience.cdk.aromaticity.ElectronDonation;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.graph.ConnectivityChecker;
+import org.openscience.cdk.graph.CycleFinder;
+import org.openscience.cdk.graph.Cycles;
+import org.openscience.cdk.graph.GraphUtil;
 import org.openscience.cdk.hash.MoleculeHashGenerator;
 import org.openscience.cdk.interfaces.IAtom;
 import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.interfaces.IChemObjectBuilder;
+import org.openscience.cdk.interfaces.IPseudoAtom;
+import org.openscience.cdk.interfaces.IStereoElement;
+import org.openscience.cdk.io.iterator.IteratingSDFReader;
 import org.openscience.cdk.smiles.SmiFlavor;
 import org.openscience.cdk.smiles.SmilesGenerator;
 import org.openscience.cdk.smiles.SmilesParser;
+import org.openscience.cdk.tools.BoundedCycleFinder;
+import org.openscience.cdk.tools.CDKHydrogenAdder;
 import org.openscience.cdk.tools.ErtlFunctionalGroupsFinder;
+import org.openscience.cdk.tools.ErtlFunctionalGroupsFinderContext;
 import org.openscience.cdk.tools.ErtlFunctionalGroupsFinderUtility;
+import org.openscience.cdk.tools.FunctionalGroupCanonicalForm;
+import org.openscience.cdk.tools.FunctionalGroupClassifier;
+import org.openscience.cdk.tools.FunctionalGroupProfile;
+import org.openscience.cdk.tools.FunctionalGroupProfileCache;
+import org.openscience.cdk.tools.PreprocessingProfile;
+import org.openscience.cdk.tools.PreprocessingResult;
+import org.openscience.cdk.tools.RingSystemAromaticityCache;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
 
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Tests functionalities of ErtlFunctionalGroupsFinderUtility class.
@@ -51,6 +83,11 @@ import java.util.List;
  * @version 1.0.1.0
  */
 public class ErtlFunctionalGroupsFinderUtilityTest {
+    /**
+     * Path of the SD file with a subset of ChEBI molecules, located in the test resources
+     */
+    private static final String SD_FILE_PATH = "ChEBI_lite_3star_subset.sdf";
+
     /**
      * Tests for correct pseudo SMILES generation.
      *
@@ -81,6 +118,71 @@ public class ErtlFunctionalGroupsFinderUtilityTest {
         }
     }
 
+    /**
+     * Golden test for the pseudo SMILES generation: The pseudo SMILES codes of all functional groups (generalized and
+     * with full environment) and of all preprocessed molecules in the ChEBI subset are compared to the output of the
+     * former implementation of createPseudoSmilesCode(), see createReferencePseudoSmilesCode() below.
+     *
+     * @throws Exception if the SD file cannot be read or a pseudo SMILES string cannot be created
+     */
+    @Test
+    public void testPseudoSmilesGenerationOnChebiSubset() throws Exception {
+        ErtlFunctionalGroupsFinder tmpGeneralizingEFGF = ErtlFunctionalGroupsFinderUtility.getErtlFunctionalGroupsFinderGeneralizingMode();
+        ErtlFunctionalGroupsFinder tmpNotGeneralizingEFGF = ErtlFunctionalGroupsFinderUtility.getErtlFunctionalGroupsFinderNotGeneralizingMode();
+        Aromaticity tmpAromaticity = new Aromaticity(ElectronDonation.daylight(), Cycles.or(Cycles.all(), Cycles.cdkAromaticSet()));
+        int tmpComparisonsCounter = 0;
+        for (IAtomContainer tmpMolecule : this.readChebiSubset()) {
+            tmpMolecule = ErtlFunctionalGroupsFinderUtility.applyFiltersAndPreprocessing(tmpMolecule, tmpAromaticity);
+            if (Objects.isNull(tmpMolecule)) {
+                continue;
+            }
+            List<IAtomContainer> tmpStructures = new ArrayList<>(20);
+            tmpStructures.add(tmpMolecule);
+            tmpStructures.addAll(tmpGeneralizingEFGF.find(tmpMolecule));
+            tmpStructures.addAll(tmpNotGeneralizingEFGF.find(tmpMolecule));
+            for (IAtomContainer tmpStructure : tmpStructures) {
+                Assert.assertEquals(ErtlFunctionalGroupsFinderUtilityTest.createReferencePseudoSmilesCode(tmpStructure),
+                        ErtlFunctionalGroupsFinderUtility.createPseudoSmilesCode(tmpStructure));
+                tmpComparisonsCounter++;
+            }
+        }
+        Assert.assertTrue(tmpComparisonsCounter > 0);
+    }
+
+    /**
+     * Golden test for the legacy pseudo SMILES generation: The legacy pseudo SMILES codes of all functional groups with
+     * full environment in the ChEBI subset are compared to the output of the former, mutating implementation of
+     * getLegacyPseudoSmilesCode() (applied to a clone), see createReferenceLegacyPseudoSmilesCode() below. It is also
+     * tested that the given functional groups are not altered.
+     *
+     * @throws Exception if the SD file cannot be read or a pseudo SMILES string cannot be created
+     */
+    @Test
+    public void testLegacyPseudoSmilesGenerationOnChebiSubset() throws Exception {
+        ErtlFunctionalGroupsFinder tmpNotGeneralizingEFGF = ErtlFunctionalGroupsFinderUtility.getErtlFunctionalGroupsFinderNotGeneralizingMode();
+        Aromaticity tmpAromaticity = new Aromaticity(ElectronDonation.daylight(), Cycles.or(Cycles.all(), Cycles.cdkAromaticSet()));
+        SmilesGenerator tmpSmilesGenerator = new SmilesGenerator(SmiFlavor.Unique | SmiFlavor.UseAromaticSymbols);
+        int tmpComparisonsCounter = 0;
+        for (IAtomContainer tmpMolecule : this.readChebiSubset()) {
+            tmpMolecule = ErtlFunctionalGroupsFinderUtility.applyFiltersAndPreprocessing(tmpMolecule, tmpAromaticity);
+            if (Objects.isNull(tmpMolecule)) {
+                continue;
+            }
+            for (IAtomContainer tmpFunctionalGroup : tmpNotGeneralizingEFGF.find(tmpMolecule)) {
+                String tmpSmilesBefore = tmpSmilesGenerator.create(tmpFunctionalGroup);
+                String tmpLegacyPseudoSmiles = ErtlFunctionalGroupsFinderUtility.getLegacyPseudoSmilesCode(tmpFunctionalGroup);
+                Assert.assertEquals(tmpSmilesBefore, tmpSmilesGenerator.create(tmpFunctionalGroup));
+                Assert.assertEquals(ErtlFunctionalGroupsFinderUtilityTest.createReferenceLegacyPseudoSmilesCode(tmpFunctionalGroup.clone()),
+                        tmpLegacyPseudoSmiles);
+                tmpComparisonsCounter++;
+            }
+        }
+        Assert.assertTrue(tmpComparisonsCounter > 0);
+        SmilesParser tmpSmilesParser = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+        Assert.assertEquals("O=C(O)C*=1Se*[C*H]=[C*H][C*H]1",
+                ErtlFunctionalGroupsFinderUtility.getLegacyPseudoSmilesCode(tmpSmilesParser.parseSmiles("O=C(O)c1ccc[se]1")));
+    }
+
     /**
      * Test for correct MoleculeHashGenerator settings/performance on some examples.
      *
@@ -153,6 +255,419 @@ public class ErtlFunctionalGroupsFinderUtilityTest {
         }
     }
 
+    /**
+     * Tests the canonical forms of functional groups (and molecules) on a subset of ChEBI. The hash keys must
+     * discriminate the structures in the same way as the MoleculeHashGenerator for functional groups, the hash key and
+     * the SMILES codes must not depend on the order of atoms and bonds in the atom container.
+     *
+     * @throws Exception if a molecule cannot be read, preprocessed, or its SMILES code cannot be generated
+     */
+    @Test
+    public void testCanonicalFormOnChebiSubset() throws Exception {
+        ErtlFunctionalGroupsFinder tmpGeneralizingEFGF = ErtlFunctionalGroupsFinderUtility.getErtlFunctionalGroupsFinderGeneralizingMode();
+        ErtlFunctionalGroupsFinder tmpNotGeneralizingEFGF = ErtlFunctionalGroupsFinderUtility.getErtlFunctionalGroupsFinderNotGeneralizingMode();
+        Aromaticity tmpAromaticity = new Aromaticity(ElectronDonation.daylight(), Cycles.or(Cycles.all(), Cycles.cdkAromaticSet()));
+        MoleculeHashGenerator tmpHashGenerator = ErtlFunctionalGroupsFinderUtility.getFunctionalGroupHashGenerator();
+        HashMap<Long, Long> tmpHashCodeToHashKeyMap = new HashMap<>(1000);
+        HashMap<Long, Long> tmpHashKeyToHashCodeMap = new HashMap<>(1000);
+        Random tmpRandom = new Random(42);
+        for (IAtomContainer tmpMolecule : this.readChebiSubset()) {
+            tmpMolecule = ErtlFunctionalGroupsFinderUtility.applyFiltersAndPreprocessing(tmpMolecule, tmpAromaticity);
+            if (Objects.isNull(tmpMolecule)) {
+                continue;
+            }
+            List<IAtomContainer> tmpStructures = new ArrayList<>(20);
+            tmpStructures.add(tmpMolecule);
+            tmpStructures.addAll(tmpGeneralizingEFGF.find(tmpMolecule));
+            tmpStructures.addAll(tmpNotGeneralizingEFGF.find(tmpMolecule));
+            for (IAtomContainer tmpStructure : tmpStructures) {
+                FunctionalGroupCanonicalForm tmpCanonicalForm = ErtlFunctionalGroupsFinderUtility.createCanonicalForm(tmpStructure);
+                long tmpHashKey = tmpCanonicalForm.getHashKey();
+                long tmpHashCode = tmpHashGenerator.generate(tmpStructure);
+                Assert.assertEquals(tmpHashKey, tmpHashCodeToHashKeyMap.computeIfAbsent(tmpHashCode, aKey -> tmpHashKey).longValue());
+                Assert.assertEquals(tmpHashCode, tmpHashKeyToHashCodeMap.computeIfAbsent(tmpHashKey, aKey -> tmpHashCode).longValue());
+                List<IAtom> tmpAtoms = new ArrayList<>(tmpStructure.getAtomCount());
+                tmpStructure.atoms().forEach(tmpAtoms::add);
+                List<IBond> tmpBonds = new ArrayList<>(tmpStructure.getBondCount());
+                tmpStructure.bonds().forEach(tmpBonds::add);
+                //reversed order first, then random orders
+                for (int i = 0; i < 4; i++) {
+                    if (i == 0) {
+                        Collections.reverse(tmpAtoms);
+                        Collections.reverse(tmpBonds);
+                    } else {
+                        Collections.shuffle(tmpAtoms, tmpRandom);
+                        Collections.shuffle(tmpBonds, tmpRandom);
+                    }
+                    IAtomContainer tmpReorderedStructure = tmpStructure.getBuilder().newAtomContainer();
+                    tmpReorderedStructure.setAtoms(tmpAtoms.toArray(new IAtom[0]));
+                    tmpReorderedStructure.setBonds(tmpBonds.toArray(new IBond[0]));
+                    FunctionalGroupCanonicalForm tmpReorderedCanonicalForm = ErtlFunctionalGroupsFinderUtility.createCanonicalForm(tmpReorderedStructure);
+                    Assert.assertEquals(tmpHashKey, tmpReorderedCanonicalForm.getHashKey());
+                    Assert.assertEquals(tmpCanonicalForm.getCanonicalSmiles(), tmpReorderedCanonicalForm.getCanonicalSmiles());
+                    Assert.assertEquals(tmpCanonicalForm.getPseudoSmiles(), tmpReorderedCanonicalForm.getPseudoSmiles());
+                }
+            }
+        }
+        Assert.assertFalse(tmpHashKeyToHashCodeMap.isEmpty());
+    }
+
+    /**
+     * Tests that different SMILES codes representing the same functional group are assigned the same canonical form
+     * and that aromatic and non-aromatic central atoms are discriminated, see also testMoleculeHashGeneratorSettings().
+     *
+     * @throws Exception if a SMILES code cannot be parsed into a molecule or cannot be generated
+     */
+    @Test
+    public void testCanonicalFormOfEquivalentFunctionalGroups() throws Exception {
+        SmilesParser tmpSmilesParser = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+        HashMap<String,String> tmpEquivalentSmilesMap = new HashMap<>(20);
+        tmpEquivalentSmilesMap.put("*[N](*)=C(N(*)*)N(*)*", "*N(*)C(=[N](*)*)N(*)*");
+        tmpEquivalentSmilesMap.put("*SC1=[N](*)[C]=[C]N1*", "*SC=1N(*)[C]=[C][N]1*");
+        tmpEquivalentSmilesMap.put("*[N]1=[C][C]=[C]N1*", "*N1[C]=[C][C]=[N]1*");
+        tmpEquivalentSmilesMap.put("*[N](*)=[C]N(*)*", "*N(*)[C]=[N](*)*");
+        tmpEquivalentSmilesMap.put("*N(*)[C]=[C][C]=[C][C]=[C][C]=[C][C]=[N](*)*", "*[N](*)=[C][C]=[C][C]=[C][C]=[C][C]=[C]N(*)*");
+        tmpEquivalentSmilesMap.put("*[N](*)=C(N(*)*)N(*)P(=O)(O[H])O[H]", "*N(*)C(=[N](*)*)N(*)P(=O)(O[H])O[H]");
+        tmpEquivalentSmilesMap.put("[O]I(=O)=O", "O=I(=O)[O]");
+        tmpEquivalentSmilesMap.put("[O]Br(=O)=O", "O=Br(=O)[O]");
+        tmpEquivalentSmilesMap.put("[O]Cl(=O)(=O)=O", "O=Cl(=O)(=O)[O]");
+        tmpEquivalentSmilesMap.put("[C]=[C][C]=[C]C#C[C]=[C]C#[C]", "[C]#C[C]=[C]C#C[C]=[C][C]=[C]");
+        tmpEquivalentSmilesMap.put("*N1[C]=[C][C]=[N]1*", "*[N]1=[C][C]=[C]N1*");
+        tmpEquivalentSmilesMap.put("O=C(*)O*", "*OC(*)=O");
+        tmpEquivalentSmilesMap.put("*[N]1=[C][C]=[C][C]=[C]1", "*[N]=1[C]=[C][C]=[C][C]1");
+        tmpEquivalentSmilesMap.put("[C]1=[C][C]=[C][C]=[C]1", "[C]=1[C]=[C][C]=[C][C]1");
+        for (String tmpKeySmiles : tmpEquivalentSmilesMap.keySet()) {
+            FunctionalGroupCanonicalForm tmpKeyForm = ErtlFunctionalGroupsFinderUtility.createCanonicalForm(
+                    tmpSmilesParser.parseSmiles(tmpKeySmiles));
+            FunctionalGroupCanonicalForm tmpValueForm = ErtlFunctionalGroupsFinderUtility.createCanonicalForm(
+                    tmpSmilesParser.parseSmiles(tmpEquivalentSmilesMap.get(tmpKeySmiles)));
+            Assert.assertEquals(tmpKeyForm, tmpValueForm);
+            Assert.assertEquals(tmpKeyForm.getCanonicalSmiles(), tmpValueForm.getCanonicalSmiles());
+            Assert.assertEquals(tmpKeyForm.getPseudoSmiles(), tmpValueForm.getPseudoSmiles());
+        }
+        for (String tmpSmilesCode : new String[] {"*N(*)*", "[H]O[C]"}) {
+            IAtomContainer tmpAromMol = tmpSmilesParser.parseSmiles(tmpSmilesCode);
+            IAtomContainer tmpNonAromMol = tmpSmilesParser.parseSmiles(tmpSmilesCode);
+            for (IAtom tmpAtom : tmpAromMol.atoms()) {
+                if (tmpAtom.getSymbol().equals("N") || tmpAtom.getSymbol().equals("C"))
+                    tmpAtom.setIsAromatic(true);
+            }
+            Assert.assertNotEquals(ErtlFunctionalGroupsFinderUtility.createCanonicalForm(tmpAromMol),
+                    ErtlFunctionalGroupsFinderUtility.createCanonicalForm(tmpNonAromMol));
+        }
+        Assert.assertEquals("RN(R)R", ErtlFunctionalGroupsFinderUtility.createCanonicalForm(
+                tmpSmilesParser.parseSmiles("*N(*)*")).getPseudoSmiles());
+    }
+
+    /**
+     * Tests that the context returns the same helper objects on repeated calls of the same thread and different ones
+     * in different threads or after removal of the context.
+     *
+     * @throws Exception if the other thread is interrupted
+     */
+    @Test
+    public void testContextIsThreadConfined() throws Exception {
+        ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+        Assert.assertSame(tmpContext, ErtlFunctionalGroupsFinderContext.get());
+        Assert.assertSame(tmpContext.getSmilesParser(), tmpContext.getSmilesParser());
+        Assert.assertSame(tmpContext.getGeneralizingFinder(), tmpContext.getGeneralizingFinder());
+        Assert.assertNotSame(tmpContext.getGeneralizingFinder(), tmpContext.getNotGeneralizingFinder());
+        Assert.assertSame(tmpContext.getFunctionalGroupHashGenerator(), tmpContext.getFunctionalGroupHashGenerator());
+        Assert.assertSame(tmpContext.getDaylightAromaticityModel(), tmpContext.getDaylightAromaticityModel());
+        Assert.assertSame(tmpContext.getAtomTypeMatcher(DefaultChemObjectBuilder.getInstance()),
+                tmpContext.getAtomTypeMatcher(DefaultChemObjectBuilder.getInstance()));
+        Assert.assertSame(tmpContext.getHydrogenAdder(DefaultChemObjectBuilder.getInstance()),
+                tmpContext.getHydrogenAdder(DefaultChemObjectBuilder.getInstance()));
+        ErtlFunctionalGroupsFinderContext[] tmpOtherContext = new ErtlFunctionalGroupsFinderContext[1];
+        Thread tmpOtherThread = new Thread(() -> tmpOtherContext[0] = ErtlFunctionalGroupsFinderContext.get());
+        tmpOtherThread.start();
+        tmpOtherThread.join();
+        Assert.assertNotNull(tmpOtherContext[0]);
+        Assert.assertNotSame(tmpContext, tmpOtherContext[0]);
+        ErtlFunctionalGroupsFinderContext.remove();
+        Assert.assertNotSame(tmpContext, ErtlFunctionalGroupsFinderContext.get());
+    }
+
+    /**
+     * Tests that functional groups detected on the ChEBI subset in several threads at once, using the helpers of the
+     * per-thread contexts, are the same as the ones detected sequentially.
+     *
+     * @throws Exception if a molecule cannot be read or processed
+     */
+    @Test
+    public void testConcurrentProcessingWithContext() throws Exception {
+        List<List<Long>> tmpExpectedKeys = this.detectFunctionalGroupKeysOnChebiSubset();
+        ExecutorService tmpExecutor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<List<Long>>>> tmpFutures = new ArrayList<>(4);
+            for (int i = 0; i < 4; i++) {
+                tmpFutures.add(tmpExecutor.submit(this::detectFunctionalGroupKeysOnChebiSubset));
+            }
+            for (Future<List<List<Long>>> tmpFuture : tmpFutures) {
+                Assert.assertEquals(tmpExpectedKeys, tmpFuture.get());
+            }
+        } finally {
+            tmpExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Tests the functional group profiles of the ChEBI subset molecules: the frequencies must add up to the number of
+     * detected functional groups and correspond to the hash keys of their canonical forms, merging must be
+     * commutative and equal to the profile of all functional groups, and serialization must be lossless.
+     *
+     * @throws Exception if a molecule cannot be read or processed
+     */
+    @Test
+    public void testFunctionalGroupProfileOnChebiSubset() throws Exception {
+        ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+        HashMap<Long, FunctionalGroupCanonicalForm> tmpCanonicalFormsMap = new HashMap<>(1000);
+        List<IAtomContainer> tmpAllFunctionalGroups = new ArrayList<>(10000);
+        FunctionalGroupProfile tmpMergedProfile = FunctionalGroupProfile.EMPTY;
+        for (IAtomContainer tmpMolecule : this.readChebiSubset()) {
+            tmpMolecule = ErtlFunctionalGroupsFinderUtility.applyFiltersAndPreprocessing(tmpMolecule, tmpContext.getDaylightAromaticityModel());
+            if (Objects.isNull(tmpMolecule)) {
+                continue;
+            }
+            List<IAtomContainer> tmpFunctionalGroups = tmpContext.getGeneralizingFinder().find(tmpMolecule, false);
+            FunctionalGroupProfile tmpProfile = ErtlFunctionalGroupsFinderUtility.createFunctionalGroupProfile(tmpFunctionalGroups, tmpCanonicalFormsMap);
+            Assert.assertEquals(tmpFunctionalGroups.size(), tmpProfile.getTotalCount());
+            Assert.assertEquals(tmpProfile, ErtlFunctionalGroupsFinderUtility.createFunctionalGroupProfile(tmpFunctionalGroups));
+            for (IAtomContainer tmpFunctionalGroup : tmpFunctionalGroups) {
+                long tmpHashKey = ErtlFunctionalGroupsFinderUtility.createCanonicalForm(tmpFunctionalGroup).getHashKey();
+                Assert.assertTrue(tmpProfile.getCountOf(tmpHashKey) > 0);
+                Assert.assertTrue(tmpCanonicalFormsMap.containsKey(tmpHashKey));
+            }
+            for (int i = 1; i < tmpProfile.size(); i++) {
+                Assert.assertTrue(tmpProfile.getHashKey(i - 1) < tmpProfile.getHashKey(i));
+            }
+            FunctionalGroupProfile tmpDeserializedProfile = FunctionalGroupProfile.fromByteArray(tmpProfile.toByteArray());
+            Assert.assertEquals(tmpProfile, tmpDeserializedProfile);
+            Assert.assertEquals(tmpProfile.hashCode(), tmpDeserializedProfile.hashCode());
+            Assert.assertEquals(tmpMergedProfile.merge(tmpProfile), tmpProfile.merge(tmpMergedProfile));
+            tmpMergedProfile = tmpMergedProfile.merge(tmpProfile);
+            tmpAllFunctionalGroups.addAll(tmpFunctionalGroups);
+        }
+        Assert.assertFalse(tmpMergedProfile.isEmpty());
+        Assert.assertEquals(tmpCanonicalFormsMap.size(), tmpMergedProfile.size());
+        Assert.assertEquals(ErtlFunctionalGroupsFinderUtility.createFunctionalGroupProfile(tmpAllFunctionalGroups), tmpMergedProfile);
+    }
+
+    /**
+     * Tests creation, lookup, merging, and serialization of functional group profiles on small examples.
+     *
+     * @throws Exception if a profile cannot be (de-)serialized
+     */
+    @Test
+    public void testFunctionalGroupProfile() throws Exception {
+        FunctionalGroupProfile tmpProfile = FunctionalGroupProfile.fromHashKeys(new long[] {5L, -3L, 5L, 7L, 5L});
+        Assert.assertArrayEquals(new long[] {-3L, 5L, 7L}, tmpProfile.getHashKeys());
+        Assert.assertArrayEquals(new int[] {1, 3, 1}, tmpProfile.getCounts());
+        Assert.assertEquals(3, tmpProfile.getCountOf(5L));
+        Assert.assertEquals(0, tmpProfile.getCountOf(6L));
+        Assert.assertEquals(5, tmpProfile.getTotalCount());
+        FunctionalGroupProfile tmpOtherProfile = FunctionalGroupProfile.fromHashKeys(new long[] {7L, 9L});
+        FunctionalGroupProfile tmpMergedProfile = tmpProfile.merge(tmpOtherProfile);
+        Assert.assertEquals(FunctionalGroupProfile.fromHashKeys(new long[] {5L, -3L, 5L, 7L, 5L, 7L, 9L}), tmpMergedProfile);
+        Assert.assertEquals(tmpMergedProfile, tmpOtherProfile.merge(tmpProfile));
+        Assert.assertSame(tmpProfile, tmpProfile.merge(FunctionalGroupProfile.EMPTY));
+        Assert.assertSame(FunctionalGroupProfile.EMPTY, FunctionalGroupProfile.fromHashKeys(new long[0]));
+        Assert.assertEquals(FunctionalGroupProfile.EMPTY, FunctionalGroupProfile.fromByteArray(FunctionalGroupProfile.EMPTY.toByteArray()));
+        Assert.assertEquals(4 + 3 * 12, tmpProfile.toByteArray().length);
+        Assert.assertEquals(tmpProfile, FunctionalGroupProfile.fromByteArray(tmpProfile.toByteArray()));
+        Assert.assertNotEquals(tmpProfile, tmpOtherProfile);
+    }
+
+    /**
+     * Tests that the stereo-free cache keys of all stereoisomers of the ChEBI subset molecules equal the keys of their
+     * stereo-free variants while their functional group profiles are equal as well, and tests the counting and the
+     * eviction of the profile cache.
+     *
+     * @throws Exception if a molecule cannot be read or processed
+     */
+    @Test
+    public void testFunctionalGroupProfileCache() throws Exception {
+        ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+        SmilesParser tmpSmilesParser = tmpContext.getSmilesParser();
+        SmilesGenerator tmpIsomericGenerator = new SmilesGenerator(SmiFlavor.Isomeric);
+        SmilesGenerator tmpStereoFreeGenerator = new SmilesGenerator(SmiFlavor.Default);
+        Aromaticity tmpAromaticity = tmpContext.getDaylightAromaticityModel();
+        ErtlFunctionalGroupsFinder tmpFinder = tmpContext.getGeneralizingFinder();
+        FunctionalGroupProfileCache tmpCache = new FunctionalGroupProfileCache();
+        int tmpStereoisomerCounter = 0;
+        for (IAtomContainer tmpMolecule : this.readChebiSubset()) {
+            String tmpIsomericSmiles = tmpIsomericGenerator.create(tmpMolecule);
+            String tmpStereoFreeSmiles = tmpStereoFreeGenerator.create(tmpMolecule);
+            if (tmpIsomericSmiles.equals(tmpStereoFreeSmiles)) {
+                continue;
+            }
+            tmpStereoisomerCounter++;
+            IAtomContainer tmpStereoisomer = tmpSmilesParser.parseSmiles(tmpIsomericSmiles);
+            IAtomContainer tmpStereoFreeMolecule = tmpSmilesParser.parseSmiles(tmpIsomericSmiles);
+            tmpStereoFreeMolecule.setStereoElements(new ArrayList<>(0));
+            String tmpKey = FunctionalGroupProfileCache.createKey(tmpStereoFreeMolecule);
+            Assert.assertEquals(tmpKey, FunctionalGroupProfileCache.createKey(tmpStereoisomer));
+            PreprocessingResult tmpResult = ErtlFunctionalGroupsFinderUtility.preprocess(tmpStereoisomer, tmpAromaticity, true);
+            if (!tmpResult.isPreprocessed()) {
+                continue;
+            }
+            FunctionalGroupProfile tmpStereoisomerProfile = ErtlFunctionalGroupsFinderUtility.createFunctionalGroupProfile(
+                    tmpFinder.find(tmpResult.getMolecule(), false));
+            FunctionalGroupProfile tmpCachedProfile = tmpCache.get(tmpKey);
+            if (Objects.isNull(tmpCachedProfile)) {
+                //first stereoisomer of this constitution in the subset
+                tmpResult = ErtlFunctionalGroupsFinderUtility.preprocess(tmpStereoFreeMolecule, tmpAromaticity, true);
+                tmpCachedProfile = ErtlFunctionalGroupsFinderUtility.createFunctionalGroupProfile(
+                        tmpFinder.find(tmpResult.getMolecule(), false));
+                tmpCache.put(tmpKey, tmpCachedProfile);
+            }
+            Assert.assertEquals(tmpCachedProfile, tmpStereoisomerProfile);
+        }
+        Assert.assertTrue(tmpStereoisomerCounter > 100);
+        Assert.assertEquals(tmpCache.size(), tmpCache.getMissCount());
+        Assert.assertTrue(tmpCache.getHitCount() > 0);
+        //key examples
+        Assert.assertEquals(FunctionalGroupProfileCache.createKey(tmpSmilesParser.parseSmiles("C[C@H](N)C(=O)O")),
+                FunctionalGroupProfileCache.createKey(tmpSmilesParser.parseSmiles("N[C@H](C)C(O)=O")));
+        Assert.assertEquals(FunctionalGroupProfileCache.createKey(tmpSmilesParser.parseSmiles("C/C=C/C(=O)O")),
+                FunctionalGroupProfileCache.createKey(tmpSmilesParser.parseSmiles("C/C=C\\C(=O)O")));
+        Assert.assertNotEquals(FunctionalGroupProfileCache.createKey(tmpSmilesParser.parseSmiles("CC(=O)CC")),
+                FunctionalGroupProfileCache.createKey(tmpSmilesParser.parseSmiles("CC(O)=CC")));
+        //eviction of the least recently used entry
+        FunctionalGroupProfileCache tmpSmallCache = new FunctionalGroupProfileCache(2);
+        FunctionalGroupProfile tmpProfile = FunctionalGroupProfile.fromHashKeys(new long[] {1L});
+        tmpSmallCache.put("a", tmpProfile);
+        tmpSmallCache.put("b", tmpProfile);
+        Assert.assertNotNull(tmpSmallCache.get("a"));
+        tmpSmallCache.put("c", tmpProfile);
+        Assert.assertEquals(2, tmpSmallCache.size());
+        Assert.assertNull(tmpSmallCache.get("b"));
+        Assert.assertNotNull(tmpSmallCache.get("c"));
+        Assert.assertEquals(2.0 / 3.0, tmpSmallCache.getHitRate(), 1.0e-9);
+        tmpSmallCache.clear();
+        Assert.assertEquals(0, tmpSmallCache.size());
+        Assert.assertEquals(0.0, tmpSmallCache.getHitRate(), 0.0);
+    }
+
+    /**
+     * Tests the classification of functional groups by the curated hash key table and the SMARTS fallback on some
+     * examples.
+     *
+     * @throws Exception if a SMILES code cannot be parsed or a molecule cannot be processed
+     */
+    @Test
+    public void testFunctionalGroupClassifier() throws Exception {
+        ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+        FunctionalGroupClassifier tmpClassifier = FunctionalGroupClassifier.getInstance();
+        Assert.assertSame(tmpClassifier, FunctionalGroupClassifier.getInstance());
+        Assert.assertTrue(tmpClassifier.getCuratedTableSize() > 0);
+        HashMap<String, String> tmpExpectedNamesMap = new HashMap<>(10);
+        tmpExpectedNamesMap.put("CC(=O)OCc1ccccc1", "ester");
+        tmpExpectedNamesMap.put("Oc1ccccc1C", "phenol");
+        tmpExpectedNamesMap.put("O=C(NC)c1ccccc1", "amide");
+        tmpExpectedNamesMap.put("CCC(N)=O", "amide");
+        tmpExpectedNamesMap.put("CCC(=O)N(C)C", "amide");
+        tmpExpectedNamesMap.put("OC(=O)CCc1ccccc1", "carboxylic acid");
+        tmpExpectedNamesMap.put("CCN(CC)CC", "tertiary amine");
+        tmpExpectedNamesMap.put("CCCC#N", "nitrile");
+        tmpExpectedNamesMap.put("CP(C)C", "other phosphorus group");
+        tmpExpectedNamesMap.put("CC(=O)C(=O)C", "other carbonyl group");
+        for (String tmpSmilesCode : tmpExpectedNamesMap.keySet()) {
+            IAtomContainer tmpMolecule = ErtlFunctionalGroupsFinderUtility.applyFiltersAndPreprocessing(
+                    tmpContext.getSmilesParser().parseSmiles(tmpSmilesCode), tmpContext.getDaylightAromaticityModel());
+            List<IAtomContainer> tmpFunctionalGroups = tmpContext.getGeneralizingFinder().find(tmpMolecule, false);
+            Assert.assertEquals(tmpSmilesCode, 1, tmpFunctionalGroups.size());
+            IAtomContainer tmpFunctionalGroup = tmpFunctionalGroups.get(0);
+            FunctionalGroupClassifier.Classification tmpClassification = tmpClassifier.classify(tmpFunctionalGroup);
+            Assert.assertEquals(tmpExpectedNamesMap.get(tmpSmilesCode), tmpClassification.getName());
+            Assert.assertEquals(!tmpClassification.getName().startsWith("other"), tmpClassification.isCurated());
+            long tmpHashKey = ErtlFunctionalGroupsFinderUtility.createCanonicalForm(tmpFunctionalGroup).getHashKey();
+            int tmpFallbackCacheSize = tmpClassifier.getFallbackCacheSize();
+            Assert.assertSame(tmpClassification, tmpClassifier.lookup(tmpHashKey));
+            Assert.assertSame(tmpClassification, tmpClassifier.classify(tmpHashKey, tmpFunctionalGroup));
+            Assert.assertEquals(tmpFallbackCacheSize, tmpClassifier.getFallbackCacheSize());
+        }
+        Assert.assertNull(tmpClassifier.lookup(0L));
+    }
+
+    /**
+     * Tests that all functional groups of the ChEBI subset with the same pseudo SMILES code are classified the same
+     * and that the classification via the cached hash key is the same as the initial one.
+     *
+     * @throws Exception if a molecule cannot be read or processed
+     */
+    @Test
+    public void testFunctionalGroupClassifierOnChebiSubset() throws Exception {
+        ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+        FunctionalGroupClassifier tmpClassifier = FunctionalGroupClassifier.getInstance();
+        HashMap<String, FunctionalGroupClassifier.Classification> tmpPseudoSmilesToClassificationMap = new HashMap<>(1000);
+        int tmpCuratedCounter = 0;
+        for (IAtomContainer tmpMolecule : this.readChebiSubset()) {
+            tmpMolecule = ErtlFunctionalGroupsFinderUtility.applyFiltersAndPreprocessing(tmpMolecule, tmpContext.getDaylightAromaticityModel());
+            if (Objects.isNull(tmpMolecule)) {
+                continue;
+            }
+            for (IAtomContainer tmpFunctionalGroup : tmpContext.getGeneralizingFinder().find(tmpMolecule, false)) {
+                FunctionalGroupCanonicalForm tmpCanonicalForm = ErtlFunctionalGroupsFinderUtility.createCanonicalForm(tmpFunctionalGroup);
+                FunctionalGroupClassifier.Classification tmpClassification = tmpClassifier.classify(tmpCanonicalForm.getHashKey(), tmpFunctionalGroup);
+                Assert.assertNotNull(tmpClassification);
+                Assert.assertSame(tmpClassification, tmpClassifier.lookup(tmpCanonicalForm.getHashKey()));
+                Assert.assertEquals(tmpClassification, tmpPseudoSmilesToClassificationMap.computeIfAbsent(
+                        tmpCanonicalForm.getPseudoSmiles(), aKey -> tmpClassification));
+                if (tmpClassification.isCurated()) {
+                    tmpCuratedCounter++;
+                }
+            }
+        }
+        Assert.assertTrue(tmpCuratedCounter > 0);
+    }
+
+    /**
+     * Tests that the bitmask returned by the single-pass molecule validator agrees with the individual filter queries
+     * on the ChEBI subset and some edge cases, and that the filter queries built on top of it keep their results.
+     *
+     * @throws Exception if a molecule cannot be read
+     */
+    @Test
+    public void testMoleculeValidation() throws Exception {
+        SmilesParser tmpSmilesParser = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+        List<IAtomContainer> tmpMolecules = this.readChebiSubset();
+        String[] tmpSmilesArray = {"", "[Na+]", "C", "CCO.C", "CC[O-].[Na+]", "C[Si](C)(C)O", "CC(=O)[Li]", "C1CC1.C1CC1",
+                "OS(=O)(=O)[O-].[Na+]", "[U]"};
+        for (String tmpSmilesCode : tmpSmilesArray) {
+            tmpMolecules.add(tmpSmilesParser.parseSmiles(tmpSmilesCode));
+        }
+        for (IAtomContainer tmpMolecule : tmpMolecules) {
+            int tmpResult = ErtlFunctionalGroupsFinderUtility.validateMolecule(tmpMolecule);
+            Assert.assertEquals(tmpMolecule.getAtomCount() == 0,
+                    (tmpResult & ErtlFunctionalGroupsFinderUtility.VALIDATION_ATOM_COUNT_ZERO) != 0);
+            Assert.assertEquals(tmpMolecule.getBondCount() == 0,
+                    (tmpResult & ErtlFunctionalGroupsFinderUtility.VALIDATION_BOND_COUNT_ZERO) != 0);
+            Assert.assertEquals(ErtlFunctionalGroupsFinderUtility.containsInvalidAtomicNumbers(tmpMolecule),
+                    (tmpResult & ErtlFunctionalGroupsFinderUtility.VALIDATION_INVALID_ATOMIC_NUMBER) != 0);
+            Assert.assertEquals(ErtlFunctionalGroupsFinderUtility.isMoleculeCharged(tmpMolecule),
+                    (tmpResult & ErtlFunctionalGroupsFinderUtility.VALIDATION_CHARGED) != 0);
+            Assert.assertEquals(ErtlFunctionalGroupsFinderUtility.isStructureUnconnected(tmpMolecule),
+                    (tmpResult & ErtlFunctionalGroupsFinderUtility.VALIDATION_UNCONNECTED) != 0);
+        }
+        IAtomContainer tmpMolecule = tmpSmilesParser.parseSmiles("CC[O-].C");
+        Assert.assertEquals(ErtlFunctionalGroupsFinderUtility.VALIDATION_CHARGED | ErtlFunctionalGroupsFinderUtility.VALIDATION_UNCONNECTED,
+                ErtlFunctionalGroupsFinderUtility.validateMolecule(tmpMolecule));
+        Assert.assertFalse(ErtlFunctionalGroupsFinderUtility.isValidArgumentForFindMethod(tmpMolecule, true));
+        tmpMolecule = tmpSmilesParser.parseSmiles("C");
+        Assert.assertTrue(ErtlFunctionalGroupsFinderUtility.shouldBeFiltered(tmpMolecule, true));
+        Assert.assertFalse(ErtlFunctionalGroupsFinderUtility.shouldBeFiltered(tmpMolecule, false));
+        Assert.assertTrue(ErtlFunctionalGroupsFinderUtility.isValidArgumentForFindMethod(tmpMolecule, false));
+        tmpMolecule = tmpSmilesParser.parseSmiles("CCO");
+        tmpMolecule.getAtom(2).setFormalCharge(null);
+        Assert.assertEquals(ErtlFunctionalGroupsFinderUtility.VALIDATION_UNDEFINED_FORMAL_CHARGE,
+                ErtlFunctionalGroupsFinderUtility.validateMolecule(tmpMolecule));
+        Assert.assertFalse(ErtlFunctionalGroupsFinderUtility.isValidArgumentForFindMethod(tmpMolecule, true));
+        tmpMolecule.getAtom(2).setFormalCharge(0);
+        tmpMolecule.getAtom(2).setAtomicNumber(null);
+        Assert.assertTrue(ErtlFunctionalGroupsFinderUtility.shouldBeFiltered(tmpMolecule, true));
+    }
+
     /**
      * Test for correct preprocessing (neutralization of charges and selection of biggest fragment).
      *
@@ -170,6 +685,384 @@ public class ErtlFunctionalGroupsFinderUtilityTest {
         Assert.assertEquals("OCC", tmpGenerator.create(tmpMol));
     }
 
+    /**
+     * Tests that the selection of the biggest unconnected component yields the same atoms, bonds, and stereo elements in
+     * the same order as the selection from all components created by ConnectivityChecker.partitionIntoMolecules(), on
+     * the unconnected molecules of the ChEBI subset and some salts and solvates.
+     *
+     * @throws Exception if a molecule cannot be read or a SMILES code cannot be generated
+     */
+    @Test
+    public void testBiggestComponentSelection() throws Exception {
+        SmilesParser tmpSmilesParser = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+        SmilesGenerator tmpGenerator = new SmilesGenerator(SmiFlavor.Isomeric);
+        List<IAtomContainer> tmpMolecules = this.readChebiSubset();
+        String[] tmpSmilesArray = {"[Na+].CC(=O)[O-]", "O.O.C[C@H](N)C(=O)O.Cl", "CCO.CCO", "[Cl-].C/C=C/C[NH3+].O",
+                "O.[Na+].[Na+].[O-]C(=O)CC(=O)[O-]"};
+        for (String tmpSmilesCode : tmpSmilesArray) {
+            tmpMolecules.add(tmpSmilesParser.parseSmiles(tmpSmilesCode));
+        }
+        int tmpUnconnectedCounter = 0;
+        for (IAtomContainer tmpMolecule : tmpMolecules) {
+            if (!ErtlFunctionalGroupsFinderUtility.isStructureUnconnected(tmpMolecule)) {
+                continue;
+            }
+            tmpUnconnectedCounter++;
+            IAtomContainer tmpReference = null;
+            for (IAtomContainer tmpComponent : ConnectivityChecker.partitionIntoMolecules(tmpMolecule).atomContainers()) {
+                if (Objects.isNull(tmpReference) || tmpReference.getAtomCount() < tmpComponent.getAtomCount()) {
+                    tmpReference = tmpComponent;
+                }
+            }
+            IAtomContainer tmpBiggestComponent = ErtlFunctionalGroupsFinderUtility.selectBiggestUnconnectedComponent(tmpMolecule);
+            Assert.assertEquals(tmpReference.getAtomCount(), tmpBiggestComponent.getAtomCount());
+            Assert.assertEquals(tmpReference.getBondCount(), tmpBiggestComponent.getBondCount());
+            for (int i = 0; i < tmpReference.getAtomCount(); i++) {
+                Assert.assertEquals(tmpReference.getAtom(i), tmpBiggestComponent.getAtom(i));
+            }
+            Assert.assertEquals(tmpGenerator.create(tmpReference), tmpGenerator.create(tmpBiggestComponent));
+            Assert.assertEquals(tmpMolecule.getProperties(), tmpBiggestComponent.getProperties());
+        }
+        Assert.assertTrue(tmpUnconnectedCounter > tmpSmilesArray.length);
+    }
+
+    /**
+     * Tests that the cost-ordered preprocessing yields the same molecules as the original sequence of preprocessing
+     * steps (atom typing first, then filters, fragment selection, neutralization, and aromaticity detection) on the
+     * ChEBI subset and some salts, and that it reports the expected outcomes.
+     *
+     * @throws Exception if a molecule cannot be read or a SMILES code cannot be generated
+     */
+    @Test
+    public void testCostOrderedPreprocessing() throws Exception {
+        SmilesParser tmpSmilesParser = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+        SmilesGenerator tmpGenerator = new SmilesGenerator(SmiFlavor.Unique | SmiFlavor.UseAromaticSymbols);
+        List<IAtomContainer> tmpMolecules = this.readChebiSubset();
+        String[] tmpSmilesArray = {"", "C", "[Na+].[Cl-]", "CC[O-].[Na+]", "C[Si](C)(C)O", "C[Si](C)(C)O.CCCCCCO",
+                "CCCO.[Li]CC"};
+        for (String tmpSmilesCode : tmpSmilesArray) {
+            tmpMolecules.add(tmpSmilesParser.parseSmiles(tmpSmilesCode));
+        }
+        Aromaticity tmpAromaticity = ErtlFunctionalGroupsFinderContext.get().getDaylightAromaticityModel();
+        for (IAtomContainer tmpMolecule : tmpMolecules) {
+            IAtomContainer tmpReference = ErtlFunctionalGroupsFinderUtilityTest.applyReferencePreprocessing(tmpMolecule.clone(), tmpAromaticity);
+            PreprocessingResult tmpResult = ErtlFunctionalGroupsFinderUtility.preprocess(tmpMolecule.clone(), tmpAromaticity, true);
+            Assert.assertEquals(Objects.isNull(tmpReference), !tmpResult.isPreprocessed());
+            if (Objects.nonNull(tmpReference)) {
+                Assert.assertEquals(tmpGenerator.create(tmpReference), tmpGenerator.create(tmpResult.getMolecule()));
+            }
+        }
+        PreprocessingResult tmpResult = ErtlFunctionalGroupsFinderUtility.preprocess(tmpSmilesParser.parseSmiles(""), tmpAromaticity, true);
+        Assert.assertEquals(PreprocessingResult.Outcome.FILTERED_EMPTY, tmpResult.getOutcome());
+        Assert.assertNull(tmpResult.getMolecule());
+        tmpResult = ErtlFunctionalGroupsFinderUtility.preprocess(tmpSmilesParser.parseSmiles("C"), tmpAromaticity, true);
+        Assert.assertEquals(PreprocessingResult.Outcome.FILTERED_NO_BONDS, tmpResult.getOutcome());
+        Assert.assertTrue(tmpResult.getOutcome().isFiltered());
+        tmpResult = ErtlFunctionalGroupsFinderUtility.preprocess(tmpSmilesParser.parseSmiles("C"), tmpAromaticity, false);
+        Assert.assertEquals(PreprocessingResult.Outcome.PREPROCESSED, tmpResult.getOutcome());
+        tmpResult = ErtlFunctionalGroupsFinderUtility.preprocess(tmpSmilesParser.parseSmiles("C[Si](C)(C)O.CCCCCCO"), tmpAromaticity, true);
+        Assert.assertEquals(PreprocessingResult.Outcome.PREPROCESSED, tmpResult.getOutcome());
+        Assert.assertTrue(tmpResult.isFragmentSelected());
+        Assert.assertEquals("OCCCCCC", tmpGenerator.create(tmpResult.getMolecule()));
+        tmpResult = ErtlFunctionalGroupsFinderUtility.preprocess(tmpSmilesParser.parseSmiles("C[Si](C)(C)O"), tmpAromaticity, true);
+        Assert.assertEquals(PreprocessingResult.Outcome.FILTERED_INVALID_ELEMENT, tmpResult.getOutcome());
+        tmpResult = ErtlFunctionalGroupsFinderUtility.preprocess(tmpSmilesParser.parseSmiles("CC[O-].[Na+]"), tmpAromaticity, true);
+        Assert.assertEquals(PreprocessingResult.Outcome.PREPROCESSED, tmpResult.getOutcome());
+        Assert.assertTrue(tmpResult.isFragmentSelected());
+        Assert.assertTrue(tmpResult.isNeutralized());
+        Assert.assertFalse(tmpResult.getOutcome().isFailure());
+        Assert.assertEquals("OCC", tmpGenerator.create(tmpResult.getMolecule()));
+    }
+
+    /**
+     * Tests on SMILES codes generated from the ChEBI subset that the preprocessing profile for parsed SMILES codes,
+     * which does not perceive atom types, yields the same preprocessing outcomes and the same functional groups as the
+     * standard profile.
+     *
+     * @throws Exception if a molecule cannot be read or processed
+     */
+    @Test
+    public void testParsedSmilesPreprocessingProfile() throws Exception {
+        ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+        SmilesParser tmpSmilesParser = tmpContext.getSmilesParser();
+        SmilesGenerator tmpGenerator = new SmilesGenerator(SmiFlavor.Isomeric);
+        Aromaticity tmpAromaticity = tmpContext.getDaylightAromaticityModel();
+        ErtlFunctionalGroupsFinder tmpFinder = tmpContext.getGeneralizingFinder();
+        List<String> tmpSmilesList = new ArrayList<>(2000);
+        for (IAtomContainer tmpMolecule : this.readChebiSubset()) {
+            tmpSmilesList.add(tmpGenerator.create(tmpMolecule));
+        }
+        Collections.addAll(tmpSmilesList, "CC[O-].[Na+]", "C[N+](C)(C)CC([O-])=O", "[O-][n+]1ccccc1", "CN=[N+]=[N-]",
+                "c1ccncc1", "c1cc[nH]c1", "NC(=O)N", "[N]=O");
+        int tmpPreprocessedCounter = 0;
+        for (String tmpSmilesCode : tmpSmilesList) {
+            PreprocessingResult tmpStandardResult = ErtlFunctionalGroupsFinderUtility.preprocess(
+                    tmpSmilesParser.parseSmiles(tmpSmilesCode), tmpAromaticity, true, PreprocessingProfile.STANDARD);
+            PreprocessingResult tmpSmilesResult = ErtlFunctionalGroupsFinderUtility.preprocess(
+                    tmpSmilesParser.parseSmiles(tmpSmilesCode), tmpAromaticity, true, PreprocessingProfile.PARSED_SMILES);
+            Assert.assertEquals(tmpSmilesCode, tmpStandardResult.getOutcome(), tmpSmilesResult.getOutcome());
+            if (!tmpStandardResult.isPreprocessed()) {
+                continue;
+            }
+            tmpPreprocessedCounter++;
+            FunctionalGroupProfile tmpStandardProfile = ErtlFunctionalGroupsFinderUtility.createFunctionalGroupProfile(
+                    tmpFinder.find(tmpStandardResult.getMolecule(), false));
+            FunctionalGroupProfile tmpSmilesProfile = ErtlFunctionalGroupsFinderUtility.createFunctionalGroupProfile(
+                    tmpFinder.find(tmpSmilesResult.getMolecule(), false));
+            Assert.assertEquals(tmpSmilesCode, tmpStandardProfile, tmpSmilesProfile);
+        }
+        Assert.assertTrue(tmpPreprocessedCounter > 1000);
+    }
+
+    /**
+     * Tests that the aromaticity model with a bounded cycle finder gives the same aromaticity flags as the unbounded
+     * model on the ChEBI subset and that it falls back to the vertex short cycles for fullerene because the work
+     * budget is exceeded, marking the molecule accordingly.
+     *
+     * @throws Exception if a molecule cannot be read or processed
+     */
+    @Test
+    public void testBoundedAromaticityDetection() throws Exception {
+        ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+        Aromaticity tmpUnboundedModel = tmpContext.getDaylightAromaticityModel();
+        Aromaticity tmpBoundedModel = tmpContext.getBoundedDaylightAromaticityModel();
+        SmilesGenerator tmpGenerator = new SmilesGenerator(SmiFlavor.Unique | SmiFlavor.UseAromaticSymbols);
+        for (IAtomContainer tmpMolecule : this.readChebiSubset()) {
+            ErtlFunctionalGroupsFinderUtility.perceiveAtomTypesAndConfigureAtoms(tmpMolecule);
+            IAtomContainer tmpCopy = tmpMolecule.clone();
+            ErtlFunctionalGroupsFinderUtility.applyAromaticityDetection(tmpMolecule, tmpUnboundedModel);
+            ErtlFunctionalGroupsFinderUtility.applyAromaticityDetection(tmpCopy, tmpBoundedModel);
+            Assert.assertFalse(ErtlFunctionalGroupsFinderUtility.isAromaticityFallbackUsed(tmpCopy));
+            Assert.assertEquals(tmpGenerator.create(tmpMolecule), tmpGenerator.create(tmpCopy));
+        }
+        SmilesParser tmpSmilesParser = tmpContext.getSmilesParser();
+        String tmpFullereneSmiles = "c12c3c4c5c1c1c6c7c2c2c8c3c3c9c4c4c%10c5c5c1c1c6c6c%11c7c2c2c7c8c3c3c8c9c4c4c9c%10c5c5c1c1c6c6c%11c2c2c7c3c3c8c4c4c9c5c1c1c6c2c3c41";
+        PreprocessingResult tmpResult = ErtlFunctionalGroupsFinderUtility.preprocess(tmpSmilesParser.parseSmiles(tmpFullereneSmiles), tmpBoundedModel, true);
+        Assert.assertEquals(PreprocessingResult.Outcome.PREPROCESSED, tmpResult.getOutcome());
+        Assert.assertTrue(tmpResult.isAromaticityFallbackUsed());
+        Assert.assertTrue(ErtlFunctionalGroupsFinderUtility.isAromaticityFallbackUsed(tmpResult.getMolecule()));
+        //the property is reset when a molecule is processed again
+        tmpResult = ErtlFunctionalGroupsFinderUtility.preprocess(tmpResult.getMolecule(), tmpUnboundedModel, true);
+        Assert.assertEquals(PreprocessingResult.Outcome.PREPROCESSED, tmpResult.getOutcome());
+        Assert.assertFalse(tmpResult.isAromaticityFallbackUsed());
+    }
+
+    /**
+     * Tests that the BoundedCycleFinder returns the cycles of the fallback cycle finder without invoking the primary
+     * cycle finder for ring systems above its work budget, e.g. fullerene with a circuit rank of 31, and that molecules
+     * within the budget are passed to the primary cycle finder.
+     *
+     * @throws Exception if a SMILES code cannot be parsed or the cycles cannot be found
+     */
+    @Test
+    public void testBoundedCycleFinderWorkBudget() throws Exception {
+        //fails the test if the cycles are enumerated
+        CycleFinder tmpFailingCycleFinder = new CycleFinder() {
+            @Override
+            public Cycles find(IAtomContainer aMolecule) {
+                return this.find(aMolecule, aMolecule.getAtomCount());
+            }
+
+            @Override
+            public Cycles find(IAtomContainer aMolecule, int aLength) {
+                return this.find(aMolecule, GraphUtil.toAdjList(aMolecule), aLength);
+            }
+
+            @Override
+            public Cycles find(IAtomContainer aMolecule, int[][] aGraph, int aLength) {
+                throw new AssertionError("Primary cycle finder invoked.");
+            }
+        };
+        SmilesParser tmpSmilesParser = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+        String tmpFullereneSmiles = "c12c3c4c5c1c1c6c7c2c2c8c3c3c9c4c4c%10c5c5c1c1c6c6c%11c7c2c2c7c8c3c3c8c9c4c4c9c%10"
+                + "c5c5c1c1c6c6c%11c2c2c7c3c3c8c4c4c9c5c1c1c6c2c3c41";
+        IAtomContainer tmpFullerene = tmpSmilesParser.parseSmiles(tmpFullereneSmiles);
+        BoundedCycleFinder tmpCycleFinder = new BoundedCycleFinder(tmpFailingCycleFinder, Cycles.vertexShort());
+        Assert.assertEquals(BoundedCycleFinder.DEFAULT_MAX_CIRCUIT_RANK, tmpCycleFinder.getMaxCircuitRank());
+        Cycles tmpCycles = tmpCycleFinder.find(tmpFullerene);
+        Assert.assertEquals(Cycles.vertexShort().find(tmpFullerene).numberOfCycles(), tmpCycles.numberOfCycles());
+        Assert.assertTrue(ErtlFunctionalGroupsFinderUtility.isAromaticityFallbackUsed(tmpFullerene));
+        //pyrene has a circuit rank of 4
+        IAtomContainer tmpPyrene = tmpSmilesParser.parseSmiles("c1cc2ccc3cccc4ccc(c1)c2c34");
+        Assert.assertEquals(4, new BoundedCycleFinder(tmpFailingCycleFinder, Cycles.vertexShort(), 3)
+                .find(tmpPyrene).numberOfCycles());
+        Assert.assertTrue(ErtlFunctionalGroupsFinderUtility.isAromaticityFallbackUsed(tmpPyrene));
+        IAtomContainer tmpPyreneCopy = tmpSmilesParser.parseSmiles("c1cc2ccc3cccc4ccc(c1)c2c34");
+        Assert.assertEquals(Cycles.all().find(tmpPyreneCopy).numberOfCycles(),
+                new BoundedCycleFinder(Cycles.all(), Cycles.vertexShort(), 4).find(tmpPyreneCopy).numberOfCycles());
+        Assert.assertFalse(ErtlFunctionalGroupsFinderUtility.isAromaticityFallbackUsed(tmpPyreneCopy));
+        try {
+            new BoundedCycleFinder(Cycles.all(), Cycles.vertexShort(), -1);
+            Assert.fail("IllegalArgumentException expected.");
+        } catch (IllegalArgumentException anException) {
+            //expected
+        }
+    }
+
+    /**
+     * Tests that the ring system aromaticity cache gives the same aromaticity flags as the aromaticity model alone on
+     * the ChEBI subset, both when the ring systems are perceived and when they are taken from the cache, that the same
+     * Kekule structure of a ring system in different atom orders shares one cache entry, and that assignments perceived with the fallback cycle
+     * finder of a BoundedCycleFinder are not cached.
+     *
+     * @throws Exception if a molecule cannot be read or processed
+     */
+    @Test
+    public void testRingSystemAromaticityCache() throws Exception {
+        ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+        Aromaticity tmpAromaticityModel = tmpContext.getDaylightAromaticityModel();
+        RingSystemAromaticityCache tmpCache = new RingSystemAromaticityCache(tmpAromaticityModel);
+        SmilesGenerator tmpGenerator = new SmilesGenerator(SmiFlavor.Unique | SmiFlavor.UseAromaticSymbols);
+        List<IAtomContainer> tmpMolecules = this.readChebiSubset();
+        for (IAtomContainer tmpMolecule : tmpMolecules) {
+            ErtlFunctionalGroupsFinderUtility.perceiveAtomTypesAndConfigureAtoms(tmpMolecule);
+        }
+        //the first pass fills the cache, the second one takes all ring systems from it
+        for (int i = 0; i < 2; i++) {
+            for (IAtomContainer tmpMolecule : tmpMolecules) {
+                IAtomContainer tmpCopy = tmpMolecule.clone();
+                boolean tmpIsAromatic = ErtlFunctionalGroupsFinderUtility.applyAromaticityDetection(tmpMolecule, tmpAromaticityModel);
+                Assert.assertEquals(tmpIsAromatic, ErtlFunctionalGroupsFinderUtility.applyAromaticityDetection(tmpCopy, tmpCache));
+                Assert.assertEquals(tmpGenerator.create(tmpMolecule), tmpGenerator.create(tmpCopy));
+            }
+        }
+        Assert.assertTrue(tmpCache.size() > 0);
+        Assert.assertTrue(tmpCache.getHitRate() > 0.5);
+        long tmpMissCount = tmpCache.getMissCount();
+        tmpCache.clear();
+        Assert.assertEquals(0, tmpCache.size());
+        Assert.assertEquals(0L, tmpCache.getHitCount());
+        Assert.assertTrue(tmpMissCount > 0L);
+        //Kekule structures of the same ring systems
+        SmilesParser tmpSmilesParser = tmpContext.getSmilesParser();
+        String[] tmpSmilesCodes = new String[] {"CC1=CC=CC=C1", "CC1=CC=CC=C1", "C1=CC(C)=CC=C1", "C1=CC2=CC=CC(C)=C2C=C1",
+                "CC1=C2C=CC=CC2=CC=C1", "OC1=CC=CC2=C1C=CC=C2"};
+        int[] tmpExpectedAromaticBondCounts = new int[] {6, 6, 6, 11, 11, 11};
+        for (int i = 0; i < tmpSmilesCodes.length; i++) {
+            IAtomContainer tmpMolecule = tmpSmilesParser.parseSmiles(tmpSmilesCodes[i]);
+            ErtlFunctionalGroupsFinderUtility.perceiveAtomTypesAndConfigureAtoms(tmpMolecule);
+            Assert.assertTrue(ErtlFunctionalGroupsFinderUtility.applyAromaticityDetection(tmpMolecule, tmpCache));
+            int tmpAromaticBondCount = 0;
+            for (IBond tmpBond : tmpMolecule.bonds()) {
+                if (tmpBond.isAromatic()) {
+                    tmpAromaticBondCount++;
+                }
+            }
+            Assert.assertEquals(tmpSmilesCodes[i], tmpExpectedAromaticBondCounts[i], tmpAromaticBondCount);
+        }
+        //toluene and 1-methylnaphthalene in one Kekule structure each, 1-hydroxynaphthalene
+        Assert.assertEquals(3, tmpCache.size());
+        Assert.assertEquals(3L, tmpCache.getHitCount());
+        //pyrrole is aromatic, 2H-pyrrole is not
+        IAtomContainer tmpPyrrole = tmpSmilesParser.parseSmiles("C1=CNC=C1");
+        IAtomContainer tmp2HPyrrole = tmpSmilesParser.parseSmiles("C1C=CC=N1");
+        Assert.assertTrue(ErtlFunctionalGroupsFinderUtility.applyAromaticityDetection(tmpPyrrole, tmpCache));
+        Assert.assertFalse(ErtlFunctionalGroupsFinderUtility.applyAromaticityDetection(tmp2HPyrrole, tmpCache));
+        Assert.assertEquals(5, tmpCache.size());
+        //assignments perceived with the fallback cycle finder are not cached
+        RingSystemAromaticityCache tmpBoundedCache = new RingSystemAromaticityCache(tmpContext.getBoundedDaylightAromaticityModel());
+        String tmpFullereneSmiles = "c12c3c4c5c1c1c6c7c2c2c8c3c3c9c4c4c%10c5c5c1c1c6c6c%11c7c2c2c7c8c3c3c8c9c4c4c9c%10c5c5c1c1c6c6c%11c2c2c7c3c3c8c4c4c9c5c1c1c6c2c3c41";
+        PreprocessingResult tmpResult = ErtlFunctionalGroupsFinderUtility.preprocess(tmpSmilesParser.parseSmiles(tmpFullereneSmiles),
+                tmpBoundedCache, true, PreprocessingProfile.PARSED_SMILES);
+        Assert.assertEquals(PreprocessingResult.Outcome.PREPROCESSED, tmpResult.getOutcome());
+        Assert.assertTrue(tmpResult.isAromaticityFallbackUsed());
+        Assert.assertEquals(0, tmpBoundedCache.size());
+        Assert.assertEquals(1L, tmpBoundedCache.getMissCount());
+    }
+
+    /**
+     * Tests that the SMILES text prefilter only filters records that preprocess() filters with the same outcome, on the
+     * SMILES codes of the ChEBI subset and some crafted SMILES codes, and that it filters all single-component records
+     * that preprocess() filters.
+     *
+     * @throws Exception if a SMILES code cannot be created or parsed
+     */
+    @Test
+    public void testSmilesPrefilter() throws Exception {
+        ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+        SmilesParser tmpSmilesParser = tmpContext.getSmilesParser();
+        Aromaticity tmpAromaticityModel = tmpContext.getDaylightAromaticityModel();
+        List<String> tmpSmilesCodes = new ArrayList<>(600);
+        SmilesGenerator tmpKekuleGenerator = new SmilesGenerator(SmiFlavor.Isomeric);
+        SmilesGenerator tmpAromaticGenerator = new SmilesGenerator(SmiFlavor.Isomeric | SmiFlavor.UseAromaticSymbols);
+        for (IAtomContainer tmpMolecule : this.readChebiSubset()) {
+            tmpSmilesCodes.add(tmpKekuleGenerator.create(tmpMolecule));
+            ErtlFunctionalGroupsFinderUtility.perceiveAtomTypesAndConfigureAtoms(tmpMolecule);
+            tmpAromaticityModel.apply(tmpMolecule);
+            tmpSmilesCodes.add(tmpAromaticGenerator.create(tmpMolecule));
+        }
+        Collections.addAll(tmpSmilesCodes, "", " CCO", "CCO ethanol", "[Na+].[Cl-]", "[Na+].CC(=O)[O-]", "C1.C1",
+                "[2H]O[2H]", "[se]1cccc1", "B(O)(O)O", "[Cn]", "*C", "[Fe]C.C[Fe]", "[Cu+2].[O-]S(=O)(=O)[O-]", "[H+]",
+                "[13CH4]", "C[Hg]C", "c1ccc2[te]ccc2c1", "ClCBr", "[NH4+].[NH4+]");
+        int tmpFilteredCounter = 0;
+        for (boolean tmpAreSingleAtomsFiltered : new boolean[] {true, false}) {
+            for (String tmpSmilesCode : tmpSmilesCodes) {
+                PreprocessingResult.Outcome tmpPrefilterOutcome = ErtlFunctionalGroupsFinderUtility.prefilterSmilesCode(
+                        tmpSmilesCode, tmpAreSingleAtomsFiltered);
+                PreprocessingResult.Outcome tmpOutcome = ErtlFunctionalGroupsFinderUtility.preprocess(
+                        tmpSmilesParser.parseSmiles(tmpSmilesCode), tmpAromaticityModel, tmpAreSingleAtomsFiltered,
+                        PreprocessingProfile.PARSED_SMILES).getOutcome();
+                if (Objects.nonNull(tmpPrefilterOutcome)) {
+                    tmpFilteredCounter++;
+                    Assert.assertEquals(tmpSmilesCode, tmpOutcome, tmpPrefilterOutcome);
+                } else if (!tmpSmilesCode.contains(".")) {
+                    Assert.assertFalse(tmpSmilesCode, tmpOutcome.isFiltered());
+                }
+            }
+        }
+        Assert.assertTrue(tmpFilteredCounter > 0);
+        Assert.assertEquals(PreprocessingResult.Outcome.FILTERED_EMPTY, ErtlFunctionalGroupsFinderUtility.prefilterSmilesCode(" CCO", true));
+        Assert.assertEquals(PreprocessingResult.Outcome.FILTERED_NO_BONDS, ErtlFunctionalGroupsFinderUtility.prefilterSmilesCode("[Na+].[Cl-]", true));
+        Assert.assertEquals(PreprocessingResult.Outcome.FILTERED_INVALID_ELEMENT, ErtlFunctionalGroupsFinderUtility.prefilterSmilesCode("[Na+].[K+]", false));
+        Assert.assertEquals(PreprocessingResult.Outcome.FILTERED_INVALID_ELEMENT, ErtlFunctionalGroupsFinderUtility.prefilterSmilesCode("B(O)(O)O", true));
+        //the biggest component is free of invalid atoms
+        Assert.assertNull(ErtlFunctionalGroupsFinderUtility.prefilterSmilesCode("[Na+].CC(=O)[O-]", true));
+        //the ring closure bond connects the two components
+        Assert.assertNull(ErtlFunctionalGroupsFinderUtility.prefilterSmilesCode("C1.C1", true));
+        Assert.assertNull(ErtlFunctionalGroupsFinderUtility.prefilterSmilesCode("[se]1cccc1", true));
+        //the syntax is not validated, so the unclosed ring does not prevent filtering
+        Assert.assertEquals(PreprocessingResult.Outcome.FILTERED_INVALID_ELEMENT,
+                ErtlFunctionalGroupsFinderUtility.prefilterSmilesCode("C1CC[Fe]", true));
+    }
+
+    /**
+     * Tests that the neutralization of all charged atoms of a molecule at once yields the same structures and atom
+     * types as the neutralization of one charged atom after the other, on the charged molecules of the ChEBI subset and
+     * some zwitterions and salts.
+     *
+     * @throws Exception if a molecule cannot be read or neutralized
+     */
+    @Test
+    public void testBatchChargeNeutralization() throws Exception {
+        SmilesParser tmpSmilesParser = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+        SmilesGenerator tmpGenerator = new SmilesGenerator(SmiFlavor.Isomeric);
+        List<IAtomContainer> tmpMolecules = this.readChebiSubset();
+        String[] tmpSmilesArray = {"C[N+](=O)[O-]", "OS(=O)(=O)[O-].[Na+]", "C[N+](C)(C)CC([O-])=O",
+                "OP(=O)([O-])OP(=O)([O-])[O-]", "[NH3+]CC([O-])=O", "[O-][n+]1ccccc1", "CN=[N+]=[N-]"};
+        for (String tmpSmilesCode : tmpSmilesArray) {
+            tmpMolecules.add(tmpSmilesParser.parseSmiles(tmpSmilesCode));
+        }
+        int tmpChargedCounter = 0;
+        for (IAtomContainer tmpMolecule : tmpMolecules) {
+            ErtlFunctionalGroupsFinderUtility.perceiveAtomTypesAndConfigureAtoms(tmpMolecule);
+            if (!ErtlFunctionalGroupsFinderUtility.isMoleculeCharged(tmpMolecule)) {
+                continue;
+            }
+            tmpChargedCounter++;
+            IAtomContainer tmpSequentiallyNeutralizedMolecule = tmpMolecule.clone();
+            for (IAtom tmpAtom : tmpSequentiallyNeutralizedMolecule.atoms()) {
+                ErtlFunctionalGroupsFinderUtility.neutralizeCharges(tmpAtom, tmpSequentiallyNeutralizedMolecule);
+            }
+            ErtlFunctionalGroupsFinderUtility.neutralizeCharges(tmpMolecule);
+            Assert.assertFalse(ErtlFunctionalGroupsFinderUtility.isMoleculeCharged(tmpMolecule));
+            Assert.assertEquals(tmpGenerator.create(tmpSequentiallyNeutralizedMolecule), tmpGenerator.create(tmpMolecule));
+            for (int i = 0; i < tmpMolecule.getAtomCount(); i++) {
+                Assert.assertEquals(tmpSequentiallyNeutralizedMolecule.getAtom(i).getAtomTypeName(), tmpMolecule.getAtom(i).getAtomTypeName());
+            }
+        }
+        Assert.assertTrue(tmpChargedCounter > tmpSmilesArray.length);
+    }
+
     /**
      * Tests the restoration of environmental carbon atom objects on one example molecule. Nothing is asserted here, it
      * is meant for visual inspection.
@@ -219,6 +1112,58 @@ public class ErtlFunctionalGroupsFinderUtilityTest {
         }
     }
 
+    /**
+     * Tests that the index-based restoration of environmental carbon atoms gives the same groups, i.e. the same atoms and
+     * bonds of the molecule in the same order, as the original restoration algorithm on the ChEBI subset, for the generalizing
+     * and the not generalizing mode and with and without conversion of explicit hydrogens and filling of valences.
+     *
+     * @throws Exception if a molecule cannot be read or processed
+     */
+    @Test
+    public void testRestorationOfEnvironmentalCarbonsOnChebiSubset() throws Exception {
+        ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+        SmilesGenerator tmpGenerator = new SmilesGenerator(SmiFlavor.Unique);
+        int tmpRestoredGroupCounter = 0;
+        for (IAtomContainer tmpMolecule : this.readChebiSubset()) {
+            tmpMolecule = ErtlFunctionalGroupsFinderUtility.applyFiltersAndPreprocessing(tmpMolecule, tmpContext.getDaylightAromaticityModel());
+            if (Objects.isNull(tmpMolecule)) {
+                continue;
+            }
+            for (ErtlFunctionalGroupsFinder tmpFinder : new ErtlFunctionalGroupsFinder[] {tmpContext.getGeneralizingFinder(),
+                    tmpContext.getNotGeneralizingFinder()}) {
+                for (boolean tmpIsProcessingGroups : new boolean[] {false, true}) {
+                    //find() may change the given molecule, so both implementations get their own one
+                    IAtomContainer tmpCopy = tmpMolecule.clone();
+                    IAtomContainer tmpReferenceCopy = tmpMolecule.clone();
+                    List<IAtomContainer> tmpGroups = tmpFinder.find(tmpCopy, false);
+                    List<IAtomContainer> tmpReferenceGroups = tmpFinder.find(tmpReferenceCopy, false);
+                    ErtlFunctionalGroupsFinderUtility.restoreOriginalEnvironmentalCarbons(tmpGroups, tmpCopy,
+                            tmpIsProcessingGroups, tmpIsProcessingGroups, DefaultChemObjectBuilder.getInstance());
+                    ErtlFunctionalGroupsFinderUtilityTest.restoreOriginalEnvironmentalCarbonsReference(tmpReferenceGroups,
+                            tmpReferenceCopy, tmpIsProcessingGroups, tmpIsProcessingGroups, DefaultChemObjectBuilder.getInstance());
+                    Assert.assertEquals(tmpReferenceGroups.size(), tmpGroups.size());
+                    for (int i = 0; i < tmpGroups.size(); i++) {
+                        IAtomContainer tmpGroup = tmpGroups.get(i);
+                        IAtomContainer tmpReferenceGroup = tmpReferenceGroups.get(i);
+                        Assert.assertEquals(tmpReferenceGroup.getAtomCount(), tmpGroup.getAtomCount());
+                        Assert.assertEquals(tmpReferenceGroup.getBondCount(), tmpGroup.getBondCount());
+                        for (int j = 0; j < tmpGroup.getAtomCount(); j++) {
+                            Assert.assertEquals(tmpReferenceCopy.indexOf(tmpReferenceGroup.getAtom(j)), tmpCopy.indexOf(tmpGroup.getAtom(j)));
+                            Assert.assertEquals(tmpReferenceGroup.getAtom(j).getImplicitHydrogenCount(),
+                                    tmpGroup.getAtom(j).getImplicitHydrogenCount());
+                        }
+                        for (int j = 0; j < tmpGroup.getBondCount(); j++) {
+                            Assert.assertEquals(tmpReferenceCopy.indexOf(tmpReferenceGroup.getBond(j)), tmpCopy.indexOf(tmpGroup.getBond(j)));
+                        }
+                        Assert.assertEquals(tmpGenerator.create(tmpReferenceGroup), tmpGenerator.create(tmpGroup));
+                        tmpRestoredGroupCounter++;
+                    }
+                }
+            }
+        }
+        Assert.assertTrue(tmpRestoredGroupCounter > 0);
+    }
+
     /**
      * Imports a charged molecule with a counter-ion from ChEMBL to test the filtering and preprocessing routines
      * of ErtlFunctionalGroupsFinderUtility.
@@ -276,4 +1221,394 @@ public class ErtlFunctionalGroupsFinderUtilityTest {
         Assert.assertTrue(tmpPseudoSmilesList.contains("[N*]"));
         Assert.assertTrue(tmpPseudoSmilesList.size() == 6);
     }
+
+    /**
+     * Tests that findMarkedAtoms() gives the same groups as the original implementation that removes the environment
+     * of the generalized groups again, on the ChEBI subset, and that neither it nor
+     * ErtlFunctionalGroupsFinder.findMarkedAtomGroups() leaves properties on the atoms of the given molecule.
+     *
+     * @throws Exception if a molecule cannot be read or processed
+     */
+    @Test
+    public void testFindMarkedAtomsOnChebiSubset() throws Exception {
+        ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+        SmilesGenerator tmpGenerator = new SmilesGenerator(SmiFlavor.Unique);
+        int tmpGroupCounter = 0;
+        for (IAtomContainer tmpMolecule : this.readChebiSubset()) {
+            tmpMolecule = ErtlFunctionalGroupsFinderUtility.applyFiltersAndPreprocessing(tmpMolecule, tmpContext.getDaylightAromaticityModel());
+            if (Objects.isNull(tmpMolecule)) {
+                continue;
+            }
+            //the marked atom groups are found without changing the molecule
+            String tmpSmilesCode = tmpGenerator.create(tmpMolecule);
+            List<Map<Object, Object>> tmpAtomProperties = new ArrayList<>(tmpMolecule.getAtomCount());
+            for (IAtom tmpAtom : tmpMolecule.atoms()) {
+                tmpAtomProperties.add(new HashMap<>(tmpAtom.getProperties()));
+            }
+            List<int[]> tmpMarkedAtomGroups = tmpContext.getGeneralizingFinder().findMarkedAtomGroups(tmpMolecule);
+            Assert.assertEquals(tmpSmilesCode, tmpGenerator.create(tmpMolecule));
+            for (int i = 0; i < tmpMolecule.getAtomCount(); i++) {
+                Assert.assertEquals(tmpAtomProperties.get(i), tmpMolecule.getAtom(i).getProperties());
+            }
+            IAtomContainer tmpCopy = tmpMolecule.clone();
+            IAtomContainer tmpReferenceCopy = tmpMolecule.clone();
+            List<IAtomContainer> tmpGroups = ErtlFunctionalGroupsFinderUtility.findMarkedAtoms(tmpCopy);
+            List<IAtomContainer> tmpReferenceGroups = ErtlFunctionalGroupsFinderUtilityTest.findMarkedAtomsReference(tmpReferenceCopy);
+            for (int i = 0; i < tmpCopy.getAtomCount(); i++) {
+                Assert.assertEquals(tmpAtomProperties.get(i), tmpCopy.getAtom(i).getProperties());
+            }
+            Assert.assertEquals(tmpMarkedAtomGroups.size(), tmpGroups.size());
+            Assert.assertEquals(tmpReferenceGroups.size(), tmpGroups.size());
+            for (int i = 0; i < tmpGroups.size(); i++) {
+                IAtomContainer tmpGroup = tmpGroups.get(i);
+                IAtomContainer tmpReferenceGroup = tmpReferenceGroups.get(i);
+                Assert.assertEquals(tmpMarkedAtomGroups.get(i).length, tmpGroup.getAtomCount());
+                Assert.assertEquals(tmpReferenceGroup.getAtomCount(), tmpGroup.getAtomCount());
+                Assert.assertEquals(tmpReferenceGroup.getBondCount(), tmpGroup.getBondCount());
+                for (int j = 0; j < tmpGroup.getAtomCount(); j++) {
+                    Assert.assertEquals(tmpMarkedAtomGroups.get(i)[j], tmpCopy.indexOf(tmpGroup.getAtom(j)));
+                    Assert.assertEquals(tmpReferenceCopy.indexOf(tmpReferenceGroup.getAtom(j)), tmpCopy.indexOf(tmpGroup.getAtom(j)));
+                }
+                for (int j = 0; j < tmpGroup.getBondCount(); j++) {
+                    Assert.assertEquals(tmpReferenceCopy.indexOf(tmpReferenceGroup.getBond(j)), tmpCopy.indexOf(tmpGroup.getBond(j)));
+                }
+                Assert.assertEquals(ErtlFunctionalGroupsFinderUtility.createPseudoSmilesCode(tmpReferenceGroup),
+                        ErtlFunctionalGroupsFinderUtility.createPseudoSmilesCode(tmpGroup));
+                tmpGroupCounter++;
+            }
+        }
+        Assert.assertTrue(tmpGroupCounter > 0);
+    }
+
+    /**
+     * Tests that copy() retains the structure, hydrogen counts, aromaticity flags, stereo elements, electron containers,
+     * and properties of the ChEBI subset molecules and some crafted molecules, and that original and copy do not share
+     * atoms or bonds.
+     *
+     * @throws Exception if a molecule cannot be read or copied
+     */
+    @Test
+    public void testCopy() throws Exception {
+        ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+        SmilesGenerator tmpGenerator = new SmilesGenerator(SmiFlavor.Isomeric | SmiFlavor.UseAromaticSymbols | SmiFlavor.AtomicMass);
+        List<IAtomContainer> tmpMolecules = this.readChebiSubset();
+        SmilesParser tmpSmilesParser = tmpContext.getSmilesParser();
+        for (String tmpSmilesCode : new String[] {"C[C@H](N)O", "C/C=C/C", "*c1ccccc1 phenyl", "[13CH3]C(=O)[O-].[Na+]",
+                "C[C@@H]1CC[C@H](O)CC1"}) {
+            tmpMolecules.add(tmpSmilesParser.parseSmiles(tmpSmilesCode));
+        }
+        IAtomContainer tmpRadical = tmpSmilesParser.parseSmiles("C[CH2]");
+        tmpRadical.addSingleElectron(1);
+        tmpMolecules.add(tmpRadical);
+        int tmpStereoCounter = 0;
+        for (IAtomContainer tmpMolecule : tmpMolecules) {
+            ErtlFunctionalGroupsFinderUtility.perceiveAtomTypesAndConfigureAtoms(tmpMolecule);
+            ErtlFunctionalGroupsFinderUtility.applyAromaticityDetection(tmpMolecule, tmpContext.getDaylightAromaticityModel());
+            tmpMolecule.getAtom(0).setProperty("atom key", "atom value");
+            tmpMolecule.setProperty("molecule key", 42);
+            IAtomContainer tmpCopy = ErtlFunctionalGroupsFinderUtility.copy(tmpMolecule);
+            Assert.assertNotSame(tmpMolecule, tmpCopy);
+            Assert.assertEquals(tmpGenerator.create(tmpMolecule), tmpGenerator.create(tmpCopy));
+            Assert.assertEquals(tmpMolecule.getAtomCount(), tmpCopy.getAtomCount());
+            Assert.assertEquals(tmpMolecule.getBondCount(), tmpCopy.getBondCount());
+            Assert.assertEquals(tmpMolecule.getProperties(), tmpCopy.getProperties());
+            Assert.assertEquals(tmpMolecule.getTitle(), tmpCopy.getTitle());
+            Assert.assertEquals(tmpMolecule.getFlag(CDKConstants.ISAROMATIC), tmpCopy.getFlag(CDKConstants.ISAROMATIC));
+            Assert.assertEquals(tmpMolecule.getSingleElectronCount(), tmpCopy.getSingleElectronCount());
+            Assert.assertEquals(tmpMolecule.getLonePairCount(), tmpCopy.getLonePairCount());
+            for (int i = 0; i < tmpMolecule.getAtomCount(); i++) {
+                IAtom tmpAtom = tmpMolecule.getAtom(i);
+                IAtom tmpAtomCopy = tmpCopy.getAtom(i);
+                Assert.assertNotSame(tmpAtom, tmpAtomCopy);
+                Assert.assertFalse(tmpMolecule.contains(tmpAtomCopy));
+                Assert.assertEquals(tmpAtom.getClass(), tmpAtomCopy.getClass());
+                Assert.assertEquals(tmpAtom.getAtomicNumber(), tmpAtomCopy.getAtomicNumber());
+                Assert.assertEquals(tmpAtom.getMassNumber(), tmpAtomCopy.getMassNumber());
+                Assert.assertEquals(tmpAtom.getFormalCharge(), tmpAtomCopy.getFormalCharge());
+                Assert.assertEquals(tmpAtom.getImplicitHydrogenCount(), tmpAtomCopy.getImplicitHydrogenCount());
+                Assert.assertEquals(tmpAtom.getAtomTypeName(), tmpAtomCopy.getAtomTypeName());
+                Assert.assertEquals(tmpAtom.isAromatic(), tmpAtomCopy.isAromatic());
+                Assert.assertEquals(tmpAtom.getProperties(), tmpAtomCopy.getProperties());
+            }
+            for (int i = 0; i < tmpMolecule.getBondCount(); i++) {
+                IBond tmpBond = tmpMolecule.getBond(i);
+                IBond tmpBondCopy = tmpCopy.getBond(i);
+                Assert.assertFalse(tmpMolecule.contains(tmpBondCopy));
+                Assert.assertEquals(tmpBond.getOrder(), tmpBondCopy.getOrder());
+                Assert.assertEquals(tmpBond.getStereo(), tmpBondCopy.getStereo());
+                Assert.assertEquals(tmpBond.isAromatic(), tmpBondCopy.isAromatic());
+                Assert.assertEquals(tmpBond.getBegin().getIndex(), tmpBondCopy.getBegin().getIndex());
+                Assert.assertEquals(tmpBond.getEnd().getIndex(), tmpBondCopy.getEnd().getIndex());
+            }
+            for (IStereoElement<?, ?> tmpStereoElement : tmpCopy.stereoElements()) {
+                tmpStereoCounter++;
+                Object tmpFocus = tmpStereoElement.getFocus();
+                if (tmpFocus instanceof IAtom) {
+                    Assert.assertTrue(tmpCopy.contains((IAtom) tmpFocus));
+                    Assert.assertFalse(tmpMolecule.contains((IAtom) tmpFocus));
+                } else {
+                    Assert.assertTrue(tmpCopy.contains((IBond) tmpFocus));
+                    Assert.assertFalse(tmpMolecule.contains((IBond) tmpFocus));
+                }
+            }
+            //changes of the copy do not affect the original
+            String tmpSmilesCode = tmpGenerator.create(tmpMolecule);
+            tmpCopy.getAtom(0).setFormalCharge(1);
+            tmpCopy.removeAtom(tmpCopy.getAtom(tmpCopy.getAtomCount() - 1));
+            Assert.assertEquals(tmpSmilesCode, tmpGenerator.create(tmpMolecule));
+        }
+        Assert.assertTrue(tmpStereoCounter > 0);
+    }
+
+    /**
+     * Applies the original sequence of preprocessing steps of ErtlFunctionalGroupsFinderUtility.applyFiltersAndPreprocessing(),
+     * i.e. atom type perception of the whole molecule first, as reference for the cost-ordered preprocessing.
+     *
+     * @param aMolecule the molecule to process
+     * @param anAromaticityModel the aromaticity model to apply
+     * @return the preprocessed molecule or 'null' if it is filtered or a step fails
+     */
+    private static IAtomContainer applyReferencePreprocessing(IAtomContainer aMolecule, Aromaticity anAromaticityModel) {
+        try {
+            ErtlFunctionalGroupsFinderUtility.perceiveAtomTypesAndConfigureAtoms(aMolecule);
+            if (ErtlFunctionalGroupsFinderUtility.isAtomOrBondCountZero(aMolecule)) {
+                return null;
+            }
+            if (ErtlFunctionalGroupsFinderUtility.isStructureUnconnected(aMolecule)) {
+                aMolecule = ErtlFunctionalGroupsFinderUtility.selectBiggestUnconnectedComponent(aMolecule);
+            }
+            if (ErtlFunctionalGroupsFinderUtility.containsInvalidAtomicNumbers(aMolecule)) {
+                return null;
+            }
+            ErtlFunctionalGroupsFinderUtility.neutralizeCharges(aMolecule);
+            ErtlFunctionalGroupsFinderUtility.applyAromaticityDetection(aMolecule, anAromaticityModel);
+        } catch (Exception anException) {
+            return null;
+        }
+        return aMolecule;
+    }
+
+    /**
+     * Original implementation of ErtlFunctionalGroupsFinderUtility.findMarkedAtoms() that tags the atoms with their
+     * indices, runs the generalizing find() and removes the added R, C, and H atoms again, as reference for the
+     * implementation based on the marked atom groups of the finder.
+     *
+     * @param aMolecule the molecule to extracts functional groups from; it is not cloned
+     * @return the marked atoms of every functional group
+     */
+    private static List<IAtomContainer> findMarkedAtomsReference(IAtomContainer aMolecule) {
+        for (int i = 0; i < aMolecule.getAtomCount(); i++) {
+            aMolecule.getAtom(i).setProperty("EFGFUtility.INDEX", i);
+        }
+        List<IAtomContainer> tmpFunctionalGroups = new ErtlFunctionalGroupsFinder(ErtlFunctionalGroupsFinder.Mode.DEFAULT).find(aMolecule, false);
+        for (IAtomContainer tmpFunctionalGroup : tmpFunctionalGroups) {
+            for (int i = 0; i < tmpFunctionalGroup.getAtomCount(); i++) {
+                IAtom tmpAtom = tmpFunctionalGroup.getAtom(i);
+                if (Objects.isNull(tmpAtom.getProperty("EFGFUtility.INDEX"))) {
+                    tmpFunctionalGroup.removeAtom(tmpAtom);
+                    i = i - 1;
+                }
+            }
+        }
+        return tmpFunctionalGroups;
+    }
+
+    /**
+     * Original implementation of ErtlFunctionalGroupsFinderUtility.restoreOriginalEnvironmentalCarbons() that removes
+     * the inserted atoms one by one, as reference for the index-based implementation.
+     *
+     * @param aListOfFunctionalGroups functional groups of the molecule identified by EFGF
+     * @param aMolecule original structure in which the groups were identified
+     * @param aConvertExplicitHydrogens should explicit hydrogen atoms in the functional groups be converted to implicit
+     *                                  hydrogens
+     * @param aFillEmptyValences should empty valences on the restored environmental carbon atoms be filled with
+     *                           implicit hydrogen atoms
+     * @param aBuilder a chem object builder instance
+     * @throws Exception if the atom types of a group cannot be perceived or hydrogens cannot be added
+     */
+    private static void restoreOriginalEnvironmentalCarbonsReference(
+            List<IAtomContainer> aListOfFunctionalGroups,
+            IAtomContainer aMolecule,
+            boolean aConvertExplicitHydrogens,
+            boolean aFillEmptyValences,
+            IChemObjectBuilder aBuilder) throws Exception {
+        CDKHydrogenAdder tmpHadder = CDKHydrogenAdder.getInstance(aBuilder);
+        for (IAtomContainer tmpFG : aListOfFunctionalGroups) {
+            if (aConvertExplicitHydrogens) {
+                AtomContainerManipulator.suppressHydrogens(tmpFG);
+            }
+            List<IAtom> tmpListofFGatoms = new ArrayList<>();
+            for (IAtom tmpAtom : tmpFG.atoms()) {
+                tmpListofFGatoms.add(tmpAtom);
+            }
+            for (IAtom tmpAtom : tmpListofFGatoms) {
+                if (tmpAtom.getAtomicNumber().equals(1)) {
+                    continue;
+                }
+                if (!aMolecule.contains(tmpAtom)) {
+                    IAtom tmpConnectedAtomInGroup = tmpFG.getConnectedAtomsList(tmpAtom).get(0);
+                    tmpFG.removeBond(tmpAtom, tmpConnectedAtomInGroup);
+                    tmpFG.removeAtom(tmpAtom);
+                    for (IAtom tmpConnectedAtomInOriginalStructure : aMolecule.getConnectedAtomsList(tmpConnectedAtomInGroup)) {
+                        if (tmpConnectedAtomInOriginalStructure.getSymbol().equals("C")
+                                && !tmpFG.contains(tmpConnectedAtomInOriginalStructure)) {
+                            tmpFG.addAtom(tmpConnectedAtomInOriginalStructure);
+                            tmpFG.addBond(aMolecule.getBond(tmpConnectedAtomInGroup, tmpConnectedAtomInOriginalStructure));
+                        }
+                    }
+                }
+            }
+            if (aFillEmptyValences) {
+                try {
+                    AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(tmpFG);
+                    tmpHadder.addImplicitHydrogens(tmpFG);
+                } catch (CDKException aCDKException) {
+                    continue;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads all molecules from the ChEBI subset SD file in the test resources.
+     *
+     * @return list of the molecules in the SD file
+     * @throws Exception if the file cannot be found or read
+     */
+    private List<IAtomContainer> readChebiSubset() throws Exception {
+        List<IAtomContainer> tmpMolecules = new ArrayList<>(2000);
+        InputStream tmpInputStream = this.getClass().getClassLoader().getResourceAsStream(ErtlFunctionalGroupsFinderUtilityTest.SD_FILE_PATH);
+        Assert.assertNotNull(tmpInputStream);
+        try (IteratingSDFReader tmpReader = new IteratingSDFReader(tmpInputStream, DefaultChemObjectBuilder.getInstance(), true)) {
+            while (tmpReader.hasNext()) {
+                tmpMolecules.add(tmpReader.next());
+            }
+        }
+        return tmpMolecules;
+    }
+
+    /**
+     * Preprocesses the molecules of the ChEBI subset and detects their functional groups using the helpers of the
+     * context of the current thread.
+     *
+     * @return the sorted hash keys of the canonical forms of the functional groups for every molecule; empty lists for
+     * molecules that were filtered
+     * @throws Exception if a molecule cannot be read or processed
+     */
+    private List<List<Long>> detectFunctionalGroupKeysOnChebiSubset() throws Exception {
+        ErtlFunctionalGroupsFinderContext tmpContext = ErtlFunctionalGroupsFinderContext.get();
+        List<List<Long>> tmpKeys = new ArrayList<>(2000);
+        for (IAtomContainer tmpMolecule : this.readChebiSubset()) {
+            tmpMolecule = ErtlFunctionalGroupsFinderUtility.applyFiltersAndPreprocessing(tmpMolecule, tmpContext.getDaylightAromaticityModel());
+            List<Long> tmpMoleculeKeys = new ArrayList<>(10);
+            if (Objects.nonNull(tmpMolecule)) {
+                for (IAtomContainer tmpFunctionalGroup : tmpContext.getGeneralizingFinder().find(tmpMolecule, false)) {
+                    tmpMoleculeKeys.add(ErtlFunctionalGroupsFinderUtility.createCanonicalForm(tmpFunctionalGroup).getHashKey());
+                }
+                Collections.sort(tmpMoleculeKeys);
+            }
+            tmpKeys.add(tmpMoleculeKeys);
+        }
+        return tmpKeys;
+    }
+
+    /**
+     * Former implementation of ErtlFunctionalGroupsFinderUtility.getLegacyPseudoSmilesCode() that substitutes the atoms
+     * of the given molecule, used as reference for the golden test of the legacy pseudo SMILES generation. The given
+     * molecule is altered and not restored.
+     *
+     * @param aMolecule the molecule whose legacy pseudo SMILES code to generate
+     * @return the legacy pseudo SMILES representation as a string
+     * @throws Exception if the SMILES code of aMolecule cannot be generated
+     */
+    private static String createReferenceLegacyPseudoSmilesCode(IAtomContainer aMolecule) throws Exception {
+        HashMap<String, String> tmpAromaticElementToPlaceholderElementMap = new HashMap<>(10, 1);
+        tmpAromaticElementToPlaceholderElementMap.put("C", "Ce");
+        tmpAromaticElementToPlaceholderElementMap.put("N", "Nd");
+        tmpAromaticElementToPlaceholderElementMap.put("S", "Sm");
+        tmpAromaticElementToPlaceholderElementMap.put("O", "Os");
+        tmpAromaticElementToPlaceholderElementMap.put("Se", "Sc");
+        tmpAromaticElementToPlaceholderElementMap.put("P", "Pm");
+        tmpAromaticElementToPlaceholderElementMap.put("R", "Es");
+        HashMap<String, String> tmpPlaceholderElementToPseudoSmilesSymbolMap = new HashMap<>(10, 1);
+        tmpPlaceholderElementToPseudoSmilesSymbolMap.put("Es", "R");
+        tmpPlaceholderElementToPseudoSmilesSymbolMap.put("Pm", "P*");
+        tmpPlaceholderElementToPseudoSmilesSymbolMap.put("Sc", "Se*");
+        tmpPlaceholderElementToPseudoSmilesSymbolMap.put("Os", "O*");
+        tmpPlaceholderElementToPseudoSmilesSymbolMap.put("Sm", "S*");
+        tmpPlaceholderElementToPseudoSmilesSymbolMap.put("Nd", "N*");
+        tmpPlaceholderElementToPseudoSmilesSymbolMap.put("Ce", "C*");
+        List<IAtom> tmpAtoms = new ArrayList<>(aMolecule.getAtomCount());
+        aMolecule.atoms().forEach(tmpAtoms::add);
+        for (IAtom tmpAtom : tmpAtoms) {
+            boolean tmpIsPseudoAtom = (tmpAtom instanceof IPseudoAtom && "R".equals(((IPseudoAtom)tmpAtom).getLabel()));
+            String tmpKey = tmpIsPseudoAtom ? "R" : (tmpAtom.isAromatic() ? tmpAtom.getSymbol() : null);
+            if (!Objects.isNull(tmpKey) && tmpAromaticElementToPlaceholderElementMap.containsKey(tmpKey)) {
+                IAtom tmpReplacementAtom = new Atom(tmpAromaticElementToPlaceholderElementMap.get(tmpKey));
+                Integer tmpImplicitHydrogenCount = tmpAtom.getImplicitHydrogenCount();
+                AtomContainerManipulator.replaceAtomByAtom(aMolecule, tmpAtom, tmpReplacementAtom);
+                tmpReplacementAtom.setImplicitHydrogenCount(tmpImplicitHydrogenCount == null ? 0 : tmpImplicitHydrogenCount);
+            }
+        }
+        String tmpPseudoSmilesCode = new SmilesGenerator(SmiFlavor.Unique).create(aMolecule);
+        for (String tmpPlaceholderElementSymbol : tmpPlaceholderElementToPseudoSmilesSymbolMap.keySet()) {
+            tmpPseudoSmilesCode = tmpPseudoSmilesCode.replaceAll("(\\[" + tmpPlaceholderElementSymbol + "\\])",
+                    tmpPlaceholderElementToPseudoSmilesSymbolMap.get(tmpPlaceholderElementSymbol))
+                    .replaceAll("(" + tmpPlaceholderElementSymbol + ")",
+                            tmpPlaceholderElementToPseudoSmilesSymbolMap.get(tmpPlaceholderElementSymbol));
+        }
+        return tmpPseudoSmilesCode;
+    }
+
+    /**
+     * Former implementation of ErtlFunctionalGroupsFinderUtility.createPseudoSmilesCode(), used as reference for the
+     * golden test of the pseudo SMILES generation.
+     *
+     * @param aMolecule the molecule whose pseudo SMILES code to generate
+     * @return the pseudo SMILES representation as a string
+     * @throws Exception if the SMILES code of aMolecule cannot be generated
+     */
+    private static String createReferencePseudoSmilesCode(IAtomContainer aMolecule) throws Exception {
+        SmilesGenerator tmpSmilesGenerator = new SmilesGenerator(SmiFlavor.Unique | SmiFlavor.UseAromaticSymbols);
+        String tmpPseudoSmilesCode = tmpSmilesGenerator.create(aMolecule);
+        tmpPseudoSmilesCode = tmpPseudoSmilesCode.replaceAll("\\*", "R");
+        tmpPseudoSmilesCode = tmpPseudoSmilesCode.replaceAll("\\[se", "[Se*");
+        StringBuilder tmpStringBuilder = new StringBuilder(tmpPseudoSmilesCode);
+        int tmpLength = tmpStringBuilder.length();
+        for (int tmpIndex = 0; tmpIndex < tmpLength; tmpIndex++) {
+            char tmpChar = tmpStringBuilder.charAt(tmpIndex);
+            char tmpPrevChar = tmpIndex > 0 ? tmpStringBuilder.charAt(tmpIndex - 1) : '_';
+            char tmpPrevPrevChar = tmpIndex > 1 ? tmpStringBuilder.charAt(tmpIndex - 2) : '_';
+            boolean tmpIsReplaced;
+            switch (tmpChar) {
+                case 'c':
+                    tmpIsReplaced = !((tmpPrevChar == 'S' || tmpPrevChar == 'T' || tmpPrevChar == 'A') && tmpPrevPrevChar == '[');
+                    break;
+                case 'n':
+                    tmpIsReplaced = !((tmpPrevChar == 'M' || tmpPrevChar == 'Z' || tmpPrevChar == 'C' || tmpPrevChar == 'I'
+                            || tmpPrevChar == 'S' || tmpPrevChar == 'R') && tmpPrevPrevChar == '[');
+                    break;
+                case 's':
+                    tmpIsReplaced = !(((tmpPrevChar == 'C' || tmpPrevChar == 'O' || tmpPrevChar == 'A' || tmpPrevChar == 'E'
+                            || tmpPrevChar == 'H') && tmpPrevPrevChar == '[') || (tmpPrevChar == 'u' && tmpPrevPrevChar == 'U'));
+                    break;
+                case 'o':
+                    tmpIsReplaced = !(((tmpPrevChar == 'M' || tmpPrevChar == 'C' || tmpPrevChar == 'P' || tmpPrevChar == 'H'
+                            || tmpPrevChar == 'N') && tmpPrevPrevChar == '[') || (tmpPrevChar == 'u' && tmpPrevPrevChar == 'U'));
+                    break;
+                case 'p':
+                    tmpIsReplaced = !((tmpPrevChar == 'N' && tmpPrevPrevChar == '[') || (tmpPrevChar == 'u' && tmpPrevPrevChar == 'U'));
+                    break;
+                default:
+                    tmpIsReplaced = false;
+                    break;
+            }
+            if (tmpIsReplaced) {
+                tmpStringBuilder.setCharAt(tmpIndex, Character.toUpperCase(tmpChar));
+                tmpStringBuilder.insert(tmpIndex + 1, '*');
+            }
+            tmpLength = tmpStringBuilder.length();
+        }
+        return tmpStringBuilder.toString();
+    }
 }